@@ -0,0 +1,102 @@
+package org.jpc;
+import java.util.*;
+class Exceptions {
+public static Map<String,String> classes;
+static {
+classes = new HashMap<String,String>();
+classes.put("java.lang.RuntimeException", "Other runtime exception");
+classes.put("java.lang.reflect.MalformedParameterizedTypeException", "Malformed parametrized type");
+classes.put("org.w3c.dom.events.EventException", "DOM Event exception");
+classes.put("java.lang.NullPointerException", "Attempted to access null pointer");
+classes.put("java.util.concurrent.RejectedExecutionException", "Task can't be executed");
+classes.put("java.security.ProviderException", "Error in security provoder");
+classes.put("java.lang.ClassCastException", "Object not castable to type");
+classes.put("javax.print.attribute.UnmodifiableSetException", "Read only set");
+classes.put("java.lang.IndexOutOfBoundsException", "Index out of bounds");
+classes.put("javax.xml.crypto.NoSuchMechanismException", "XML mechanizm not available");
+classes.put("java.lang.ArithmeticException", "Arithmetic error");
+classes.put("java.lang.UnsupportedOperationException", "Operation unsupported");
+classes.put("java.awt.HeadlessException", "No graphical display available");
+classes.put("java.nio.BufferUnderflowException", "Buffer underrun");
+classes.put("java.awt.color.ProfileDataException", "ICC_Profile object access error");
+classes.put("org.w3c.dom.DOMException", "DOM operation is not possible");
+classes.put("java.lang.StringIndexOutOfBoundsException", "String index out of bounds");
+classes.put("javax.lang.model.UnknownEntityException", "javax.lang.model.UnknownEntityException");
+classes.put("java.lang.IllegalArgumentException", "Illegal arguement");
+classes.put("java.nio.channels.UnsupportedAddressTypeException", "Unsupported address type");
+classes.put("java.lang.NumberFormatException", "Invalid number");
+classes.put("java.util.IllegalFormatException", "Invalid format string");
+classes.put("java.util.MissingFormatWidthException", "Width required in format string");
+classes.put("java.util.regex.PatternSyntaxException", "Regex syntax error");
+classes.put("java.util.IllegalFormatFlagsException", "Invalid combination of format flags");
+classes.put("java.util.UnknownFormatConversionException", "Unknown conversion in format string");
+classes.put("javax.management.openmbean.InvalidKeyException", "Item key not valid");
+classes.put("java.util.MissingFormatArgumentException", "Format refers to nonexistent arguement");
+classes.put("java.lang.NegativeArraySizeException", "Negative array size invalid");
+classes.put("java.lang.ArrayIndexOutOfBoundsException", "Array index out of bounds");
+classes.put("java.lang.reflect.UndeclaredThrowableException", "Undeclared throwable thrown");
+classes.put("java.lang.annotation.IncompleteAnnotationException", "Incomplete annotation");
+classes.put("java.lang.SecurityException", "JVM security policy violation");
+classes.put("javax.management.openmbean.KeyAlreadyExistsException", "Item key already exists");
+classes.put("java.nio.BufferOverflowException", "Buffer overrun");
+classes.put("java.lang.IllegalStateException", "Object in invalid state for operation");
+classes.put("java.awt.dnd.InvalidDnDOperationException", "DnD in invalid state for operation");
+classes.put("java.nio.channels.AlreadyConnectedException", "Attempted to connect already connected socket");
+classes.put("java.util.concurrent.CancellationException", "Task canceled");
+classes.put("java.awt.IllegalComponentStateException", "Component in invalid state for operation");
+classes.put("java.nio.channels.OverlappingFileLockException", "File region already locked");
+classes.put("java.util.ConcurrentModificationException", "Cocurrent modification not allowed");
+classes.put("java.util.UnknownFormatFlagsException", "Unknown flag in format string");
+classes.put("java.lang.IllegalThreadStateException", "Thread not in valid state for operation");
+classes.put("java.util.IllegalFormatCodePointException", "Invalid codepoint in format string");
+classes.put("java.nio.channels.ConnectionPendingException", "Connect already in progress");
+classes.put("javax.lang.model.element.UnknownElementException", "Unknown element encountered");
+classes.put("java.awt.color.CMMException", "Native CMM error");
+classes.put("java.security.InvalidParameterException", "Invalid parameter for operation");
+classes.put("java.util.IllegalFormatPrecisionException", "Invalid precision in format string");
+classes.put("java.util.EmptyStackException", "Trying to pop empty stack");
+classes.put("java.lang.Error", "JVM Error");
+classes.put("java.nio.channels.NonReadableChannelException", "Channel not open for reading");
+classes.put("javax.management.JMRuntimeException", "JMX runtime exception");
+classes.put("javax.management.monitor.MonitorSettingException", "Monitor setting has become invalid");
+classes.put("javax.management.RuntimeErrorException", "JVM error caught");
+classes.put("javax.management.RuntimeOperationsException", "MBean operations runtime error");
+classes.put("javax.management.RuntimeMBeanException", "MBean agent method runtime error");
+classes.put("java.nio.InvalidMarkException", "No mark defined for buffer");
+classes.put("java.nio.channels.NonWritableChannelException", "Channel not open for writing");
+classes.put("java.nio.channels.IllegalSelectorException", "Invalid selector for channel");
+classes.put("java.security.AccessControlException", "Access denied by JVM policy");
+classes.put("javax.swing.undo.CannotUndoException", "Can not undo edit");
+classes.put("java.nio.channels.CancelledKeyException", "Selection key no longer valid");
+classes.put("java.util.IllegalFormatWidthException", "Invalid width in format string");
+classes.put("java.awt.image.ImagingOpException", "ImageOp/RasterOp can't process image");
+classes.put("java.nio.channels.ClosedSelectorException", "Attempt to use closed selector");
+classes.put("java.util.IllegalFormatConversionException", "Invalid conversion for type");
+classes.put("java.nio.channels.NoConnectionPendingException", "No connection in progress");
+classes.put("java.nio.channels.IllegalBlockingModeException", "Invalid blocking mode for channel");
+classes.put("java.awt.image.RasterFormatException", "Raster format layout invalid");
+classes.put("javax.management.openmbean.InvalidOpenTypeException", "Unexpected type of item");
+classes.put("java.util.DuplicateFormatFlagsException", "Duplicate format flags");
+classes.put("java.nio.charset.IllegalCharsetNameException", "Invalid character set name");
+classes.put("java.lang.IllegalMonitorStateException", "Operation requires owning monitor");
+classes.put("javax.swing.undo.CannotRedoException", "Can not redo edit");
+classes.put("java.nio.channels.NotYetConnectedException", "Socket not yet connected");
+classes.put("java.nio.charset.UnsupportedCharsetException", "Unsupported character set");
+classes.put("java.util.FormatFlagsConversionMismatchException", "Invalid flag for conversion");
+classes.put("java.util.FormatterClosedException", "Formatter already closed");
+classes.put("java.util.NoSuchElementException", "No more elements in enumeration");
+classes.put("java.util.InputMismatchException", "Invalid scanner token");
+classes.put("org.w3c.dom.ls.LSException", "Write with DOM processing stopped");
+classes.put("java.lang.ArrayStoreException", "Attempt to store object of wrong type to array");
+classes.put("java.lang.EnumConstantNotPresentException", "No such enumerated constant");
+classes.put("java.awt.geom.IllegalPathStateException", "Invalid path for operation");
+classes.put("java.nio.channels.NotYetBoundException", "Socket not yet bound");
+classes.put("java.lang.annotation.AnnotationTypeMismatchException", "Annotation type has changed");
+classes.put("java.nio.channels.UnresolvedAddressException", "Unresolved network address");
+classes.put("java.lang.TypeNotPresentException", "Type not found");
+classes.put("java.nio.ReadOnlyBufferException", "Read only buffer");
+classes.put("java.util.MissingResourceException", "Resource missing");
+classes.put("javax.lang.model.type.UnknownTypeException", "Unknown element type encountered");
+classes.put("javax.lang.model.type.MirroredTypesException", "Attempted to access sequece of typemirror objects");
+classes.put("javax.lang.model.type.MirroredTypeException", "Attempted to access typemirror object");
+}}
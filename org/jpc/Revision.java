@@ -0,0 +1,8 @@
+package org.jpc;
+public class Revision {
+public static String getRevision() {
+return "0e26c28 by agent on 2026-10-17 15:53:56 +0000";
+}
+public static String getRelease() {
+return "11.8-rc2";
+}}
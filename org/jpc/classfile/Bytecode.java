@@ -0,0 +1,226 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.classfile;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Buffer for the body of single method.
+ * <p>
+ * Stack depth is not tracked; the caller declares upper bound for it.
+ * @author H. Ilari Liusvaara
+ */
+public class Bytecode
+{
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int ALOAD = 0x19;
+    public static final int ISTORE = 0x36;
+    public static final int ASTORE = 0x3A;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int SWAP = 0x5F;
+    public static final int IADD = 0x60;
+    public static final int ISUB = 0x64;
+    public static final int INEG = 0x74;
+    public static final int ISHL = 0x78;
+    public static final int ISHR = 0x7A;
+    public static final int IUSHR = 0x7C;
+    public static final int IAND = 0x7E;
+    public static final int IOR = 0x80;
+    public static final int IXOR = 0x82;
+    public static final int IINC = 0x84;
+    public static final int I2B = 0x91;
+    public static final int I2S = 0x93;
+    public static final int IRETURN = 0xAC;
+    public static final int RETURN = 0xB1;
+    public static final int GETFIELD = 0xB4;
+    public static final int PUTFIELD = 0xB5;
+    public static final int INVOKEVIRTUAL = 0xB6;
+    public static final int INVOKESPECIAL = 0xB7;
+    public static final int ATHROW = 0xBF;
+
+    private final ClassFile owner;
+    private byte[] code;
+    private int length;
+    private int maxStack;
+    private int maxLocals;
+    private List<int[]> handlers;
+
+    public Bytecode(ClassFile owner, int maxStack, int maxLocals)
+    {
+        this.owner = owner;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+        code = new byte[256];
+        handlers = new ArrayList<int[]>();
+    }
+
+    /**
+     * Get current offset in method code.
+     * @return offset of next instruction to be emitted.
+     */
+    public int position()
+    {
+        return length;
+    }
+
+    private void u1(int value)
+    {
+        if(length == code.length) {
+            byte[] newCode = new byte[2 * code.length];
+            System.arraycopy(code, 0, newCode, 0, length);
+            code = newCode;
+        }
+        code[length++] = (byte)value;
+    }
+
+    private void u2(int value)
+    {
+        u1(value >>> 8);
+        u1(value);
+    }
+
+    public void op(int opcode)
+    {
+        u1(opcode);
+    }
+
+    private void local(int opcode, int shortBase, int index)
+    {
+        if(index < 4)
+            u1(shortBase + index);
+        else {
+            u1(opcode);
+            u1(index);
+        }
+    }
+
+    public void iload(int index)
+    {
+        local(ILOAD, 0x1A, index);
+    }
+
+    public void istore(int index)
+    {
+        local(ISTORE, 0x3B, index);
+    }
+
+    public void aload(int index)
+    {
+        local(ALOAD, 0x2A, index);
+    }
+
+    public void astore(int index)
+    {
+        local(ASTORE, 0x4B, index);
+    }
+
+    public void iinc(int index, int delta)
+    {
+        u1(IINC);
+        u1(index);
+        u1(delta);
+    }
+
+    /**
+     * Push integer constant using the shortest form available.
+     * @param value value to push.
+     */
+    public void pushInt(int value)
+    {
+        if(value >= -1 && value <= 5)
+            u1(ICONST_0 + value);
+        else if(value >= -128 && value <= 127) {
+            u1(BIPUSH);
+            u1(value);
+        } else if(value >= -32768 && value <= 32767) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            u1(LDC_W);
+            u2(owner.integer(value));
+        }
+    }
+
+    public void pushString(String value)
+    {
+        u1(LDC_W);
+        u2(owner.stringRef(value));
+    }
+
+    public void field(int opcode, String ownerClass, String name, String descriptor)
+    {
+        u1(opcode);
+        u2(owner.fieldRef(ownerClass, name, descriptor));
+    }
+
+    public void invoke(int opcode, String ownerClass, String name, String descriptor)
+    {
+        u1(opcode);
+        u2(owner.methodRef(ownerClass, name, descriptor));
+    }
+
+    /**
+     * Add exception table entry.
+     * @param start first offset covered (inclusive).
+     * @param end last offset covered (exclusive).
+     * @param handler offset of handler.
+     * @param catchType constant pool index of caught class, 0 for any.
+     */
+    public void addHandler(int start, int end, int handler, int catchType)
+    {
+        handlers.add(new int[]{start, end, handler, catchType});
+    }
+
+    void write(DataOutputStream out) throws IOException
+    {
+        if(length > 65535)
+            throw new IllegalStateException("Method too large");
+        out.writeInt(12 + length + 8 * handlers.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(handlers.size());
+        for(int[] h : handlers) {
+            out.writeShort(h[0]);
+            out.writeShort(h[1]);
+            out.writeShort(h[2]);
+            out.writeShort(h[3]);
+        }
+        out.writeShort(0);   //No attributes.
+    }
+}
@@ -0,0 +1,266 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.classfile;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Minimal writer for JVM class files.
+ * <p>
+ * Only the subset needed by the code block compilers is supported: constant
+ * pool entries for classes, members, integers and strings, and methods with
+ * a code attribute. Classes are emitted as version 49 so no stack map frames
+ * need to be generated; the type inferencing verifier handles them.
+ * @author H. Ilari Liusvaara
+ */
+public class ClassFile
+{
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAMEANDTYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes;
+    private final DataOutputStream pool;
+    private final Map<String, Integer> poolIndex;
+    private int poolCount;
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods;
+
+    /**
+     * Create new class.
+     * @param name internal name of class (e.g. <code>org/jpc/Foo</code>).
+     * @param superName internal name of superclass.
+     */
+    public ClassFile(String name, String superName)
+    {
+        poolBytes = new ByteArrayOutputStream();
+        pool = new DataOutputStream(poolBytes);
+        poolIndex = new HashMap<String, Integer>();
+        poolCount = 1;
+        methods = new ArrayList<byte[]>();
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+    }
+
+    private int lookup(String key)
+    {
+        Integer i = poolIndex.get(key);
+        return (i != null) ? i.intValue() : 0;
+    }
+
+    private int allocate(String key)
+    {
+        int index = poolCount++;
+        if(index > 0xFFFF)
+            throw new IllegalStateException("Constant pool overflow");
+        poolIndex.put(key, Integer.valueOf(index));
+        return index;
+    }
+
+    public int utf8(String value)
+    {
+        String key = "U" + value;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    public int classRef(String name)
+    {
+        String key = "C" + name;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        int nameIndex = utf8(name);
+        try {
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(nameIndex);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    public int stringRef(String value)
+    {
+        String key = "S" + value;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        int valueIndex = utf8(value);
+        try {
+            pool.writeByte(CONSTANT_STRING);
+            pool.writeShort(valueIndex);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    public int integer(int value)
+    {
+        String key = "I" + value;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    private int nameAndType(String name, String descriptor)
+    {
+        String key = "N" + name + ":" + descriptor;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        int nameIndex = utf8(name);
+        int descIndex = utf8(descriptor);
+        try {
+            pool.writeByte(CONSTANT_NAMEANDTYPE);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descIndex);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor)
+    {
+        String key = "M" + tag + owner + "." + name + ":" + descriptor;
+        int index = lookup(key);
+        if(index > 0)
+            return index;
+        int classIndex = classRef(owner);
+        int natIndex = nameAndType(name, descriptor);
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(classIndex);
+            pool.writeShort(natIndex);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write constant pool: " + e.getMessage());
+        }
+        return allocate(key);
+    }
+
+    public int fieldRef(String owner, String name, String descriptor)
+    {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    public int methodRef(String owner, String name, String descriptor)
+    {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    /**
+     * Add method to class.
+     * @param access access flags.
+     * @param name method name.
+     * @param descriptor method descriptor.
+     * @param code method body.
+     */
+    public void addMethod(int access, String name, String descriptor, Bytecode code)
+    {
+        int nameIndex = utf8(name);
+        int descIndex = utf8(descriptor);
+        int codeIndex = utf8("Code");
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+            out.writeShort(1);
+            out.writeShort(codeIndex);
+            code.write(out);
+            out.flush();
+            methods.add(buf.toByteArray());
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write method: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serialize the class.
+     * @param access access flags of class.
+     * @return class file contents.
+     */
+    public byte[] toByteArray(int access)
+    {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.flush();
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);     //Interfaces.
+            out.writeShort(0);     //Fields.
+            out.writeShort(methods.size());
+            for(byte[] method : methods)
+                out.write(method);
+            out.writeShort(0);     //Attributes.
+            out.flush();
+            return buf.toByteArray();
+        } catch(IOException e) {
+            throw new IllegalStateException("Can't write class: " + e.getMessage());
+        }
+    }
+}
@@ -31,6 +31,8 @@ package org.jpc.emulator;
 
 import org.jpc.emulator.Clock;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  *
@@ -43,6 +45,20 @@ public class Clock extends AbstractHardwareComponent
     private long lastUpdateAt;
     private long currentMillisecs;
     private long lastMillisecs;
+    //Time passing is handled without looking at timers until this time. Cleared whenever timers change.
+    private long nextCheck;
+    private long nextExpiry;
+    private boolean batched;
+    private List<String> firedTimerLog;
+    //Requests posted by other threads, run by the emulation thread. Transient, never saved.
+    private final Queue<Runnable> posted = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean postedPending;
+    private long idleSkipped;
+    /** Emulated milliseconds skipped while halted. */
+    public long STATUS_IDLE_SKIPPED_MS;
+
+    /** Batch time passing between timer expiries in newly created clocks. */
+    public static volatile boolean BATCHED_TIME = true;
 
     public void dumpSRPartial(SRDumper output) throws IOException
     {
@@ -59,12 +75,16 @@ public class Clock extends AbstractHardwareComponent
         currentMillisecs = 0;
         lastMillisecs = 0;
         lastUpdateAt = 0;
+        batched = BATCHED_TIME;
+        nextCheck = Long.MIN_VALUE;
     }
 
     public Clock()
     {
         timers = new TimerPriorityQueue(); // initial capacity to be revised
         currentTime = 0;
+        batched = BATCHED_TIME;
+        nextCheck = Long.MIN_VALUE;
     }
 
     public void dumpStatusPartial(StatusDumper output)
@@ -84,17 +104,81 @@ public class Clock extends AbstractHardwareComponent
         output.endObject();
     }
 
-    public synchronized Timer newTimer(TimerResponsive object)
+    public Timer newTimer(TimerResponsive object)
     {
         Timer tempTimer = new Timer(object, this);
         return tempTimer;
     }
 
-    public synchronized void update(Timer object)
+    public void update(Timer object)
     {
-        timers.remove(object);
         if(object.enabled())
-            timers.offer(object);
+            timers.reschedule(object);
+        else
+            timers.remove(object);
+        nextCheck = Long.MIN_VALUE;
+    }
+
+    /**
+     * Posts request from another thread to be run by the emulation thread.
+     * Timers and trace traps are owned by the emulation thread and not
+     * locked, so other threads must not touch them directly while the PC
+     * runs. Posted requests run at the next block boundary, or while the
+     * processor is halted.
+     * @param request the request to run.
+     */
+    public void post(Runnable request)
+    {
+        posted.add(request);
+        postedPending = true;
+    }
+
+    /**
+     * Runs requests posted by other threads. Called by the emulation thread.
+     */
+    public void runPosted()
+    {
+        if(!postedPending)
+            return;
+        postedPending = false;
+        Runnable request;
+        while((request = posted.poll()) != null)
+            request.run();
+    }
+
+    /**
+     * Drops requests posted but not yet run. Requests only apply to the run
+     * they were posted during, so this is called when the PC stops; the next
+     * run must not act on stale stop requests or timer settings.
+     */
+    public void discardPosted()
+    {
+        postedPending = false;
+        posted.clear();
+    }
+
+    /**
+     * Sets whether time passing is batched. In batched mode, timers are only
+     * looked at once the time reaches the earliest expiry, instead of on every
+     * call to <code>timePasses</code>, and halted processors skip idle time
+     * with <code>skipIdleTime</code>. Both modes fire timers at the same
+     * times and in the same order.
+     * @param state <code>true</code> to batch time passing.
+     */
+    public void setBatched(boolean state)
+    {
+        batched = state;
+        nextCheck = Long.MIN_VALUE;
+    }
+
+    /**
+     * Sets list to append description of every fired timer to, for comparing
+     * timer behaviour. <code>null</code> disables logging.
+     * @param log list to log fired timers to.
+     */
+    public void setFiredTimerLog(List<String> log)
+    {
+        firedTimerLog = log;
     }
 
     public long getTime()
@@ -130,30 +214,74 @@ public class Clock extends AbstractHardwareComponent
 
     public static long timePasses(Clock c, int ticks)
     {
-        if(c.currentTime % 1000000000 > (c.currentTime + ticks) % 1000000000) {
+        long newTime = c.currentTime + ticks;
+        if(newTime < c.nextCheck) {
+            c.currentTime = newTime;
+            return c.nextExpiry;
+        }
+
+        if(c.currentTime % 1000000000 > newTime % 1000000000) {
             long curTime = System.currentTimeMillis();
             c.currentMillisecs += (curTime - c.lastUpdateAt);
             long dtreal = c.currentMillisecs - c.lastMillisecs;
             if(dtreal < 1) dtreal = 1;  /* Avoid Div-by-zero */
             c.lastUpdateAt = curTime;
-            System.err.println("Informational: Timer ticked " + (c.currentTime + ticks) + ", realtime: " +
+            System.err.println("Informational: Timer ticked " + newTime + ", realtime: " +
                 dtreal + "ms, " + (100000 / dtreal) + "%," +
                 " kips: " + (1000000000 / ticks) / dtreal + ".");
             c.lastMillisecs = c.currentMillisecs;
         }
-        c.currentTime += ticks;
+        c.currentTime = newTime;
 
         while(true) {
             Timer tempTimer;
             tempTimer = c.timers.peek();
+            if(c.firedTimerLog != null && tempTimer != null && tempTimer.enabled() &&
+                c.currentTime >= tempTimer.getExpiry())
+                c.firedTimerLog.add(c.currentTime + ": type " + tempTimer.getTimerType() + " expiry " +
+                    tempTimer.getExpiry());
             if((tempTimer == null) || !tempTimer.check(c.getTime())) {
-                if(tempTimer == null || !tempTimer.enabled())
-                    return -1;
-                return tempTimer.getExpiry();
+                long expiry = (tempTimer == null || !tempTimer.enabled()) ? -1 : tempTimer.getExpiry();
+                if(c.batched) {
+                    //Next second boundary, for the tick message above.
+                    long check = (c.currentTime / 1000000000 + 1) * 1000000000;
+                    if(expiry >= 0 && expiry < check)
+                        check = expiry;
+                    c.nextExpiry = expiry;
+                    c.nextCheck = check;
+                }
+                return expiry;
             }
         }
     }
 
+    /**
+     * Lets idle time pass in steps of <code>ticks</code>, up to the last step
+     * before the next timer expiry or tick message. The following call to
+     * <code>timePasses</code> then handles the event exactly as if all the
+     * steps had been taken one by one. Does nothing unless batched.
+     * @param c clock to advance.
+     * @param ticks size of one step.
+     * @return amount of time skipped.
+     */
+    public static long skipIdleTime(Clock c, int ticks)
+    {
+        if(!c.batched)
+            return 0;
+        long limit = (c.currentTime / 1000000000 + 1) * 1000000000;
+        Timer tempTimer = c.timers.peek();
+        if(tempTimer != null && tempTimer.enabled() && tempTimer.getExpiry() < limit)
+            limit = tempTimer.getExpiry();
+        long steps = (limit - 1 - c.currentTime) / ticks;
+        if(steps <= 0)
+            return 0;
+        long skipped = steps * ticks;
+        c.currentTime += skipped;
+        c.idleSkipped += skipped;
+        c.STATUS_IDLE_SKIPPED_MS = c.idleSkipped / 1000000;
+        return skipped;
+    }
+
     // When does next timer fire. -1 if there's nothing scheduled.
     public long getNextEventTime()
     {
@@ -221,7 +221,14 @@ public class EventRecorder implements TimerResponsive
          if(directMode) {
              handleUndispatchedEvents();
          } else {
-             setTimer(timeNow);   //Fire it as soon as possible.
+             //Fire it as soon as possible. The timer belongs to emulation thread.
+             final long fireTime = timeNow;
+             sysClock.post(new Runnable() {
+                 public void run()
+                 {
+                     setTimer(fireTime);
+                 }
+             });
          }
      }
 
@@ -549,6 +556,48 @@ public class EventRecorder implements TimerResponsive
              current = scan;
          }
 
+         attachCommon(aPC, newSysClock, oldCurrent, rerecordCount);
+     }
+
+     /**
+      * Returns last event dispatched so far (null if none), for later rewinding back to this point
+      * with rewind().
+      */
+     public synchronized Event getLastDispatchedEvent()
+     {
+         return (current != null) ? current.prev : last;
+     }
+
+     /**
+      * Attaches to PC from in-memory savestate taken when <code>lastDispatched</code> was the last
+      * dispatched event.
+      */
+     public void rewind(PC aPC, Event lastDispatched, BigInteger rerecordCount) throws IOException
+     {
+         Event oldCurrent = current;
+
+         Clock newSysClock = (Clock)aPC.getComponent(Clock.class);
+         long expectedTime = newSysClock.getTime();
+         if(lastDispatched != null) {
+             Event scan = first;
+             while(scan != null && scan != lastDispatched)
+                 scan = scan.next;
+             if(scan == null)
+                 throw new IOException("Rewind point has been truncated from event stream");
+             if(scan.timestamp > expectedTime)
+                 throw new IOException("Incorrect rewind point event timestamp");
+             current = scan.next;
+         } else
+             current = first;
+
+         attachCommon(aPC, newSysClock, oldCurrent, rerecordCount);
+     }
+
+     private void attachCommon(PC aPC, Clock newSysClock, Event oldCurrent, BigInteger rerecordCount)
+         throws IOException
+     {
+         long expectedTime = newSysClock.getTime();
+
          try {
              Event scan = first;
              dispatchStart(aPC);
@@ -42,8 +42,11 @@ import org.jpc.diskimages.DiskImageSet;
 import org.jpc.diskimages.GenericBlockDevice;
 import org.jpc.diskimages.ImageLibrary;
 import org.jpc.diskimages.ImageMaker;
+import org.jpc.jrsr.ChunkedDeflaterOutputStream;
+import org.jpc.jrsr.ChunkedInflaterInputStream;
 import org.jpc.jrsr.JRSRArchiveReader;
 import org.jpc.jrsr.JRSRArchiveWriter;
+import org.jpc.jrsr.ReadAheadInputStream;
 import org.jpc.jrsr.UTFInputLineStream;
 import org.jpc.jrsr.UTFOutputLineStream;
 import org.jpc.jrsr.FourToFiveDecoder;
@@ -526,6 +529,8 @@ public class PC implements SRDumpable
     private PCHardwareInfo hwInfo;
 
     public static volatile boolean compile = true;
+    /** Read, decode and inflate savestates on separate threads while loading them. */
+    public static volatile boolean PIPELINED_LOAD = true;
 
     private final Processor processor;
     private final PhysicalAddressSpace physicalAddr;
@@ -1552,7 +1557,7 @@ public class PC implements SRDumpable
             for(int i = 0; i < 100; i++) {
                 int block;
                 try {
-                    block = physicalAddr.executeReal(processor, processor.getInstructionPointer());
+                    block = manager.executeReal(processor, physicalAddr);
                 } catch(org.jpc.emulator.processor.Processor.TripleFault e) {
                     reset();      //Reboot the system to get the CPU back online.
                     hitTraceTrap = true;
@@ -1564,6 +1569,7 @@ public class PC implements SRDumpable
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processRealModeInterrupts(1);
+                vmClock.runPosted();
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
                     break;
@@ -1607,7 +1613,7 @@ public class PC implements SRDumpable
             for(int i = 0; i < 100; i++) {
                 int block;
                 try {
-                    block= linearAddr.executeProtected(processor, processor.getInstructionPointer());
+                    block = manager.executeProtected(processor, linearAddr);
                 } catch(org.jpc.emulator.processor.Processor.TripleFault e) {
                     reset();      //Reboot the system to get the CPU back online.
                     hitTraceTrap = true;
@@ -1619,6 +1625,7 @@ public class PC implements SRDumpable
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processProtectedModeInterrupts(1);
+                vmClock.runPosted();
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
                     break;
@@ -1662,6 +1669,7 @@ public class PC implements SRDumpable
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processVirtual8086ModeInterrupts(1);
+                vmClock.runPosted();
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
                     break;
@@ -1688,6 +1696,7 @@ public class PC implements SRDumpable
         public String savestateID;         //Loaded SAVED.
         public BigInteger rerecords;             //Loaded SAVED.
         public String[][] extraHeaders;    //Loaded SAVED.
+        public SRDeltaBase deltaBase;      //Not saved, base for delta savestates.
     }
 
     public void refreshGameinfo(PCFullStatus newstatus)
@@ -1802,13 +1811,6 @@ public class PC implements SRDumpable
         }
     }
 
-    private static void saveDiskInfo(JRSRArchiveWriter writer, DiskImage image, Set<ImageLibrary.ByteArray> saved) throws IOException
-    {
-        if(image == null)
-            return;
-        saveDiskInfo(writer, image.getImageID(), saved);
-    }
-
     private static void saveDiskInfo(JRSRArchiveWriter writer, byte[] diskID, Set<ImageLibrary.ByteArray> saved) throws IOException
     {
         if(diskID == null)
@@ -1825,16 +1827,94 @@ public class PC implements SRDumpable
     public static void saveSavestate(JRSRArchiveWriter writer, PCFullStatus fullStatus, boolean movie, boolean noCompress)
         throws IOException
     {
+        saveSavestate(writer, fullStatus, movie, noCompress, false, null);
+    }
+
+    /**
+     * Savestate captured into memory by <code>captureSavestate()</code>, ready to be compressed and
+     * written by <code>writeSavestate()</code> independently of the PC.
+     */
+    public static class SavestateCapture
+    {
+        private ByteArrayOutputStream header;
+        private ByteArrayOutputStream initialization;
+        private ByteArrayOutputStream savestate;   //Uncompressed, null for movies.
+        private ByteArrayOutputStream manifest;
+        private ByteArrayOutputStream events;
+        private List<byte[]> diskIDs;
+        private SRDeltaBase deltaRecord;
+        private SRDeltaBase deltaBase;
+
+        /** Bytes held by the capture. */
+        public long getSize()
+        {
+            long size = header.size() + initialization.size() + events.size();
+            if(savestate != null)
+                size += savestate.size() + manifest.size();
+            return size;
+        }
+
+        /** Base for delta savestates this capture becomes once written (null if none). */
+        public SRDeltaBase getDeltaRecord()
+        {
+            return deltaRecord;
+        }
+
+        /** Base this capture is delta against, which must be written first (null if none). */
+        public SRDeltaBase getDeltaBase()
+        {
+            return deltaBase;
+        }
+    }
+
+    /**
+     * Saves savestate. If <code>delta</code> is set and fullStatus has base savestate other than
+     * <code>location</code>, only writes blocks of large arrays that are not in the base. Otherwise
+     * (with <code>delta</code> set) the full savestate written becomes base for later ones.
+     */
+    public static void saveSavestate(JRSRArchiveWriter writer, PCFullStatus fullStatus, boolean movie, boolean noCompress,
+        boolean delta, File location) throws IOException
+    {
+        writeSavestate(writer, captureSavestate(fullStatus, movie, delta, location), noCompress);
+    }
+
+    /**
+     * Captures savestate into memory like <code>saveSavestate()</code> would save it, but without
+     * compressing or writing anything. PC must be stopped. Marks the save in events of
+     * <code>fullStatus</code> and (with <code>delta</code> set) makes the capture the new delta base
+     * if it is a full savestate.
+     */
+    public static SavestateCapture captureSavestate(PCFullStatus fullStatus, boolean movie, boolean delta,
+        File location) throws IOException
+    {
+        SavestateCapture capture = new SavestateCapture();
+        SRDeltaBase base = null;
+        SRDeltaBase record = null;
+        if(delta && !movie && location != null) {
+            if(fullStatus.deltaBase == null)
+                record = new SRDeltaBase();
+            else if(!location.getAbsoluteFile().equals(fullStatus.deltaBase.getFile()))
+                base = fullStatus.deltaBase;
+            else
+                //New base would get new savestate ID, leaving all deltas against the old one unloadable.
+                throw new IOException("Refusing to save delta savestate over its base savestate " +
+                    location.getPath() + "; save full savestate to replace the base");
+        }
+
         fullStatus.savestateID = randomHexes(24);
         fullStatus.events.markSave(fullStatus.savestateID, fullStatus.rerecords);
 
         //Save the header.
-        UTFOutputLineStream lines = new UTFOutputLineStream(writer.addMember("header"));
+        capture.header = new ByteArrayOutputStream();
+        UTFOutputLineStream lines = new UTFOutputLineStream(capture.header);
         lines.writeLine("PROJECTID " + fullStatus.projectID);
         if(!movie)
             lines.writeLine("SAVESTATEID " + fullStatus.savestateID);
         lines.writeLine("RERECORDS " + fullStatus.rerecords);
-        lines.writeLine("SYSTEM PC-JPC-RR-r10");
+        //Older versions don't know BASESTATE and would load delta savestate as complete one.
+        lines.writeLine((base != null) ? "SYSTEM " + DELTA_SYSTEM : "SYSTEM PC-JPC-RR-r10");
+        if(base != null)
+            lines.encodeLine("BASESTATE", base.getSavestateID(), base.nameRelativeTo(location));
         if(fullStatus.extraHeaders != null)
             for(int i = 0; i < fullStatus.extraHeaders.length; i++) {
                 Object[] arr = new Object[fullStatus.extraHeaders[i].length];
@@ -1844,49 +1924,187 @@ public class PC implements SRDumpable
         lines.close();
 
         //Save intialization segment.
-        lines = new UTFOutputLineStream(writer.addMember("initialization"));
+        capture.initialization = new ByteArrayOutputStream();
+        lines = new UTFOutputLineStream(capture.initialization);
         fullStatus.pc.getHardwareInfo().makeHWInfoSegment(lines, fullStatus.pc.diskChanger);
         lines.close();
 
-        //Save savestate itsefl (if any).
+        //Save savestate itsefl (if any). Sized for RAM, which is most of it.
         if(!movie) {
-            FourToFiveEncoder entry = new FourToFiveEncoder(writer.addMember("savestate"));
-            DeflaterOutputStream dos;
-            Deflater deflater = new Deflater(noCompress ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
-            OutputStream zip = dos = new DeflaterOutputStream(entry, deflater);
-            SRDumper dumper = new SRDumper(zip);
+            capture.savestate = new ByteArrayOutputStream(fullStatus.pc.sysRAMSize + (1 << 20));
+            SRDumper dumper = new SRDumper(capture.savestate);
+            dumper.setDeltaBase(base);
+            dumper.setDeltaRecord(record);
             dumper.dumpObject(fullStatus.pc);
             dumper.flush();
-            dos.close();
 
-            OutputStream entry2 = writer.addMember("manifest");
-            dumper.writeConstructorManifest(entry2);
-            entry2.close();
+            capture.manifest = new ByteArrayOutputStream();
+            dumper.writeConstructorManifest(capture.manifest);
         }
 
         //Save the movie events.
-        lines = new UTFOutputLineStream(writer.addMember("events"));
+        capture.events = new ByteArrayOutputStream();
+        lines = new UTFOutputLineStream(capture.events);
         fullStatus.events.saveEvents(lines);
         lines.close();
 
-        //Save the disk info.
+        //Disks to save info for.
         PCHardwareInfo hw = fullStatus.pc.getHardwareInfo();
         DiskImageSet images = hw.images;
         int disks = 1 + images.highestDiskIndex();
+        capture.diskIDs = new ArrayList<byte[]>();
+        for(int i = 0; i < disks; i++) {
+            DiskImage image = images.lookupDisk(i);
+            if(image != null)
+                capture.diskIDs.add(image.getImageID());
+        }
+        capture.diskIDs.add(hw.biosID);
+        capture.diskIDs.add(hw.vgaBIOSID);
+        capture.diskIDs.add(hw.hdaID);
+        capture.diskIDs.add(hw.hdbID);
+        capture.diskIDs.add(hw.hdcID);
+        capture.diskIDs.add(hw.hddID);
+
+        if(record != null) {
+            record.setOrigin(fullStatus.savestateID, location);
+            fullStatus.deltaBase = record;
+            capture.deltaRecord = record;
+        }
+        capture.deltaBase = base;
+        return capture;
+    }
+
+    /**
+     * Compresses and writes savestate captured by <code>captureSavestate()</code>. Doesn't touch
+     * the PC, so may be called from any thread while emulation goes on.
+     */
+    public static void writeSavestate(JRSRArchiveWriter writer, SavestateCapture capture, boolean noCompress)
+        throws IOException
+    {
+        OutputStream entry = writer.addMember("header");
+        capture.header.writeTo(entry);
+        entry.close();
+
+        entry = writer.addMember("initialization");
+        capture.initialization.writeTo(entry);
+        entry.close();
+
+        if(capture.savestate != null) {
+            FourToFiveEncoder entry2 = new FourToFiveEncoder(writer.addMember("savestate"));
+            int level = noCompress ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+            if(ChunkedDeflaterOutputStream.THREADS > 0) {
+                OutputStream zip = new ChunkedDeflaterOutputStream(entry2, level);
+                capture.savestate.writeTo(zip);
+                zip.close();
+            } else {
+                Deflater deflater = new Deflater(level);
+                DeflaterOutputStream dos = new DeflaterOutputStream(entry2, deflater);
+                capture.savestate.writeTo(dos);
+                dos.close();
+                deflater.end();
+            }
+
+            entry = writer.addMember("manifest");
+            capture.manifest.writeTo(entry);
+            entry.close();
+        }
+
+        entry = writer.addMember("events");
+        capture.events.writeTo(entry);
+        entry.close();
+
+        //Save the disk info.
         Set<ImageLibrary.ByteArray> imageSet = new HashSet<ImageLibrary.ByteArray>();
-        for(int i = 0; i < disks; i++)
-            saveDiskInfo(writer, images.lookupDisk(i), imageSet);
-        saveDiskInfo(writer, hw.biosID, imageSet);
-        saveDiskInfo(writer, hw.vgaBIOSID, imageSet);
-        saveDiskInfo(writer, hw.hdaID, imageSet);
-        saveDiskInfo(writer, hw.hdbID, imageSet);
-        saveDiskInfo(writer, hw.hdcID, imageSet);
-        saveDiskInfo(writer, hw.hddID, imageSet);
+        for(byte[] diskID : capture.diskIDs)
+            saveDiskInfo(writer, diskID, imageSet);
+    }
+
+    private static final int MAX_DELTA_DEPTH = 16;
+    //System type of delta savestates, so that versions without delta support reject them.
+    private static final String DELTA_SYSTEM = "PC-JPC-RR-r10-delta";
+
+    /**
+     * Opens "savestate" member, decompressed. With PIPELINED_LOAD, reading the archive, decoding
+     * four-to-five encoding and inflating each run on their own thread ahead of the reader.
+     */
+    private static InputStream openSavestateMember(JRSRArchiveReader reader) throws IOException
+    {
+        InputStream in = reader.readMember("savestate");
+        if(!PIPELINED_LOAD)
+            return ChunkedInflaterInputStream.open(new FourToFiveDecoder(in));
+        in = new ReadAheadInputStream(in, "Savestate reader");
+        in = new ReadAheadInputStream(new FourToFiveDecoder(in), "Savestate decoder");
+        try {
+            return new ReadAheadInputStream(ChunkedInflaterInputStream.open(in), "Savestate inflater");
+        } catch(IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads blocks of base savestate <code>name</code> (relative to <code>location</code>) that
+     * must have savestate ID <code>id</code>.
+     */
+    private static SRDeltaBase loadDeltaBase(String id, String name, File location, int depth) throws IOException
+    {
+        if(location == null)
+            throw new IOException("Delta savestate can only be loaded from file");
+        if(depth > MAX_DELTA_DEPTH)
+            throw new IOException("Too long chain of delta savestates");
+        File file = SRDeltaBase.resolveName(name, location);
+        JRSRArchiveReader reader = new JRSRArchiveReader(file.getAbsolutePath());
+        try {
+            String savestateID = null;
+            String[] baseHeader = null;
+            UTFInputLineStream lines = new UTFInputLineStream(reader.readMember("header"));
+            String[] components = nextParseLine(lines);
+            while(components != null) {
+                if("SAVESTATEID".equals(components[0]) && components.length == 2)
+                    savestateID = components[1];
+                if("BASESTATE".equals(components[0]) && components.length == 3)
+                    baseHeader = components;
+                components = nextParseLine(lines);
+            }
+            if(!id.equals(savestateID))
+                throw new IOException("Base savestate " + file.getPath() + " has been overwritten");
+
+            SRDeltaBase parent = null;
+            if(baseHeader != null)
+                parent = loadDeltaBase(baseHeader[1], baseHeader[2], file, depth + 1);
+            SRDeltaBase base = new SRDeltaBase();
+            base.setOrigin(id, file);
+            InputStream entry = openSavestateMember(reader);
+            try {
+                SRLoader loader = new SRLoader(entry);
+                loader.setDeltaBase(parent);
+                loader.setDeltaRecord(base);
+                loader.loadObject();
+            } finally {
+                entry.close();
+            }
+            return base;
+        } finally {
+            reader.close();
+        }
     }
 
     public static PCFullStatus loadSavestate(JRSRArchiveReader reader, boolean reuse, boolean forceMovie,
         PCFullStatus existing, String initName) throws IOException
     {
+        return loadSavestate(reader, reuse, forceMovie, existing, initName, null, false);
+    }
+
+    /**
+     * Loads savestate from file <code>location</code> (needed to find base of delta savestates). If
+     * <code>delta</code> is set, the savestate (or base of delta savestate) becomes base for delta
+     * savestates saved afterwards.
+     */
+    public static PCFullStatus loadSavestate(JRSRArchiveReader reader, boolean reuse, boolean forceMovie,
+        PCFullStatus existing, String initName, File location, boolean delta) throws IOException
+    {
+        String[] baseHeader = null;
+        boolean deltaSystem = false;
         if(initName == null)
             initName = "initialization";
         PCFullStatus fullStatus = new PCFullStatus();
@@ -1903,6 +2121,11 @@ public class PC implements SRDumpable
                        "expected 2 components, got " + components.length);
                ssPresent = true;
                fullStatus.savestateID = components[1];
+           } else if("BASESTATE".equals(components[0])) {
+               if(components.length != 3)
+                   throw new IOException("Bad " + components[0] + " line in header segment: " +
+                       "expected 3 components, got " + components.length);
+               baseHeader = components;
            } else if("PROJECTID".equals(components[0])) {
                if(components.length != 2)
                    throw new IOException("Bad " + components[0] + " line in header segment: " +
@@ -1924,8 +2147,10 @@ public class PC implements SRDumpable
                if(components.length != 2)
                    throw new IOException("Bad " + components[0] + " line in header segment: " +
                        "expected 2 components, got " + components.length);
-               if(!"PC-JPC-RR-r10".equals(components[1]) && !"PC-JPC-RR-r11.3".equals(components[1]))
+               if(!"PC-JPC-RR-r10".equals(components[1]) && !"PC-JPC-RR-r11.3".equals(components[1]) &&
+                   !DELTA_SYSTEM.equals(components[1]))
                    throw new IOException("Invalid system type '" + components[1] + "'");
+               deltaSystem = DELTA_SYSTEM.equals(components[1]);
            } else {
                if(fullStatus.extraHeaders == null) {
                    fullStatus.extraHeaders = new String[1][];
@@ -1944,6 +2169,8 @@ public class PC implements SRDumpable
             throw new IOException("PROJECTID header missing");
         if(fullStatus.rerecords.signum() < 0)
             throw new IOException("RERECORDS header missing");
+        if((baseHeader != null) != deltaSystem)
+            throw new IOException("BASESTATE header doesn't match system type");
 
         if(ssPresent && !forceMovie) {
             InputStream entry = reader.readMember("manifest");
@@ -1951,10 +2178,27 @@ public class PC implements SRDumpable
                 throw new IOException("Wrong savestate version");
             entry.close();
 
-            entry = new FourToFiveDecoder(reader.readMember("savestate"));
-            SRLoader loader = new SRLoader(new InflaterInputStream(entry));
-            fullStatus.pc = (PC)(loader.loadObject());
-            entry.close();
+            SRDeltaBase base = null;
+            SRDeltaBase record = null;
+            if(baseHeader != null)
+                base = loadDeltaBase(baseHeader[1], baseHeader[2], location, 1);
+            else if(delta && location != null)
+                record = new SRDeltaBase();
+
+            entry = openSavestateMember(reader);
+            try {
+                SRLoader loader = new SRLoader(entry);
+                loader.setDeltaBase(base);
+                loader.setDeltaRecord(record);
+                fullStatus.pc = (PC)(loader.loadObject());
+            } finally {
+                entry.close();
+            }
+
+            if(record != null)
+                record.setOrigin(fullStatus.savestateID, location);
+            if(delta)
+                fullStatus.deltaBase = (base != null) ? base : record;
         } else {
             lines = new UTFInputLineStream(reader.readMember(initName));
             PC.PCHardwareInfo hwInfo = PC.PCHardwareInfo.parseHWInfoSegment(lines);
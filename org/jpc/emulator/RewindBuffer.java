@@ -0,0 +1,207 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Bounded ring of in-memory savestates for rewinding. Savestates are uncompressed
+ * <code>SRDumper</code> streams with RAM pages, disk copy-on-write sectors and other large
+ * arrays kept in a shared <code>SRBlockStore</code>, so unchanged data is held only once.
+ * Each savestate remembers its place in the event stream, so restoring one rewinds the
+ * <code>EventRecorder</code> without needing a savestate event.
+ */
+public class RewindBuffer
+{
+    /** Maximum number of savestates held (0 disables periodic snapshots). */
+    public static volatile int CAPACITY = 0;
+    /** Number of frames (vertical retrace starts) between periodic snapshots. */
+    public static volatile int INTERVAL = 60;
+
+    private static class Snapshot
+    {
+        byte[] state;
+        int[] blocks;
+        long time;
+        EventRecorder events;
+        EventRecorder.Event lastDispatched;
+        BigInteger rerecords;
+    }
+
+    private LinkedList<Snapshot> snapshots;
+    private SRBlockStore store;
+    private long stateBytes;
+    private int framesSinceSnapshot;
+    private long lastCaptureTime;
+    private long lastRestoreTime;
+
+    public RewindBuffer()
+    {
+        snapshots = new LinkedList<Snapshot>();
+        store = new SRBlockStore();
+        lastCaptureTime = -1;
+        lastRestoreTime = -1;
+    }
+
+    /**
+     * Called once per frame while PC is running. Takes a snapshot every INTERVAL frames.
+     * @return True if snapshot was taken.
+     */
+    public synchronized boolean frame(PC.PCFullStatus fullStatus) throws IOException
+    {
+        if(CAPACITY <= 0) {
+            if(!snapshots.isEmpty())
+                clear();
+            return false;
+        }
+        if(++framesSinceSnapshot < INTERVAL)
+            return false;
+        capture(fullStatus);
+        return true;
+    }
+
+    /**
+     * Takes a snapshot of the current PC, dropping the oldest ones if there are more than
+     * CAPACITY (but always keeping the new one).
+     */
+    public synchronized void capture(PC.PCFullStatus fullStatus) throws IOException
+    {
+        long t1 = System.nanoTime();
+        framesSinceSnapshot = 0;
+        if(!snapshots.isEmpty() && snapshots.getLast().events != fullStatus.events)
+            clear();   //Different movie, old snapshots can't be restored to it.
+
+        Snapshot s = new Snapshot();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SRDumper dumper = new SRDumper(out, store);
+        dumper.dumpObject(fullStatus.pc);
+        dumper.flush();
+        s.state = out.toByteArray();
+        s.blocks = dumper.getStoredBlocks();
+        s.time = fullStatus.pc.getTime();
+        s.events = fullStatus.events;
+        s.lastDispatched = fullStatus.events.getLastDispatchedEvent();
+        s.rerecords = fullStatus.rerecords;
+
+        //Snapshots are kept in time order; one taken again at the same time replaces the old.
+        while(!snapshots.isEmpty() && snapshots.getLast().time >= s.time)
+            drop(snapshots.removeLast());
+        snapshots.add(s);
+        stateBytes += s.state.length;
+        while(snapshots.size() > Math.max(CAPACITY, 1))
+            drop(snapshots.removeFirst());
+        lastCaptureTime = System.nanoTime() - t1;
+    }
+
+    /**
+     * Restores the latest snapshot taken before current time of PC, replacing PC and rewinding
+     * events of <code>fullStatus</code>. If <code>discardNewer</code> is set, snapshots after
+     * the restored one are dropped (for when events after it will be truncated).
+     * @return Time of restored snapshot, or -1 if there is nothing to rewind to.
+     */
+    public synchronized long rewind(PC.PCFullStatus fullStatus, boolean discardNewer) throws IOException
+    {
+        long now = fullStatus.pc.getTime();
+        Snapshot s = null;
+        for(Snapshot t : snapshots)
+            if(t.time < now && t.events == fullStatus.events)
+                s = t;
+        if(s == null)
+            return -1;
+
+        long t1 = System.nanoTime();
+        SRLoader loader = new SRLoader(new ByteArrayInputStream(s.state), store);
+        PC newPC = (PC)(loader.loadObject());
+        fullStatus.events.rewind(newPC, s.lastDispatched, s.rerecords);
+        fullStatus.pc = newPC;
+        fullStatus.rerecords = fullStatus.rerecords.add(BigInteger.ONE);
+        newPC.refreshGameinfo(fullStatus);
+        framesSinceSnapshot = 0;
+
+        if(discardNewer)
+            while(snapshots.getLast() != s)
+                drop(snapshots.removeLast());
+        lastRestoreTime = System.nanoTime() - t1;
+        return s.time;
+    }
+
+    public synchronized void clear()
+    {
+        while(!snapshots.isEmpty())
+            drop(snapshots.removeFirst());
+        framesSinceSnapshot = 0;
+    }
+
+    private void drop(Snapshot s)
+    {
+        store.release(s.blocks);
+        stateBytes -= s.state.length;
+    }
+
+    public synchronized int getSnapshotCount()
+    {
+        return snapshots.size();
+    }
+
+    /** Bytes held by snapshots, counting shared blocks once. */
+    public synchronized long getMemoryUsage()
+    {
+        return stateBytes + store.getStoredBytes();
+    }
+
+    /** Time taken by last restore in nanoseconds (-1 if none yet). */
+    public synchronized long getLastRestoreTime()
+    {
+        return lastRestoreTime;
+    }
+
+    /** Time taken by last capture in nanoseconds (-1 if none yet). */
+    public synchronized long getLastCaptureTime()
+    {
+        return lastCaptureTime;
+    }
+
+    public synchronized String getStatistics()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(snapshots.size() + " snapshots");
+        if(!snapshots.isEmpty())
+            sb.append(" (" + snapshots.getFirst().time + "-" + snapshots.getLast().time + ")");
+        sb.append(", " + getMemoryUsage() / 1024 + "KiB used (" + (stateBytes + store.getReferencedBytes()) / 1024 +
+            "KiB unshared)");
+        if(lastCaptureTime >= 0)
+            sb.append(", last capture " + lastCaptureTime / 1000000 + "ms");
+        if(lastRestoreTime >= 0)
+            sb.append(", last restore " + lastRestoreTime / 1000000 + "ms");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Content addressed store of byte array blocks for in-memory savestates.
+ * <code>SRDumper</code> puts large byte arrays (RAM pages, disk copy-on-write
+ * sectors, video memory) here block by block and writes only block numbers,
+ * so savestates that have the same data in some block share one copy of it.
+ * Blocks are reference counted and freed when the last savestate using them
+ * is released.
+ */
+public final class SRBlockStore
+{
+    /** Arrays are split into blocks of this many bytes (last one may be shorter). */
+    public static final int BLOCK_SIZE = 4096;
+    /** Shorter arrays are written inline. */
+    public static final int MIN_STORED_LENGTH = 512;
+
+    private static class Block
+    {
+        int number;
+        int references;
+        byte[] data;
+    }
+
+    private Map<ByteBuffer, Block> byContent;
+    private Map<Integer, Block> byNumber;
+    private int nextNumber;
+    private long storedBytes;
+    private long referencedBytes;
+
+    public SRBlockStore()
+    {
+        byContent = new HashMap<ByteBuffer, Block>();
+        byNumber = new HashMap<Integer, Block>();
+    }
+
+    /**
+     * Adds a reference to block with given contents, storing a copy of it if
+     * no equal block is stored yet.
+     * @return Number of the block.
+     */
+    public synchronized int store(byte[] data, int offset, int length)
+    {
+        Block b = byContent.get(ByteBuffer.wrap(data, offset, length));
+        if(b == null) {
+            b = new Block();
+            b.data = new byte[length];
+            System.arraycopy(data, offset, b.data, 0, length);
+            while(byNumber.containsKey(nextNumber))
+                nextNumber++;
+            b.number = nextNumber++;
+            byContent.put(ByteBuffer.wrap(b.data), b);
+            byNumber.put(b.number, b);
+            storedBytes += length;
+        }
+        b.references++;
+        referencedBytes += length;
+        return b.number;
+    }
+
+    /**
+     * Copies contents of block into array.
+     * @return Length of the block.
+     */
+    public synchronized int load(int number, byte[] data, int offset) throws IOException
+    {
+        Block b = byNumber.get(number);
+        if(b == null)
+            throw new IOException("Savestate refers to nonexistent block #" + number);
+        System.arraycopy(b.data, 0, data, offset, b.data.length);
+        return b.data.length;
+    }
+
+    /**
+     * Drops one reference from each of the blocks, freeing blocks that are no longer
+     * referenced.
+     */
+    public synchronized void release(int[] numbers)
+    {
+        for(int number : numbers) {
+            Block b = byNumber.get(number);
+            if(b == null)
+                continue;
+            referencedBytes -= b.data.length;
+            if(--b.references == 0) {
+                byContent.remove(ByteBuffer.wrap(b.data));
+                byNumber.remove(number);
+                storedBytes -= b.data.length;
+            }
+        }
+    }
+
+    public synchronized int getBlockCount()
+    {
+        return byNumber.size();
+    }
+
+    /** Bytes of block data actually held. */
+    public synchronized long getStoredBytes()
+    {
+        return storedBytes;
+    }
+
+    /** Bytes of block data that would be held without sharing. */
+    public synchronized long getReferencedBytes()
+    {
+        return referencedBytes;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Contents of large arrays (RAM pages, disk copy-on-write sectors, video memory) of a savestate
+ * file, in the order they appear in its stream, split into blocks the same way as for
+ * <code>SRBlockStore</code>. Delta savestates refer to blocks of their base savestate by number
+ * and only contain blocks that are not in it.
+ */
+public final class SRDeltaBase
+{
+    private String savestateID;
+    private File file;
+    //Set from savestate writer thread.
+    private volatile boolean writeFailed;
+    private List<byte[]> blocks;
+    private Map<ByteBuffer, Integer> index;
+    private long bytes;
+
+    public SRDeltaBase()
+    {
+        blocks = new ArrayList<byte[]>();
+        index = new HashMap<ByteBuffer, Integer>();
+    }
+
+    /** Appends copy of block as next block of the savestate. */
+    public void addBlock(byte[] data, int offset, int length)
+    {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        ByteBuffer key = ByteBuffer.wrap(copy);
+        if(!index.containsKey(key))
+            index.put(key, blocks.size());
+        blocks.add(copy);
+        bytes += length;
+    }
+
+    /** Returns number of some block with the given contents, or -1 if there is none. */
+    public int findBlock(byte[] data, int offset, int length)
+    {
+        Integer i = index.get(ByteBuffer.wrap(data, offset, length));
+        return (i != null) ? i.intValue() : -1;
+    }
+
+    public byte[] getBlock(int number) throws IOException
+    {
+        if(number < 0 || number >= blocks.size())
+            throw new IOException("Delta savestate refers to nonexistent base block #" + number);
+        return blocks.get(number);
+    }
+
+    public int getBlockCount()
+    {
+        return blocks.size();
+    }
+
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    public String getSavestateID()
+    {
+        return savestateID;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public void setOrigin(String id, File location)
+    {
+        savestateID = id;
+        file = location.getAbsoluteFile();
+    }
+
+    /**
+     * Marks that the savestate file of this base failed to be written, so delta savestates must not
+     * refer to it.
+     */
+    public void setWriteFailed()
+    {
+        writeFailed = true;
+    }
+
+    public boolean isWriteFailed()
+    {
+        return writeFailed;
+    }
+
+    /**
+     * Name to store in delta savestate saved at <code>location</code>: Just the file name if base
+     * is in the same directory, otherwise absolute path.
+     */
+    public String nameRelativeTo(File location)
+    {
+        File dir = location.getAbsoluteFile().getParentFile();
+        if(dir != null && dir.equals(file.getParentFile()))
+            return file.getName();
+        return file.getPath();
+    }
+
+    /** Resolves base name stored in delta savestate at <code>location</code>. */
+    public static File resolveName(String name, File location)
+    {
+        File f = new File(name);
+        if(f.isAbsolute())
+            return f;
+        return new File(location.getAbsoluteFile().getParentFile(), name);
+    }
+}
@@ -66,6 +66,11 @@ public final class SRDumper
     private int bufferStart;
     private byte[] buffer;
     private static final int BUFFER_MAXSIZE = 4096;  //MUST BE MULTIPLE OF 8.
+    private SRBlockStore blockStore;
+    private int[] storedBlocks;
+    private int storedBlockCount;
+    private SRDeltaBase deltaBase;
+    private SRDeltaBase deltaRecord;
 
     public void writeConstructorManifest(OutputStream out) throws IOException
     {
@@ -121,6 +126,49 @@ public final class SRDumper
         buffer = new byte[BUFFER_MAXSIZE];
     }
 
+    /**
+     * Creates dumper that puts contents of large byte arrays into <code>store</code>
+     * instead of the stream. Such streams can only be loaded with the same store.
+     */
+    public SRDumper(OutputStream ps, SRBlockStore store)
+    {
+        this(ps);
+        blockStore = store;
+        storedBlocks = new int[1024];
+        storedBlockCount = 0;
+    }
+
+    /**
+     * Returns numbers of all blocks put into block store (with repeats), for releasing
+     * them when the savestate is discarded.
+     */
+    public int[] getStoredBlocks()
+    {
+        if(storedBlocks == null)
+            return new int[0];
+        int[] x = new int[storedBlockCount];
+        System.arraycopy(storedBlocks, 0, x, 0, storedBlockCount);
+        return x;
+    }
+
+    /**
+     * Writes large arrays as delta against <code>base</code>: Blocks that are in base are written
+     * as references to it. Such streams can only be loaded with the same base.
+     */
+    public void setDeltaBase(SRDeltaBase base)
+    {
+        deltaBase = base;
+    }
+
+    /**
+     * Appends blocks of all large arrays written to <code>record</code>, so it can be used as base
+     * for delta savestates.
+     */
+    public void setDeltaRecord(SRDeltaBase record)
+    {
+        deltaRecord = record;
+    }
+
     public void flush() throws IOException
     {
         ensureBufferSpace(BUFFER_MAXSIZE);
@@ -263,25 +311,83 @@ public final class SRDumper
 
     public void dumpArray(byte[] x) throws IOException
     {
+        if(x != null)
+            dumpArray(x, 0, x.length);
+        else {
+            ensureBufferSpace(2);
+            buffer[bufferStart++] = TYPE_BYTE_ARRAY;
+            buffer[bufferStart++] = 0;
+        }
+    }
+
+    /**
+     * Dumps <code>length</code> bytes of <code>x</code> from
+     * <code>offset</code> on the same way as an array of just those bytes.
+     */
+    public void dumpArray(byte[] x, int offset, int length) throws IOException
+    {
+        if(length >= SRBlockStore.MIN_STORED_LENGTH) {
+            if(deltaRecord != null)
+                for(int index = 0; index < length; index += SRBlockStore.BLOCK_SIZE)
+                    deltaRecord.addBlock(x, offset + index, Math.min(length - index, SRBlockStore.BLOCK_SIZE));
+            if(blockStore != null || deltaBase != null) {
+                dumpBlockArrayStart(TYPE_BYTE_ARRAY, length);
+                for(int index = 0; index < length; index += SRBlockStore.BLOCK_SIZE)
+                    dumpBlock(x, offset + index, Math.min(length - index, SRBlockStore.BLOCK_SIZE));
+                return;
+            }
+        }
         ensureBufferSpace(2);
         buffer[bufferStart++] = TYPE_BYTE_ARRAY;
-        if(x != null) {
-            buffer[bufferStart++] = 1;
-            dumpInt(x.length, true);
-            int remaining = x.length;
-            int index = 0;
-            while(remaining > 0) {
-                int tocopy = remaining;
-                if(tocopy > BUFFER_MAXSIZE)
-                    tocopy = BUFFER_MAXSIZE;
-                ensureBufferSpace(tocopy);
-                System.arraycopy(x, index, buffer, bufferStart, tocopy);
-                bufferStart += tocopy;
-                remaining -= tocopy;
-                index += tocopy;
+        buffer[bufferStart++] = 1;
+        dumpInt(length, true);
+        int remaining = length;
+        int index = offset;
+        while(remaining > 0) {
+            int tocopy = remaining;
+            if(tocopy > BUFFER_MAXSIZE)
+                tocopy = BUFFER_MAXSIZE;
+            ensureBufferSpace(tocopy);
+            System.arraycopy(x, index, buffer, bufferStart, tocopy);
+            bufferStart += tocopy;
+            remaining -= tocopy;
+            index += tocopy;
+        }
+    }
+
+    /**
+     * Large arrays are written as blocks: Into block store (present byte 2) or as delta
+     * against base savestate (present byte 3).
+     */
+    private void dumpBlockArrayStart(byte type, int length) throws IOException
+    {
+        ensureBufferSpace(2);
+        buffer[bufferStart++] = type;
+        buffer[bufferStart++] = (blockStore != null) ? (byte)2 : (byte)3;
+        dumpInt(length, true);
+    }
+
+    private void dumpBlock(byte[] x, int offset, int length) throws IOException
+    {
+        if(blockStore != null) {
+            int block = blockStore.store(x, offset, length);
+            if(storedBlockCount == storedBlocks.length) {
+                int[] tmp = new int[2 * storedBlocks.length];
+                System.arraycopy(storedBlocks, 0, tmp, 0, storedBlockCount);
+                storedBlocks = tmp;
             }
-        } else
-            buffer[bufferStart++] = 0;
+            storedBlocks[storedBlockCount++] = block;
+            dumpInt(block, true);
+        } else {
+            //Block in base or -1 followed by the block itself.
+            int block = deltaBase.findBlock(x, offset, length);
+            dumpInt(block, true);
+            if(block < 0) {
+                ensureBufferSpace(length);
+                System.arraycopy(x, offset, buffer, bufferStart, length);
+                bufferStart += length;
+            }
+        }
     }
 
     public void dumpArray(short[] x) throws IOException
@@ -309,6 +415,24 @@ public final class SRDumper
 
     public void dumpArray(int[] x) throws IOException
     {
+        boolean blocks = (blockStore != null || deltaBase != null);
+        if(x != null && 4 * x.length >= SRBlockStore.MIN_STORED_LENGTH && (blocks || deltaRecord != null)) {
+            if(blocks)
+                dumpBlockArrayStart(TYPE_INT_ARRAY, x.length);
+            byte[] block = new byte[SRBlockStore.BLOCK_SIZE];
+            IntBuffer view = ByteBuffer.wrap(block).asIntBuffer();
+            for(int index = 0; index < x.length; index += SRBlockStore.BLOCK_SIZE / 4) {
+                int length = Math.min(x.length - index, SRBlockStore.BLOCK_SIZE / 4);
+                view.clear();
+                view.put(x, index, length);
+                if(deltaRecord != null)
+                    deltaRecord.addBlock(block, 0, 4 * length);
+                if(blocks)
+                    dumpBlock(block, 0, 4 * length);
+            }
+            if(blocks)
+                return;
+        }
         ensureBufferSpace(2);
         buffer[bufferStart++] = TYPE_INT_ARRAY;
         if(x != null) {
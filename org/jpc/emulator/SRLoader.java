@@ -31,6 +31,7 @@ package org.jpc.emulator;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.nio.*;
 
 import org.jpc.jrsr.UTFInputLineStream;
 
@@ -50,6 +51,9 @@ public final class SRLoader
     private byte[] buffer;
     int lastSuccess;
     int opNum;
+    private SRBlockStore blockStore;
+    private SRDeltaBase deltaBase;
+    private SRDeltaBase deltaRecord;
 
     public SRLoader(InputStream di)
     {
@@ -64,6 +68,32 @@ public final class SRLoader
         lastSuccess = 0;
     }
 
+    /**
+     * Creates loader for stream written by dumper using block store <code>store</code>.
+     */
+    public SRLoader(InputStream di, SRBlockStore store)
+    {
+        this(di);
+        blockStore = store;
+    }
+
+    /**
+     * Sets base savestate for loading delta savestate.
+     */
+    public void setDeltaBase(SRDeltaBase base)
+    {
+        deltaBase = base;
+    }
+
+    /**
+     * Appends blocks of all large arrays loaded to <code>record</code>, so it can be used as base
+     * for delta savestates.
+     */
+    public void setDeltaRecord(SRDeltaBase record)
+    {
+        deltaRecord = record;
+    }
+
     public void ensureBufferFill(int minFill) throws IOException
     {
         if(minFill > BUFFER_MAXSIZE)
@@ -288,7 +318,12 @@ public final class SRLoader
         ensureBufferFill(2);
         expect(SRDumper.TYPE_BYTE_ARRAY, opNum++);
         byte present = buffer[bufferStart++]; bufferFill--;
-        if(present != 0) {
+        if(present == 2 || present == 3) {
+            byte[] x = new byte[readInt(true)];
+            for(int index = 0; index < x.length; index += SRBlockStore.BLOCK_SIZE)
+                readBlock(present, x, index, Math.min(x.length - index, SRBlockStore.BLOCK_SIZE));
+            return x;
+        } else if(present != 0) {
             byte[] x = new byte[readInt(true)];
             int remaining = x.length;
             int index = 0;
@@ -303,11 +338,41 @@ public final class SRLoader
                  remaining -= tocopy;
                  index += tocopy;
             }
+            if(deltaRecord != null && x.length >= SRBlockStore.MIN_STORED_LENGTH)
+                for(index = 0; index < x.length; index += SRBlockStore.BLOCK_SIZE)
+                    deltaRecord.addBlock(x, index, Math.min(x.length - index, SRBlockStore.BLOCK_SIZE));
             return x;
         } else
             return null;
     }
 
+    private void readBlock(byte present, byte[] x, int offset, int length) throws IOException
+    {
+        if(present == 2) {
+            if(blockStore == null)
+                throw new IOException("Savestate refers to block store but none is available");
+            if(blockStore.load(readInt(true), x, offset) != length)
+                throw new IOException("Savestate block has wrong size");
+        } else {
+            int number = readInt(true);
+            if(number >= 0) {
+                if(deltaBase == null)
+                    throw new IOException("Delta savestate loaded without its base savestate");
+                byte[] block = deltaBase.getBlock(number);
+                if(block.length != length)
+                    throw new IOException("Base savestate block has wrong size");
+                System.arraycopy(block, 0, x, offset, length);
+            } else {
+                ensureBufferFill(length);
+                System.arraycopy(buffer, bufferStart, x, offset, length);
+                bufferStart += length;
+                bufferFill -= length;
+            }
+        }
+        if(deltaRecord != null)
+            deltaRecord.addBlock(x, offset, length);
+    }
+
     public short[] loadArrayShort() throws IOException
     {
         ensureBufferFill(2);
@@ -338,7 +403,18 @@ public final class SRLoader
         ensureBufferFill(2);
         expect(SRDumper.TYPE_INT_ARRAY, opNum++);
         byte present = buffer[bufferStart++]; bufferFill--;
-        if(present != 0) {
+        if(present == 2 || present == 3) {
+            int[] x = new int[readInt(true)];
+            byte[] block = new byte[SRBlockStore.BLOCK_SIZE];
+            IntBuffer view = ByteBuffer.wrap(block).asIntBuffer();
+            for(int index = 0; index < x.length; index += SRBlockStore.BLOCK_SIZE / 4) {
+                int length = Math.min(x.length - index, SRBlockStore.BLOCK_SIZE / 4);
+                readBlock(present, block, 0, 4 * length);
+                view.clear();
+                view.get(x, index, length);
+            }
+            return x;
+        } else if(present != 0) {
             int[] x = new int[readInt(true)];
             int remaining = x.length;
             int index = 0;
@@ -353,6 +429,16 @@ public final class SRLoader
                  remaining -= tocopy;
                  index += tocopy;
             }
+            if(deltaRecord != null && 4 * x.length >= SRBlockStore.MIN_STORED_LENGTH) {
+                byte[] block = new byte[SRBlockStore.BLOCK_SIZE];
+                IntBuffer view = ByteBuffer.wrap(block).asIntBuffer();
+                for(index = 0; index < x.length; index += SRBlockStore.BLOCK_SIZE / 4) {
+                    int length = Math.min(x.length - index, SRBlockStore.BLOCK_SIZE / 4);
+                    view.clear();
+                    view.put(x, index, length);
+                    deltaRecord.addBlock(block, 0, 4 * length);
+                }
+            }
             return x;
         } else
             return null;
@@ -44,6 +44,9 @@ public class Timer implements Comparable<Timer>, SRDumpable
     private TimerResponsive callback;
     private boolean enabled;
     private Clock myOwner;
+    //Position in and order of insertion into the owner's TimerPriorityQueue.
+    int queueIndex = -1;
+    long queueSequence;
 
     /**
      * Constructs a <code>Timer</code> which fires events on the specified
@@ -104,7 +107,7 @@ public class Timer implements Comparable<Timer>, SRDumpable
      * future.
      * @return <code>true</code> if this timer is enabled.
      */
-    public synchronized boolean enabled()
+    public boolean enabled()
     {
         return enabled;
     }
@@ -113,7 +116,7 @@ public class Timer implements Comparable<Timer>, SRDumpable
      * Disables this timer.  Following a call to <code>disable</code> the timer
      * cannot ever fire again unless a call is made to <code>setExpiry</code>
      */
-    public synchronized void disable()
+    public void disable()
     {
         setStatus(false);
     }
@@ -127,7 +130,7 @@ public class Timer implements Comparable<Timer>, SRDumpable
      * decided by the implementation of <code>Clock</code> used by this timer.
      * @param time absolute time of expiry for this timer.
      */
-    public synchronized void setExpiry(long time)
+    public void setExpiry(long time)
     {
         expireTime = time;
         setStatus(true);
@@ -139,7 +142,7 @@ public class Timer implements Comparable<Timer>, SRDumpable
      * @param time value of time to check against.
      * @return <code>true</code> if timer had expired and callback was fired.
      */
-    public synchronized boolean check(long time)
+    public boolean check(long time)
     {
         if(this.enabled && (time >= expireTime)) {
             disable();
@@ -30,6 +30,7 @@
 package org.jpc.emulator;
 
 import java.io.*;
+import java.util.Arrays;
 
 //The reason this exists is that standard Java PriorityQueue breaks ties in arbitiary way. This
 //application requires that ties are broken deterministically. In this case, the policy is first-
@@ -37,26 +38,23 @@ import java.io.*;
 
 
 /**
- *
+ * Binary heap of enabled timers, ordered by expiry and then by the order they
+ * were offered in. Each timer remembers its slot in the heap, so removal does
+ * not need to search for it.
  * @author Ilari Liusvaara
  */
 public class TimerPriorityQueue implements SRDumpable
 {
-    private Node first, last;
-
-    public static class Node
-    {
-        public Timer timer;
-        public Node next;
-    }
+    private Timer[] heap;
+    private int size;
+    private long nextSequence;
 
     public void dumpSRPartial(SRDumper output) throws IOException
     {
-        Node current = first;
-        while(current != null) {
+        //Same format as when this was a sorted list.
+        for(Timer t : sortedTimers()) {
             output.dumpBoolean(true);
-            output.dumpObject(current.timer);
-            current = current.next;
+            output.dumpObject(t);
         }
         output.dumpBoolean(false);
     }
@@ -64,29 +62,38 @@ public class TimerPriorityQueue implements SRDumpable
     public TimerPriorityQueue(SRLoader input) throws IOException
     {
         input.objectCreated(this);
+        heap = new Timer[16];
         boolean present = input.loadBoolean();
-        first = null;
         while(present) {
-            if(last != null)
-                last = last.next = new Node();
-            else
-                last = first = new Node();
-            last.timer = (Timer)input.loadObject();
+            offer((Timer)input.loadObject());
             present = input.loadBoolean();
         }
     }
 
     public TimerPriorityQueue()
     {
+        heap = new Timer[16];
+    }
+
+    //Insertion sort, as there are few timers and it works with any comparison.
+    private Timer[] sortedTimers()
+    {
+        Timer[] sorted = Arrays.copyOf(heap, size);
+        for(int i = 1; i < size; i++) {
+            Timer t = sorted[i];
+            int j = i;
+            for(; j > 0 && before(t, sorted[j - 1]); j--)
+                sorted[j] = sorted[j - 1];
+            sorted[j] = t;
+        }
+        return sorted;
     }
 
     public void dumpStatusPartial(StatusDumper output)
     {
         //super.dumpStatusPartial(output); <no superclass 20090704>
-        Node current = first;
-        while(current != null) {
-            output.println("\ttimernode <object #" + output.objectNumber(current.timer) + ">"); if(current.timer != null) current.timer.dumpStatus(output);
-            current = current.next;
+        for(Timer t : sortedTimers()) {
+            output.println("\ttimernode <object #" + output.objectNumber(t) + ">"); if(t != null) t.dumpStatus(output);
         }
     }
 
@@ -102,59 +109,100 @@ public class TimerPriorityQueue implements SRDumpable
 
     public Timer peek()
     {
-        if(first != null)
-            return first.timer;
+        if(size > 0)
+            return heap[0];
         else
             return null;
     }
 
     public void remove(Timer t)
     {
-        Node previousNode = null;
-        Node currentNode = first;
-
-        while(currentNode != null) {
-            if(currentNode.timer == t) {
-                if(previousNode == null)
-                    first = currentNode.next;
-                else
-                    previousNode.next = currentNode.next;
-                if(currentNode == last)
-                    last = previousNode;
-                return;
-            }
-            previousNode = currentNode;
-            currentNode = currentNode.next;
-        }
+        int index = t.queueIndex;
+        if(index < 0 || index >= size || heap[index] != t)
+            return;
+
+        t.queueIndex = -1;
+        Timer moved = heap[--size];
+        heap[size] = null;
+        if(index == size)
+            return;
+        heap[index] = moved;
+        moved.queueIndex = index;
+        if(index > 0 && before(moved, heap[(index - 1) >> 1]))
+            siftUp(index);
+        else
+            siftDown(index);
     }
 
     public void offer(Timer t)
     {
-        Node newNode = new Node();
-        newNode.timer = t;
-        Node previousNode = null;
-        Node currentNode = first;
-
-        while(currentNode != null) {
-            if(t.compareTo(currentNode.timer) < 0) {
-                //This is the first node that's later than node to be added. Insert
-                //between previousNode and currentNode.
-                newNode.next = currentNode;
-                if(previousNode == null)
-                    first = newNode;
-                else
-                    previousNode.next = newNode;
-                return;
-            }
-            previousNode = currentNode;
-            currentNode = currentNode.next;
-         }
-        //All existing timers should go first.
-        if(previousNode != null)
-            previousNode.next = newNode;
+        if(size == heap.length)
+            heap = Arrays.copyOf(heap, 2 * size);
+        t.queueSequence = nextSequence++;
+        heap[size] = t;
+        t.queueIndex = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Same as <code>remove</code> followed by <code>offer</code>, but moves
+     * the timer within the heap if it is already there.
+     * @param t timer whose expiry may have changed.
+     */
+    public void reschedule(Timer t)
+    {
+        int index = t.queueIndex;
+        if(index < 0 || index >= size || heap[index] != t) {
+            offer(t);
+            return;
+        }
+
+        t.queueSequence = nextSequence++;
+        if(index > 0 && before(t, heap[(index - 1) >> 1]))
+            siftUp(index);
         else
-            first = newNode;
-        last = newNode;
+            siftDown(index);
+    }
+
+    //Ties go to the timer offered first.
+    private static boolean before(Timer a, Timer b)
+    {
+        int order = a.compareTo(b);
+        return order < 0 || (order == 0 && a.queueSequence < b.queueSequence);
+    }
+
+    private void siftUp(int index)
+    {
+        Timer t = heap[index];
+        while(index > 0) {
+            int parent = (index - 1) >> 1;
+            if(!before(t, heap[parent]))
+                break;
+            heap[index] = heap[parent];
+            heap[index].queueIndex = index;
+            index = parent;
+        }
+        heap[index] = t;
+        t.queueIndex = index;
+    }
+
+    private void siftDown(int index)
+    {
+        Timer t = heap[index];
+        while(true) {
+            int child = 2 * index + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && before(heap[child + 1], heap[child]))
+                child++;
+            if(!before(heap[child], t))
+                break;
+            heap[index] = heap[child];
+            heap[index].queueIndex = index;
+            index = child;
+        }
+        heap[index] = t;
+        t.queueIndex = index;
     }
 
     public String toString()
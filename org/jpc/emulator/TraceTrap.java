@@ -34,8 +34,11 @@ import java.io.*;
 
 public class TraceTrap extends AbstractHardwareComponent implements TimerResponsive
 {
-    private long traceFlags;
+    private volatile long traceFlags;
+    private volatile long pauseFlags;
     private boolean trapActive;
+    private boolean stopHit;
+    private boolean pauseHit;
     private Timer trapTimer;
     private Processor processor;
     public final static long TRACE_STOP_VRETRACE_START = 0x00000001;
@@ -60,7 +63,7 @@ public class TraceTrap extends AbstractHardwareComponent implements TimerRespons
         trapTimer.disable();
     }
 
-    public synchronized boolean getAndClearTrapActive()
+    public boolean getAndClearTrapActive()
     {
        boolean tmp = trapActive;
        trapActive = false;
@@ -68,7 +71,7 @@ public class TraceTrap extends AbstractHardwareComponent implements TimerRespons
        return tmp;
     }
 
-    public synchronized void setTrapFlag(long flag, boolean status)
+    public void setTrapFlag(long flag, boolean status)
     {
         if(status)
             traceFlags |= flag;
@@ -77,7 +80,7 @@ public class TraceTrap extends AbstractHardwareComponent implements TimerRespons
         System.err.println("Informational: Trap flags now " + traceFlags + ".");
     }
 
-    public synchronized void setTrapFlags(long flags)
+    public void setTrapFlags(long flags)
     {
         long oldFlags = traceFlags;
         traceFlags = flags;
@@ -85,16 +88,45 @@ public class TraceTrap extends AbstractHardwareComponent implements TimerRespons
             System.err.println("Informational: Trap flags now " + traceFlags + ".");
     }
 
-    public synchronized long getTrapFlags()
+    public long getTrapFlags()
     {
         return traceFlags;
     }
 
-    public synchronized void doPotentialTrap(long flag)
+    /**
+     * Sets conditions that only pause execution so runner can do something (like take a
+     * rewind snapshot) and continue without stopping the PC.
+     */
+    public void setPauseFlags(long flags)
+    {
+        pauseFlags = flags;
+    }
+
+    public boolean getAndClearStopHit()
+    {
+        boolean tmp = stopHit;
+        stopHit = false;
+        return tmp;
+    }
+
+    public boolean getAndClearPauseHit()
+    {
+        boolean tmp = pauseHit;
+        pauseHit = false;
+        return tmp;
+    }
+
+    public void doPotentialTrap(long flag)
     {
         if(((traceFlags | TRACE_STOP_IMMEDIATE) & flag) != 0) {
             System.err.println("Informational: Doing trap because of " + (traceFlags & flag) + ".");
             trapActive = true;
+            stopHit = true;
+            processor.eflagsMachineHalt = true;
+        }
+        if((pauseFlags & flag) != 0) {
+            trapActive = true;
+            pauseHit = true;
             processor.eflagsMachineHalt = true;
         }
     }
@@ -105,6 +105,30 @@ public abstract class AddressSpace extends AbstractMemory
      */
     protected abstract Memory getWriteMemoryBlockAt(int offset);
 
+    /**
+     * Returns the block that reads of <code>offset</code> go to, if they
+     * can go to it directly without any effect on this address space, or
+     * <code>null</code>.
+     * @param offset address to be read.
+     * @return block covering this address, or <code>null</code>.
+     */
+    public Memory getDirectReadBlock(int offset)
+    {
+        return null;
+    }
+
+    /**
+     * Returns the block that writes to <code>offset</code> go to, if they
+     * can go to it directly without any effect on this address space, or
+     * <code>null</code>.
+     * @param offset address to be written to.
+     * @return block covering this address, or <code>null</code>.
+     */
+    public Memory getDirectWriteBlock(int offset)
+    {
+        return null;
+    }
+
     public abstract void clear();
 
     public byte getByte(int offset)
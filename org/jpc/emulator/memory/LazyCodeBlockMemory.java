@@ -35,6 +35,8 @@ import org.jpc.emulator.SRDumper;
 import org.jpc.emulator.TraceTrap;
 import java.util.Arrays;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import org.jpc.emulator.memory.codeblock.*;
 import org.jpc.emulator.processor.Processor;
 
@@ -51,12 +53,39 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
     private CodeBlockManager codeBlockManager;
     private static final BlankCodeBlock PLACEHOLDER = new BlankCodeBlock();
-    private RealModeCodeBlock[] realCodeBuffer;
-    private ProtectedModeCodeBlock[] protectedCodeBuffer;
-    private Virtual8086ModeCodeBlock[] virtual8086CodeBuffer;
+    private CodeBlockIndex realCodeBuffer;
+    private CodeBlockIndex protectedCodeBuffer;
+    private CodeBlockIndex virtual8086CodeBuffer;
     private static final int ALLOCATION_THRESHOLD = 10;
+    /**
+     * Whether writes consult the watch bitmap before scanning the code block
+     * arrays for blocks to invalidate.
+     */
+    public static volatile boolean WRITE_WATCH = true;
+    /**
+     * Whether code blocks are indexed by a bitmap of covered bytes plus a map
+     * of block start offsets, instead of object arrays as large as the page.
+     * Takes effect for indices constructed afterwards.
+     */
+    public static volatile boolean COMPACT_CODE_INDEX = true;
+    /**
+     * Whether multi-byte accesses go through a little-endian view of the
+     * buffer instead of assembling values a byte at a time. Takes effect for
+     * buffers allocated afterwards.
+     */
+    public static volatile boolean VIEW_ACCESS = true;
+    private static long regionScans, regionScansSkipped, blocksInvalidated;
+    //Bit set for each byte that has a block or placeholder in any of the arrays.
+    private int[] watched;
     private final int size;
     private byte[] buffer = null;
+    //Index of byte 0 of this block in buffer.
+    private int base = 0;
+    //Shared RAM array to allocate the buffer in instead, or null. Not saved.
+    private byte[] store = null;
+    private int storeOffset;
+    //Little-endian view of buffer, or null. Not saved.
+    private ByteBuffer view = null;
     private int nullReadCount = 0;
     private TraceTrap page0Hack;   //Not a real hack.
 
@@ -75,7 +104,7 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         super.dumpStatusPartial(output);
         output.println("\tsize " + size + " nullReadCount " + nullReadCount);
         output.println("\tbuffer:");
-        output.printArray(buffer, "buffer");
+        output.printArray((buffer != null && buffer == store) ? Arrays.copyOfRange(buffer, base, base + size) : buffer, "buffer");
         //Skip the codeblocks. They are cache.
     }
 
@@ -93,7 +122,10 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     {
         super.dumpSRPartial(output);
         output.dumpInt(size);
-        output.dumpArray(buffer);
+        if(buffer != null && buffer == store)
+            output.dumpArray(buffer, base, size);
+        else
+            output.dumpArray(buffer);
         output.dumpInt(nullReadCount);
         output.dumpObject(codeBlockManager);
         output.dumpBoolean(false);  //FPU hack flag no longer supported.
@@ -105,6 +137,7 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         super(input);
         size = input.loadInt();
         buffer = input.loadArrayByte();
+        view = createView();
         nullReadCount = input.loadInt();
         codeBlockManager = (CodeBlockManager)input.loadObject();
         if(input.objectEndsHere())
@@ -126,77 +159,175 @@ public class LazyCodeBlockMemory extends AbstractMemory {
      * Should probably be made private.
      */
     protected void constructCodeBlocksArray() {
-        realCodeBuffer = new RealModeCodeBlock[(int) getSize()];
-        protectedCodeBuffer = new ProtectedModeCodeBlock[(int) getSize()];
-        virtual8086CodeBuffer = new Virtual8086ModeCodeBlock[(int) getSize()];
+        if(codeBlockManager != null)
+            codeBlockManager.invalidateLinks();
+        realCodeBuffer = new CodeBlockIndex(size);
+        protectedCodeBuffer = new CodeBlockIndex(size);
+        virtual8086CodeBuffer = new CodeBlockIndex(size);
+        watched = new int[(size + 31) >>> 5];
     }
 
     private void constructRealCodeBlocksArray() {
-        realCodeBuffer = new RealModeCodeBlock[(int) getSize()];
+        realCodeBuffer = new CodeBlockIndex(size);
+        constructWatchBitmap();
     }
 
     private void constructVirtual8086CodeBlocksArray() {
-        virtual8086CodeBuffer = new Virtual8086ModeCodeBlock[(int) getSize()];
+        virtual8086CodeBuffer = new CodeBlockIndex(size);
+        constructWatchBitmap();
     }
 
     private void constructProtectedCodeBlocksArray() {
-        protectedCodeBuffer = new ProtectedModeCodeBlock[(int) getSize()];
+        protectedCodeBuffer = new CodeBlockIndex(size);
+        constructWatchBitmap();
+    }
+
+    private void constructWatchBitmap() {
+        if(watched == null)
+            watched = new int[(size + 31) >>> 5];
+    }
+
+    /**
+     * Sets the watch bits of <code>[start, end)</code>.
+     */
+    private void watch(int start, int end) {
+        for(int i = start; i < end; i++)
+            watched[i >>> 5] |= 1 << i;
+    }
+
+    /**
+     * Recomputes the watch bits of <code>[start, end)</code> from the code
+     * block arrays.
+     */
+    private void rewatch(int start, int end) {
+        for(int i = start; i < end; i++) {
+            if((realCodeBuffer != null && realCodeBuffer.get(i) != null) ||
+                (protectedCodeBuffer != null && protectedCodeBuffer.get(i) != null) ||
+                (virtual8086CodeBuffer != null && virtual8086CodeBuffer.get(i) != null))
+                watched[i >>> 5] |= 1 << i;
+            else
+                watched[i >>> 5] &= ~(1 << i);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if any watch bit of <code>[start, end]</code>
+     * is set.
+     */
+    private boolean isWatched(int start, int end) {
+        for(int i = start >>> 5; i <= end >>> 5; i++) {
+            int word = watched[i];
+            if(i == start >>> 5)
+                word &= -1 << start;
+            if(i == end >>> 5)
+                word &= -1 >>> (31 - (end & 31));
+            if(word != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns counts of writes that scanned for code blocks to invalidate,
+     * writes that skipped the scan and blocks invalidated.
+     * @return statistics in human readable form.
+     */
+    public static String getWriteWatchStatistics()
+    {
+        return regionScans + " scans, " + regionScansSkipped + " skipped, " + blocksInvalidated +
+            " blocks invalidated";
     }
 
     public int executeProtected(Processor cpu, int offset) {
-        int x86Count = 0;
         int ip = cpu.getInstructionPointer();
 
         offset = ip & AddressSpace.BLOCK_MASK;
-        ProtectedModeCodeBlock block = getProtectedModeCodeBlockAt(offset);
+        return executeProtected(cpu, ip, getProtectedModeCodeBlockAt(offset));
+    }
+
+    /**
+     * Execute given protected mode block, which is either the block stored at
+     * instruction pointer or a block linked to it.
+     * @param cpu processor to execute on.
+     * @param ip linear address of instruction pointer.
+     * @param block block to execute.
+     * @return number of instructions executed.
+     */
+    public int executeProtected(Processor cpu, int ip, ProtectedModeCodeBlock block) {
+        int x86Count = 0;
+        int offset = ip & AddressSpace.BLOCK_MASK;
+
+        if(block == null || block == PLACEHOLDER) {
+            block = codeBlockManager.getProtectedModeCodeBlockAt(this, offset, cpu.cs.getDefaultSizeFlag());
+            setProtectedCodeBlockAt(offset, block);
+        }
+
         try
         {
-            try
-            {
-                x86Count += block.execute(cpu);
-            }
-            catch (NullPointerException e)
-            {
-                block = codeBlockManager.getProtectedModeCodeBlockAt(this, offset, cpu.cs.getDefaultSizeFlag());
-                setProtectedCodeBlockAt(offset, block);
-                x86Count += block.execute(cpu);
-            }
+            codeBlockManager.protectedModeBlockEntered(ip, this, block);
+            x86Count += block.execute(cpu);
         }
         catch (CodeBlockReplacementException e)
         {
             block = (ProtectedModeCodeBlock) e.getReplacement();
-            protectedCodeBuffer[offset] = block;
+            protectedCodeBuffer.set(offset, block);
+            watch(offset, offset + 1);
+            codeBlockManager.invalidateLinks();
             x86Count += block.execute(cpu);
         }
+        catch (NullPointerException e)
+        {
+            System.err.println("Critical error: NullPointerException in protected mode block at eip = " +
+                Integer.toHexString(cpu.eip) + ": " + block);
+            throw e;
+        }
 
         return x86Count;
     }
 
     public int executeReal(Processor cpu, int offset) {
-        int x86Count = 0;
         int ip = cpu.getInstructionPointer();
 
         offset = ip & AddressSpace.BLOCK_MASK;
-        RealModeCodeBlock block = getRealModeCodeBlockAt(offset);
+        return executeReal(cpu, ip, getRealModeCodeBlockAt(offset));
+    }
+
+    /**
+     * Execute given real mode block, which is either the block stored at
+     * instruction pointer or a block linked to it.
+     * @param cpu processor to execute on.
+     * @param ip linear address of instruction pointer.
+     * @param block block to execute.
+     * @return number of instructions executed.
+     */
+    public int executeReal(Processor cpu, int ip, RealModeCodeBlock block) {
+        int x86Count = 0;
+        int offset = ip & AddressSpace.BLOCK_MASK;
+
+        if(block == null || block == PLACEHOLDER) {
+            block = codeBlockManager.getRealModeCodeBlockAt(this, offset);
+            setRealCodeBlockAt(offset, block);
+        }
+
         try
         {
-            try
-            {
-                x86Count += block.execute(cpu);
-            }
-            catch (NullPointerException e)
-            {
-                block = codeBlockManager.getRealModeCodeBlockAt(this, offset);
-                setRealCodeBlockAt(offset, block);
-                x86Count += block.execute(cpu);
-            }
+            codeBlockManager.realModeBlockEntered(ip, this, block);
+            x86Count += block.execute(cpu);
         }
         catch (CodeBlockReplacementException e)
         {
             block = (RealModeCodeBlock) e.getReplacement();
-            realCodeBuffer[offset] = block;
+            realCodeBuffer.set(offset, block);
+            watch(offset, offset + 1);
+            codeBlockManager.invalidateLinks();
             x86Count += block.execute(cpu);
         }
+        catch (NullPointerException e)
+        {
+            System.err.println("Critical error: NullPointerException in real mode block at eip = " +
+                Integer.toHexString(cpu.eip) + ": " + block);
+            throw e;
+        }
 
         return x86Count;
     }
@@ -207,147 +338,153 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
         offset = ip & AddressSpace.BLOCK_MASK;
         Virtual8086ModeCodeBlock block = getVirtual8086ModeCodeBlockAt(offset);
+        if(block == null || block == PLACEHOLDER) {
+            block = codeBlockManager.getVirtual8086ModeCodeBlockAt(this, offset);
+            setVirtual8086CodeBlockAt(offset, block);
+        }
+
         try
         {
-            try
-            {
-                x86Count += block.execute(cpu);
-            }
-            catch (NullPointerException e)
-            {
-                block = codeBlockManager.getVirtual8086ModeCodeBlockAt(this, offset);
-                setVirtual8086CodeBlockAt(offset, block);
-                x86Count += block.execute(cpu);
-            }
+            x86Count += block.execute(cpu);
         }
         catch (CodeBlockReplacementException e)
         {
             block = (Virtual8086ModeCodeBlock) e.getReplacement();
-            virtual8086CodeBuffer[offset] = block;
+            virtual8086CodeBuffer.set(offset, block);
+            watch(offset, offset + 1);
             x86Count += block.execute(cpu);
         }
+        catch (NullPointerException e)
+        {
+            System.err.println("Critical error: NullPointerException in virtual 8086 mode block at eip = " +
+                Integer.toHexString(cpu.eip) + ": " + block);
+            throw e;
+        }
 
         return x86Count;
     }
 
     private RealModeCodeBlock getRealModeCodeBlockAt(int offset) {
-        try {
-            return realCodeBuffer[offset];
-        } catch (NullPointerException e) {
+        if(realCodeBuffer == null)
             constructRealCodeBlocksArray();
-            return realCodeBuffer[offset];
-        }
+        return (RealModeCodeBlock) realCodeBuffer.get(offset);
     }
 
     private ProtectedModeCodeBlock getProtectedModeCodeBlockAt(int offset) {
-        try {
-            return protectedCodeBuffer[offset];
-        } catch (NullPointerException e) {
+        if(protectedCodeBuffer == null)
             constructProtectedCodeBlocksArray();
-            return protectedCodeBuffer[offset];
-        }
+        return (ProtectedModeCodeBlock) protectedCodeBuffer.get(offset);
     }
 
     private Virtual8086ModeCodeBlock getVirtual8086ModeCodeBlockAt(int offset) {
-        try {
-            return virtual8086CodeBuffer[offset];
-        } catch (NullPointerException e) {
+        if(virtual8086CodeBuffer == null)
             constructVirtual8086CodeBlocksArray();
-            return virtual8086CodeBuffer[offset];
-        }
+        return (Virtual8086ModeCodeBlock) virtual8086CodeBuffer.get(offset);
     }
 
     private void removeVirtual8086CodeBlockAt(int offset)
     {
-        Virtual8086ModeCodeBlock b = virtual8086CodeBuffer[offset];
+        Virtual8086ModeCodeBlock b = (Virtual8086ModeCodeBlock) virtual8086CodeBuffer.get(offset);
         if((b == null) || (b == PLACEHOLDER))
             return;
 
-        virtual8086CodeBuffer[offset] = null;
+        codeBlockManager.invalidateLinks();
+        virtual8086CodeBuffer.set(offset, null);
         int len = b.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < virtual8086CodeBuffer.length); i++)
-            if(virtual8086CodeBuffer[i] == PLACEHOLDER)
-                virtual8086CodeBuffer[i] = null;
+        int alteredEnd = Math.max(offset + len, offset + 1);
+        for(int i = offset + 1; (i < offset + len) && (i < virtual8086CodeBuffer.length()); i++)
+            if(virtual8086CodeBuffer.get(i) == PLACEHOLDER)
+                virtual8086CodeBuffer.set(i, null);
 
-        for(int i = Math.min(offset + len, virtual8086CodeBuffer.length) - 1; i >= 0; i--) {
-            if(virtual8086CodeBuffer[i] == null) {
+        for(int i = Math.min(offset + len, virtual8086CodeBuffer.length()) - 1; i >= 0; i--) {
+            if(virtual8086CodeBuffer.get(i) == null) {
                 if(i < offset)
                     break;
                 else
                     continue;
             }
-            if(virtual8086CodeBuffer[i] == PLACEHOLDER)
+            if(virtual8086CodeBuffer.get(i) == PLACEHOLDER)
                 continue;
 
-            Virtual8086ModeCodeBlock bb = virtual8086CodeBuffer[i];
+            Virtual8086ModeCodeBlock bb = (Virtual8086ModeCodeBlock) virtual8086CodeBuffer.get(i);
             len = bb.getX86Length();
+            alteredEnd = Math.max(alteredEnd, i + len);
 
-            for(int j = i + 1; (j < i + len) && (j < virtual8086CodeBuffer.length); j++)
-                if(virtual8086CodeBuffer[j] == null)
-                    virtual8086CodeBuffer[j] = PLACEHOLDER;
+            for(int j = i + 1; (j < i + len) && (j < virtual8086CodeBuffer.length()); j++)
+                if(virtual8086CodeBuffer.get(j) == null)
+                    virtual8086CodeBuffer.set(j, PLACEHOLDER);
         }
+        rewatch(offset, Math.min(alteredEnd, virtual8086CodeBuffer.length()));
     }
 
     private void removeProtectedCodeBlockAt(int offset)
     {
-        ProtectedModeCodeBlock b = protectedCodeBuffer[offset];
+        ProtectedModeCodeBlock b = (ProtectedModeCodeBlock) protectedCodeBuffer.get(offset);
         if((b == null) || (b == PLACEHOLDER))
             return;
 
-        protectedCodeBuffer[offset] = null;
+        codeBlockManager.invalidateLinks();
+        protectedCodeBuffer.set(offset, null);
         int len = b.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < protectedCodeBuffer.length); i++)
-            if(protectedCodeBuffer[i] == PLACEHOLDER)
-                protectedCodeBuffer[i] = null;
+        int alteredEnd = Math.max(offset + len, offset + 1);
+        for(int i = offset + 1; (i < offset + len) && (i < protectedCodeBuffer.length()); i++)
+            if(protectedCodeBuffer.get(i) == PLACEHOLDER)
+                protectedCodeBuffer.set(i, null);
 
-        for(int i = Math.min(offset + len, protectedCodeBuffer.length) - 1; i >= 0; i--) {
-            if(protectedCodeBuffer[i] == null) {
+        for(int i = Math.min(offset + len, protectedCodeBuffer.length()) - 1; i >= 0; i--) {
+            if(protectedCodeBuffer.get(i) == null) {
                 if(i < offset)
                     break;
                 else
                     continue;
             }
-            if(protectedCodeBuffer[i] == PLACEHOLDER)
+            if(protectedCodeBuffer.get(i) == PLACEHOLDER)
                 continue;
 
-            ProtectedModeCodeBlock bb = protectedCodeBuffer[i];
+            ProtectedModeCodeBlock bb = (ProtectedModeCodeBlock) protectedCodeBuffer.get(i);
             len = bb.getX86Length();
+            alteredEnd = Math.max(alteredEnd, i + len);
 
-            for(int j = i + 1; (j < i + len) && (j < protectedCodeBuffer.length); j++)
-                if(protectedCodeBuffer[j] == null)
-                    protectedCodeBuffer[j] = PLACEHOLDER;
+            for(int j = i + 1; (j < i + len) && (j < protectedCodeBuffer.length()); j++)
+                if(protectedCodeBuffer.get(j) == null)
+                    protectedCodeBuffer.set(j, PLACEHOLDER);
         }
+        rewatch(offset, Math.min(alteredEnd, protectedCodeBuffer.length()));
     }
 
     private void removeRealCodeBlockAt(int offset)
     {
-        RealModeCodeBlock b = realCodeBuffer[offset];
+        RealModeCodeBlock b = (RealModeCodeBlock) realCodeBuffer.get(offset);
         if((b == null) || (b == PLACEHOLDER))
             return;
 
-        realCodeBuffer[offset] = null;
+        codeBlockManager.invalidateLinks();
+        realCodeBuffer.set(offset, null);
         int len = b.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < realCodeBuffer.length); i++)
-            if(realCodeBuffer[i] == PLACEHOLDER)
-                realCodeBuffer[i] = null;
+        int alteredEnd = Math.max(offset + len, offset + 1);
+        for(int i = offset + 1; (i < offset + len) && (i < realCodeBuffer.length()); i++)
+            if(realCodeBuffer.get(i) == PLACEHOLDER)
+                realCodeBuffer.set(i, null);
 
-        for(int i = Math.min(offset + len, realCodeBuffer.length) - 1; i >= 0; i--) {
-            if(realCodeBuffer[i] == null) {
+        for(int i = Math.min(offset + len, realCodeBuffer.length()) - 1; i >= 0; i--) {
+            if(realCodeBuffer.get(i) == null) {
                 if(i < offset)
                     break;
                 else
                     continue;
             }
-            if(realCodeBuffer[i] == PLACEHOLDER)
+            if(realCodeBuffer.get(i) == PLACEHOLDER)
                 continue;
 
-            RealModeCodeBlock bb = realCodeBuffer[i];
+            RealModeCodeBlock bb = (RealModeCodeBlock) realCodeBuffer.get(i);
             len = bb.getX86Length();
+            alteredEnd = Math.max(alteredEnd, i + len);
 
-            for(int j = i + 1; (j < i + len) && (j < realCodeBuffer.length); j++)
-                if(realCodeBuffer[j] == null)
-                    realCodeBuffer[j] = PLACEHOLDER;
+            for(int j = i + 1; (j < i + len) && (j < realCodeBuffer.length()); j++)
+                if(realCodeBuffer.get(j) == null)
+                    realCodeBuffer.set(j, PLACEHOLDER);
         }
+        rewatch(offset, Math.min(alteredEnd, realCodeBuffer.length()));
     }
 
     private void setVirtual8086CodeBlockAt(int offset, Virtual8086ModeCodeBlock block)
@@ -356,11 +493,12 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         if(block == null)
             return;
 
-        virtual8086CodeBuffer[offset] = block;
+        virtual8086CodeBuffer.set(offset, block);
         int len = block.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < virtual8086CodeBuffer.length); i++)
-            if(virtual8086CodeBuffer[i] == null)
-                virtual8086CodeBuffer[i] = PLACEHOLDER;
+        for(int i = offset + 1; (i < offset + len) && (i < virtual8086CodeBuffer.length()); i++)
+            if(virtual8086CodeBuffer.get(i) == null)
+                virtual8086CodeBuffer.set(i, PLACEHOLDER);
+        watch(offset, Math.min(Math.max(offset + len, offset + 1), virtual8086CodeBuffer.length()));
     }
 
     private void setProtectedCodeBlockAt(int offset, ProtectedModeCodeBlock block)
@@ -369,11 +507,12 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         if(block == null)
             return;
 
-        protectedCodeBuffer[offset] = block;
+        protectedCodeBuffer.set(offset, block);
         int len = block.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < protectedCodeBuffer.length); i++)
-            if(protectedCodeBuffer[i] == null)
-                protectedCodeBuffer[i] = PLACEHOLDER;
+        for(int i = offset + 1; (i < offset + len) && (i < protectedCodeBuffer.length()); i++)
+            if(protectedCodeBuffer.get(i) == null)
+                protectedCodeBuffer.set(i, PLACEHOLDER);
+        watch(offset, Math.min(Math.max(offset + len, offset + 1), protectedCodeBuffer.length()));
     }
 
     private void setRealCodeBlockAt(int offset, RealModeCodeBlock block)
@@ -382,17 +521,27 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         if(block == null)
             return;
 
-        realCodeBuffer[offset] = block;
+        realCodeBuffer.set(offset, block);
         int len = block.getX86Length();
-        for(int i = offset + 1; (i < offset + len) && (i < realCodeBuffer.length); i++)
-            if(realCodeBuffer[i] == null)
-                realCodeBuffer[i] = PLACEHOLDER;
+        for(int i = offset + 1; (i < offset + len) && (i < realCodeBuffer.length()); i++)
+            if(realCodeBuffer.get(i) == null)
+                realCodeBuffer.set(i, PLACEHOLDER);
+        watch(offset, Math.min(Math.max(offset + len, offset + 1), realCodeBuffer.length()));
     }
 
     private void regionAltered(int start, int end) {
+        if(realCodeBuffer == null && protectedCodeBuffer == null && virtual8086CodeBuffer == null)
+            return;
+        //The scans below touch no block if there is nothing from start - 1 to end.
+        if(WRITE_WATCH && end < size && !isWatched(Math.max(start - 1, 0), end)) {
+            regionScansSkipped++;
+            return;
+        }
+        regionScans++;
+
         if(realCodeBuffer != null) {
             for(int i = end; i >= 0; i--) {
-                RealModeCodeBlock b = realCodeBuffer[i];
+                RealModeCodeBlock b = (RealModeCodeBlock) realCodeBuffer.get(i);
                 if(b == null) {
                     if(i < start)
                         break;
@@ -406,13 +555,14 @@ public class LazyCodeBlockMemory extends AbstractMemory {
                 if(!b.handleMemoryRegionChange(start, end)) {
                     removeRealCodeBlockAt(i);
                     b.invalidate();
+                    blocksInvalidated++;
                 }
             }
         }
 
         if(protectedCodeBuffer != null) {
             for(int i = end; i >= 0; i--) {
-                ProtectedModeCodeBlock b = protectedCodeBuffer[i];
+                ProtectedModeCodeBlock b = (ProtectedModeCodeBlock) protectedCodeBuffer.get(i);
                 if(b == null) {
                     if(i < start)
                         break;
@@ -426,13 +576,14 @@ public class LazyCodeBlockMemory extends AbstractMemory {
                 if(!b.handleMemoryRegionChange(start, end)) {
                     removeProtectedCodeBlockAt(i);
                     b.invalidate();
+                    blocksInvalidated++;
                 }
             }
         }
 
         if(virtual8086CodeBuffer != null) {
             for(int i = end; i >= 0; i--) {
-                Virtual8086ModeCodeBlock b = virtual8086CodeBuffer[i];
+                Virtual8086ModeCodeBlock b = (Virtual8086ModeCodeBlock) virtual8086CodeBuffer.get(i);
                 if(b == null) {
                     if(i < start)
                         break;
@@ -446,6 +597,7 @@ public class LazyCodeBlockMemory extends AbstractMemory {
                 if(!b.handleMemoryRegionChange(start, end)) {
                     removeVirtual8086CodeBlockAt(i);
                     b.invalidate();
+                    blocksInvalidated++;
                 }
             }
         }
@@ -453,10 +605,18 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
     public void clear()
     {
+        if(codeBlockManager != null)
+            codeBlockManager.invalidateLinks();
         realCodeBuffer = null;
         protectedCodeBuffer = null;
         virtual8086CodeBuffer = null;
+        watched = null;
+        //Unallocated parts of the shared array are kept zero.
+        if(buffer != null && buffer == store)
+            Arrays.fill(buffer, base, base + size, (byte)0);
         buffer = null;
+        base = 0;
+        view = null;
     }
 
     public String toString()
@@ -464,6 +624,124 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         return "LazyCodeBlockMemory[" + getSize() + "]";
     }
 
+    /**
+     * Code blocks of one processor mode in a page, with <code>PLACEHOLDER</code>
+     * at bytes covered by a block starting before them and <code>null</code>
+     * elsewhere.  Either backed by an array with an entry per byte, or by a
+     * bitmap of non-null bytes and an open addressed map from block start
+     * offsets to blocks, which is much smaller when the page holds little code.
+     */
+    private static final class CodeBlockIndex
+    {
+        private final int length;
+        private final CodeBlock[] array;
+        private final int[] present;
+        private int[] keys;     //Offset + 1, 0 for a free slot.
+        private CodeBlock[] values;
+        private int count;
+
+        CodeBlockIndex(int length)
+        {
+            this.length = length;
+            if(COMPACT_CODE_INDEX) {
+                array = null;
+                present = new int[(length + 31) >>> 5];
+                keys = new int[16];
+                values = new CodeBlock[16];
+            } else {
+                array = new CodeBlock[length];
+                present = null;
+            }
+        }
+
+        int length()
+        {
+            return length;
+        }
+
+        CodeBlock get(int offset)
+        {
+            if(array != null)
+                return array[offset];
+            if((present[offset >>> 5] & (1 << offset)) == 0)
+                return null;
+            int mask = keys.length - 1;
+            for(int i = hash(offset) & mask; keys[i] != 0; i = (i + 1) & mask)
+                if(keys[i] == offset + 1)
+                    return values[i];
+            return PLACEHOLDER;
+        }
+
+        void set(int offset, CodeBlock block)
+        {
+            if(array != null) {
+                array[offset] = block;
+                return;
+            }
+            if(block == null)
+                present[offset >>> 5] &= ~(1 << offset);
+            else
+                present[offset >>> 5] |= 1 << offset;
+            if(block == null || block == PLACEHOLDER)
+                remove(offset);
+            else
+                put(offset, block);
+        }
+
+        private static int hash(int offset)
+        {
+            return (offset * 0x9E3779B1) >>> 16;
+        }
+
+        private void put(int offset, CodeBlock block)
+        {
+            int mask = keys.length - 1;
+            int i = hash(offset) & mask;
+            for(; keys[i] != 0; i = (i + 1) & mask)
+                if(keys[i] == offset + 1) {
+                    values[i] = block;
+                    return;
+                }
+            keys[i] = offset + 1;
+            values[i] = block;
+            if(++count > keys.length / 2)
+                rehash(2 * keys.length);
+        }
+
+        private void remove(int offset)
+        {
+            int mask = keys.length - 1;
+            int i = hash(offset) & mask;
+            for(; keys[i] != offset + 1; i = (i + 1) & mask)
+                if(keys[i] == 0)
+                    return;
+            //Shift later entries of the probe run back into the hole.
+            for(int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j] - 1) & mask;
+                if(((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0;
+            values[i] = null;
+            count--;
+        }
+
+        private void rehash(int capacity)
+        {
+            int[] oldKeys = keys;
+            CodeBlock[] oldValues = values;
+            keys = new int[capacity];
+            values = new CodeBlock[capacity];
+            count = 0;
+            for(int i = 0; i < oldKeys.length; i++)
+                if(oldKeys[i] != 0)
+                    put(oldKeys[i] - 1, oldValues[i]);
+        }
+    }
+
     //This class does not need to be dumpable because codeblocks can't be saved.
     private static class BlankCodeBlock implements RealModeCodeBlock, ProtectedModeCodeBlock, Virtual8086ModeCodeBlock
     {
@@ -488,6 +766,11 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         {
         }
 
+        public CodeBlockLink getSuccessors()
+        {
+            return null;
+        }
+
         public boolean handleMemoryRegionChange(int startAddress, int endAddress)
         {
             return false;
@@ -508,9 +791,9 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     {
         if(protectedCodeBuffer == null) {
             allocateBuffer();
-            protectedCodeBuffer = new ProtectedModeCodeBlock[(int) getSize()];
+            constructProtectedCodeBlocksArray();
         }
-        ProtectedModeCodeBlock block = protectedCodeBuffer[offset];
+        ProtectedModeCodeBlock block = (ProtectedModeCodeBlock) protectedCodeBuffer.get(offset);
         if((block != null) && (block != PLACEHOLDER))
             return block;
 
@@ -523,9 +806,9 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     {
         if(virtual8086CodeBuffer == null) {
             allocateBuffer();
-            virtual8086CodeBuffer = new Virtual8086ModeCodeBlock[(int) getSize()];
+            constructVirtual8086CodeBlocksArray();
         }
-        Virtual8086ModeCodeBlock block = virtual8086CodeBuffer[offset];
+        Virtual8086ModeCodeBlock block = (Virtual8086ModeCodeBlock) virtual8086CodeBuffer.get(offset);
         if((block != null) && (block != PLACEHOLDER))
             return block;
 
@@ -538,9 +821,9 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     {
         if(realCodeBuffer == null) {
             allocateBuffer();
-            realCodeBuffer = new RealModeCodeBlock[(int) getSize()];
+            constructRealCodeBlocksArray();
         }
-        RealModeCodeBlock block = realCodeBuffer[offset];
+        RealModeCodeBlock block = (RealModeCodeBlock) realCodeBuffer.get(offset);
         if((block != null) && (block != PLACEHOLDER))
             return block;
 
@@ -551,42 +834,111 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
     //begin lazy memory methods
     private final void allocateBuffer()
+    {
+        if(buffer == null) {
+            if(store != null) {
+                buffer = store;
+                base = storeOffset;
+            } else
+                buffer = new byte[size];
+            view = createView();
+        }
+    }
+
+    private ByteBuffer createView()
+    {
+        if(buffer == null || !VIEW_ACCESS)
+            return null;
+        return ByteBuffer.wrap(buffer, base, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    //Index of offset in buffer. Offsets outside the block fail like they
+    //would with a buffer of its own.
+    private int at(int offset)
+    {
+        if(offset < 0 || offset >= size)
+            throw new ArrayIndexOutOfBoundsException(offset);
+        return base + offset;
+    }
+
+    /**
+     * Makes the block keep its contents in <code>store</code> from
+     * <code>offset</code> on, copying them there if already allocated. The
+     * range must be zero and not used by any other block. Blocks already in
+     * a shared array stay where they are.
+     * @param store shared RAM array.
+     * @param offset index of byte 0 of this block in <code>store</code>.
+     */
+    void moveToStore(byte[] store, int offset)
+    {
+        if(this.store != null)
+            return;
+        this.store = store;
+        storeOffset = offset;
+        if(buffer != null) {
+            System.arraycopy(buffer, base, store, offset, size);
+            buffer = store;
+            base = offset;
+            view = createView();
+        }
+    }
+
+    /**
+     * Copies contents into array without side effects. Unlike
+     * <code>copyContentsIntoArray</code>, reading unallocated block gives
+     * zeroes without counting towards allocating it.
+     * @param address offset of first byte to copy.
+     * @param buf array to copy to.
+     * @param off index of first byte in <code>buf</code>.
+     * @param len number of bytes to copy.
+     */
+    void peekContentsIntoArray(int address, byte[] buf, int off, int len)
     {
         if(buffer == null)
-            buffer = new byte[size];
+            Arrays.fill(buf, off, off + len, (byte)0);
+        else
+            System.arraycopy(buffer, base + address, buf, off, len);
+    }
+
+    /**
+     * Returns <code>true</code> if the block keeps its contents in
+     * <code>store</code> from <code>offset</code> on. Unallocated blocks
+     * leave the range zero.
+     */
+    boolean isStoredAt(byte[] store, int offset)
+    {
+        return this.store == store && storeOffset == offset;
+    }
+
+    //True if the view holds length bytes from offset. Other accesses keep
+    //the byte at a time paths, which fail the way callers expect.
+    private boolean inView(int offset, int length)
+    {
+        return view != null && (offset | (size - length - offset)) >= 0;
     }
 
     public void copyContentsIntoArray(int address, byte[] buf, int off, int len)
     {
-        try {
-            System.arraycopy(buffer, address, buf, off, len);
-        } catch (NullPointerException e) {
-            if(++nullReadCount == ALLOCATION_THRESHOLD) {
-                allocateBuffer();
-                System.arraycopy(buffer, address, buf, off, len);
-            } else
+        if(buffer == null) {
+            if(++nullReadCount != ALLOCATION_THRESHOLD) {
                 Arrays.fill(buf, off, off + len, (byte) 0);
+                return;
+            }
+            allocateBuffer();
         }
+        System.arraycopy(buffer, base + address, buf, off, len);
     }
 
     public void loadInitialContents(int address, byte[] buf, int off, int len)
     {
-        try {
-            System.arraycopy(buf, off, buffer, address, len);
-        } catch (NullPointerException e) {
-            allocateBuffer();
-            System.arraycopy(buf, off, buffer, address, len);
-        }
+        allocateBuffer();
+        System.arraycopy(buf, off, buffer, base + address, len);
     }
 
     public void copyArrayIntoContents(int address, byte[] buf, int off, int len)
     {
-        try {
-            System.arraycopy(buf, off, buffer, address, len);
-        } catch (NullPointerException e) {
-            allocateBuffer();
-            System.arraycopy(buf, off, buffer, address, len);
-        }
+        allocateBuffer();
+        System.arraycopy(buf, off, buffer, base + address, len);
         regionAltered(address, address + len - 1);
     }
 
@@ -595,6 +947,128 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         return size;
     }
 
+    /**
+     * Returns <code>true</code> if writes to <code>[start, end]</code> could
+     * have to invalidate code blocks, so they can't skip the checks done by
+     * the accessors.
+     */
+    private boolean codeNear(int start, int end)
+    {
+        if(realCodeBuffer == null && protectedCodeBuffer == null && virtual8086CodeBuffer == null)
+            return false;
+        return watched == null || isWatched(Math.max(start - 1, 0), end);
+    }
+
+    /**
+     * Moves <code>count</code> elements of <code>|step|</code> bytes from
+     * <code>source</code> to this block, like a string move would: the
+     * offsets advance by <code>step</code> after each element. The result is
+     * that of the same sequence of <code>get</code>/<code>set</code> calls,
+     * including for overlapping elements. No element may come within
+     * <code>|step|</code> bytes of the end of either block.
+     * @param source block to read from.
+     * @param sourceOffset offset of first element in <code>source</code>.
+     * @param offset offset of first element in this block.
+     * @param count number of elements.
+     * @param step signed element size.
+     */
+    public void moveElements(LazyCodeBlockMemory source, int sourceOffset, int offset, int count, int step)
+    {
+        int size = Math.abs(step);
+        int bytes = count * size;
+        int start = (step > 0) ? offset : offset + (count - 1) * step;
+        int sourceStart = (step > 0) ? sourceOffset : sourceOffset + (count - 1) * step;
+        //Copying overlapping elements one at a time repeats them, arraycopy doesn't.
+        boolean overlap = source == this && start < sourceStart + bytes && sourceStart < start + bytes;
+        if(buffer != null && source.buffer != null && page0Hack == null && !overlap &&
+            !codeNear(start, start + bytes + size - 2)) {
+            System.arraycopy(source.buffer, source.base + sourceStart, buffer, base + start, bytes);
+            return;
+        }
+        for(int i = 0; i < count; i++, sourceOffset += step, offset += step) {
+            if(size == 1)
+                setByte(offset, source.getByte(sourceOffset));
+            else if(size == 2)
+                setWord(offset, source.getWord(sourceOffset));
+            else
+                setDoubleWord(offset, source.getDoubleWord(sourceOffset));
+        }
+    }
+
+    /**
+     * Stores <code>data</code> into <code>count</code> elements of
+     * <code>|step|</code> bytes, like a string store would. The result is
+     * that of the same sequence of <code>set</code> calls. No element may
+     * come within <code>|step|</code> bytes of the end of the block.
+     * @param offset offset of first element.
+     * @param count number of elements.
+     * @param step signed element size.
+     * @param data value to store.
+     */
+    public void storeElements(int offset, int count, int step, int data)
+    {
+        int size = Math.abs(step);
+        int bytes = count * size;
+        int start = (step > 0) ? offset : offset + (count - 1) * step;
+        if(buffer != null && page0Hack == null && !codeNear(start, start + bytes + size - 2)) {
+            if(size == 1) {
+                Arrays.fill(buffer, base + start, base + start + bytes, (byte)data);
+                return;
+            }
+            for(int i = base + start; i < base + start + bytes; i += size) {
+                buffer[i] = (byte)data;
+                buffer[i + 1] = (byte)(data >> 8);
+                if(size == 4) {
+                    buffer[i + 2] = (byte)(data >> 16);
+                    buffer[i + 3] = (byte)(data >> 24);
+                }
+            }
+            return;
+        }
+        for(int i = 0; i < count; i++, offset += step) {
+            if(size == 1)
+                setByte(offset, (byte)data);
+            else if(size == 2)
+                setWord(offset, (short)data);
+            else
+                setDoubleWord(offset, data);
+        }
+    }
+
+    /**
+     * Counts how many of up to <code>count</code> elements of
+     * <code>|step|</code> bytes, starting at <code>offset</code> and advancing
+     * by <code>step</code>, compare to <code>data</code> as
+     * <code>whileEqual</code> says before the first one that doesn't. Reads
+     * nothing and returns 0 if reading would allocate the block.
+     * @param offset offset of first element.
+     * @param count maximum number of elements.
+     * @param step signed element size.
+     * @param data value to compare the zero extended elements with.
+     * @param whileEqual <code>true</code> to count equal elements,
+     * <code>false</code> to count differing elements.
+     * @return number of leading elements that compare as requested.
+     */
+    public int scanElements(int offset, int count, int step, int data, boolean whileEqual)
+    {
+        if(buffer == null)
+            return 0;
+        int size = Math.abs(step);
+        for(int i = 0, index = base + offset; i < count; i++, index += step) {
+            int input;
+            if(size == 1)
+                input = 0xff & buffer[index];
+            else if(size == 2)
+                input = (0xff & buffer[index]) | ((0xff & buffer[index + 1]) << 8);
+            else
+                input = (0xff & buffer[index]) | ((0xff & buffer[index + 1]) << 8) |
+                    ((0xff & buffer[index + 2]) << 16) | (buffer[index + 3] << 24);
+            if((input == data) != whileEqual)
+                return i;
+        }
+        return count;
+    }
+
     public boolean isAllocated()
     {
         return (buffer != null);
@@ -602,120 +1076,122 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
     public byte getByte(int offset)
     {
-        try {
-            return buffer[offset];
-        } catch (NullPointerException e) {
-            if(++nullReadCount == ALLOCATION_THRESHOLD) {
-                allocateBuffer();
-                return buffer[offset];
-            } else
+        if(buffer == null) {
+            if(++nullReadCount != ALLOCATION_THRESHOLD)
                 return 0;
+            allocateBuffer();
         }
+        return buffer[at(offset)];
     }
 
     public void setByte(int offset, byte data) {
         if(getByte(offset) == data)
             return;
-        try {
-            if(page0Hack != null && (offset == 0x41A || offset == 0x41C))
-                page0Hack.doPotentialTrap(TraceTrap.TRACE_STOP_BIOS_KBD);
-            buffer[offset] = data;
-        } catch (NullPointerException e) {
-            allocateBuffer();
-            buffer[offset] = data;
-        }
+        allocateBuffer();
+        if(page0Hack != null && (offset == 0x41A || offset == 0x41C))
+            page0Hack.doPotentialTrap(TraceTrap.TRACE_STOP_BIOS_KBD);
+        buffer[at(offset)] = data;
         regionAltered(offset, offset);
     }
 
     public short getWord(int offset) {
-        try {
-            int result = 0xFF & buffer[offset];
-            offset++;
-            result |= buffer[offset] << 8;
-            return (short) result;
-        } catch (NullPointerException e) {
-            if(++nullReadCount == ALLOCATION_THRESHOLD) {
-                allocateBuffer();
-                int result = 0xFF & buffer[offset];
-                offset++;
-                result |= buffer[offset] << 8;
-                return (short) result;
-            } else
+        if(buffer == null) {
+            if(++nullReadCount != ALLOCATION_THRESHOLD)
                 return 0;
+            allocateBuffer();
         }
+        if(inView(offset, 2))
+            return view.getShort(offset);
+        int result = 0xFF & buffer[at(offset)];
+        offset++;
+        result |= buffer[at(offset)] << 8;
+        return (short) result;
     }
 
     public int getDoubleWord(int offset) {
-        try {
-            int result = 0xFF & buffer[offset];
-            offset++;
-            result |= (0xFF & buffer[offset]) << 8;
-            offset++;
-            result |= (0xFF & buffer[offset]) << 16;
-            offset++;
-            result |= (buffer[offset]) << 24;
-            return result;
-        } catch (NullPointerException e) {
-            if(++nullReadCount == ALLOCATION_THRESHOLD) {
-                allocateBuffer();
-                int result = 0xFF & buffer[offset];
-                offset++;
-                result |= (0xFF & buffer[offset]) << 8;
-                offset++;
-                result |= (0xFF & buffer[offset]) << 16;
-                offset++;
-                result |= (buffer[offset]) << 24;
-                return result;
-            } else
+        if(buffer == null) {
+            if(++nullReadCount != ALLOCATION_THRESHOLD)
                 return 0;
+            allocateBuffer();
         }
+        if(inView(offset, 4))
+            return view.getInt(offset);
+        int result = 0xFF & buffer[at(offset)];
+        offset++;
+        result |= (0xFF & buffer[at(offset)]) << 8;
+        offset++;
+        result |= (0xFF & buffer[at(offset)]) << 16;
+        offset++;
+        result |= (buffer[at(offset)]) << 24;
+        return result;
     }
 
     public void setWord(int offset, short data) {
         if(getWord(offset) == data)
             return;
-        try {
-            if(page0Hack != null && (offset == 0x41A || offset == 0x41C))
-                page0Hack.doPotentialTrap(TraceTrap.TRACE_STOP_BIOS_KBD);
-            buffer[offset] = (byte) data;
-            offset++;
-            buffer[offset] = (byte) (data >> 8);
-        } catch (NullPointerException e) {
-            allocateBuffer();
-            buffer[offset] = (byte) data;
-            offset++;
-            buffer[offset] = (byte) (data >> 8);
+        allocateBuffer();
+        if(page0Hack != null && (offset == 0x41A || offset == 0x41C))
+            page0Hack.doPotentialTrap(TraceTrap.TRACE_STOP_BIOS_KBD);
+        if(inView(offset, 2)) {
+            view.putShort(offset, data);
+            regionAltered(offset + 1, offset + 2);
+            return;
         }
+        buffer[at(offset)] = (byte) data;
+        offset++;
+        buffer[at(offset)] = (byte) (data >> 8);
         regionAltered(offset, offset + 1);
     }
 
     public void setDoubleWord(int offset, int data) {
         if(getDoubleWord(offset) == data)
             return;
-        try {
-            buffer[offset] = (byte) data;
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
-        } catch (NullPointerException e) {
-            allocateBuffer();
-            buffer[offset] = (byte) data;
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
-            offset++;
-            data >>= 8;
-            buffer[offset] = (byte) (data);
+        allocateBuffer();
+        if(inView(offset, 4)) {
+            view.putInt(offset, data);
+            regionAltered(offset + 3, offset + 6);
+            return;
         }
+        buffer[at(offset)] = (byte) data;
+        offset++;
+        data >>= 8;
+        buffer[at(offset)] = (byte) (data);
+        offset++;
+        data >>= 8;
+        buffer[at(offset)] = (byte) (data);
+        offset++;
+        data >>= 8;
+        buffer[at(offset)] = (byte) (data);
         regionAltered(offset, offset + 3);
     }
+
+    public long getQuadWord(int offset) {
+        if(inView(offset, 8))
+            return view.getLong(offset);
+        return super.getQuadWord(offset);
+    }
+
+    public long getLowerDoubleQuadWord(int offset) {
+        return getQuadWord(offset);
+    }
+
+    public long getUpperDoubleQuadWord(int offset) {
+        return getQuadWord(offset + 8);
+    }
+
+    public void setQuadWord(int offset, long data) {
+        //Storing the bytes one at a time does nothing if none of them change,
+        //unless a subclass such as ROM changes what setByte does.
+        if(getClass() == LazyCodeBlockMemory.class && inView(offset, 8) && view.getLong(offset) == data)
+            return;
+        super.setQuadWord(offset, data);
+    }
+
+    public void setLowerDoubleQuadWord(int offset, long data) {
+        setQuadWord(offset, data);
+    }
+
+    public void setUpperDoubleQuadWord(int offset, long data) {
+        setQuadWord(offset + 8, data);
+    }
 }
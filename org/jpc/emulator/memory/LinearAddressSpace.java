@@ -60,10 +60,12 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
     private boolean isSupervisor, globalPagesEnabled, pagingDisabled, pageCacheEnabled, writeProtectUserPages;
     private boolean pageSizeExtensions;
     private int baseAddress, lastAddress;
+    //Bumped whenever a cached translation may change. Not saved.
+    private int translationGeneration;
     private PhysicalAddressSpace target;
 
     private byte[] pageSize;
-    private final Set<Integer> nonGlobalPages;
+    private final PageIndexSet nonGlobalPages, filledPages;
     private Memory[] readUserIndex, readSupervisorIndex, writeUserIndex, writeSupervisorIndex, readIndex, writeIndex;
 
     /**
@@ -80,7 +82,8 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         writeProtectUserPages = false;
         pageSizeExtensions = false;
 
-        nonGlobalPages = new HashSet<Integer>();
+        nonGlobalPages = new PageIndexSet();
+        filledPages = new PageIndexSet();
 
         pageSize = new byte[INDEX_SIZE];
         for(int i=0; i < INDEX_SIZE; i++)
@@ -100,8 +103,8 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         output.printArray(pageSize, "pageSize");
 
         output.println("\tnonGlobalPages:");
-        for(Integer value : nonGlobalPages)
-            output.println("\t\t" + value.intValue());
+        for(int i = 0, count = nonGlobalPages.compact(); i < count; i++)
+            output.println("\t\t" + nonGlobalPages.get(i));
 
         dumpMemoryTableStatus(output, readUserIndex, "readUserIndex");
         dumpMemoryTableStatus(output, readSupervisorIndex, "readSupervisorIndex");
@@ -141,9 +144,9 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         output.dumpInt(lastAddress);
         output.dumpObject(target);
         output.dumpArray(pageSize);
-        for(Integer value : nonGlobalPages) {
+        for(int i = 0, count = nonGlobalPages.compact(); i < count; i++) {
             output.dumpBoolean(true);
-            output.dumpInt(value.intValue());
+            output.dumpInt(nonGlobalPages.get(i));
         }
         output.dumpBoolean(false);
         dumpMemoryTableSR(output, readUserIndex);
@@ -172,13 +175,16 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         lastAddress = input.loadInt();
         target = (PhysicalAddressSpace)(input.loadObject());
         pageSize = input.loadArrayByte();
-        nonGlobalPages = new HashSet<Integer>();
+        nonGlobalPages = new PageIndexSet();
         boolean nextNGPFlag = input.loadBoolean();
         while(nextNGPFlag) {
-            Integer tNGPKey = new Integer(input.loadInt());
-            nonGlobalPages.add(tNGPKey);
+            nonGlobalPages.add(input.loadInt());
             nextNGPFlag = input.loadBoolean();
         }
+        filledPages = new PageIndexSet();
+        for(int i = 0; i < INDEX_SIZE; i++)
+            if(pageSize[i] != FOUR_K)
+                filledPages.add(i);
         readUserIndex = loadMemoryTableSR(input);
         readSupervisorIndex = loadMemoryTableSR(input);
         writeUserIndex = loadMemoryTableSR(input);
@@ -203,24 +209,32 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         Memory[] mem = new Memory[input.loadInt()];
         byte[] presentMap = input.loadArrayByte();
         for(int i = 0; i < mem.length; i++)
-            if((presentMap[i / 8] & (1 << (i % 8))) != 0)
+            if((presentMap[i / 8] & (1 << (i % 8))) != 0) {
                 mem[i] = (Memory)(input.loadObject());
+                filledPages.add(i);
+            }
         return mem;
     }
 
 
     private void dumpMemoryTableSR(SRDumper output, Memory[] mem) throws IOException
     {
-        if(mem == null) {
-            output.dumpBoolean(false);
-        } else {
-            output.dumpBoolean(true);
-            output.dumpInt(mem.length);
-            byte[] presentMap = new byte[(mem.length + 7) / 8];
+        byte[] presentMap = null;
+        boolean empty = true;
+        if(mem != null) {
+            presentMap = new byte[(mem.length + 7) / 8];
             for(int i = 0; i < mem.length; i++)
                 if(mem[i] != null) {
                     presentMap[i / 8] |= (1 << (i % 8));
+                    empty = false;
                 }
+        }
+        //Tables are kept across flushes, so save an emptied one as absent.
+        if(empty) {
+            output.dumpBoolean(false);
+        } else {
+            output.dumpBoolean(true);
+            output.dumpInt(mem.length);
             output.dumpArray(presentMap);
             for(int i = 0; i < mem.length; i++)
                 if(mem[i] != null)
@@ -240,8 +254,16 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         }
     }
 
+    private void linksChanged()
+    {
+        translationGeneration++;
+        if(target != null && target.getCodeBlockManager() != null)
+            target.getCodeBlockManager().invalidateLinks();
+    }
+
     private Memory[] createReadIndex()
     {
+        linksChanged();
         if(isSupervisor)
             return (readIndex = readSupervisorIndex = new Memory[INDEX_SIZE]);
         else
@@ -250,6 +272,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
     private Memory[] createWriteIndex()
     {
+        translationGeneration++;
         if(isSupervisor)
             return (writeIndex = writeSupervisorIndex = new Memory[INDEX_SIZE]);
         else
@@ -258,38 +281,36 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
     private void setReadIndexValue(int index, Memory value)
     {
-        try {
-            readIndex[index] = value;
-        } catch (NullPointerException e) {
-            createReadIndex()[index] = value;
-        }
+        if(readIndex == null)
+            createReadIndex();
+        else if(readIndex[index] != null)
+            linksChanged();
+        readIndex[index] = value;
+        filledPages.add(index);
     }
 
     private Memory getReadIndexValue(int index)
     {
-        try {
-            return readIndex[index];
-        } catch (NullPointerException e) {
-            return createReadIndex()[index];
-        }
+        if(readIndex == null)
+            createReadIndex();
+        return readIndex[index];
     }
 
     private void setWriteIndexValue(int index, Memory value)
     {
-        try {
-            writeIndex[index] = value;
-        } catch (NullPointerException e) {
-            createWriteIndex()[index] = value;
-        }
+        if(writeIndex == null)
+            createWriteIndex();
+        else if(writeIndex[index] != null)
+            translationGeneration++;
+        writeIndex[index] = value;
+        filledPages.add(index);
     }
 
     private Memory getWriteIndexValue(int index)
     {
-        try {
-            return writeIndex[index];
-        } catch (NullPointerException e) {
-            return createWriteIndex()[index];
-        }
+        if(writeIndex == null)
+            createWriteIndex();
+        return writeIndex[index];
     }
 
     /**
@@ -322,6 +343,8 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
      */
     public void setSupervisor(boolean value)
     {
+        Memory[] oldReadIndex = readIndex;
+        Memory[] oldWriteIndex = writeIndex;
         isSupervisor = value;
         if(isSupervisor) {
             readIndex = readSupervisorIndex;
@@ -330,6 +353,10 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
            readIndex = readUserIndex;
            writeIndex = writeUserIndex;
         }
+        if(readIndex != oldReadIndex)
+            linksChanged();
+        else if(writeIndex != oldWriteIndex)
+            translationGeneration++;
     }
 
     /**
@@ -411,8 +438,8 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
     {
         if(value) {
             if(writeSupervisorIndex != null)
-                for(int i = 0; i < INDEX_SIZE; i++)
-                    nullIndex(writeSupervisorIndex, i);
+                for(int i = 0, count = filledPages.size(); i < count; i++)
+                    writeSupervisorIndex[filledPages.get(i)] = null;
         }
 
         writeProtectUserPages = value;
@@ -421,42 +448,54 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
     /**
      * Clears the entire translation cache.
      * <p>
-     * This includes both non-global and global pages.
+     * This includes both non-global and global pages.  Only the entries filled
+     * since the last flush are cleared, the tables themselves are kept for
+     * reuse unless a large part of them has been filled.
      */
     public void flush()
     {
-        for(int i = 0; i < INDEX_SIZE; i++)
-            pageSize[i] = FOUR_K;
+        linksChanged();
+        if(filledPages.size() > INDEX_SIZE / 8) {
+            Arrays.fill(pageSize, FOUR_K);
+            readUserIndex = null;
+            writeUserIndex = null;
+            readSupervisorIndex = null;
+            writeSupervisorIndex = null;
+            readIndex = null;
+            writeIndex = null;
+        } else {
+            for(int i = 0, count = filledPages.size(); i < count; i++)
+                clearIndex(filledPages.get(i));
+        }
 
+        filledPages.clear();
         nonGlobalPages.clear();
-
-        readUserIndex = null;
-        writeUserIndex = null;
-        readSupervisorIndex = null;
-        writeSupervisorIndex = null;
     }
 
     private void partialFlush()
     {
+        linksChanged();
         if(globalPagesEnabled) {
-            for(Integer value : nonGlobalPages) {
-                int index = value.intValue();
-                nullIndex(readSupervisorIndex, index);
-                nullIndex(writeSupervisorIndex, index);
-                nullIndex(readUserIndex, index);
-                nullIndex(writeUserIndex, index);
-                pageSize[index] = FOUR_K;
-            }
+            for(int i = 0, count = nonGlobalPages.compact(); i < count; i++)
+                clearIndex(nonGlobalPages.get(i));
             nonGlobalPages.clear();
         } else
             flush();
     }
 
+    private void clearIndex(int index)
+    {
+        nullIndex(readSupervisorIndex, index);
+        nullIndex(writeSupervisorIndex, index);
+        nullIndex(readUserIndex, index);
+        nullIndex(writeUserIndex, index);
+        pageSize[index] = FOUR_K;
+    }
+
     private static void nullIndex(Memory[] array, int index)
     {
-        try {
+        if(array != null)
             array[index] = null;
-        } catch (NullPointerException e) {}
     }
 
     /**
@@ -484,13 +523,14 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
      */
     public void invalidateTLBEntry(int offset)
     {
+        linksChanged();
         int index = offset >>> INDEX_SHIFT;
         if(pageSize[index] == FOUR_K) {
             nullIndex(readSupervisorIndex, index);
             nullIndex(writeSupervisorIndex, index);
             nullIndex(readUserIndex, index);
             nullIndex(writeUserIndex, index);
-            nonGlobalPages.remove(Integer.valueOf(index));
+            nonGlobalPages.remove(index);
         } else {
             index &= 0xFFC00;
             for(int i = 0; i < 1024; i++, index++) {
@@ -498,7 +538,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
                 nullIndex(writeSupervisorIndex, index);
                 nullIndex(readUserIndex, index);
                 nullIndex(writeUserIndex, index);
-                nonGlobalPages.remove(Integer.valueOf(index));
+                nonGlobalPages.remove(index);
             }
         }
     }
@@ -553,7 +593,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
                 if(directoryGlobal)
                     continue;
 
-                nonGlobalPages.add(Integer.valueOf(i));
+                nonGlobalPages.add(i);
             }
 
             return readIndex[idx];
@@ -597,7 +637,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
             pageSize[idx] = FOUR_K;
             if(!tableGlobal)
-                nonGlobalPages.add(Integer.valueOf(idx));
+                nonGlobalPages.add(idx);
 
             setReadIndexValue(idx, target.getReadMemoryBlockAt(fourKStartAddress));
             return readIndex[idx];
@@ -672,7 +712,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
                 if(directoryGlobal)
                     continue;
 
-                nonGlobalPages.add(Integer.valueOf(i));
+                nonGlobalPages.add(i);
             }
 
             return writeIndex[idx];
@@ -735,7 +775,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
             pageSize[idx] = FOUR_K;
 
             if(!tableGlobal)
-                nonGlobalPages.add(Integer.valueOf(idx));
+                nonGlobalPages.add(idx);
 
             setWriteIndexValue(idx, target.getWriteMemoryBlockAt(fourKStartAddress));
             return writeIndex[idx];
@@ -752,6 +792,36 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         return getWriteIndexValue(offset >>> INDEX_SHIFT);
     }
 
+    /**
+     * Returns a number that changes whenever a block returned by
+     * {@link #getDirectReadBlock} or {@link #getDirectWriteBlock} may stop
+     * being the one used for its address.
+     * @return translation generation.
+     */
+    public int getTranslationGeneration()
+    {
+        return translationGeneration;
+    }
+
+    /**
+     * Returns the block cached for reads of <code>offset</code>. Accesses
+     * that miss the cache walk the page tables, so this returns
+     * <code>null</code> for them.
+     */
+    public Memory getDirectReadBlock(int offset)
+    {
+        return (readIndex != null) ? readIndex[offset >>> INDEX_SHIFT] : null;
+    }
+
+    /**
+     * Returns the block cached for writes to <code>offset</code>, or
+     * <code>null</code> if writes would walk the page tables.
+     */
+    public Memory getDirectWriteBlock(int offset)
+    {
+        return (writeIndex != null) ? writeIndex[offset >>> INDEX_SHIFT] : null;
+    }
+
     /**
      * Calls replace block on the underlying <code>PhysicalAddressSpace</code>
      * object.
@@ -760,55 +830,33 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
      */
     protected void replaceBlocks(Memory oldBlock, Memory newBlock)
     {
-        try {
-            for(int i = 0; i < INDEX_SIZE; i++)
-                if(readUserIndex[i] == oldBlock)
-                    readUserIndex[i] = newBlock;
-        } catch (NullPointerException e) {
-        }
-
-        try {
-            for(int i = 0; i < INDEX_SIZE; i++)
-                if(writeUserIndex[i] == oldBlock)
-                    writeUserIndex[i] = newBlock;
-        } catch (NullPointerException e) {
-        }
-
-        try {
-            for(int i = 0; i < INDEX_SIZE; i++)
-                if(readSupervisorIndex[i] == oldBlock)
-                    readSupervisorIndex[i] = newBlock;
-        } catch (NullPointerException e) {
-        }
-
-        try {
-            for(int i = 0; i < INDEX_SIZE; i++)
-                if(writeSupervisorIndex[i] == oldBlock)
-                    writeSupervisorIndex[i] = newBlock;
-        } catch (NullPointerException e) {
+        linksChanged();
+        for(int j = 0, count = filledPages.size(); j < count; j++) {
+            int i = filledPages.get(j);
+            if(readUserIndex != null && readUserIndex[i] == oldBlock)
+                readUserIndex[i] = newBlock;
+            if(writeUserIndex != null && writeUserIndex[i] == oldBlock)
+                writeUserIndex[i] = newBlock;
+            if(readSupervisorIndex != null && readSupervisorIndex[i] == oldBlock)
+                readSupervisorIndex[i] = newBlock;
+            if(writeSupervisorIndex != null && writeSupervisorIndex[i] == oldBlock)
+                writeSupervisorIndex[i] = newBlock;
         }
     }
 
     public byte getByte(int offset)
     {
-        try {
-            return super.getByte(offset);
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        return validateTLBEntryRead(offset).getByte(offset & BLOCK_MASK);
+        Memory m = getReadMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryRead(offset);
+        return m.getByte(offset & BLOCK_MASK);
     }
 
     public short getWord(int offset)
     {
-        try {
-            return super.getWord(offset);
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        Memory m = validateTLBEntryRead(offset);
+        Memory m = getReadMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryRead(offset);
         try {
             return m.getWord(offset & BLOCK_MASK);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -818,13 +866,9 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
     public int getDoubleWord(int offset)
     {
-        try {
-            return super.getDoubleWord(offset);
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        Memory m = validateTLBEntryRead(offset);
+        Memory m = getReadMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryRead(offset);
         try {
             return m.getDoubleWord(offset & BLOCK_MASK);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -834,26 +878,17 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
     public void setByte(int offset, byte data)
     {
-        try {
-            super.setByte(offset, data);
-            return;
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        validateTLBEntryWrite(offset).setByte(offset & BLOCK_MASK, data);
+        Memory m = getWriteMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryWrite(offset);
+        m.setByte(offset & BLOCK_MASK, data);
     }
 
     public void setWord(int offset, short data)
     {
-        try {
-            super.setWord(offset, data);
-            return;
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        Memory m = validateTLBEntryWrite(offset);
+        Memory m = getWriteMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryWrite(offset);
         try {
             m.setWord(offset & BLOCK_MASK, data);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -863,14 +898,9 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
 
     public void setDoubleWord(int offset, int data)
     {
-        try {
-            super.setDoubleWord(offset, data);
-            return;
-        } catch (NullPointerException e) {
-        } catch (ProcessorException p) {
-        }
-
-        Memory m = validateTLBEntryWrite(offset);
+        Memory m = getWriteMemoryBlockAt(offset);
+        if(m == null)
+            m = validateTLBEntryWrite(offset);
         try {
             m.setDoubleWord(offset & BLOCK_MASK, data);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -896,12 +926,14 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
     {
         Memory memory = getReadMemoryBlockAt(offset);
 
-        try {
-            return memory.executeProtected(cpu, offset & AddressSpace.BLOCK_MASK);
-        } catch (NullPointerException n) {
+        if(memory == null) {
             memory = validateTLBEntryRead(offset); //memory object was null (needs mapping)
-        } catch (ProcessorException p) {
-            memory = validateTLBEntryRead(offset); //memory object caused a page fault (double check)
+        } else {
+            try {
+                return memory.executeProtected(cpu, offset & AddressSpace.BLOCK_MASK);
+            } catch (ProcessorException p) {
+                memory = validateTLBEntryRead(offset); //memory object caused a page fault (double check)
+            }
         }
 
         try {
@@ -919,12 +951,14 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
     {
         Memory memory = getReadMemoryBlockAt(offset);
 
-        try {
-            return memory.executeVirtual8086(cpu, offset & AddressSpace.BLOCK_MASK);
-        } catch (NullPointerException n) {
+        if(memory == null) {
             memory = validateTLBEntryRead(offset); //memory object was null (needs mapping)
-        } catch (ProcessorException p) {
-            memory = validateTLBEntryRead(offset); //memory object caused a page fault (double check)
+        } else {
+            try {
+                return memory.executeVirtual8086(cpu, offset & AddressSpace.BLOCK_MASK);
+            } catch (ProcessorException p) {
+                memory = validateTLBEntryRead(offset); //memory object caused a page fault (double check)
+            }
         }
 
         try {
@@ -1107,6 +1141,78 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         }
     }
 
+    /**
+     * Set of page indices, kept both as a bitmap for membership tests and as a
+     * list for iteration, so that walking or clearing it costs time in
+     * proportion to the number of members instead of <code>INDEX_SIZE</code>.
+     * <p>
+     * Removal only clears the bitmap; the list may hold stale or repeated
+     * entries until the next <code>compact</code> or <code>clear</code>.
+     */
+    private static final class PageIndexSet
+    {
+        private final int[] present = new int[INDEX_SIZE >>> 5];
+        private int[] members = new int[1024];
+        private int count;
+
+        void add(int index)
+        {
+            int bit = 1 << index;
+            if((present[index >>> 5] & bit) != 0)
+                return;
+            present[index >>> 5] |= bit;
+            if(count == members.length && compact() > members.length / 2)
+                members = Arrays.copyOf(members, 2 * members.length);
+            members[count++] = index;
+        }
+
+        void remove(int index)
+        {
+            present[index >>> 5] &= ~(1 << index);
+        }
+
+        /**
+         * Drops stale and repeated entries from the list.
+         * @return the number of members, which are <code>get(0)</code> to
+         * <code>get(size() - 1)</code> afterwards.
+         */
+        int compact()
+        {
+            int live = 0;
+            for(int i = 0; i < count; i++) {
+                int index = members[i];
+                int bit = 1 << index;
+                if((present[index >>> 5] & bit) != 0) {
+                    present[index >>> 5] &= ~bit;
+                    members[live++] = index;
+                }
+            }
+            for(int i = 0; i < live; i++)
+                present[members[i] >>> 5] |= 1 << members[i];
+            return count = live;
+        }
+
+        int size()
+        {
+            return count;
+        }
+
+        int get(int i)
+        {
+            return members[i];
+        }
+
+        void clear()
+        {
+            if(count > present.length)
+                Arrays.fill(present, 0);
+            else
+                for(int i = 0; i < count; i++)
+                    present[members[i] >>> 5] = 0;
+            count = 0;
+        }
+    }
+
     public void reset()
     {
         flush();
@@ -65,6 +65,14 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
     private Memory[][] nonA20MaskedIndex,  a20MaskedIndex,  index;
     private LinearAddressSpace linearAddr;
     private CodeBlockManager manager = null;
+    /**
+     * Whether system RAM pages keep their contents in one array as large as
+     * the RAM instead of an array each. Takes effect for address spaces
+     * created or loaded afterwards.
+     */
+    public static volatile boolean CONTIGUOUS_RAM = false;
+    //Array RAM pages keep their contents in, or null. Not saved.
+    private byte[] ramStore;
 
     public void setPage0Hack(TraceTrap tt)
     {
@@ -138,6 +146,14 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
         readRAMPage(pageNo, buffer4096Bytes, 0);
     }
 
+    /**
+     * Reads RAM page without side effects. Pages that are not RAM and RAM
+     * pages that are not allocated read as zeroes, and reading them doesn't
+     * count towards allocating them.
+     * @param pageNo number of page.
+     * @param buffer4096Bytes array to read into.
+     * @param off index in <code>buffer4096Bytes</code> of the page.
+     */
     public void readRAMPage(int pageNo, byte[] buffer4096Bytes, int off)
     {
         if(pageNo >= quickNonA20MaskedIndex.length) {
@@ -149,13 +165,66 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
             return;
         }
         LazyCodeBlockMemory ramPage = (LazyCodeBlockMemory)quickNonA20MaskedIndex[pageNo];
+        ramPage.peekContentsIntoArray(0, buffer4096Bytes, off, 4096);
+    }
 
-        if(!ramPage.isDirty()) {
-            Arrays.fill(buffer4096Bytes, off, off + 4096, (byte)0);
-            return;
+    /**
+     * Reads <code>count</code> pages from <code>firstPage</code> on. The
+     * result is the same as that of <code>readRAMPage</code> for each page,
+     * and like it this has no side effects. Runs of pages kept in the
+     * contiguous RAM array are copied at once; unallocated pages there are
+     * kept zero, so they read as zeroes too.
+     * @param firstPage number of first page.
+     * @param count number of pages.
+     * @param buffer array to read into.
+     * @param off index in <code>buffer</code> of the first page.
+     */
+    public void readRAMPages(int firstPage, int count, byte[] buffer, int off)
+    {
+        for(int i = 0; i < count;) {
+            int run = 0;
+            while(i + run < count && isStoredRAMPage(firstPage + i + run))
+                run++;
+            if(run > 0) {
+                System.arraycopy(ramStore, (firstPage + i) << INDEX_SHIFT, buffer, off + (i << INDEX_SHIFT),
+                    run << INDEX_SHIFT);
+                i += run;
+            } else {
+                readRAMPage(firstPage + i, buffer, off + (i << INDEX_SHIFT));
+                i++;
+            }
         }
+    }
+
+    /**
+     * Returns a copy of system RAM, reading pages that aren't RAM as zero.
+     * @return RAM contents.
+     */
+    public byte[] getRAMSnapshot()
+    {
+        byte[] snapshot = new byte[quickIndexSize << INDEX_SHIFT];
+        readRAMPages(0, quickIndexSize, snapshot, 0);
+        return snapshot;
+    }
+
+    private boolean isStoredRAMPage(int pageNo)
+    {
+        if(ramStore == null || pageNo < 0 || pageNo >= quickNonA20MaskedIndex.length)
+            return false;
+        Memory page = quickNonA20MaskedIndex[pageNo];
+        return page.getClass() == LazyCodeBlockMemory.class &&
+            ((LazyCodeBlockMemory)page).isStoredAt(ramStore, pageNo << INDEX_SHIFT);
+    }
 
-        ramPage.copyContentsIntoArray(0, buffer4096Bytes, off, 4096);
+    //Moves the RAM pages into one array if contiguous RAM is enabled.
+    private void createRAMStore()
+    {
+        if(!CONTIGUOUS_RAM)
+            return;
+        ramStore = new byte[quickIndexSize << INDEX_SHIFT];
+        for(int i = 0; i < quickIndexSize; i++)
+            if(quickNonA20MaskedIndex[i].getClass() == LazyCodeBlockMemory.class)
+                ((LazyCodeBlockMemory)quickNonA20MaskedIndex[i]).moveToStore(ramStore, i << INDEX_SHIFT);
     }
 
 
@@ -247,6 +316,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
 
         linearAddr = (LinearAddressSpace)(input.loadObject());
         manager = (CodeBlockManager)input.loadObject();
+        createRAMStore();
     }
 
     private void dumpMemoryDTableSR(SRDumper output, Memory[][] mem) throws IOException
@@ -303,6 +373,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
     {
         for(int i = 0; i < sysRAMSize; i += AddressSpace.BLOCK_SIZE)
             mapMemory(i, new LazyCodeBlockMemory(AddressSpace.BLOCK_SIZE, manager));
+        createRAMStore();
         for(int i = 0; i < 32; i++)
             mapMemory(0xd0000 + i * AddressSpace.BLOCK_SIZE, new PhysicalAddressSpace.UnconnectedMemoryBlock());
     }
@@ -312,6 +383,12 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
         return manager;
     }
 
+    private void linksChanged()
+    {
+        if(manager != null)
+            manager.invalidateLinks();
+    }
+
     /**
      * Enables or disables the 20th address line.
      * <p>
@@ -322,6 +399,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
      * @param value status of the A20 line.
      */
     public void setGateA20State(boolean value) {
+        linksChanged();
         gateA20MaskState = value;
         if(value) {
             quickIndex = quickNonA20MaskedIndex;
@@ -358,6 +436,16 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
         return getMemoryBlockAt(offset);
     }
 
+    public Memory getDirectReadBlock(int offset)
+    {
+        return getMemoryBlockAt(offset);
+    }
+
+    public Memory getDirectWriteBlock(int offset)
+    {
+        return getMemoryBlockAt(offset);
+    }
+
     public int executeReal(Processor cpu, int offset)
     {
         return getReadMemoryBlockAt(offset).executeReal(cpu, offset & AddressSpace.BLOCK_MASK);
@@ -376,6 +464,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
     }
 
     protected void replaceBlocks(Memory oldBlock, Memory newBlock) {
+        linksChanged();
         for(int i = 0; i < quickA20MaskedIndex.length; i++)
             if(quickA20MaskedIndex[i] == oldBlock)
                 quickA20MaskedIndex[i] = newBlock;
@@ -825,18 +914,17 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
 
     private Memory getMemoryBlockAt(int i)
     {
-        try {
-            return quickIndex[i >>> INDEX_SHIFT];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            try {
-                return index[i >>> TOP_INDEX_SHIFT][(i >>> BOTTOM_INDEX_SHIFT) & BOTTOM_INDEX_MASK];
-            } catch (NullPointerException n) {
-                return UNCONNECTED;
-            }
-        }
+        int idx = i >>> INDEX_SHIFT;
+        if(idx < quickIndex.length)
+            return quickIndex[idx];
+        Memory[] subIndex = index[i >>> TOP_INDEX_SHIFT];
+        if(subIndex == null)
+            return UNCONNECTED;
+        return subIndex[(i >>> BOTTOM_INDEX_SHIFT) & BOTTOM_INDEX_MASK];
     }
 
     private void setMemoryBlockAt(int i, Memory b) {
+        linksChanged();
         try {
             int idx = i >>> INDEX_SHIFT;
             quickNonA20MaskedIndex[idx] = b;
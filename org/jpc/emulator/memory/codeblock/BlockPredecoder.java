@@ -0,0 +1,275 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jpc.emulator.memory.codeblock.optimised.*;
+
+/**
+ * Decodes likely successors of freshly decoded blocks on background threads
+ * and puts them into the decoded block cache.
+ * <p>
+ * Successors are the target and the fall-through address of a relative jump
+ * or call ending the block, if they are on the same page. Tasks work on a copy
+ * of the page taken on the emulation thread. Cache hits compare all bytes of
+ * the block, so a predecoded block is only used if memory still holds the
+ * bytes it was decoded from, and emulation doesn't depend on when or whether
+ * the workers get to run.
+ */
+class BlockPredecoder
+{
+    private static final int QUEUE_SIZE = 64;
+    //Blocks decoded per task, following successors of successors.
+    private static final int BLOCKS_PER_TASK = 8;
+    //Decoders have no way to stop at the end of memory, so unwind them with this.
+    private static final ArrayIndexOutOfBoundsException END_OF_PAGE =
+        new ArrayIndexOutOfBoundsException("Predecoded block spans end of page");
+
+    private static class Task
+    {
+        final byte[] page;
+        final int offset;
+        final int mode;
+        final int limit;
+        final int[] positions;
+
+        Task(byte[] page, int offset, int mode, int limit, int[] positions)
+        {
+            this.page = page;
+            this.offset = offset;
+            this.mode = mode;
+            this.limit = limit;
+            this.positions = positions;
+        }
+    }
+
+    private static class PageByteSource implements ByteSource
+    {
+        private final byte[] data;
+        private int offset;
+
+        PageByteSource(byte[] data)
+        {
+            this.data = data;
+        }
+
+        public byte getByte()
+        {
+            if(offset >= data.length)
+                throw END_OF_PAGE;
+            return data[offset++];
+        }
+
+        public void skip(int count)
+        {
+            if(offset + count >= data.length)
+                throw new IndexOutOfBoundsException();
+            offset += count;
+        }
+
+        public void reset()
+        {
+            offset = 0;
+        }
+
+        int consumed()
+        {
+            return offset;
+        }
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final DecodedBlockCache cache;
+    private int workers;
+    private final AtomicLong submitted, dropped, decoded, failed;
+
+    BlockPredecoder(DecodedBlockCache cache)
+    {
+        this.cache = cache;
+        queue = new ArrayBlockingQueue<Task>(QUEUE_SIZE);
+        submitted = new AtomicLong();
+        dropped = new AtomicLong();
+        decoded = new AtomicLong();
+        failed = new AtomicLong();
+    }
+
+    /**
+     * Queue successors of block just decoded on the emulation thread. The task
+     * is dropped if the workers are busy.
+     * @param source byte source the block was decoded from.
+     * @param mode decode mode.
+     * @param limit decoder block limit.
+     * @param positions cumulative x86 positions of the block microcodes.
+     */
+    void submit(ByteSourceWrappedMemory source, int mode, int limit, int[] positions)
+    {
+        startWorkers(CodeBlockManager.PREDECODE_THREADS);
+        if(queue.remainingCapacity() == 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+        byte[] page = source.copyMemory();
+        if(page == null)
+            return;
+        if(queue.offer(new Task(page, source.getStartingPosition(), mode, limit, positions)))
+            submitted.incrementAndGet();
+        else
+            dropped.incrementAndGet();
+    }
+
+    private synchronized void startWorkers(int count)
+    {
+        //Workers are never stopped, they just idle if predecoding is turned off.
+        for(; workers < count; workers++) {
+            Thread worker = new Thread(new Runnable() {
+                    public void run()
+                    {
+                        work();
+                    }
+                }, "Block predecoder #" + workers);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    private void work()
+    {
+        while(true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch(InterruptedException e) {
+                continue;
+            }
+            int[] pending = new int[2 * BLOCKS_PER_TASK + 2];
+            int head = 0;
+            int tail = addSuccessors(pending, 0, task.page, task.offset, task.positions, task.mode);
+            for(int blocks = 0; head < tail && blocks < BLOCKS_PER_TASK; blocks++) {
+                int offset = pending[head++];
+                byte[] data = Arrays.copyOfRange(task.page, offset, task.page.length);
+                if(cache.contains(data, task.mode, task.limit))
+                    continue;
+                PageByteSource source = new PageByteSource(data);
+                int[][] arrays;
+                try {
+                    arrays = DecodedBlockCache.drain(decode(source, task.mode, task.limit));
+                } catch(RuntimeException e) {
+                    //Runs off the page or isn't valid code. The emulation thread deals with it if it gets there.
+                    failed.incrementAndGet();
+                    continue;
+                }
+                cache.insertPredecoded(data, source.consumed(), task.mode, task.limit, arrays[0], arrays[1]);
+                decoded.incrementAndGet();
+                if(tail + 2 <= pending.length)
+                    tail = addSuccessors(pending, tail, task.page, offset, arrays[1], task.mode);
+            }
+        }
+    }
+
+    //Decoders keep some state over failed decodes, so each block gets fresh one.
+    private static InstructionSource decode(ByteSource source, int mode, int limit)
+    {
+        switch(mode) {
+        case DecodedBlockCache.MODE_REAL:
+            return new RealModeUDecoder().decodeReal(source, limit);
+        case DecodedBlockCache.MODE_VIRTUAL8086:
+            return new RealModeUDecoder().decodeVirtual8086(source, limit);
+        default:
+            return new ProtectedModeUDecoder().decodeProtected(source, mode == DecodedBlockCache.MODE_PROTECTED_32,
+                limit);
+        }
+    }
+
+    //Appends successors of block ending in a relative jump or call to pending. Other blocks often end where
+    //data starts, so they get none.
+    private static int addSuccessors(int[] pending, int tail, byte[] page, int offset, int[] positions, int mode)
+    {
+        if(positions.length == 0)
+            return tail;
+        int end = positions[positions.length - 1];
+        int last = 0;
+        for(int i = positions.length - 1; i >= 0; i--)
+            if(positions[i] != end) {
+                last = positions[i];
+                break;
+            }
+        boolean operandSize = mode == DecodedBlockCache.MODE_PROTECTED_32;
+        int i = offset + last;
+        end += offset;
+        for(; i < end; i++) {
+            int prefix = page[i] & 0xFF;
+            if(prefix == 0x66)
+                operandSize = !operandSize;
+            else if(prefix != 0x67 && prefix != 0x26 && prefix != 0x2E && prefix != 0x36 && prefix != 0x3E &&
+                prefix != 0x64 && prefix != 0x65 && prefix != 0xF0 && prefix != 0xF2 && prefix != 0xF3)
+                break;
+        }
+        if(i >= end)
+            return tail;
+        int opcode = page[i] & 0xFF;
+        if(opcode == 0x0F && i + 1 < end)
+            opcode = 0x100 | (page[i + 1] & 0xFF);
+
+        int target;
+        if((opcode >= 0x70 && opcode <= 0x7F) || (opcode >= 0xE0 && opcode <= 0xE3) || opcode == 0xEB) {
+            if(end - i != 2)
+                return tail;
+            target = end + page[end - 1];
+        } else if(opcode == 0xE8 || opcode == 0xE9 || (opcode >= 0x180 && opcode <= 0x18F)) {
+            int size = operandSize ? 4 : 2;
+            if(end - size < i + 1)
+                return tail;
+            int displacement = 0;
+            for(int j = size - 1; j >= 0; j--)
+                displacement = (displacement << 8) | (page[end - size + j] & 0xFF);
+            if(size == 2)
+                displacement = (short)displacement;
+            target = end + displacement;
+        } else
+            return tail;
+
+        //Unconditional jumps don't fall through. Calls return to the next instruction.
+        if(opcode != 0xE9 && opcode != 0xEB && end < page.length)
+            pending[tail++] = end;
+        if(target >= 0 && target < page.length && target != end)
+            pending[tail++] = target;
+        return tail;
+    }
+
+    String getStatistics()
+    {
+        return "submitted " + submitted.get() + ", dropped " + dropped.get() + ", decoded " + decoded.get() +
+            ", failed " + failed.get();
+    }
+}
@@ -29,7 +29,10 @@
 
 package org.jpc.emulator.memory.codeblock;
 
+import java.util.Arrays;
+
 import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
 
 /**
  *
@@ -38,13 +41,91 @@ import org.jpc.emulator.memory.Memory;
 class ByteSourceWrappedMemory implements ByteSource
 {
     private Memory source;
-    private int offset, startingPosition;
+    private int offset, startingPosition, end;
+    //Decoders have no way to stop at the end of memory, so unwind them with this.
+    private static final ArrayIndexOutOfBoundsException END_OF_MEMORY =
+        new ArrayIndexOutOfBoundsException("Code block spans end of memory");
+    private final boolean cacheable;
+    //Reads of last decode as offsets from starting position and values, reads
+    //made since startReadLog() and number of leading reads to take from the log.
+    private int[] readOffsets;
+    private byte[] readValues;
+    private int readCount, readPosition, replayCount;
+
+    public ByteSourceWrappedMemory()
+    {
+        this(false, false);
+    }
+
+    /**
+     * Constructs byte source.
+     * @param cacheable <code>true</code> if blocks decoded from this source
+     * may go through the decoded block cache. Only valid for sources that are
+     * set to single memory pages. Even then, only allocated pages are cached.
+     */
+    public ByteSourceWrappedMemory(boolean cacheable)
+    {
+        this(cacheable, false);
+    }
+
+    /**
+     * Constructs byte source.
+     * @param cacheable <code>true</code> if blocks decoded from this source
+     * may go through the decoded block cache.
+     * @param logReads <code>true</code> to log reads for {@link #matchesReadLog}.
+     */
+    public ByteSourceWrappedMemory(boolean cacheable, boolean logReads)
+    {
+        this.cacheable = cacheable;
+        if(logReads) {
+            readOffsets = new int[64];
+            readValues = new byte[64];
+        }
+    }
+
+    /**
+     * Starts new read log. Reads logged so far stay available to
+     * {@link #matchesReadLog} until the next read.
+     */
+    public void startReadLog()
+    {
+        readPosition = 0;
+        replayCount = 0;
+    }
+
+    /**
+     * Makes the reads in log again from memory, in the same order, and
+     * compares the values. If a value differs, the reads up to and including
+     * it are logged with the new values, and the next decode gets them from
+     * the log. That decode reads the same bytes first, so memory sees each
+     * read once.
+     * @param memory memory to read.
+     * @param address starting position to read at.
+     * @return <code>true</code> if all values match.
+     */
+    public boolean matchesReadLog(Memory memory, int address)
+    {
+        for(int i = 0; i < readCount; i++) {
+            byte b = memory.getByte(address + readOffsets[i]);
+            if(b != readValues[i]) {
+                readValues[i] = b;
+                replayCount = i + 1;
+                return false;
+            }
+        }
+        return true;
+    }
 
     public void set(Memory source, int offset)
     {
         this.source = source;
         this.offset = offset;
         startingPosition = offset;
+        //Unallocated pages read as zeroes past their end.
+        if(source instanceof LazyCodeBlockMemory && source.isAllocated())
+            end = (int)source.getSize();
+        else
+            end = Integer.MAX_VALUE;
     }
 
     public int getOffset()
@@ -52,9 +133,92 @@ class ByteSourceWrappedMemory implements ByteSource
         return offset;
     }
 
+    /**
+     * Returns <code>true</code> if blocks decoded from current position may go
+     * through the decoded block cache. Reads of unallocated pages count towards
+     * allocating them, which is saved state, so cache probes and hits that skip
+     * decoder reads would change it. Allocated pages have no such side effects.
+     * @return <code>true</code> if cacheable.
+     */
+    public boolean isCacheable()
+    {
+        return cacheable && end != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get number of bytes between starting position and end of memory.
+     * @return number of bytes available.
+     */
+    public int available()
+    {
+        return (int)(source.getSize() - startingPosition);
+    }
+
+    /**
+     * Get number of bytes read since starting position.
+     * @return number of bytes consumed.
+     */
+    public int consumed()
+    {
+        return offset - startingPosition;
+    }
+
+    /**
+     * Copy bytes from starting position into array. Has no side effects if
+     * source is cacheable.
+     * @param buf array to copy to.
+     * @param len number of bytes to copy.
+     */
+    public void copyFromStart(byte[] buf, int len)
+    {
+        source.copyContentsIntoArray(startingPosition, buf, 0, len);
+    }
+
+    /**
+     * Get position the source was set to.
+     * @return starting position.
+     */
+    public int getStartingPosition()
+    {
+        return startingPosition;
+    }
+
+    /**
+     * Copy whole memory the source was set to.
+     * @return copy of memory, or <code>null</code> if memory is unallocated.
+     */
+    public byte[] copyMemory()
+    {
+        if(end == Integer.MAX_VALUE)
+            return null;
+        byte[] buf = new byte[end];
+        source.copyContentsIntoArray(0, buf, 0, end);
+        return buf;
+    }
+
     public byte getByte()
     {
-        return source.getByte(offset++);
+        if(offset >= end)
+            throw END_OF_MEMORY;
+        if(readOffsets == null)
+            return source.getByte(offset++);
+
+        int at = offset++ - startingPosition;
+        byte b;
+        if(readPosition < replayCount && readOffsets[readPosition] == at) {
+            b = readValues[readPosition];
+        } else {
+            replayCount = 0;
+            b = source.getByte(startingPosition + at);
+            if(readPosition == readOffsets.length) {
+                readOffsets = Arrays.copyOf(readOffsets, 2 * readPosition);
+                readValues = Arrays.copyOf(readValues, 2 * readPosition);
+            }
+            readOffsets[readPosition] = at;
+            readValues[readPosition] = b;
+        }
+        readCount = ++readPosition;
+        return b;
     }
 
     public void skip(int count)
@@ -0,0 +1,103 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+
+/**
+ * Successor links of a code block.
+ * <p>
+ * Remembers the last two blocks that were executed after the owning block
+ * (typically the branch target and the fall-through), keyed by the linear
+ * address they were entered at. A link is only valid while the link
+ * generation of the {@link CodeBlockManager} it was made under is current.
+ * @author H. Ilari Liusvaara
+ */
+public final class CodeBlockLink
+{
+    private int address0, address1;
+    private int generation0 = -1, generation1 = -1;
+    private LazyCodeBlockMemory memory0, memory1;
+    private CodeBlock block0, block1;
+
+    /**
+     * Find link for given entry address.
+     * @param address linear address of entry point.
+     * @param generation current link generation.
+     * @return slot of link, or -1 if there is no valid link.
+     */
+    public int find(int address, int generation)
+    {
+        if(address0 == address && generation0 == generation)
+            return 0;
+        if(address1 == address && generation1 == generation)
+            return 1;
+        return -1;
+    }
+
+    public LazyCodeBlockMemory getMemory(int slot)
+    {
+        return (slot == 0) ? memory0 : memory1;
+    }
+
+    public CodeBlock getBlock(int slot)
+    {
+        return (slot == 0) ? block0 : block1;
+    }
+
+    /**
+     * Link block as successor, replacing the older of existing links.
+     * @param address linear address of entry point.
+     * @param generation current link generation.
+     * @param memory memory the block is stored in.
+     * @param block successor block.
+     */
+    public void set(int address, int generation, LazyCodeBlockMemory memory, CodeBlock block)
+    {
+        address1 = address0;
+        generation1 = generation0;
+        memory1 = memory0;
+        block1 = block0;
+        address0 = address;
+        generation0 = generation;
+        memory0 = memory;
+        block0 = block;
+    }
+
+    /**
+     * Drop all links.
+     */
+    public void clear()
+    {
+        generation0 = generation1 = -1;
+        memory0 = memory1 = null;
+        block0 = block1 = null;
+    }
+}
@@ -35,7 +35,12 @@ import org.jpc.emulator.SRLoader;
 import org.jpc.emulator.SRDumper;
 import org.jpc.emulator.SRDumpable;
 import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.memory.AddressSpace;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.processor.ProcessorException;
 import org.jpc.emulator.memory.codeblock.optimised.*;
+import org.jpc.emulator.memory.codeblock.fastcompiler.*;
 
 /**
  * Provides the outer skin for the codeblock construction system.
@@ -48,6 +53,20 @@ public class CodeBlockManager implements SRDumpable
     public static volatile int BLOCK_LIMIT = 1000; //minimum of 2 because of STI/CLI
     private CodeBlockFactory realModeChain,  protectedModeChain,  virtual8086ModeChain;
     private ByteSourceWrappedMemory byteSource;
+    public static volatile boolean BLOCK_CHAINING = true;
+    /** Reuse decode result of page-spanning blocks while their bytes are unchanged. */
+    public static volatile boolean CACHE_SPANNING_BLOCKS = true;
+    /** Memory cap of decoded block cache in bytes. 0 disables the cache. */
+    public static volatile long DECODE_CACHE_LIMIT = 16 << 20;
+    //Shared by all managers, so decoded blocks survive loadstate and reboot.
+    static final DecodedBlockCache decodeCache = new DecodedBlockCache();
+    /** Number of threads decoding likely successors of new blocks into the decoded block cache. 0 disables. */
+    public static volatile int PREDECODE_THREADS = 0;
+    static final BlockPredecoder predecoder = new BlockPredecoder(decodeCache);
+    //Links made under older generations are stale.
+    private int linkGeneration;
+    private RealModeCodeBlock lastRealModeBlock, realModeLinkSource;
+    private ProtectedModeCodeBlock lastProtectedModeBlock, protectedModeLinkSource;
 
     /**
      * Constructs a default manager.
@@ -56,9 +75,12 @@ public class CodeBlockManager implements SRDumpable
      */
     public CodeBlockManager()
     {
-        byteSource = new ByteSourceWrappedMemory();
+        byteSource = new ByteSourceWrappedMemory(true);
 
-        realModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
+        CodeBlockCompiler realModeCompiler = new OptimisedCompiler();
+        if(FASTCompiler.mode != FASTCompiler.MODE_OFF)
+            realModeCompiler = new FASTCompiler(realModeCompiler);
+        realModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), realModeCompiler, BLOCK_LIMIT);
         protectedModeChain = new DefaultCodeBlockFactory(new ProtectedModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
         virtual8086ModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
     }
@@ -155,4 +177,124 @@ public class CodeBlockManager implements SRDumpable
         }
         return block;
     }
+
+    /**
+     * Get statistics of the decoded block cache.
+     * @return human-readable statistics.
+     */
+    public static String getDecodeCacheStatistics()
+    {
+        return decodeCache.getStatistics();
+    }
+
+    /**
+     * Get statistics of the block predecoder.
+     * @return human-readable statistics.
+     */
+    public static String getPredecodeStatistics()
+    {
+        return predecoder.getStatistics();
+    }
+
+    /**
+     * Invalidate all block links. Called whenever the block a linear address
+     * would be looked up to might have changed.
+     */
+    public void invalidateLinks()
+    {
+        linkGeneration = (linkGeneration + 1) & 0x7FFFFFFF;
+    }
+
+    /**
+     * Execute real mode block at instruction pointer, following link from
+     * previously executed block if possible.
+     * @param cpu processor to execute on.
+     * @param physical physical address space.
+     * @return number of instructions executed.
+     */
+    public int executeReal(Processor cpu, AddressSpace physical)
+    {
+        int ip = cpu.getInstructionPointer();
+        RealModeCodeBlock from = lastRealModeBlock;
+        realModeLinkSource = null;
+        lastRealModeBlock = null;
+        if(from != null && BLOCK_CHAINING) {
+            CodeBlockLink link = from.getSuccessors();
+            int slot = link.find(ip, linkGeneration);
+            if(slot >= 0)
+                return link.getMemory(slot).executeReal(cpu, ip, (RealModeCodeBlock)link.getBlock(slot));
+            realModeLinkSource = from;
+        }
+        return physical.executeReal(cpu, ip);
+    }
+
+    /**
+     * Execute protected mode block at instruction pointer, following link from
+     * previously executed block if possible.
+     * @param cpu processor to execute on.
+     * @param linear linear address space.
+     * @return number of instructions executed.
+     */
+    public int executeProtected(Processor cpu, AddressSpace linear)
+    {
+        int ip = cpu.getInstructionPointer();
+        ProtectedModeCodeBlock from = lastProtectedModeBlock;
+        protectedModeLinkSource = null;
+        lastProtectedModeBlock = null;
+        if(from != null && BLOCK_CHAINING) {
+            CodeBlockLink link = from.getSuccessors();
+            int slot = link.find(ip, linkGeneration);
+            if(slot >= 0) {
+                try {
+                    return link.getMemory(slot).executeProtected(cpu, ip, (ProtectedModeCodeBlock)link.getBlock(slot));
+                } catch (ProcessorException e) {
+                    //Only possible from redecode. Retry the slow way which knows how to fix up the TLB.
+                    lastProtectedModeBlock = null;
+                }
+            } else
+                protectedModeLinkSource = from;
+        }
+        return linear.executeProtected(cpu, ip);
+    }
+
+    /**
+     * Notify that real mode block is about to be executed. Links the block to
+     * previously executed block if it was looked up the slow way.
+     * @param ip linear address of instruction pointer.
+     * @param memory memory the block is stored in.
+     * @param block block to be executed.
+     */
+    public void realModeBlockEntered(int ip, LazyCodeBlockMemory memory, RealModeCodeBlock block)
+    {
+        if(block == null || block.getSuccessors() == null) {
+            lastRealModeBlock = null;
+            realModeLinkSource = null;
+            return;
+        }
+        //Spanning blocks redecode on every execution and may fault doing it.
+        if(realModeLinkSource != null && !(block instanceof SpanningCodeBlock))
+            realModeLinkSource.getSuccessors().set(ip, linkGeneration, memory, block);
+        realModeLinkSource = null;
+        lastRealModeBlock = block;
+    }
+
+    /**
+     * Notify that protected mode block is about to be executed. Links the block
+     * to previously executed block if it was looked up the slow way.
+     * @param ip linear address of instruction pointer.
+     * @param memory memory the block is stored in.
+     * @param block block to be executed.
+     */
+    public void protectedModeBlockEntered(int ip, LazyCodeBlockMemory memory, ProtectedModeCodeBlock block)
+    {
+        if(block == null || block.getSuccessors() == null) {
+            lastProtectedModeBlock = null;
+            protectedModeLinkSource = null;
+            return;
+        }
+        if(protectedModeLinkSource != null && !(block instanceof SpanningCodeBlock))
+            protectedModeLinkSource.getSuccessors().set(ip, linkGeneration, memory, block);
+        protectedModeLinkSource = null;
+        lastProtectedModeBlock = block;
+    }
 }
@@ -0,0 +1,269 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import java.util.*;
+
+/**
+ * Content-addressed cache of decoded blocks.
+ * <p>
+ * Maps the x86 bytes a decoder consumed (together with decode mode, operand
+ * size and block limit) to the resulting microcode and position arrays. The
+ * cache is global, so it survives loading savestates and creating new PCs.
+ * Lookups hash a short prefix of the bytes at the block start and then compare
+ * the full byte sequence of each candidate, so hits are exact. Entries are
+ * evicted in least recently used order once their estimated size exceeds
+ * {@link CodeBlockManager#DECODE_CACHE_LIMIT}.
+ * @author H. Ilari Liusvaara
+ */
+class DecodedBlockCache
+{
+    static final int MODE_REAL = 0;
+    static final int MODE_PROTECTED_16 = 1;
+    static final int MODE_PROTECTED_32 = 2;
+    static final int MODE_VIRTUAL8086 = 3;
+
+    private static final int PREFIX_LENGTH = 16;
+    //Rough per-entry overhead of objects and map node.
+    private static final int ENTRY_OVERHEAD = 128;
+
+    static class Entry
+    {
+        final int mode;
+        final int limit;
+        final byte[] bytes;
+        final int[] microcodes;
+        final int[] positions;
+        Entry next;
+        //Set for entries from the predecoder until first hit.
+        boolean predecoded;
+
+        Entry(int mode, int limit, byte[] bytes, int[] microcodes, int[] positions)
+        {
+            this.mode = mode;
+            this.limit = limit;
+            this.bytes = bytes;
+            this.microcodes = microcodes;
+            this.positions = positions;
+        }
+
+        long size()
+        {
+            return ENTRY_OVERHEAD + bytes.length + 8L * microcodes.length;
+        }
+
+        InstructionSource getInstructionSource()
+        {
+            return new ArrayBackedInstructionSource(microcodes, positions);
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> entries;
+    private long size;
+    private byte[] scratch;
+    private long hits, misses, evictions;
+    private long predecoded, predecodedUsed;
+
+    DecodedBlockCache()
+    {
+        entries = new LinkedHashMap<Long, Entry>(1024, 0.75f, true);
+        scratch = new byte[256];
+    }
+
+    private static long key(int mode, int limit, byte[] prefix, int length)
+    {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < length; i++)
+            h = (h ^ (prefix[i] & 0xFF)) * 0x100000001b3L;
+        return h ^ ((long)mode << 62) ^ ((long)limit << 32);
+    }
+
+    private static boolean matches(Entry e, int mode, int limit, byte[] data)
+    {
+        if(e.mode != mode || e.limit != limit)
+            return false;
+        for(int i = 0; i < e.bytes.length; i++)
+            if(e.bytes[i] != data[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Look up decoded block for bytes at start of source.
+     * @param source byte source positioned at block start.
+     * @param mode decode mode.
+     * @param limit decoder block limit.
+     * @return matching entry, or <code>null</code> on miss.
+     */
+    synchronized Entry lookup(ByteSourceWrappedMemory source, int mode, int limit)
+    {
+        int available = source.available();
+        int prefix = Math.min(PREFIX_LENGTH, available);
+        source.copyFromStart(scratch, prefix);
+        Entry e = entries.get(key(mode, limit, scratch, prefix));
+        int copied = prefix;
+        for(; e != null; e = e.next) {
+            if(e.bytes.length > available)
+                continue;
+            if(e.bytes.length > copied) {
+                if(e.bytes.length > scratch.length)
+                    scratch = new byte[Math.max(e.bytes.length, 2 * scratch.length)];
+                source.copyFromStart(scratch, e.bytes.length);
+                copied = e.bytes.length;
+            }
+            if(matches(e, mode, limit, scratch)) {
+                hits++;
+                if(e.predecoded) {
+                    e.predecoded = false;
+                    predecodedUsed++;
+                }
+                return e;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Insert freshly decoded block.
+     * @param source byte source the block was decoded from, positioned after the last byte read.
+     * @param mode decode mode.
+     * @param limit decoder block limit.
+     * @param microcodes decoded microcodes.
+     * @param positions cumulative x86 positions of the microcodes.
+     */
+    synchronized void insert(ByteSourceWrappedMemory source, int mode, int limit, int[] microcodes, int[] positions)
+    {
+        //Unallocated memory reads past its end, and such blocks can't be looked up anyway.
+        if(source.consumed() > source.available())
+            return;
+        byte[] bytes = new byte[source.consumed()];
+        source.copyFromStart(bytes, bytes.length);
+        int prefix = Math.min(PREFIX_LENGTH, source.available());
+        if(prefix > bytes.length)
+            source.copyFromStart(scratch, prefix);
+        else
+            System.arraycopy(bytes, 0, scratch, 0, prefix);
+        add(new Entry(mode, limit, bytes, microcodes, positions), scratch, prefix);
+    }
+
+    /**
+     * Check if there is an entry for bytes at start of data.
+     * @param data bytes from block start to end of memory.
+     * @param mode decode mode.
+     * @param limit decoder block limit.
+     * @return <code>true</code> if lookup of the bytes would hit.
+     */
+    synchronized boolean contains(byte[] data, int mode, int limit)
+    {
+        int prefix = Math.min(PREFIX_LENGTH, data.length);
+        for(Entry e = entries.get(key(mode, limit, data, prefix)); e != null; e = e.next)
+            if(e.bytes.length <= data.length && matches(e, mode, limit, data))
+                return true;
+        return false;
+    }
+
+    /**
+     * Insert block decoded by the predecoder unless the bytes already have an
+     * entry.
+     * @param data bytes from block start to end of memory.
+     * @param consumed number of bytes decoder read.
+     * @param mode decode mode.
+     * @param limit decoder block limit.
+     * @param microcodes decoded microcodes.
+     * @param positions cumulative x86 positions of the microcodes.
+     */
+    synchronized void insertPredecoded(byte[] data, int consumed, int mode, int limit, int[] microcodes,
+        int[] positions)
+    {
+        if(consumed > data.length || contains(data, mode, limit))
+            return;
+        Entry e = new Entry(mode, limit, Arrays.copyOf(data, consumed), microcodes, positions);
+        e.predecoded = true;
+        predecoded++;
+        add(e, data, Math.min(PREFIX_LENGTH, data.length));
+    }
+
+    private void add(Entry e, byte[] prefix, int prefixLength)
+    {
+        long cap = CodeBlockManager.DECODE_CACHE_LIMIT;
+        if(e.size() > cap)
+            return;
+
+        Long k = key(e.mode, e.limit, prefix, prefixLength);
+        e.next = entries.get(k);
+        entries.put(k, e);
+        size += e.size();
+
+        Iterator<Entry> itt = entries.values().iterator();
+        while(size > cap && itt.hasNext()) {
+            for(Entry old = itt.next(); old != null; old = old.next) {
+                size -= old.size();
+                evictions++;
+            }
+            itt.remove();
+        }
+    }
+
+    /**
+     * Drain instruction source into microcode and position arrays.
+     * @param source instruction source to drain.
+     * @return array of microcode array and cumulative x86 position array.
+     */
+    static int[][] drain(InstructionSource source)
+    {
+        int[] microcodes = new int[64];
+        int[] positions = new int[64];
+        int count = 0;
+        int position = 0;
+
+        while(source.getNext()) {
+            int length = source.getLength();
+            position += source.getX86Length();
+            if(count + length > microcodes.length) {
+                int newLength = Math.max(count + length, 2 * microcodes.length);
+                microcodes = Arrays.copyOf(microcodes, newLength);
+                positions = Arrays.copyOf(positions, newLength);
+            }
+            for(int i = 0; i < length; i++) {
+                microcodes[count] = source.getMicrocode();
+                positions[count++] = position;
+            }
+        }
+        return new int[][]{Arrays.copyOf(microcodes, count), Arrays.copyOf(positions, count)};
+    }
+
+    synchronized String getStatistics()
+    {
+        return "hits " + hits + ", misses " + misses + ", evictions " + evictions + ", entries " +
+            entries.size() + " keys, " + (size >> 10) + "KiB, predecoded " + predecoded + " (" + predecodedUsed +
+            " used)";
+    }
+}
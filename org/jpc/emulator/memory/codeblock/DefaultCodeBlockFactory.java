@@ -48,17 +48,57 @@ class DefaultCodeBlockFactory implements CodeBlockFactory
 
     public RealModeCodeBlock getRealModeCodeBlock(ByteSource source)
     {
+        if(CodeBlockManager.DECODE_CACHE_LIMIT > 0 && isCacheable(source))
+            return compiler.getRealModeCodeBlock(decodeCached((ByteSourceWrappedMemory)source,
+                DecodedBlockCache.MODE_REAL));
         return compiler.getRealModeCodeBlock(decoder.decodeReal(source, limit));
     }
 
-
     public ProtectedModeCodeBlock getProtectedModeCodeBlock(ByteSource source, boolean operandSize)
     {
+        if(CodeBlockManager.DECODE_CACHE_LIMIT > 0 && isCacheable(source))
+            return compiler.getProtectedModeCodeBlock(decodeCached((ByteSourceWrappedMemory)source,
+                operandSize ? DecodedBlockCache.MODE_PROTECTED_32 : DecodedBlockCache.MODE_PROTECTED_16));
         return compiler.getProtectedModeCodeBlock(decoder.decodeProtected(source, operandSize, limit));
     }
 
     public Virtual8086ModeCodeBlock getVirtual8086ModeCodeBlock(ByteSource source)
     {
+        if(CodeBlockManager.DECODE_CACHE_LIMIT > 0 && isCacheable(source))
+            return compiler.getVirtual8086ModeCodeBlock(decodeCached((ByteSourceWrappedMemory)source,
+                DecodedBlockCache.MODE_VIRTUAL8086));
         return compiler.getVirtual8086ModeCodeBlock(decoder.decodeVirtual8086(source, limit));
     }
+
+    private static boolean isCacheable(ByteSource source)
+    {
+        return source instanceof ByteSourceWrappedMemory && ((ByteSourceWrappedMemory)source).isCacheable();
+    }
+
+    private InstructionSource decodeCached(ByteSourceWrappedMemory source, int mode)
+    {
+        DecodedBlockCache cache = CodeBlockManager.decodeCache;
+        DecodedBlockCache.Entry entry = cache.lookup(source, mode, limit);
+        if(entry != null)
+            return entry.getInstructionSource();
+
+        InstructionSource decoded;
+        switch(mode) {
+        case DecodedBlockCache.MODE_REAL:
+            decoded = decoder.decodeReal(source, limit);
+            break;
+        case DecodedBlockCache.MODE_VIRTUAL8086:
+            decoded = decoder.decodeVirtual8086(source, limit);
+            break;
+        default:
+            decoded = decoder.decodeProtected(source, mode == DecodedBlockCache.MODE_PROTECTED_32, limit);
+            break;
+        }
+        //Decoding is lazy, so drain it to get all bytes read.
+        int[][] arrays = DecodedBlockCache.drain(decoded);
+        cache.insert(source, mode, limit, arrays[0], arrays[1]);
+        if(CodeBlockManager.PREDECODE_THREADS > 0)
+            CodeBlockManager.predecoder.submit(source, mode, limit, arrays[1]);
+        return new ArrayBackedInstructionSource(arrays[0], arrays[1]);
+    }
 }
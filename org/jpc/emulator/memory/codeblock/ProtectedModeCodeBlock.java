@@ -35,4 +35,9 @@ package org.jpc.emulator.memory.codeblock;
  */
 public interface ProtectedModeCodeBlock extends CodeBlock
 {
+    /**
+     * Gets the links to blocks executed after this one.
+     * @return successor links, or <code>null</code> if block can't be linked from.
+     */
+    public CodeBlockLink getSuccessors();
 }
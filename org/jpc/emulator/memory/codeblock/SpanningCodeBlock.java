@@ -30,15 +30,26 @@
 package org.jpc.emulator.memory.codeblock;
 
 import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.memory.AddressSpace;
 
 /**
- * Abstract <code>CodeBlock</code> instance that never caches a decode result.
- * This is necessary for blocks that span memory boundaries.
+ * Abstract <code>CodeBlock</code> instance for blocks that span memory
+ * boundaries.
+ * <p>
+ * Writes to the second memory page don't invalidate the block, so the last
+ * decode result is only reused if the bytes it was decoded from still read
+ * the same at the current instruction pointer. The check makes the same
+ * reads as decoding would, and a decode after a failed check takes the
+ * bytes the check already read from it, so memory sees exactly the accesses
+ * of decoding on every execution.
  * @author Chris Dennis
  */
 public abstract class SpanningCodeBlock implements CodeBlock
 {
     private CodeBlock lastBlock;
+    /** Source to decode from. Logs the reads of last decode. */
+    protected final ByteSourceWrappedMemory byteSource = new ByteSourceWrappedMemory(false, true);
+    private final CodeBlockLink successors = new CodeBlockLink();
 
     public int getX86Length()
     {
@@ -56,7 +67,12 @@ public abstract class SpanningCodeBlock implements CodeBlock
 
     public int execute(Processor cpu)
     {
-        lastBlock = decode(cpu);
+        byteSource.startReadLog();
+        if(lastBlock == null || !CodeBlockManager.CACHE_SPANNING_BLOCKS || !isCurrent(cpu)) {
+            //Decode may fault, and the read log is then partial.
+            lastBlock = null;
+            lastBlock = decode(cpu);
+        }
         return lastBlock.execute(cpu);
     }
 
@@ -67,6 +83,26 @@ public abstract class SpanningCodeBlock implements CodeBlock
      */
     protected abstract CodeBlock decode(Processor cpu);
 
+    /**
+     * Checks whether the last decode result is still valid for the current
+     * processor state.
+     * @param cpu processor state on which we are about to execute
+     * @return <code>true</code> if last decoded block can be reused
+     */
+    protected abstract boolean isCurrent(Processor cpu);
+
+    /**
+     * Compares the bytes the last decode consumed against memory. Bytes are
+     * read in decoder order so that any fault is the one decoding would raise.
+     * @param memory memory to compare against
+     * @param address address of first byte of block
+     * @return <code>true</code> if all bytes match
+     */
+    protected boolean matchesDecodedBytes(AddressSpace memory, int address)
+    {
+        return byteSource.matchesReadLog(memory, address);
+    }
+
     /**
      * Indicates whether this block can handle a change in the memory contents
      * over the given range.  Spanning blocks always return <code>true</code>
@@ -84,6 +120,11 @@ public abstract class SpanningCodeBlock implements CodeBlock
     {
     }
 
+    public CodeBlockLink getSuccessors()
+    {
+        return successors;
+    }
+
     public String getDisplayString()
     {
         if(lastBlock != null)
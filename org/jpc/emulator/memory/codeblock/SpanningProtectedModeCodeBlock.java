@@ -38,10 +38,9 @@ import org.jpc.emulator.memory.AddressSpace;
  */
 class SpanningProtectedModeCodeBlock extends SpanningCodeBlock implements ProtectedModeCodeBlock
 {
-    private ByteSourceWrappedMemory byteSource = new ByteSourceWrappedMemory();
-
     private CodeBlockFactory[] factories;
     private int length;
+    private boolean lastOpSize;
 
     public SpanningProtectedModeCodeBlock(CodeBlockFactory[] factories)
     {
@@ -66,10 +65,16 @@ class SpanningProtectedModeCodeBlock extends SpanningCodeBlock implements Protec
             } catch (IllegalStateException e) {
             }
         length = block.getX86Length();
+        lastOpSize = opSize;
         byteSource.set(null, 0);
         return block;
     }
 
+    protected boolean isCurrent(Processor cpu)
+    {
+        return cpu.cs.getDefaultSizeFlag() == lastOpSize && matchesDecodedBytes(cpu.linearMemory, cpu.getInstructionPointer());
+    }
+
     public String toString()
     {
         return "Spanning Protected Mode CodeBlock";
@@ -38,8 +38,6 @@ import org.jpc.emulator.memory.AddressSpace;
  */
 class SpanningRealModeCodeBlock extends SpanningCodeBlock implements RealModeCodeBlock
 {
-    private ByteSourceWrappedMemory byteSource = new ByteSourceWrappedMemory();
-
     private CodeBlockFactory[] factories;
 
     public SpanningRealModeCodeBlock(CodeBlockFactory[] factories)
@@ -63,6 +61,11 @@ class SpanningRealModeCodeBlock extends SpanningCodeBlock implements RealModeCod
         return block;
     }
 
+    protected boolean isCurrent(Processor cpu)
+    {
+        return matchesDecodedBytes(cpu.physicalMemory, cpu.getInstructionPointer());
+    }
+
     public String toString()
     {
         return "Spanning Real Mode CodeBlock";
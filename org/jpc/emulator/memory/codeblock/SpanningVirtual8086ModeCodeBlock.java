@@ -38,8 +38,6 @@ import org.jpc.emulator.memory.AddressSpace;
  */
 class SpanningVirtual8086ModeCodeBlock extends SpanningCodeBlock implements Virtual8086ModeCodeBlock
 {
-    private ByteSourceWrappedMemory byteSource = new ByteSourceWrappedMemory();
-
     private CodeBlockFactory[] factories;
 
     public SpanningVirtual8086ModeCodeBlock(CodeBlockFactory[] factories)
@@ -63,6 +61,11 @@ class SpanningVirtual8086ModeCodeBlock extends SpanningCodeBlock implements Virt
         return block;
     }
 
+    protected boolean isCurrent(Processor cpu)
+    {
+        return matchesDecodedBytes(cpu.linearMemory, cpu.getInstructionPointer());
+    }
+
     public String toString()
     {
         return "Spanning Virtual8086 Mode CodeBlock";
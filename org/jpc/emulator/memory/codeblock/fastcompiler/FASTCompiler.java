@@ -0,0 +1,764 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.fastcompiler;
+
+import org.jpc.classfile.*;
+import org.jpc.emulator.memory.codeblock.*;
+import org.jpc.emulator.memory.codeblock.optimised.*;
+import static org.jpc.emulator.memory.codeblock.optimised.MicrocodeSet.*;
+
+/**
+ * Second compilation tier: translates hot real mode microcode blocks into
+ * generated JVM classes.
+ * <p>
+ * Blocks are first built by the wrapped (interpreting) compiler. Real mode
+ * blocks are wrapped so that once they have been executed
+ * <code>COMPILE_THRESHOLD</code> times, their microcode is translated into
+ * straight-line bytecode. Blocks using microcodes outside the supported
+ * subset keep running in the interpreter. Protected and virtual 8086 mode
+ * blocks are always interpreted.
+ * @author H. Ilari Liusvaara
+ */
+public class FASTCompiler implements CodeBlockCompiler
+{
+    public static final int MODE_OFF = 0;
+    public static final int MODE_ON = 1;
+    public static final int MODE_VERIFY = 2;
+
+    /** Tier mode. Takes effect for PCs assembled or loaded afterwards, except verify which is dynamic. */
+    public static volatile int mode = MODE_OFF;
+    /** Executions of block before it is compiled. */
+    public static volatile int COMPILE_THRESHOLD = 1000;
+    //HotSpot doesn't JIT methods larger than 8000 bytes.
+    private static final int MAX_BYTECODE_SIZE = 7900;
+
+    private static final String PROCESSOR = "org/jpc/emulator/processor/Processor";
+    private static final String SEGMENT = "org/jpc/emulator/processor/Segment";
+    private static final String TEMPLATE = "org/jpc/emulator/memory/codeblock/fastcompiler/RealModeTemplateBlock";
+    private static final String GENERATED = "org/jpc/emulator/memory/codeblock/fastcompiler/GeneratedRealModeBlock";
+    private static final String SEGMENT_TYPE = "L" + SEGMENT + ";";
+
+    private static final int CPU = 1;
+    private static final int SEG0 = 2;
+    private static final int ADDR0 = 3;
+    private static final int REG0 = 4;
+    private static final int REG1 = 5;
+    private static final int REG2 = 6;
+
+    static long blocksCompiled;
+    static long blocksRejected;
+    static long blocksVerified;
+    static long blocksUnverified;
+    static long verifyMismatches;
+
+    private final CodeBlockCompiler interpreter;
+
+    public FASTCompiler(CodeBlockCompiler interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    public RealModeCodeBlock getRealModeCodeBlock(InstructionSource source)
+    {
+        RealModeCodeBlock block = interpreter.getRealModeCodeBlock(source);
+        if(block instanceof RealModeUBlock)
+            return new TieredRealModeCodeBlock((RealModeUBlock)block);
+        return block;
+    }
+
+    public ProtectedModeCodeBlock getProtectedModeCodeBlock(InstructionSource source)
+    {
+        return interpreter.getProtectedModeCodeBlock(source);
+    }
+
+    public Virtual8086ModeCodeBlock getVirtual8086ModeCodeBlock(InstructionSource source)
+    {
+        return interpreter.getVirtual8086ModeCodeBlock(source);
+    }
+
+    public static String getStatistics()
+    {
+        return "compiled " + blocksCompiled + ", rejected " + blocksRejected + ", verified " + blocksVerified +
+            ", unverifiable " + blocksUnverified + ", mismatches " + verifyMismatches;
+    }
+
+    private static class BlockLoader extends ClassLoader
+    {
+        BlockLoader()
+        {
+            super(RealModeTemplateBlock.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] classBytes)
+        {
+            return defineClass(GENERATED.replace('/', '.'), classBytes, 0, classBytes.length);
+        }
+    }
+
+    /**
+     * Translate real mode microcode block into class.
+     * @param microcodes microcodes of block.
+     * @param positions cumulative x86 lengths of block.
+     * @return instance of generated class, or <code>null</code> if block can't be compiled.
+     */
+    static RealModeTemplateBlock compileRealMode(int[] microcodes, int[] positions)
+    {
+        byte[] classBytes;
+        try {
+            classBytes = generateRealMode(microcodes, positions);
+        } catch(IllegalStateException e) {
+            classBytes = null;
+        }
+        if(classBytes == null) {
+            blocksRejected++;
+            return null;
+        }
+        try {
+            Class<?> c = new BlockLoader().define(classBytes);
+            RealModeTemplateBlock block = (RealModeTemplateBlock)c.getDeclaredConstructor().newInstance();
+            blocksCompiled++;
+            return block;
+        } catch(Throwable e) {
+            System.err.println("Warning: Generated real mode block failed to load: " + e);
+            blocksRejected++;
+            return null;
+        }
+    }
+
+    /**
+     * Check if the block contains any segment register loads.
+     */
+    static boolean loadsSegments(int[] microcodes)
+    {
+        for(int pos = 0; pos < microcodes.length; pos += 1 + immediateCount(microcodes[pos]))
+            switch(microcodes[pos]) {
+            case STORE0_ES: case STORE0_DS: case STORE0_FS: case STORE0_GS:
+            case STORE1_ES: case STORE1_DS: case STORE1_FS: case STORE1_GS:
+                return true;
+            }
+        return false;
+    }
+
+    private static int immediateCount(int op)
+    {
+        switch(op) {
+        case ADDR_IB: case ADDR_IW: case ADDR_ID:
+        case LOAD0_IB: case LOAD0_IW: case LOAD0_ID:
+        case LOAD1_IB: case LOAD1_IW: case LOAD1_ID:
+        case LOAD2_IB:
+            return 1;
+        default:
+            return 0;
+        }
+    }
+
+    private static byte[] generateRealMode(int[] microcodes, int[] positions)
+    {
+        ClassFile cf = new ClassFile(GENERATED, TEMPLATE);
+
+        Bytecode init = new Bytecode(cf, 1, 1);
+        init.aload(0);
+        init.invoke(Bytecode.INVOKESPECIAL, TEMPLATE, "<init>", "()V");
+        init.op(Bytecode.RETURN);
+        cf.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V", init);
+
+        Bytecode code = new Bytecode(cf, 8, 7);
+        code.op(Bytecode.ACONST_NULL);
+        code.astore(SEG0);
+        for(int i = ADDR0; i <= REG2; i++) {
+            code.pushInt(0);
+            code.istore(i);
+        }
+
+        //Fault position of each op, for emitting the handlers after the code.
+        int[] opStart = new int[microcodes.length];
+        int[] opEnd = new int[microcodes.length];
+        int[] opIndex = new int[microcodes.length];
+        int ops = 0;
+        boolean eipUpdated = false;
+
+        int position = 0;
+        while(position < microcodes.length) {
+            int op = microcodes[position];
+            int immCount = immediateCount(op);
+            if(position + immCount >= microcodes.length)
+                return null;
+            int imm = (immCount > 0) ? microcodes[position + 1] : 0;
+            int start = code.position();
+
+            switch(op) {
+            case EIP_UPDATE:
+                if(!eipUpdated) {
+                    eipUpdated = true;
+                    code.aload(CPU);
+                    code.op(Bytecode.DUP);
+                    code.field(Bytecode.GETFIELD, PROCESSOR, "eip", "I");
+                    code.pushInt(positions[position]);
+                    code.op(Bytecode.IADD);
+                    code.field(Bytecode.PUTFIELD, PROCESSOR, "eip", "I");
+                }
+                break;
+            case INSTRUCTION_START: callThis(code, "instructionStart", "()V"); break;
+
+            case MEM_RESET:
+                code.pushInt(0);
+                code.istore(ADDR0);
+                code.op(Bytecode.ACONST_NULL);
+                code.astore(SEG0);
+                break;
+
+            case LOAD0_EAX: loadRegister(code, REG0, "eax", 32); break;
+            case LOAD0_ECX: loadRegister(code, REG0, "ecx", 32); break;
+            case LOAD0_EDX: loadRegister(code, REG0, "edx", 32); break;
+            case LOAD0_EBX: loadRegister(code, REG0, "ebx", 32); break;
+            case LOAD0_ESP: loadRegister(code, REG0, "esp", 32); break;
+            case LOAD0_EBP: loadRegister(code, REG0, "ebp", 32); break;
+            case LOAD0_ESI: loadRegister(code, REG0, "esi", 32); break;
+            case LOAD0_EDI: loadRegister(code, REG0, "edi", 32); break;
+
+            case LOAD1_EAX: loadRegister(code, REG1, "eax", 32); break;
+            case LOAD1_ECX: loadRegister(code, REG1, "ecx", 32); break;
+            case LOAD1_EDX: loadRegister(code, REG1, "edx", 32); break;
+            case LOAD1_EBX: loadRegister(code, REG1, "ebx", 32); break;
+            case LOAD1_ESP: loadRegister(code, REG1, "esp", 32); break;
+            case LOAD1_EBP: loadRegister(code, REG1, "ebp", 32); break;
+            case LOAD1_ESI: loadRegister(code, REG1, "esi", 32); break;
+            case LOAD1_EDI: loadRegister(code, REG1, "edi", 32); break;
+
+            case STORE0_EAX: storeRegister(code, REG0, "eax", 32); break;
+            case STORE0_ECX: storeRegister(code, REG0, "ecx", 32); break;
+            case STORE0_EDX: storeRegister(code, REG0, "edx", 32); break;
+            case STORE0_EBX: storeRegister(code, REG0, "ebx", 32); break;
+            case STORE0_ESP: storeRegister(code, REG0, "esp", 32); break;
+            case STORE0_EBP: storeRegister(code, REG0, "ebp", 32); break;
+            case STORE0_ESI: storeRegister(code, REG0, "esi", 32); break;
+            case STORE0_EDI: storeRegister(code, REG0, "edi", 32); break;
+
+            case STORE1_EAX: storeRegister(code, REG1, "eax", 32); break;
+            case STORE1_ECX: storeRegister(code, REG1, "ecx", 32); break;
+            case STORE1_EDX: storeRegister(code, REG1, "edx", 32); break;
+            case STORE1_EBX: storeRegister(code, REG1, "ebx", 32); break;
+            case STORE1_ESP: storeRegister(code, REG1, "esp", 32); break;
+            case STORE1_EBP: storeRegister(code, REG1, "ebp", 32); break;
+            case STORE1_ESI: storeRegister(code, REG1, "esi", 32); break;
+            case STORE1_EDI: storeRegister(code, REG1, "edi", 32); break;
+
+            case LOAD0_AX: loadRegister(code, REG0, "eax", 16); break;
+            case LOAD0_CX: loadRegister(code, REG0, "ecx", 16); break;
+            case LOAD0_DX: loadRegister(code, REG0, "edx", 16); break;
+            case LOAD0_BX: loadRegister(code, REG0, "ebx", 16); break;
+            case LOAD0_SP: loadRegister(code, REG0, "esp", 16); break;
+            case LOAD0_BP: loadRegister(code, REG0, "ebp", 16); break;
+            case LOAD0_SI: loadRegister(code, REG0, "esi", 16); break;
+            case LOAD0_DI: loadRegister(code, REG0, "edi", 16); break;
+
+            case LOAD1_AX: loadRegister(code, REG1, "eax", 16); break;
+            case LOAD1_CX: loadRegister(code, REG1, "ecx", 16); break;
+            case LOAD1_DX: loadRegister(code, REG1, "edx", 16); break;
+            case LOAD1_BX: loadRegister(code, REG1, "ebx", 16); break;
+            case LOAD1_SP: loadRegister(code, REG1, "esp", 16); break;
+            case LOAD1_BP: loadRegister(code, REG1, "ebp", 16); break;
+            case LOAD1_SI: loadRegister(code, REG1, "esi", 16); break;
+            case LOAD1_DI: loadRegister(code, REG1, "edi", 16); break;
+
+            case STORE0_AX: storeRegister(code, REG0, "eax", 16); break;
+            case STORE0_CX: storeRegister(code, REG0, "ecx", 16); break;
+            case STORE0_DX: storeRegister(code, REG0, "edx", 16); break;
+            case STORE0_BX: storeRegister(code, REG0, "ebx", 16); break;
+            case STORE0_SP: storeRegister(code, REG0, "esp", 16); break;
+            case STORE0_BP: storeRegister(code, REG0, "ebp", 16); break;
+            case STORE0_SI: storeRegister(code, REG0, "esi", 16); break;
+            case STORE0_DI: storeRegister(code, REG0, "edi", 16); break;
+
+            case STORE1_AX: storeRegister(code, REG1, "eax", 16); break;
+            case STORE1_CX: storeRegister(code, REG1, "ecx", 16); break;
+            case STORE1_DX: storeRegister(code, REG1, "edx", 16); break;
+            case STORE1_BX: storeRegister(code, REG1, "ebx", 16); break;
+            case STORE1_SP: storeRegister(code, REG1, "esp", 16); break;
+            case STORE1_BP: storeRegister(code, REG1, "ebp", 16); break;
+            case STORE1_SI: storeRegister(code, REG1, "esi", 16); break;
+            case STORE1_DI: storeRegister(code, REG1, "edi", 16); break;
+
+            case LOAD0_AL: loadRegister(code, REG0, "eax", 8); break;
+            case LOAD0_CL: loadRegister(code, REG0, "ecx", 8); break;
+            case LOAD0_DL: loadRegister(code, REG0, "edx", 8); break;
+            case LOAD0_BL: loadRegister(code, REG0, "ebx", 8); break;
+            case LOAD0_AH: loadRegister(code, REG0, "eax", -8); break;
+            case LOAD0_CH: loadRegister(code, REG0, "ecx", -8); break;
+            case LOAD0_DH: loadRegister(code, REG0, "edx", -8); break;
+            case LOAD0_BH: loadRegister(code, REG0, "ebx", -8); break;
+
+            case LOAD1_AL: loadRegister(code, REG1, "eax", 8); break;
+            case LOAD1_CL: loadRegister(code, REG1, "ecx", 8); break;
+            case LOAD1_DL: loadRegister(code, REG1, "edx", 8); break;
+            case LOAD1_BL: loadRegister(code, REG1, "ebx", 8); break;
+            case LOAD1_AH: loadRegister(code, REG1, "eax", -8); break;
+            case LOAD1_CH: loadRegister(code, REG1, "ecx", -8); break;
+            case LOAD1_DH: loadRegister(code, REG1, "edx", -8); break;
+            case LOAD1_BH: loadRegister(code, REG1, "ebx", -8); break;
+
+            case STORE0_AL: storeRegister(code, REG0, "eax", 8); break;
+            case STORE0_CL: storeRegister(code, REG0, "ecx", 8); break;
+            case STORE0_DL: storeRegister(code, REG0, "edx", 8); break;
+            case STORE0_BL: storeRegister(code, REG0, "ebx", 8); break;
+            case STORE0_AH: storeRegister(code, REG0, "eax", -8); break;
+            case STORE0_CH: storeRegister(code, REG0, "ecx", -8); break;
+            case STORE0_DH: storeRegister(code, REG0, "edx", -8); break;
+            case STORE0_BH: storeRegister(code, REG0, "ebx", -8); break;
+
+            case STORE1_AL: storeRegister(code, REG1, "eax", 8); break;
+            case STORE1_CL: storeRegister(code, REG1, "ecx", 8); break;
+            case STORE1_DL: storeRegister(code, REG1, "edx", 8); break;
+            case STORE1_BL: storeRegister(code, REG1, "ebx", 8); break;
+            case STORE1_AH: storeRegister(code, REG1, "eax", -8); break;
+            case STORE1_CH: storeRegister(code, REG1, "ecx", -8); break;
+            case STORE1_DH: storeRegister(code, REG1, "edx", -8); break;
+            case STORE1_BH: storeRegister(code, REG1, "ebx", -8); break;
+
+            case LOAD2_EAX: loadRegister(code, REG2, "eax", 32); break;
+            case LOAD2_AX: loadRegister(code, REG2, "eax", 16); break;
+            case LOAD2_AL: loadRegister(code, REG2, "eax", 8); break;
+            case LOAD2_CL: loadRegister(code, REG2, "ecx", 8); break;
+
+            case LOAD0_ES: loadSelector(code, "es"); break;
+            case LOAD0_CS: loadSelector(code, "cs"); break;
+            case LOAD0_SS: loadSelector(code, "ss"); break;
+            case LOAD0_DS: loadSelector(code, "ds"); break;
+            case LOAD0_FS: loadSelector(code, "fs"); break;
+            case LOAD0_GS: loadSelector(code, "gs"); break;
+
+            case STORE0_ES: storeSelector(code, REG0, "es"); break;
+            case STORE0_DS: storeSelector(code, REG0, "ds"); break;
+            case STORE0_FS: storeSelector(code, REG0, "fs"); break;
+            case STORE0_GS: storeSelector(code, REG0, "gs"); break;
+            case STORE1_ES: storeSelector(code, REG1, "es"); break;
+            case STORE1_DS: storeSelector(code, REG1, "ds"); break;
+            case STORE1_FS: storeSelector(code, REG1, "fs"); break;
+            case STORE1_GS: storeSelector(code, REG1, "gs"); break;
+
+            case LOAD0_IB: loadImmediate(code, REG0, imm & 0xff); break;
+            case LOAD0_IW: loadImmediate(code, REG0, imm & 0xffff); break;
+            case LOAD0_ID: loadImmediate(code, REG0, imm); break;
+            case LOAD1_IB: loadImmediate(code, REG1, imm & 0xff); break;
+            case LOAD1_IW: loadImmediate(code, REG1, imm & 0xffff); break;
+            case LOAD1_ID: loadImmediate(code, REG1, imm); break;
+            case LOAD2_IB: loadImmediate(code, REG2, imm & 0xff); break;
+
+            case LOAD_SEG_ES: loadSegment(code, "es"); break;
+            case LOAD_SEG_CS: loadSegment(code, "cs"); break;
+            case LOAD_SEG_SS: loadSegment(code, "ss"); break;
+            case LOAD_SEG_DS: loadSegment(code, "ds"); break;
+            case LOAD_SEG_FS: loadSegment(code, "fs"); break;
+            case LOAD_SEG_GS: loadSegment(code, "gs"); break;
+
+            case ADDR_EAX: addRegisterToAddress(code, "eax", 32, 0); break;
+            case ADDR_ECX: addRegisterToAddress(code, "ecx", 32, 0); break;
+            case ADDR_EDX: addRegisterToAddress(code, "edx", 32, 0); break;
+            case ADDR_EBX: addRegisterToAddress(code, "ebx", 32, 0); break;
+            case ADDR_ESP: addRegisterToAddress(code, "esp", 32, 0); break;
+            case ADDR_EBP: addRegisterToAddress(code, "ebp", 32, 0); break;
+            case ADDR_ESI: addRegisterToAddress(code, "esi", 32, 0); break;
+            case ADDR_EDI: addRegisterToAddress(code, "edi", 32, 0); break;
+
+            case ADDR_AX: addRegisterToAddress(code, "eax", 16, 0); break;
+            case ADDR_CX: addRegisterToAddress(code, "ecx", 16, 0); break;
+            case ADDR_DX: addRegisterToAddress(code, "edx", 16, 0); break;
+            case ADDR_BX: addRegisterToAddress(code, "ebx", 16, 0); break;
+            case ADDR_SP: addRegisterToAddress(code, "esp", 16, 0); break;
+            case ADDR_BP: addRegisterToAddress(code, "ebp", 16, 0); break;
+            case ADDR_SI: addRegisterToAddress(code, "esi", 16, 0); break;
+            case ADDR_DI: addRegisterToAddress(code, "edi", 16, 0); break;
+
+            case ADDR_2EAX: addRegisterToAddress(code, "eax", 32, 1); break;
+            case ADDR_2ECX: addRegisterToAddress(code, "ecx", 32, 1); break;
+            case ADDR_2EDX: addRegisterToAddress(code, "edx", 32, 1); break;
+            case ADDR_2EBX: addRegisterToAddress(code, "ebx", 32, 1); break;
+            case ADDR_2ESP: addRegisterToAddress(code, "esp", 32, 1); break;
+            case ADDR_2EBP: addRegisterToAddress(code, "ebp", 32, 1); break;
+            case ADDR_2ESI: addRegisterToAddress(code, "esi", 32, 1); break;
+            case ADDR_2EDI: addRegisterToAddress(code, "edi", 32, 1); break;
+
+            case ADDR_4EAX: addRegisterToAddress(code, "eax", 32, 2); break;
+            case ADDR_4ECX: addRegisterToAddress(code, "ecx", 32, 2); break;
+            case ADDR_4EDX: addRegisterToAddress(code, "edx", 32, 2); break;
+            case ADDR_4EBX: addRegisterToAddress(code, "ebx", 32, 2); break;
+            case ADDR_4ESP: addRegisterToAddress(code, "esp", 32, 2); break;
+            case ADDR_4EBP: addRegisterToAddress(code, "ebp", 32, 2); break;
+            case ADDR_4ESI: addRegisterToAddress(code, "esi", 32, 2); break;
+            case ADDR_4EDI: addRegisterToAddress(code, "edi", 32, 2); break;
+
+            case ADDR_8EAX: addRegisterToAddress(code, "eax", 32, 3); break;
+            case ADDR_8ECX: addRegisterToAddress(code, "ecx", 32, 3); break;
+            case ADDR_8EDX: addRegisterToAddress(code, "edx", 32, 3); break;
+            case ADDR_8EBX: addRegisterToAddress(code, "ebx", 32, 3); break;
+            case ADDR_8ESP: addRegisterToAddress(code, "esp", 32, 3); break;
+            case ADDR_8EBP: addRegisterToAddress(code, "ebp", 32, 3); break;
+            case ADDR_8ESI: addRegisterToAddress(code, "esi", 32, 3); break;
+            case ADDR_8EDI: addRegisterToAddress(code, "edi", 32, 3); break;
+
+            case ADDR_IB: code.iinc(ADDR0, (byte)imm); break;
+            case ADDR_IW: addConstantToAddress(code, (short)imm); break;
+            case ADDR_ID: addConstantToAddress(code, imm); break;
+            case ADDR_uAL: addRegisterToAddress(code, "eax", 8, 0); break;
+            case ADDR_MASK16:
+                code.iload(ADDR0);
+                code.pushInt(0xffff);
+                code.op(Bytecode.IAND);
+                code.istore(ADDR0);
+                break;
+
+            case LOAD0_ADDR:
+                code.iload(ADDR0);
+                code.istore(REG0);
+                break;
+
+            case LOAD0_MEM_BYTE: loadMemory(code, REG0, 8); break;
+            case LOAD0_MEM_WORD: loadMemory(code, REG0, 16); break;
+            case LOAD0_MEM_DWORD: loadMemory(code, REG0, 32); break;
+            case LOAD1_MEM_BYTE: loadMemory(code, REG1, 8); break;
+            case LOAD1_MEM_WORD: loadMemory(code, REG1, 16); break;
+            case LOAD1_MEM_DWORD: loadMemory(code, REG1, 32); break;
+            case STORE0_MEM_BYTE: storeMemory(code, REG0, 8); break;
+            case STORE0_MEM_WORD: storeMemory(code, REG0, 16); break;
+            case STORE0_MEM_DWORD: storeMemory(code, REG0, 32); break;
+            case STORE1_MEM_BYTE: storeMemory(code, REG1, 8); break;
+            case STORE1_MEM_WORD: storeMemory(code, REG1, 16); break;
+            case STORE1_MEM_DWORD: storeMemory(code, REG1, 32); break;
+
+            case ADD: binaryOp(code, Bytecode.IADD, false); break;
+            case SUB: binaryOp(code, Bytecode.ISUB, false); break;
+            case ADC: binaryOp(code, Bytecode.IADD, true); break;
+            case SBB: binaryOp(code, Bytecode.ISUB, true); break;
+            case XOR: logicalOp(code, Bytecode.IXOR); break;
+            case AND: logicalOp(code, Bytecode.IAND); break;
+            case OR: logicalOp(code, Bytecode.IOR); break;
+            case INC: code.iinc(REG0, 1); break;
+            case DEC: code.iinc(REG0, -1); break;
+            case NOT:
+                code.iload(REG0);
+                code.pushInt(-1);
+                code.op(Bytecode.IXOR);
+                code.istore(REG0);
+                break;
+            case NEG:
+                code.iload(REG0);
+                code.op(Bytecode.INEG);
+                code.istore(REG0);
+                break;
+            case SHL:
+                code.iload(REG1);
+                code.pushInt(0x1f);
+                code.op(Bytecode.IAND);
+                code.istore(REG1);
+                code.iload(REG0);
+                code.istore(REG2);
+                code.iload(REG0);
+                code.iload(REG1);
+                code.op(Bytecode.ISHL);
+                code.istore(REG0);
+                break;
+            case SHR:
+                //The fast path of the interpreter doesn't mask the count here.
+                code.iload(REG0);
+                code.istore(REG2);
+                code.iload(REG0);
+                code.iload(REG1);
+                code.op(Bytecode.IUSHR);
+                code.istore(REG0);
+                break;
+
+            case ADD_O8_FLAGS: arithmeticFlags(code, "add_o8_flags"); break;
+            case ADD_O16_FLAGS: arithmeticFlags(code, "add_o16_flags"); break;
+            case SUB_O8_FLAGS: arithmeticFlags(code, "sub_o8_flags"); break;
+            case SUB_O16_FLAGS: arithmeticFlags(code, "sub_o16_flags"); break;
+            case ADC_O8_FLAGS: arithmeticFlags(code, "adc_o8_flags"); break;
+            case ADC_O16_FLAGS: arithmeticFlags(code, "adc_o16_flags"); break;
+            case SBB_O8_FLAGS: arithmeticFlags(code, "sbb_o8_flags"); break;
+            case SBB_O16_FLAGS: arithmeticFlags(code, "sbb_o16_flags"); break;
+            case BITWISE_FLAGS_O8: callWithReg0(code, "bitwise_flags", Bytecode.I2B, "(B)V"); break;
+            case BITWISE_FLAGS_O16: callWithReg0(code, "bitwise_flags", Bytecode.I2S, "(S)V"); break;
+            case INC_O8_FLAGS: callWithReg0(code, "inc_flags", Bytecode.I2B, "(B)V"); break;
+            case INC_O16_FLAGS: callWithReg0(code, "inc_flags", Bytecode.I2S, "(S)V"); break;
+            case DEC_O8_FLAGS: callWithReg0(code, "dec_flags", Bytecode.I2B, "(B)V"); break;
+            case DEC_O16_FLAGS: callWithReg0(code, "dec_flags", Bytecode.I2S, "(S)V"); break;
+            case SHL_O8_FLAGS: shiftFlags(code, "shl_flags", Bytecode.I2B, true, "(BBI)V"); break;
+            case SHL_O16_FLAGS: shiftFlags(code, "shl_flags", Bytecode.I2S, true, "(SSI)V"); break;
+            case SHR_O8_FLAGS: shiftFlags(code, "shr_flags", Bytecode.I2B, false, "(BII)V"); break;
+            case SHR_O16_FLAGS: shiftFlags(code, "shr_flags", Bytecode.I2S, false, "(SII)V"); break;
+
+            case JUMP_O8: callWithReg0(code, "jump_o8", Bytecode.I2B, "(B)V"); break;
+            case JUMP_O16: callWithReg0(code, "jump_o16", Bytecode.I2S, "(S)V"); break;
+            case JZ_O8: callWithReg0(code, "jz_o8", Bytecode.I2B, "(B)V"); break;
+            case JNZ_O8: callWithReg0(code, "jnz_o8", Bytecode.I2B, "(B)V"); break;
+            case JC_O8: callWithReg0(code, "jc_o8", Bytecode.I2B, "(B)V"); break;
+            case JNC_O8: callWithReg0(code, "jnc_o8", Bytecode.I2B, "(B)V"); break;
+            case JA_O8: callWithReg0(code, "ja_o8", Bytecode.I2B, "(B)V"); break;
+            case JNA_O8: callWithReg0(code, "jna_o8", Bytecode.I2B, "(B)V"); break;
+            case JCXZ: callWithReg0(code, "jcxz", Bytecode.I2B, "(B)V"); break;
+            case CALL_O16: callWithReg0(code, "call_o16_a16", Bytecode.I2S, "(S)V"); break;
+            case RET_O16: callThis(code, "ret_o16_a16", "()V"); break;
+            case JUMP_ABS_O16:
+                code.aload(CPU);
+                code.iload(REG0);
+                code.field(Bytecode.PUTFIELD, PROCESSOR, "eip", "I");
+                break;
+
+            case PUSH_O16: callWithReg0(code, "push_o16", Bytecode.I2S, "(S)V"); break;
+            case POP_O16:
+                //POP SS inhibits interrupts, leave it to the interpreter.
+                if(position + 1 < microcodes.length && microcodes[position + 1] == STORE0_SS)
+                    return null;
+                code.aload(0);
+                code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, "pop_o16", "()I");
+                code.istore(REG0);
+                code.aload(0);
+                code.field(Bytecode.GETFIELD, TEMPLATE, "xferReg1", "I");
+                code.istore(REG1);
+                break;
+
+            default:
+                return null;
+            }
+
+            int end = code.position();
+            if(end > start) {
+                opStart[ops] = start;
+                opEnd[ops] = end;
+                opIndex[ops] = position;
+                ops++;
+            }
+            if(end > MAX_BYTECODE_SIZE)
+                return null;
+            position += 1 + immCount;
+        }
+        code.op(Bytecode.RETURN);
+
+        //Fault handlers: record which microcode failed and rethrow.
+        for(int i = 0; i < ops; i++) {
+            int handler = code.position();
+            code.aload(0);
+            code.pushInt(opIndex[i]);
+            code.field(Bytecode.PUTFIELD, TEMPLATE, "faultPosition", "I");
+            code.op(Bytecode.ATHROW);
+            code.addHandler(opStart[i], opEnd[i], handler, 0);
+        }
+
+        cf.addMethod(ClassFile.ACC_PROTECTED, "run", "(L" + PROCESSOR + ";)V", code);
+        return cf.toByteArray(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER);
+    }
+
+    private static void callThis(Bytecode code, String name, String descriptor)
+    {
+        code.aload(0);
+        code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, name, descriptor);
+    }
+
+    private static void callWithReg0(Bytecode code, String name, int narrow, String descriptor)
+    {
+        code.aload(0);
+        code.iload(REG0);
+        code.op(narrow);
+        code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, name, descriptor);
+    }
+
+    // name(reg0, reg2, reg1)
+    private static void arithmeticFlags(Bytecode code, String name)
+    {
+        code.aload(0);
+        code.iload(REG0);
+        code.iload(REG2);
+        code.iload(REG1);
+        code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, name, "(III)V");
+    }
+
+    // name((narrow)reg0, [(narrow)]reg2, reg1)
+    private static void shiftFlags(Bytecode code, String name, int narrow, boolean narrowInitial, String descriptor)
+    {
+        code.aload(0);
+        code.iload(REG0);
+        code.op(narrow);
+        code.iload(REG2);
+        if(narrowInitial)
+            code.op(narrow);
+        code.iload(REG1);
+        code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, name, descriptor);
+    }
+
+    // reg2 = reg0; reg0 = reg2 op (reg1 [+ carry])
+    private static void binaryOp(Bytecode code, int opcode, boolean withCarry)
+    {
+        code.iload(REG0);
+        code.istore(REG2);
+        code.iload(REG2);
+        code.iload(REG1);
+        if(withCarry) {
+            code.aload(CPU);
+            code.invoke(Bytecode.INVOKEVIRTUAL, PROCESSOR, "getCarryFlag", "()Z");
+            code.op(Bytecode.IADD);
+        }
+        code.op(opcode);
+        code.istore(REG0);
+    }
+
+    private static void logicalOp(Bytecode code, int opcode)
+    {
+        code.iload(REG0);
+        code.iload(REG1);
+        code.op(opcode);
+        code.istore(REG0);
+    }
+
+    private static void loadImmediate(Bytecode code, int reg, int value)
+    {
+        code.pushInt(value);
+        code.istore(reg);
+    }
+
+    //Width 8 is low byte, -8 is high byte.
+    private static void loadRegister(Bytecode code, int reg, String name, int width)
+    {
+        code.aload(CPU);
+        code.field(Bytecode.GETFIELD, PROCESSOR, name, "I");
+        if(width == -8) {
+            code.pushInt(8);
+            code.op(Bytecode.ISHR);
+        }
+        if(width != 32) {
+            code.pushInt((width == 16) ? 0xffff : 0xff);
+            code.op(Bytecode.IAND);
+        }
+        code.istore(reg);
+    }
+
+    private static void storeRegister(Bytecode code, int reg, String name, int width)
+    {
+        code.aload(CPU);
+        if(width == 32) {
+            code.iload(reg);
+        } else {
+            int mask = (width == 16) ? 0xffff : ((width == 8) ? 0xff : 0xff00);
+            code.aload(CPU);
+            code.field(Bytecode.GETFIELD, PROCESSOR, name, "I");
+            code.pushInt(~mask);
+            code.op(Bytecode.IAND);
+            code.iload(reg);
+            if(width == -8) {
+                code.pushInt(8);
+                code.op(Bytecode.ISHL);
+            }
+            code.pushInt(mask);
+            code.op(Bytecode.IAND);
+            code.op(Bytecode.IOR);
+        }
+        code.field(Bytecode.PUTFIELD, PROCESSOR, name, "I");
+    }
+
+    private static void loadSegment(Bytecode code, String name)
+    {
+        code.aload(CPU);
+        code.field(Bytecode.GETFIELD, PROCESSOR, name, SEGMENT_TYPE);
+        code.astore(SEG0);
+    }
+
+    private static void loadSelector(Bytecode code, String name)
+    {
+        code.aload(CPU);
+        code.field(Bytecode.GETFIELD, PROCESSOR, name, SEGMENT_TYPE);
+        code.invoke(Bytecode.INVOKEVIRTUAL, SEGMENT, "getSelector", "()I");
+        code.pushInt(0xffff);
+        code.op(Bytecode.IAND);
+        code.istore(REG0);
+    }
+
+    private static void storeSelector(Bytecode code, int reg, String name)
+    {
+        code.aload(CPU);
+        code.field(Bytecode.GETFIELD, PROCESSOR, name, SEGMENT_TYPE);
+        code.pushInt(0xffff);
+        code.iload(reg);
+        code.op(Bytecode.IAND);
+        code.invoke(Bytecode.INVOKEVIRTUAL, SEGMENT, "setSelector", "(I)Z");
+        code.op(Bytecode.POP);
+    }
+
+    //Width 8 is unsigned low byte. Shift scales the register.
+    private static void addRegisterToAddress(Bytecode code, String name, int width, int shift)
+    {
+        code.iload(ADDR0);
+        code.aload(CPU);
+        code.field(Bytecode.GETFIELD, PROCESSOR, name, "I");
+        if(width == 16)
+            code.op(Bytecode.I2S);
+        else if(width == 8) {
+            code.pushInt(0xff);
+            code.op(Bytecode.IAND);
+        }
+        if(shift > 0) {
+            code.pushInt(shift);
+            code.op(Bytecode.ISHL);
+        }
+        code.op(Bytecode.IADD);
+        code.istore(ADDR0);
+    }
+
+    private static void addConstantToAddress(Bytecode code, int value)
+    {
+        code.iload(ADDR0);
+        code.pushInt(value);
+        code.op(Bytecode.IADD);
+        code.istore(ADDR0);
+    }
+
+    private static void loadMemory(Bytecode code, int reg, int width)
+    {
+        code.aload(0);
+        code.aload(SEG0);
+        code.iload(ADDR0);
+        String name = (width == 8) ? "loadByte" : ((width == 16) ? "loadWord" : "loadDoubleWord");
+        code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, name, "(" + SEGMENT_TYPE + "I)I");
+        code.istore(reg);
+    }
+
+    private static void storeMemory(Bytecode code, int reg, int width)
+    {
+        code.aload(0);
+        code.aload(SEG0);
+        code.iload(ADDR0);
+        code.iload(reg);
+        if(width == 8) {
+            code.op(Bytecode.I2B);
+            code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, "storeByte", "(" + SEGMENT_TYPE + "IB)V");
+        } else if(width == 16) {
+            code.op(Bytecode.I2S);
+            code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, "storeWord", "(" + SEGMENT_TYPE + "IS)V");
+        } else
+            code.invoke(Bytecode.INVOKEVIRTUAL, TEMPLATE, "storeDoubleWord", "(" + SEGMENT_TYPE + "II)V");
+    }
+}
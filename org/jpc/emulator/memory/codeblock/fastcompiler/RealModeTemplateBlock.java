@@ -0,0 +1,527 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.fastcompiler;
+
+import org.jpc.emulator.processor.*;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.Memory;
+
+/**
+ * Superclass of all real mode blocks generated by the {@link FASTCompiler}.
+ * <p>
+ * Generated subclasses implement <code>run</code> as straight-line bytecode
+ * and call back into the helpers here for anything that is not a couple of
+ * field accesses. The helpers are exact copies of the corresponding
+ * interpreter routines in <code>RealModeUBlock</code>.
+ * @author H. Ilari Liusvaara
+ */
+public abstract class RealModeTemplateBlock
+{
+    protected Processor cpu;
+    protected boolean cachedSSSize;
+    protected int faultPosition;
+    protected int xferReg1;
+    boolean invalidated;
+
+    //Dry run support (lockstep verification). Writes are buffered bytewise instead of done.
+    private boolean dryRun;
+    private Segment[] pendingSegment = new Segment[16];
+    private int[] pendingOffset = new int[16];
+    private int[] pendingLinear = new int[16];
+    private byte[] pendingData = new byte[16];
+    private int pendingSize;
+
+    /**
+     * Execute the generated code. On abrupt termination <code>faultPosition</code>
+     * holds the index of the microcode that failed.
+     * @param cpu processor to execute on.
+     */
+    protected abstract void run(Processor cpu);
+
+    final void prepare(Processor cpu, boolean dryRun)
+    {
+        discardWrites();
+        this.cpu = cpu;
+        this.dryRun = dryRun;
+        faultPosition = -1;
+        cachedSSSize = false;
+        if(cpu.ss != null)
+            cachedSSSize = cpu.ss.getDefaultSizeFlag();
+    }
+
+    /**
+     * Drop writes buffered by dry run.
+     */
+    final void discardWrites()
+    {
+        for(int i = 0; i < pendingSize; i++)
+            pendingSegment[i] = null;
+        pendingSize = 0;
+        dryRun = false;
+    }
+
+    /**
+     * Check that memory contains what the dry run would have written.
+     * @return <code>true</code> if memory agrees.
+     */
+    final boolean checkWrites()
+    {
+        for(int i = 0; i < pendingSize; i++) {
+            Segment s = pendingSegment[i];
+            if(s.translateAddressRead(pendingOffset[i]) != pendingLinear[i])
+                continue;  //Segment moved after write.
+            if(pendingIndex(pendingLinear[i]) != i)
+                continue;  //Overwritten later.
+            if(s.getByte(pendingOffset[i]) != pendingData[i])
+                return false;
+        }
+        return true;
+    }
+
+    private final int pendingIndex(int linear)
+    {
+        for(int i = pendingSize - 1; i >= 0; i--)
+            if(pendingLinear[i] == linear)
+                return i;
+        return -1;
+    }
+
+    private final void bufferWrite(Segment s, int address, int data, int width)
+    {
+        checkDryRunAccess(s, address, width);
+        if(pendingSize + width > pendingSegment.length) {
+            int n = 2 * pendingSegment.length;
+            Segment[] ns = new Segment[n];
+            int[] no = new int[n];
+            int[] nl = new int[n];
+            byte[] nd = new byte[n];
+            System.arraycopy(pendingSegment, 0, ns, 0, pendingSize);
+            System.arraycopy(pendingOffset, 0, no, 0, pendingSize);
+            System.arraycopy(pendingLinear, 0, nl, 0, pendingSize);
+            System.arraycopy(pendingData, 0, nd, 0, pendingSize);
+            pendingSegment = ns;
+            pendingOffset = no;
+            pendingLinear = nl;
+            pendingData = nd;
+        }
+        for(int i = 0; i < width; i++) {
+            pendingSegment[pendingSize] = s;
+            pendingOffset[pendingSize] = address + i;
+            pendingLinear[pendingSize] = s.translateAddressRead(address + i);
+            pendingData[pendingSize] = (byte)(data >>> (8 * i));
+            pendingSize++;
+        }
+    }
+
+    private final int bufferedRead(Segment s, int address, int width)
+    {
+        checkDryRunAccess(s, address, width);
+        int value = 0;
+        for(int i = 0; i < width; i++) {
+            int index = pendingIndex(s.translateAddressRead(address + i));
+            int b = (index >= 0) ? pendingData[index] : s.getByte(address + i);
+            value |= (0xff & b) << (8 * i);
+        }
+        return value;
+    }
+
+    protected final void instructionStart()
+    {
+        if(cpu.eflagsMachineHalt) throw ProcessorException.TRACESTOP;
+        if(invalidated && cpu.SYSFLAG_FLUSHONMODIFY) {
+            invalidated = false;
+            throw ProcessorException.SELFMODIFIED;
+        }
+        //Handle special case of continuing WAIT after abort. Dry runs must not advance time.
+        if(!cpu.eflagsWaiting && !dryRun)
+            cpu.instructionExecuted();
+    }
+
+    /**
+     * Thrown from dry runs that touch memory outside allocated plain RAM, as
+     * accessing device memory has side effects, and so does reading
+     * unallocated RAM (it counts towards allocating it, which is saved).
+     */
+    static final RuntimeException UNVERIFIABLE = new IllegalStateException("Unverifiable block");
+
+    private final void checkDryRunAccess(Segment s, int address, int width)
+    {
+        int start = s.translateAddressRead(address);
+        int end = start + width - 1;
+        if(end >= 0xA0000 && start < 0x100000)
+            throw UNVERIFIABLE;
+        if(!isAllocatedRAM(start) || !isAllocatedRAM(end))
+            throw UNVERIFIABLE;
+    }
+
+    //Real mode linear addresses are physical.
+    private final boolean isAllocatedRAM(int address)
+    {
+        Memory block = cpu.physicalMemory.getDirectReadBlock(address);
+        return block != null && block.getClass() == LazyCodeBlockMemory.class && block.isAllocated();
+    }
+
+    protected final int loadByte(Segment s, int address)
+    {
+        if(dryRun)
+            return bufferedRead(s, address, 1);
+        return 0xff & s.getByte(address);
+    }
+
+    protected final int loadWord(Segment s, int address)
+    {
+        if(dryRun)
+            return bufferedRead(s, address, 2);
+        return 0xffff & s.getWord(address);
+    }
+
+    protected final int loadDoubleWord(Segment s, int address)
+    {
+        if(dryRun)
+            return bufferedRead(s, address, 4);
+        return s.getDoubleWord(address);
+    }
+
+    protected final void storeByte(Segment s, int address, byte data)
+    {
+        if(dryRun)
+            bufferWrite(s, address, data, 1);
+        else
+            s.setByte(address, data);
+    }
+
+    protected final void storeWord(Segment s, int address, short data)
+    {
+        if(dryRun)
+            bufferWrite(s, address, data, 2);
+        else
+            s.setWord(address, data);
+    }
+
+    protected final void storeDoubleWord(Segment s, int address, int data)
+    {
+        if(dryRun)
+            bufferWrite(s, address, data, 4);
+        else
+            s.setDoubleWord(address, data);
+    }
+
+    protected final void jc_o8(byte offset)
+    {
+        if (cpu.getCarryFlag()) jump_o8(offset);
+    }
+
+    protected final void jnc_o8(byte offset)
+    {
+        if (!cpu.getCarryFlag()) jump_o8(offset);
+    }
+
+    protected final void jz_o8(byte offset)
+    {
+        if (cpu.getZeroFlag()) jump_o8(offset);
+    }
+
+    protected final void jnz_o8(byte offset)
+    {
+        if (!cpu.getZeroFlag()) jump_o8(offset);
+    }
+
+    protected final void jna_o8(byte offset)
+    {
+        if (cpu.getCarryFlag() || cpu.getZeroFlag()) jump_o8(offset);
+    }
+
+    protected final void ja_o8(byte offset)
+    {
+        if ((!cpu.getCarryFlag()) && (!cpu.getZeroFlag())) jump_o8(offset);
+    }
+
+    protected final void jcxz(byte offset)
+    {
+        if ((cpu.ecx & 0xffff) == 0) jump_o8(offset);
+    }
+
+    protected final void jump_o8(byte offset)
+    {
+        cpu.eip += offset;
+        // check whether eip is outside of 0x0000 and 0xffff
+        if ((cpu.eip & 0xFFFF0000) != 0)
+        {
+            cpu.eip -= offset;
+            throw ProcessorException.GENERAL_PROTECTION_0;
+        }
+    }
+
+    protected final void jump_o16(short offset)
+    {
+        cpu.eip = (cpu.eip + offset) & 0xffff;
+    }
+
+    protected final void call_o16_a16(short target)
+    {
+        if (((cpu.esp & 0xffff) < 2) && ((cpu.esp & 0xffff) > 0))
+            throw ProcessorException.STACK_SEGMENT_0;
+
+        int offset = (cpu.esp - 2) & 0xffff;
+        storeWord(cpu.ss, offset, (short)cpu.eip);
+        cpu.esp = (cpu.esp & 0xffff0000) | offset;
+        cpu.eip = (cpu.eip + target) & 0xffff;
+    }
+
+    protected final void ret_o16_a16()
+    {
+        cpu.eip = loadWord(cpu.ss, cpu.esp & 0xffff);
+        cpu.esp = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
+    }
+
+    protected final void push_o16(short data)
+    {
+        if(cachedSSSize) {
+            if ((cpu.esp < 2) && (cpu.esp > 0))
+                throw ProcessorException.STACK_SEGMENT_0;
+
+            int offset = cpu.esp - 2;
+            storeWord(cpu.ss, offset, data);
+            cpu.esp = offset;
+        } else {
+            if (((cpu.esp & 0xffff) < 2) && ((cpu.esp & 0xffff) > 0))
+                throw ProcessorException.STACK_SEGMENT_0;
+
+            int offset = (cpu.esp - 2) & 0xffff;
+            storeWord(cpu.ss, offset, data);
+            cpu.esp = (cpu.esp & ~0xffff) | offset;
+        }
+    }
+
+    /**
+     * POP_O16 not followed by STORE0_SS. Returns the popped value, new stack
+     * pointer is left in <code>xferReg1</code>.
+     */
+    protected final int pop_o16()
+    {
+        if (cpu.ss.getDefaultSizeFlag()) {
+            xferReg1 = cpu.esp + 2;
+            return loadWord(cpu.ss, cpu.esp);
+        } else {
+            xferReg1 = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
+            return loadWord(cpu.ss, 0xffff & cpu.esp);
+        }
+    }
+
+    protected final void bitwise_flags(byte result)
+    {
+        cpu.setOverflowFlag(false);
+        cpu.setCarryFlag(false);
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+    }
+
+    protected final void bitwise_flags(short result)
+    {
+        cpu.setOverflowFlag(false);
+        cpu.setCarryFlag(false);
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+    }
+
+    private final void arithmetic_flags_o8(int result, int operand1, int operand2)
+    {
+        cpu.setZeroFlag((byte)result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag((byte)result);
+
+        cpu.setCarryFlag(result, Processor.CY_TWIDDLE_FF);
+        cpu.setAuxiliaryCarryFlag(operand1, operand2, result, Processor.AC_XOR);
+    }
+
+    private final void arithmetic_flags_o16(int result, int operand1, int operand2)
+    {
+        cpu.setZeroFlag((short)result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag((short)result);
+
+        cpu.setCarryFlag(result, Processor.CY_TWIDDLE_FFFF);
+        cpu.setAuxiliaryCarryFlag(operand1, operand2, result, Processor.AC_XOR);
+    }
+
+    protected final void add_o16_flags(int result, int operand1, int operand2)
+    {
+        arithmetic_flags_o16(result, operand1, operand2);
+        cpu.setOverflowFlag(result, operand1 , operand2, Processor.OF_ADD_SHORT);
+    }
+
+    protected final void add_o8_flags(int result, int operand1, int operand2)
+    {
+        arithmetic_flags_o8(result, operand1, operand2);
+        cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_ADD_BYTE);
+    }
+
+    protected final void adc_o16_flags(int result, int operand1, int operand2)
+    {
+        if (cpu.getCarryFlag() && (operand2 == 0xffff)) {
+            arithmetic_flags_o16(result, operand1, operand2);
+            cpu.setOverflowFlag(false);
+            cpu.setCarryFlag(true);
+        } else {
+            cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_ADD_SHORT);
+            arithmetic_flags_o16(result, operand1, operand2);
+        }
+    }
+
+    protected final void adc_o8_flags(int result, int operand1, int operand2)
+    {
+        if (cpu.getCarryFlag() && (operand2 == 0xff)) {
+            arithmetic_flags_o8(result, operand1, operand2);
+            cpu.setOverflowFlag(false);
+            cpu.setCarryFlag(true);
+        } else {
+            cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_ADD_BYTE);
+            arithmetic_flags_o8(result, operand1, operand2);
+        }
+    }
+
+    protected final void sub_o16_flags(int result, int operand1, int operand2)
+    {
+        arithmetic_flags_o16(result, operand1, operand2);
+        cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_SUB_SHORT);
+    }
+
+    protected final void sub_o8_flags(int result, int operand1, int operand2)
+    {
+        arithmetic_flags_o8(result, operand1, operand2);
+        cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_SUB_BYTE);
+    }
+
+    protected final void sbb_o16_flags(int result, int operand1, int operand2)
+    {
+        cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_SUB_SHORT);
+        arithmetic_flags_o16(result, operand1, operand2);
+    }
+
+    protected final void sbb_o8_flags(int result, int operand1, int operand2)
+    {
+        cpu.setOverflowFlag(result, operand1, operand2, Processor.OF_SUB_BYTE);
+        arithmetic_flags_o8(result, operand1, operand2);
+    }
+
+    protected final void dec_flags(short result)
+    {
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+        cpu.setOverflowFlag(result, Processor.OF_MAX_SHORT);
+        cpu.setAuxiliaryCarryFlag(result, Processor.AC_LNIBBLE_MAX);
+    }
+
+    protected final void dec_flags(byte result)
+    {
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+        cpu.setOverflowFlag(result, Processor.OF_MAX_BYTE);
+        cpu.setAuxiliaryCarryFlag(result, Processor.AC_LNIBBLE_MAX);
+    }
+
+    protected final void inc_flags(short result)
+    {
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+        cpu.setOverflowFlag(result, Processor.OF_MIN_SHORT);
+        cpu.setAuxiliaryCarryFlag(result, Processor.AC_LNIBBLE_ZERO);
+    }
+
+    protected final void inc_flags(byte result)
+    {
+        cpu.setZeroFlag(result);
+        cpu.setParityFlag(result);
+        cpu.setSignFlag(result);
+        cpu.setOverflowFlag(result, Processor.OF_MIN_BYTE);
+        cpu.setAuxiliaryCarryFlag(result, Processor.AC_LNIBBLE_ZERO);
+    }
+
+    protected final void shl_flags(byte result, byte initial, int count)
+    {
+        if (count > 0) {
+            cpu.setCarryFlag(initial, count, Processor.CY_SHL_OUTBIT_BYTE);
+
+            if (count == 1)
+                cpu.setOverflowFlag(result, Processor.OF_BIT7_XOR_CARRY);
+
+            cpu.setZeroFlag(result);
+            cpu.setParityFlag(result);
+            cpu.setSignFlag(result);
+        }
+    }
+
+    protected final void shl_flags(short result, short initial, int count)
+    {
+        if (count > 0) {
+            cpu.setCarryFlag(initial, count, Processor.CY_SHL_OUTBIT_SHORT);
+
+            if (count == 1)
+                cpu.setOverflowFlag(result, Processor.OF_BIT15_XOR_CARRY);
+
+            cpu.setZeroFlag(result);
+            cpu.setParityFlag(result);
+            cpu.setSignFlag(result);
+        }
+    }
+
+    protected final void shr_flags(byte result, int initial, int count)
+    {
+        if (count > 0) {
+            cpu.setCarryFlag(initial, count, Processor.CY_SHR_OUTBIT);
+
+            if (count == 1)
+                cpu.setOverflowFlag(result, initial, Processor.OF_BIT7_DIFFERENT);
+
+            cpu.setZeroFlag(result);
+            cpu.setParityFlag(result);
+            cpu.setSignFlag(result);
+        }
+    }
+
+    protected final void shr_flags(short result, int initial, int count)
+    {
+        if (count > 0) {
+            cpu.setCarryFlag(initial, count, Processor.CY_SHR_OUTBIT);
+
+            if (count == 1)
+                cpu.setOverflowFlag(result, initial, Processor.OF_BIT15_DIFFERENT);
+
+            cpu.setZeroFlag(result);
+            cpu.setParityFlag(result);
+            cpu.setSignFlag(result);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.fastcompiler;
+
+import org.jpc.emulator.memory.codeblock.*;
+import org.jpc.emulator.memory.codeblock.optimised.*;
+import org.jpc.emulator.processor.*;
+import static org.jpc.emulator.memory.codeblock.optimised.MicrocodeSet.*;
+
+/**
+ * Real mode block that starts out interpreted and switches to generated code
+ * once it has become hot.
+ * @author H. Ilari Liusvaara
+ */
+public class TieredRealModeCodeBlock implements RealModeCodeBlock
+{
+    private final RealModeUBlock interpreted;
+    private RealModeTemplateBlock compiled;
+    private int executions;
+    private boolean compileTried;
+    private boolean invalidated;
+    private boolean loadsSegments;
+    //Instructions started up to and including given microcode.
+    private int[] startedThrough;
+    //Has EIP_UPDATE been executed before given microcode.
+    private boolean[] eipUpdatedBefore;
+    private int[] positions;
+    private int instructions;
+
+    public TieredRealModeCodeBlock(RealModeUBlock interpreted)
+    {
+        this.interpreted = interpreted;
+    }
+
+    public int getX86Length()
+    {
+        return interpreted.getX86Length();
+    }
+
+    public int getX86Count()
+    {
+        return interpreted.getX86Count();
+    }
+
+    public String getDisplayString()
+    {
+        return interpreted.getDisplayString();
+    }
+
+    public boolean handleMemoryRegionChange(int startAddress, int endAddress)
+    {
+        return interpreted.handleMemoryRegionChange(startAddress, endAddress);
+    }
+
+    public CodeBlockLink getSuccessors()
+    {
+        return interpreted.getSuccessors();
+    }
+
+    public void invalidate()
+    {
+        interpreted.invalidate();
+        if(compiled != null)
+            compiled.invalidated = true;
+        else
+            invalidated = true;
+    }
+
+    public String toString()
+    {
+        return "Real Mode Tiered Block: " + hashCode();
+    }
+
+    public int execute(Processor cpu)
+    {
+        if(compiled == null) {
+            if(compileTried || ++executions < FASTCompiler.COMPILE_THRESHOLD)
+                return interpreted.execute(cpu);
+            compile();
+            if(compiled == null)
+                return interpreted.execute(cpu);
+        }
+        if(FASTCompiler.mode == FASTCompiler.MODE_VERIFY)
+            return verifiedExecute(cpu);
+        return compiledExecute(cpu);
+    }
+
+    private void compile()
+    {
+        compileTried = true;
+        int[] microcodes = interpreted.getMicrocodes();
+        positions = interpreted.getX86Positions();
+        compiled = FASTCompiler.compileRealMode(microcodes, positions);
+        if(compiled == null) {
+            positions = null;
+            return;
+        }
+        loadsSegments = FASTCompiler.loadsSegments(microcodes);
+        startedThrough = new int[microcodes.length];
+        eipUpdatedBefore = new boolean[microcodes.length];
+        boolean eipUpdated = false;
+        int started = 0;
+        for(int i = 0; i < microcodes.length; i++) {
+            eipUpdatedBefore[i] = eipUpdated;
+            if(microcodes[i] == INSTRUCTION_START)
+                started++;
+            else if(microcodes[i] == EIP_UPDATE)
+                eipUpdated = true;
+            startedThrough[i] = started;
+        }
+        instructions = started;
+        compiled.invalidated = invalidated;
+    }
+
+    private int compiledExecute(Processor cpu)
+    {
+        if(RealModeUBlock.opcodeCounter != null)
+            RealModeUBlock.opcodeCounter.addBlock(interpreted.getMicrocodes());
+
+        cpu.eflagsLastAborted = false;
+        if(cpu.fpu != null)
+            cpu.fpu.setProtectedMode(false);
+
+        compiled.prepare(cpu, false);
+        try {
+            compiled.run(cpu);
+            return instructions;
+        } catch(ProcessorException e) {
+            int failed = compiled.faultPosition;
+            int executeCount = startedThrough[failed];
+
+            if(eipUpdatedBefore[failed])
+                cpu.eip -= positions[failed]; // undo the eipUpdate
+
+            if(!e.pointsToSelf()) {
+                cpu.eip += positions[failed];
+            } else {
+                for(int selfPosition = failed; selfPosition >= 0; selfPosition--) {
+                    if(positions[selfPosition] != positions[failed]) {
+                        cpu.eip += positions[selfPosition];
+                        break;
+                    }
+                }
+            }
+
+            if(e.getType() != ProcessorException.Type.PAGE_FAULT && e.getType() != ProcessorException.Type.TRACESTOP && e.getType() != ProcessorException.Type.NO_FPU && e.getType() != ProcessorException.Type.SELFMODIFIED)
+                System.err.println("Emulated: processor exception at 0x" +
+                    Integer.toHexString(cpu.cs.translateAddressRead(cpu.eip)) + ":" + e);
+            if(e.getType() != ProcessorException.Type.SELFMODIFIED &&
+                e.getType() != ProcessorException.Type.TRACESTOP)  //Swallow trace stops!
+                cpu.handleRealModeException(e);
+            else {
+                cpu.eflagsLastAborted = true;
+                executeCount--;
+            }
+            return Math.max(executeCount, 0);
+        }
+    }
+
+    /**
+     * Run the generated code without side effects, then run the interpreter
+     * for real and compare the resulting states.
+     */
+    private int verifiedExecute(Processor cpu)
+    {
+        if(compiled.invalidated || cpu.eflagsMachineHalt || !segmentsConsistent(cpu)) {
+            FASTCompiler.blocksUnverified++;
+            return interpreted.execute(cpu);
+        }
+
+        int[] before = saveRegisters(cpu);
+        Processor.FlagState flagsBefore = new Processor.FlagState();
+        cpu.saveFlagState(flagsBefore);
+        boolean lastAborted = cpu.eflagsLastAborted;
+
+        //Writes are only buffered, so memory is untouched by the dry run.
+        compiled.prepare(cpu, true);
+        int[] compiledRegisters = null;
+        Processor.FlagState compiledFlags = null;
+        try {
+            compiled.run(cpu);
+            compiledRegisters = saveRegisters(cpu);
+            compiledFlags = new Processor.FlagState();
+            cpu.saveFlagState(compiledFlags);
+        } catch(RuntimeException e) {
+            //Faulting runs and runs touching device memory are not compared.
+        }
+        restoreRegisters(cpu, before);
+        cpu.restoreFlagState(flagsBefore);
+        cpu.eflagsLastAborted = lastAborted;
+        compiled.invalidated = false;
+
+        int count = interpreted.execute(cpu);
+        if(compiledRegisters == null) {
+            compiled.discardWrites();
+            FASTCompiler.blocksUnverified++;
+            return count;
+        }
+
+        int[] interpretedRegisters = saveRegisters(cpu);
+        Processor.FlagState interpretedFlags = new Processor.FlagState();
+        cpu.saveFlagState(interpretedFlags);
+        //Interpreter aborted (e.g. fault in a later instruction handled by it) means states aren't comparable.
+        if(count != instructions) {
+            compiled.discardWrites();
+            FASTCompiler.blocksUnverified++;
+            return count;
+        }
+        FASTCompiler.blocksVerified++;
+        boolean match = compiledFlags.equals(interpretedFlags);
+        if(!compiled.checkWrites()) {
+            match = false;
+            System.err.println("Warning: FAST block mismatch in memory writes.");
+        }
+        compiled.discardWrites();
+        for(int i = 0; i < REGISTER_NAMES.length; i++)
+            if(compiledRegisters[i] != interpretedRegisters[i]) {
+                match = false;
+                System.err.println("Warning: FAST block mismatch in " + REGISTER_NAMES[i] + ": compiled " +
+                    Integer.toHexString(compiledRegisters[i]) + ", interpreted " + Integer.toHexString(interpretedRegisters[i]) + ".");
+            }
+        if(!match) {
+            FASTCompiler.verifyMismatches++;
+            System.err.println("Critical: FAST compiled block disagrees with interpreter (flags " +
+                (compiledFlags.equals(interpretedFlags) ? "match" : "differ") + "):\n" + interpreted.getDisplayString());
+        }
+        return count;
+    }
+
+    private static final String[] REGISTER_NAMES = {"eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi", "eip",
+        "es", "ds", "fs", "gs"};
+
+    private boolean segmentsConsistent(Processor cpu)
+    {
+        if(!loadsSegments)
+            return true;
+        return consistent(cpu.es) && consistent(cpu.ds) && consistent(cpu.fs) && consistent(cpu.gs);
+    }
+
+    private static boolean consistent(Segment s)
+    {
+        return s != null && s.getBase() == (s.getSelector() << 4);
+    }
+
+    private int[] saveRegisters(Processor cpu)
+    {
+        return new int[]{cpu.eax, cpu.ecx, cpu.edx, cpu.ebx, cpu.esp, cpu.ebp, cpu.esi, cpu.edi, cpu.eip,
+            selector(cpu.es), selector(cpu.ds), selector(cpu.fs), selector(cpu.gs)};
+    }
+
+    private static int selector(Segment s)
+    {
+        return (s != null) ? s.getSelector() : -1;
+    }
+
+    private void restoreRegisters(Processor cpu, int[] r)
+    {
+        cpu.eax = r[0];
+        cpu.ecx = r[1];
+        cpu.edx = r[2];
+        cpu.ebx = r[3];
+        cpu.esp = r[4];
+        cpu.ebp = r[5];
+        cpu.esi = r[6];
+        cpu.edi = r[7];
+        cpu.eip = r[8];
+        if(loadsSegments) {
+            cpu.es.setSelector(r[9]);
+            cpu.ds.setSelector(r[10]);
+            cpu.fs.setSelector(r[11]);
+            cpu.gs.setSelector(r[12]);
+        }
+    }
+}
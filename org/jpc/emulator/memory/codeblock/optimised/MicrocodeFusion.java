@@ -0,0 +1,165 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.optimised;
+
+import static org.jpc.emulator.memory.codeblock.optimised.MicrocodeSet.*;
+
+import org.jpc.Misc;
+
+/**
+ * Rewrites frequent microcode sequences into fused microcodes.
+ * <p>
+ * Only the first microcode of a sequence is replaced. The rest of the
+ * sequence, immediates included, stays in place and the fused microcode
+ * skips over it, so block layout and x86 positions are unchanged and
+ * {@link #unfuse} can restore the original. Sequences never span
+ * instructions. The table is picked from {@link MicrocodeStatistics} output;
+ * <code>IMM</code> stands for an immediate. Only real mode blocks have fused
+ * microcodes so far.
+ */
+public class MicrocodeFusion
+{
+    private static final int IMM = -1;
+
+    //Longer sequences first, as the first match wins.
+    private static final int[][] REAL_MODE_SEQUENCES = {
+        {FUSED_LOAD0_MEM_WORD_SS_BP_IB, LOAD_SEG_SS, ADDR_BP, ADDR_IB, IMM, ADDR_MASK16, LOAD0_MEM_WORD},
+        {FUSED_LOAD0_MEM_WORD_DS_BX_IB, LOAD_SEG_DS, ADDR_BX, ADDR_IB, IMM, ADDR_MASK16, LOAD0_MEM_WORD},
+        {FUSED_ADD_SP_IW, LOAD0_SP, LOAD1_IW, IMM, ADD, STORE0_SP, ADD_O16_FLAGS},
+        {FUSED_ADDR_SS_BP_IB, LOAD_SEG_SS, ADDR_BP, ADDR_IB, IMM, ADDR_MASK16},
+        {FUSED_ADDR_DS_BX_IB, LOAD_SEG_DS, ADDR_BX, ADDR_IB, IMM, ADDR_MASK16},
+        {FUSED_CALL_O16_IW, EIP_UPDATE, LOAD0_IW, IMM, CALL_O16},
+        {FUSED_MASK16_STORE0_MEM_WORD, ADDR_MASK16, STORE0_MEM_WORD, MEM_RESET},
+        {FUSED_POP_O16_BP, POP_O16, STORE0_BP, STORE1_ESP},
+        {FUSED_MASK16_LOAD0_MEM_WORD, ADDR_MASK16, LOAD0_MEM_WORD},
+        {FUSED_STORE0_AX_MEM_RESET, STORE0_AX, MEM_RESET},
+        {FUSED_STORE0_BX_MEM_RESET, STORE0_BX, MEM_RESET},
+        {FUSED_PUSH_O16_AX, LOAD0_AX, PUSH_O16},
+        {FUSED_PUSH_O16_BX, LOAD0_BX, PUSH_O16},
+        {FUSED_PUSH_O16_BP, LOAD0_BP, PUSH_O16},
+        {FUSED_MOV_BP_SP, LOAD0_SP, STORE0_BP},
+    };
+
+    //Sequences indexed by fused microcode.
+    private static final int[][] BY_FUSED = new int[MICROCODE_LIMIT][];
+    //Sequences indexed by first microcode.
+    private static final int[][][] BY_FIRST = new int[MICROCODE_LIMIT][][];
+
+    static
+    {
+        for(int[] sequence : REAL_MODE_SEQUENCES) {
+            BY_FUSED[sequence[0]] = sequence;
+            int[][] old = BY_FIRST[sequence[1]];
+            int[][] sequences = new int[old == null ? 1 : old.length + 1][];
+            if(old != null)
+                System.arraycopy(old, 0, sequences, 0, old.length);
+            sequences[sequences.length - 1] = sequence;
+            BY_FIRST[sequence[1]] = sequences;
+        }
+    }
+
+    private MicrocodeFusion()
+    {
+    }
+
+    static int immediateCount(int microcode)
+    {
+        switch(microcode) {
+        case ADDR_IB: case ADDR_IW: case ADDR_ID:
+        case LOAD0_IB: case LOAD0_IW: case LOAD0_ID:
+        case LOAD1_IB: case LOAD1_IW: case LOAD1_ID:
+        case LOAD2_IB:
+            return 1;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Fuse sequences in real mode microcodes in place.
+     * @param microcodes microcodes of block.
+     * @param positions cumulative x86 positions of microcodes.
+     */
+    public static void fuseRealMode(int[] microcodes, int[] positions)
+    {
+        for(int i = 0; i < microcodes.length;) {
+            int op = microcodes[i];
+            //FPU ops may take operands we can't tell from microcodes.
+            if(Misc.isFPUOp(op))
+                return;
+            int[] match = null;
+            int[][] candidates = op >= 0 && op < MICROCODE_LIMIT ? BY_FIRST[op] : null;
+            if(candidates != null)
+                for(int[] sequence : candidates)
+                    if(matches(sequence, microcodes, positions, i)) {
+                        match = sequence;
+                        break;
+                    }
+            if(match != null) {
+                microcodes[i] = match[0];
+                i += match.length - 1;
+            } else
+                i += 1 + immediateCount(op);
+        }
+    }
+
+    private static boolean matches(int[] sequence, int[] microcodes, int[] positions, int start)
+    {
+        if(start + sequence.length - 1 > microcodes.length)
+            return false;
+        for(int j = 1; j < sequence.length; j++) {
+            int i = start + j - 1;
+            if(positions[i] != positions[start])
+                return false;
+            if(sequence[j] != IMM && microcodes[i] != sequence[j])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Restore fused microcodes in place.
+     * @param microcodes microcodes of block.
+     */
+    public static void unfuse(int[] microcodes)
+    {
+        for(int i = 0; i < microcodes.length;) {
+            int op = microcodes[i];
+            if(Misc.isFPUOp(op))
+                return;
+            int[] sequence = op >= 0 && op < MICROCODE_LIMIT ? BY_FUSED[op] : null;
+            if(sequence != null) {
+                microcodes[i] = sequence[1];
+                i += sequence.length - 1;
+            } else
+                i += 1 + immediateCount(op);
+        }
+    }
+}
@@ -913,8 +913,24 @@ public class MicrocodeSet
     //Special
     public static final int INSTRUCTION_START = 754;
 
-
-    public static final int MICROCODE_LIMIT = 755;
+    //Fused sequences, see MicrocodeFusion
+    public static final int FUSED_LOAD0_MEM_WORD_SS_BP_IB = 755;
+    public static final int FUSED_ADDR_SS_BP_IB = 756;
+    public static final int FUSED_LOAD0_MEM_WORD_DS_BX_IB = 757;
+    public static final int FUSED_ADDR_DS_BX_IB = 758;
+    public static final int FUSED_MASK16_LOAD0_MEM_WORD = 759;
+    public static final int FUSED_MASK16_STORE0_MEM_WORD = 760;
+    public static final int FUSED_STORE0_AX_MEM_RESET = 761;
+    public static final int FUSED_STORE0_BX_MEM_RESET = 762;
+    public static final int FUSED_CALL_O16_IW = 763;
+    public static final int FUSED_PUSH_O16_AX = 764;
+    public static final int FUSED_PUSH_O16_BX = 765;
+    public static final int FUSED_PUSH_O16_BP = 766;
+    public static final int FUSED_POP_O16_BP = 767;
+    public static final int FUSED_MOV_BP_SP = 768;
+    public static final int FUSED_ADD_SP_IW = 769;
+
+    public static final int MICROCODE_LIMIT = 770;
 
     private MicrocodeSet()
     {
@@ -0,0 +1,86 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.optimised;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.emulator.PC;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Plays back a movie with the opcode loggers enabled and prints the most
+ * frequent runs of microcodes within instructions, weighted by block
+ * executions. Used to pick sequences for {@link MicrocodeFusion}. Blocks are
+ * logged as decoded, before fusion.
+ * <p>
+ * Usage: MicrocodeStatistics &lt;library&gt; &lt;movie&gt; &lt;seconds&gt; [&lt;n&gt; [&lt;top&gt;]]
+ */
+public class MicrocodeStatistics
+{
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3) {
+            System.err.println("Syntax: MicrocodeStatistics <library> <movie> <seconds> [<n> [<top>]]");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        long end = Long.parseLong(args[2]) * 1000000000L;
+        int n = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int top = args.length > 4 ? Integer.parseInt(args[4]) : 40;
+        if(n < 1 || n > 6) {
+            System.err.println("N-gram length must be 1-6.");
+            System.exit(1);
+        }
+
+        OpcodeLogger[] loggers = new OpcodeLogger[]{new OpcodeLogger("RM Stats:"), new OpcodeLogger("PM Stats:"),
+            new OpcodeLogger("VM86 Stats:")};
+        for(OpcodeLogger logger : loggers) {
+            logger.MAX = Integer.MAX_VALUE;
+            logger.setNGramLength(n);
+        }
+        RealModeUBlock.opcodeCounter = loggers[0];
+        ProtectedModeUBlock.opcodeCounter = loggers[1];
+        Virtual8086ModeUBlock.opcodeCounter = loggers[2];
+
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[1]);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, true, null, null);
+        reader.close();
+        fs.events.setPCRunStatus(true);
+        PC pc = fs.pc;
+        pc.start();
+        while(pc.getTime() < end) {
+            pc.execute();
+            pc.getHitTraceTrap();
+        }
+        for(OpcodeLogger logger : loggers)
+            logger.printNGrams(top);
+        System.exit(0);
+    }
+}
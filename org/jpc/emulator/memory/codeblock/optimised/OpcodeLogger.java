@@ -31,7 +31,9 @@ package org.jpc.emulator.memory.codeblock.optimised;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Hashtable;
+import java.util.*;
+
+import org.jpc.Misc;
 
 /**Logs frequencies of opcodes and periodically prints the results
  *
@@ -43,11 +45,23 @@ public class OpcodeLogger {
     int count = 0;
     int MAX = 5000000;
     private String name;
+    private int ngramLength;
+    private HashMap<Long, long[]> ngramCounts = new HashMap<Long, long[]>();
 
     OpcodeLogger(String name) {
         this.name = name;
     }
 
+    /**
+     * Also count runs of consecutive microcodes within single instructions.
+     * @param length run length (at most 6), 0 to disable.
+     */
+    public void setNGramLength(int length)
+    {
+        ngramLength = length;
+        ngramCounts.clear();
+    }
+
     public boolean hasImmediate(int opcode)
     {
         if((opcode == 3) | (opcode == 8) | (opcode == 13)
@@ -69,6 +83,60 @@ public class OpcodeLogger {
             } else
                 IM = false;
         }
+        if(ngramLength > 0)
+            addNGrams(microcodes);
+    }
+
+    private void addNGrams(int[] microcodes)
+    {
+        long mask = (1L << (10 * ngramLength)) - 1;
+        long window = 0;
+        int inWindow = 0;
+        for(int j = 0; j < microcodes.length; j++) {
+            int op = microcodes[j];
+            if(op == MicrocodeSet.INSTRUCTION_START) {
+                inWindow = 0;
+                continue;
+            }
+            //FPU ops may take operands we can't tell from microcodes.
+            if(Misc.isFPUOp(op))
+                return;
+            window = ((window << 10) | op) & mask;
+            if(++inWindow >= ngramLength) {
+                long[] c = ngramCounts.get(window);
+                if(c == null)
+                    ngramCounts.put(window, c = new long[1]);
+                c[0]++;
+            }
+            j += MicrocodeFusion.immediateCount(op);
+        }
+    }
+
+    /**
+     * Print most frequent microcode runs.
+     * @param top number of runs to print.
+     */
+    public void printNGrams(int top)
+    {
+        List<Map.Entry<Long, long[]>> runs = new ArrayList<Map.Entry<Long, long[]>>(ngramCounts.entrySet());
+        Collections.sort(runs, new Comparator<Map.Entry<Long, long[]>>() {
+                public int compare(Map.Entry<Long, long[]> a, Map.Entry<Long, long[]> b)
+                {
+                    return Long.compare(b.getValue()[0], a.getValue()[0]);
+                }
+            });
+        System.out.println("*******************************");
+        System.out.println(name + " " + ngramLength + "-grams:");
+        for(int i = 0; i < top && i < runs.size(); i++) {
+            StringBuilder buf = new StringBuilder();
+            long key = runs.get(i).getKey();
+            for(int k = ngramLength - 1; k >= 0; k--) {
+                buf.append(reflectedNameCache.get(String.valueOf((key >>> (10 * k)) & 1023)));
+                if(k > 0)
+                    buf.append(", ");
+            }
+            System.out.println(runs.get(i).getValue()[0] + ": " + buf);
+        }
     }
 
     public void addOpcode(int opcode)
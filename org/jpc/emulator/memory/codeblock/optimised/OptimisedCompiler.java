@@ -36,6 +36,8 @@ import org.jpc.emulator.memory.codeblock.*;
  * @author Chris Dennis
  */
 public class OptimisedCompiler implements CodeBlockCompiler {
+    /** Rewrite frequent microcode sequences of real mode blocks into fused microcodes. */
+    public static volatile boolean FUSE_MICROCODES = true;
 
     private int bufferOffset;
     private int[] bufferMicrocodes;
@@ -57,6 +59,8 @@ public class OptimisedCompiler implements CodeBlockCompiler {
         int[] newPositions = new int[bufferOffset];
         System.arraycopy(bufferMicrocodes, 0, newMicrocodes, 0, bufferOffset);
         System.arraycopy(bufferPositions, 0, newPositions, 0, bufferOffset);
+        if(FUSE_MICROCODES)
+            MicrocodeFusion.fuseRealMode(newMicrocodes, newPositions);
 
         return new RealModeUBlock(newMicrocodes, newPositions);
     }
@@ -102,6 +102,12 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
     public void invalidate()
     {
         invalidated = true;
+        successors.clear();
+    }
+
+    public CodeBlockLink getSuccessors()
+    {
+        return successors;
     }
 
     public String getDisplayString()
@@ -136,6 +142,7 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
     }
 
     private boolean invalidated = false;
+    private final CodeBlockLink successors = new CodeBlockLink();
     public int execute(Processor cpu)
     {
                this.fpu = cpu.fpu;
@@ -2185,6 +2192,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -1, -1);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2192,6 +2202,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr += 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 1, -1);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -2216,6 +2229,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -2, -1);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2223,6 +2239,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr += 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 2, -1);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -2247,6 +2266,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -4, -1);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2254,6 +2276,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr += 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 4, -1);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -2333,6 +2358,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -1, 0xffff);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2341,6 +2370,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 1, 0xffff);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2366,6 +2399,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -2, 0xffff);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2374,6 +2411,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 2, 0xffff);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2399,6 +2440,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -4, 0xffff);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2407,6 +2452,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 4, 0xffff);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -2486,6 +2535,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -1, -1);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2494,6 +2547,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 1, -1);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2519,6 +2576,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -2, -1);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2527,6 +2588,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 2, -1);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2552,6 +2617,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -4, -1);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2560,6 +2629,10 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 4, -1);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -2969,6 +3042,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, true);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2976,6 +3052,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, true);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3001,6 +3080,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, -1, data, true);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3008,6 +3090,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, -1, data, true);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3033,6 +3118,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3040,6 +3128,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3065,6 +3156,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, -1, data, true);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3072,6 +3166,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, -1, data, true);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3097,6 +3194,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3104,6 +3204,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3129,6 +3232,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, -1, data, true);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3136,6 +3242,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, -1, data, true);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3162,6 +3271,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, false);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3169,6 +3281,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, false);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3194,6 +3309,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, -1, data, false);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3201,6 +3319,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, -1, data, false);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3226,6 +3347,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3233,6 +3357,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3258,6 +3385,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, -1, data, false);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3265,6 +3395,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, -1, data, false);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3290,6 +3423,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3297,6 +3433,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3323,6 +3462,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, -1, data, false);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3330,6 +3472,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     count--;
                     addr += 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, -1, data, false);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3433,6 +3578,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr = (addr - 1) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -1, 0xffff, data);
+                    count -= run;
+                    addr = (addr - run) & 0xFFFF;
                 }
             } else {
                 while (count != 0) {
@@ -3440,6 +3588,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr = (addr + 1) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 1, 0xffff, data);
+                    count -= run;
+                    addr = (addr + run) & 0xFFFF;
                 }
             }
         }
@@ -3462,6 +3613,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -1, -1, data);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3469,6 +3623,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr += 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 1, -1, data);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -3491,6 +3648,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr = (addr - 2) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -2, 0xffff, data);
+                    count -= run;
+                    addr = (addr - run * 2) & 0xFFFF;
                 }
             } else {
                 while (count != 0) {
@@ -3498,6 +3658,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr = (addr + 2) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 2, 0xffff, data);
+                    count -= run;
+                    addr = (addr + run * 2) & 0xFFFF;
                 }
             }
         }
@@ -3520,6 +3683,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -2, -1, data);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3527,6 +3693,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr += 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 2, -1, data);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -3549,6 +3718,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr = (addr - 4) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -4, 0xffff, data);
+                    count -= run;
+                    addr = (addr - run * 4) & 0xFFFF;
                 }
             } else {
                 while (count != 0) {
@@ -3556,6 +3728,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr = (addr + 4) & 0xFFFF;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 4, 0xffff, data);
+                    count -= run;
+                    addr = (addr + run * 4) & 0xFFFF;
                 }
             }
         }
@@ -3578,6 +3753,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -4, -1, data);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3585,6 +3763,9 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr += 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 4, -1, data);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -7563,7 +7744,7 @@ System.err.println("Accessed LDT selector global byte 5:" + cpu.readSupervisorBy
         if (selector < 0x4)
             return SegmentFactory.NULL_SEGMENT;
 
-        Segment s = cpu.getSegment(selector);
+        Segment s = cpu.getCachedSegment(selector);
         if (!s.isPresent())
             throw new ProcessorException(ProcessorException.Type.NOT_PRESENT, selector, true);
         return s;
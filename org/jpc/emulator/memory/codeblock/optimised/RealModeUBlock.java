@@ -95,8 +95,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
     {
         StringBuilder buf = new StringBuilder();
         buf.append(this.toString()).append('\n');
-        for (int i=0; i<microcodes.length; i++)
-            buf.append(i).append(": ").append(microcodes[i]).append('\n');
+        int[] codes = getMicrocodes();
+        for (int i=0; i<codes.length; i++)
+            buf.append(i).append(": ").append(codes[i]).append('\n');
         return buf.toString();
     }
 
@@ -108,6 +109,12 @@ public final class RealModeUBlock implements RealModeCodeBlock
     public void invalidate()
     {
         invalidated = true;
+        successors.clear();
+    }
+
+    public CodeBlockLink getSuccessors()
+    {
+        return successors;
     }
 
     public String toString()
@@ -117,9 +124,8 @@ public final class RealModeUBlock implements RealModeCodeBlock
 
     public InstructionSource getAsInstructionSource()
     {
-        int[] codes = new int[microcodes.length];
+        int[] codes = getMicrocodes();
         int[] positions = new int[microcodes.length];
-        System.arraycopy(microcodes, 0, codes, 0, codes.length);
         System.arraycopy(cumulativeX86Length, 0, positions, 0, positions.length);
 
         return new ArrayBackedInstructionSource(codes, positions);
@@ -129,6 +135,14 @@ public final class RealModeUBlock implements RealModeCodeBlock
     {
         int[] result = new int[microcodes.length];
         System.arraycopy(microcodes, 0, result, 0, result.length);
+        MicrocodeFusion.unfuse(result);
+        return result;
+    }
+
+    public int[] getX86Positions()
+    {
+        int[] result = new int[cumulativeX86Length.length];
+        System.arraycopy(cumulativeX86Length, 0, result, 0, result.length);
         return result;
     }
 
@@ -140,6 +154,7 @@ public final class RealModeUBlock implements RealModeCodeBlock
     private int transferPosition = 0;
 
     private boolean invalidated = false;
+    private final CodeBlockLink successors = new CodeBlockLink();
 
     private int uCodeXferReg0 = 0, uCodeXferReg1 = 0, uCodeXferReg2 = 0;
     private boolean uCodeXferLoaded = false;
@@ -1161,6 +1176,104 @@ public final class RealModeUBlock implements RealModeCodeBlock
                 case SHR_O16_FLAGS: shr_flags((short)reg0, reg2, reg1); break;
                 case JA_O8:  ja_o8((byte)reg0); break;
                 case JNA_O8: jna_o8((byte)reg0); break;
+                case FUSED_LOAD0_MEM_WORD_SS_BP_IB:
+                    seg0 = cpu.ss;
+                    addr0 = (addr0 + (short)cpu.ebp + (byte)microcodes[position + 2]) & 0xffff;
+                    position += 5;
+                    reg0 = 0xffff & seg0.getWord(addr0);
+                    break;
+                case FUSED_ADDR_SS_BP_IB:
+                    seg0 = cpu.ss;
+                    addr0 = (addr0 + (short)cpu.ebp + (byte)microcodes[position + 2]) & 0xffff;
+                    position += 4;
+                    break;
+                case FUSED_LOAD0_MEM_WORD_DS_BX_IB:
+                    seg0 = cpu.ds;
+                    addr0 = (addr0 + (short)cpu.ebx + (byte)microcodes[position + 2]) & 0xffff;
+                    position += 5;
+                    reg0 = 0xffff & seg0.getWord(addr0);
+                    break;
+                case FUSED_ADDR_DS_BX_IB:
+                    seg0 = cpu.ds;
+                    addr0 = (addr0 + (short)cpu.ebx + (byte)microcodes[position + 2]) & 0xffff;
+                    position += 4;
+                    break;
+                case FUSED_MASK16_LOAD0_MEM_WORD:
+                    addr0 &= 0xffff;
+                    position += 1;
+                    reg0 = 0xffff & seg0.getWord(addr0);
+                    break;
+                case FUSED_MASK16_STORE0_MEM_WORD:
+                    addr0 &= 0xffff;
+                    position += 1;
+                    seg0.setWord(addr0, (short)reg0);
+                    addr0 = 0;
+                    seg0 = null;
+                    position += 1;
+                    break;
+                case FUSED_STORE0_AX_MEM_RESET:
+                    cpu.eax = (cpu.eax & ~0xffff) | (reg0 & 0xffff);
+                    addr0 = 0;
+                    seg0 = null;
+                    position += 1;
+                    break;
+                case FUSED_STORE0_BX_MEM_RESET:
+                    cpu.ebx = (cpu.ebx & ~0xffff) | (reg0 & 0xffff);
+                    addr0 = 0;
+                    seg0 = null;
+                    position += 1;
+                    break;
+                case FUSED_CALL_O16_IW:
+                    if (!eipUpdated) {
+                        eipUpdated = true;
+                        cpu.eip += cumulativeX86Length[position - 1];
+                    }
+                    reg0 = microcodes[position + 1] & 0xffff;
+                    position += 3;
+                    call_o16_a16((short)reg0);
+                    break;
+                case FUSED_PUSH_O16_AX:
+                    reg0 = cpu.eax & 0xffff;
+                    position += 1;
+                    push_o16((short)reg0);
+                    break;
+                case FUSED_PUSH_O16_BX:
+                    reg0 = cpu.ebx & 0xffff;
+                    position += 1;
+                    push_o16((short)reg0);
+                    break;
+                case FUSED_PUSH_O16_BP:
+                    reg0 = cpu.ebp & 0xffff;
+                    position += 1;
+                    push_o16((short)reg0);
+                    break;
+                case FUSED_POP_O16_BP:
+                    if (cpu.ss.getDefaultSizeFlag()) {
+                        reg1 = cpu.esp + 2;
+                        reg0 = 0xffff & cpu.ss.getWord(cpu.esp);
+                    } else {
+                        reg1 = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
+                        reg0 = 0xffff & cpu.ss.getWord(0xffff & cpu.esp);
+                    }
+                    cpu.ebp = (cpu.ebp & ~0xffff) | (reg0 & 0xffff);
+                    cpu.esp = reg1;
+                    position += 2;
+                    break;
+                case FUSED_MOV_BP_SP:
+                    reg0 = cpu.esp & 0xffff;
+                    cpu.ebp = (cpu.ebp & ~0xffff) | (reg0 & 0xffff);
+                    position += 1;
+                    break;
+                case FUSED_ADD_SP_IW:
+                    reg0 = cpu.esp & 0xffff;
+                    reg1 = microcodes[position + 1] & 0xffff;
+                    reg2 = reg0;
+                    reg0 = reg2 + reg1;
+                    cpu.esp = (cpu.esp & ~0xffff) | (reg0 & 0xffff);
+                    add_o16_flags(reg0, reg2, reg1);
+                    position += 5;
+                    break;
+
                 case INSTRUCTION_START:
                     executeCount++;
                     if(cpu.eflagsMachineHalt) throw ProcessorException.TRACESTOP;
@@ -2391,6 +2504,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr & 0xffff);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -1, 0xffff);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2398,6 +2514,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr & 0xffff);
                     count--;
                     addr += 1;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 1, 0xffff);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -2422,6 +2541,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr & 0xffff);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -2, 0xffff);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2429,6 +2551,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr & 0xffff);
                     count--;
                     addr += 2;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 2, 0xffff);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -2453,6 +2578,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = dataSegment.getDoubleWord(addr & 0xffff);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -4, 0xffff);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2460,6 +2588,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = dataSegment.getDoubleWord(addr & 0xffff);
                     count--;
                     addr += 4;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 4, 0xffff);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -2523,6 +2654,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -1, -1);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2530,6 +2664,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr += 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 1, -1);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -2554,6 +2691,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -2, -1);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2561,6 +2701,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr += 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 2, -1);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -2585,6 +2728,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -4, -1);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2592,6 +2738,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr += 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 4, -1);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -2671,6 +2820,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -1, 0xffff);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2679,6 +2832,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 1, 0xffff);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2704,6 +2861,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -2, 0xffff);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2712,6 +2873,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 2, 0xffff);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2737,6 +2902,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -4, 0xffff);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2745,6 +2914,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 4, 0xffff);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -2824,6 +2997,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -1, -1);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2832,6 +3009,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 1, -1);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2857,6 +3038,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -2, -1);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2865,6 +3050,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 2, -1);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2890,6 +3079,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -4, -1);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2898,6 +3091,10 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 4, -1);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -3106,6 +3303,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, true);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3113,6 +3313,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, true);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3141,6 +3344,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3148,6 +3354,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3177,6 +3386,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3184,6 +3396,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3213,6 +3428,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, false);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3220,6 +3438,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, false);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3249,6 +3470,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3256,6 +3480,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3285,6 +3512,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3292,6 +3522,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     count--;
                     addr += 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3359,6 +3592,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setByte(addr & 0xffff, (byte)data);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -1, 0xffff, data);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3366,6 +3602,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setByte(addr & 0xffff, (byte)data);
                     count--;
                     addr += 1;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 1, 0xffff, data);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -3388,6 +3627,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setWord(addr & 0xffff, (short)data);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -2, 0xffff, data);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3395,6 +3637,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setWord(addr & 0xffff, (short)data);
                     count--;
                     addr += 2;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 2, 0xffff, data);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -3417,6 +3662,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setDoubleWord(addr & 0xffff, data);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -4, 0xffff, data);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3424,6 +3672,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setDoubleWord(addr & 0xffff, data);
                     count--;
                     addr += 4;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 4, 0xffff, data);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -3485,6 +3736,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -1, -1, data);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3492,6 +3746,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr += 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 1, -1, data);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -3514,6 +3771,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -2, -1, data);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3521,6 +3781,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr += 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 2, -1, data);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -3543,6 +3806,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -4, -1, data);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3550,6 +3816,9 @@ public final class RealModeUBlock implements RealModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr += 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 4, -1, data);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
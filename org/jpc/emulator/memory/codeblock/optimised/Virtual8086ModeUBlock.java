@@ -2264,6 +2264,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr & 0xffff);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -1, 0xffff);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2271,6 +2274,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr & 0xffff);
                     count--;
                     addr += 1;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 1, 0xffff);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -2295,6 +2301,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr & 0xffff);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -2, 0xffff);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2302,6 +2311,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr & 0xffff);
                     count--;
                     addr += 2;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 2, 0xffff);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -2326,6 +2338,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = dataSegment.getDoubleWord(addr & 0xffff);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, -4, 0xffff);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2333,6 +2348,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = dataSegment.getDoubleWord(addr & 0xffff);
                     count--;
                     addr += 4;
+                    int run = StringRuns.loadRun(dataSegment, addr & 0xffff, count, 4, 0xffff);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -2396,6 +2414,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -1, -1);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2403,6 +2424,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xff & dataSegment.getByte(addr);
                     count--;
                     addr += 1;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 1, -1);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -2427,6 +2451,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -2, -1);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2434,6 +2461,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = 0xffff & dataSegment.getWord(addr);
                     count--;
                     addr += 2;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 2, -1);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -2458,6 +2488,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, -4, -1);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2465,6 +2498,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     data = dataSegment.getDoubleWord(addr);
                     count--;
                     addr += 4;
+                    int run = StringRuns.loadRun(dataSegment, addr, count, 4, -1);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -2544,6 +2580,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -1, 0xffff);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2552,6 +2592,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 1, 0xffff);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2577,6 +2621,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -2, 0xffff);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2585,6 +2633,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 2, 0xffff);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2610,6 +2662,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, -4, 0xffff);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2618,6 +2674,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr & 0xffff, cpu.es, inAddr & 0xffff, count, 4, 0xffff);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -2697,6 +2757,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 1;
                     inAddr -= 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -1, -1);
+                    count -= run;
+                    outAddr -= run;
+                    inAddr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -2705,6 +2769,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 1;
                     inAddr += 1;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 1, -1);
+                    count -= run;
+                    outAddr += run;
+                    inAddr += run;
                 }
             }
         }
@@ -2730,6 +2798,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 2;
                     inAddr -= 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -2, -1);
+                    count -= run;
+                    outAddr -= run * 2;
+                    inAddr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -2738,6 +2810,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 2;
                     inAddr += 2;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 2, -1);
+                    count -= run;
+                    outAddr += run * 2;
+                    inAddr += run * 2;
                 }
             }
         }
@@ -2763,6 +2839,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr -= 4;
                     inAddr -= 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, -4, -1);
+                    count -= run;
+                    outAddr -= run * 4;
+                    inAddr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -2771,6 +2851,10 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     outAddr += 4;
                     inAddr += 4;
+                    int run = StringRuns.moveRun(outSegment, outAddr, cpu.es, inAddr, count, 4, -1);
+                    count -= run;
+                    outAddr += run * 4;
+                    inAddr += run * 4;
                 }
             }
         }
@@ -2996,6 +3080,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, true);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3003,6 +3090,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 1;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, true);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3031,6 +3121,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3038,6 +3131,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 2;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3067,6 +3163,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, true);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3074,6 +3173,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 4;
                     if (data != input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, true);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3103,6 +3205,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -1, 0xffff, data, false);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3110,6 +3215,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 1;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 1, 0xffff, data, false);
+                    count -= run;
+                    addr += run;
                 }
             }
         } finally {
@@ -3139,6 +3247,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -2, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3146,6 +3257,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 2;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 2, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         } finally {
@@ -3175,6 +3289,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr -= 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, -4, 0xffff, data, false);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3182,6 +3299,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     count--;
                     addr += 4;
                     if (data == input) break;
+                    int run = StringRuns.scanRun(cpu.es, addr, count, 4, 0xffff, data, false);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         } finally {
@@ -3249,6 +3369,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setByte(addr & 0xffff, (byte)data);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -1, 0xffff, data);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3256,6 +3379,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setByte(addr & 0xffff, (byte)data);
                     count--;
                     addr += 1;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 1, 0xffff, data);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -3278,6 +3404,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setWord(addr & 0xffff, (short)data);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -2, 0xffff, data);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3285,6 +3414,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setWord(addr & 0xffff, (short)data);
                     count--;
                     addr += 2;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 2, 0xffff, data);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -3307,6 +3439,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setDoubleWord(addr & 0xffff, data);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, -4, 0xffff, data);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3314,6 +3449,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setDoubleWord(addr & 0xffff, data);
                     count--;
                     addr += 4;
+                    int run = StringRuns.storeRun(cpu.es, addr & 0xffff, count, 4, 0xffff, data);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -3375,6 +3513,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr -= 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -1, -1, data);
+                    count -= run;
+                    addr -= run;
                 }
             } else {
                 while (count != 0) {
@@ -3382,6 +3523,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setByte(addr, (byte)data);
                     count--;
                     addr += 1;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 1, -1, data);
+                    count -= run;
+                    addr += run;
                 }
             }
         }
@@ -3404,6 +3548,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr -= 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -2, -1, data);
+                    count -= run;
+                    addr -= run * 2;
                 }
             } else {
                 while (count != 0) {
@@ -3411,6 +3558,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setWord(addr, (short)data);
                     count--;
                     addr += 2;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 2, -1, data);
+                    count -= run;
+                    addr += run * 2;
                 }
             }
         }
@@ -3433,6 +3583,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr -= 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, -4, -1, data);
+                    count -= run;
+                    addr -= run * 4;
                 }
             } else {
                 while (count != 0) {
@@ -3440,6 +3593,9 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                     cpu.es.setDoubleWord(addr, data);
                     count--;
                     addr += 4;
+                    int run = StringRuns.storeRun(cpu.es, addr, count, 4, -1, data);
+                    count -= run;
+                    addr += run * 4;
                 }
             }
         }
@@ -131,6 +131,7 @@ public class Processor implements HardwareComponent
     private volatile int interruptFlags;
     private InterruptController interruptController;
     private boolean alignmentChecking;
+    private final SegmentCache segmentCache = new SegmentCache();  //Not saved.
 
     private Map<Integer, Long> modelSpecificRegisters;
 
@@ -632,7 +633,10 @@ public class Processor implements HardwareComponent
             eflagsInterruptEnable = true;  //Force to enable interrupts in this case.
 
         while((interruptFlags & IFLAGS_HARDWARE_INTERRUPT) == 0) {
+            //Nothing can raise an interrupt before the next timer fires.
+            Clock.skipIdleTime(vmClock, this.clockDivider);
             Clock.timePasses(vmClock, this.clockDivider);
+            vmClock.runPosted();
             //If machine is halting, raise special TR exception. We will get called again.
             if(eflagsMachineHalt) {
                 System.err.println("Informational: HALT aborted.");
@@ -993,6 +997,42 @@ public class Processor implements HardwareComponent
         }
     }
 
+    /**
+     * Like {@link #getSegment(int)}, but may return a segment object that is
+     * shared with other segment registers. Only for loads into data segment
+     * registers and SS, whose segments never get their RPL changed.
+     * @param segmentSelector segment selector.
+     * @return segment for the selector.
+     */
+    public Segment getCachedSegment(int segmentSelector)
+    {
+        boolean isSup = linearMemory.isSupervisor();
+        try
+        {
+            long segmentDescriptor = 0;
+            linearMemory.setSupervisor(true);
+            if ((segmentSelector & 0x4) != 0)
+                segmentDescriptor = ldtr.getQuadWord(segmentSelector & 0xfff8);
+            else
+            {
+                if (segmentSelector < 0x4)
+                    return SegmentFactory.NULL_SEGMENT;
+                segmentDescriptor = gdtr.getQuadWord(segmentSelector & 0xfff8);
+            }
+            Segment result = segmentCache.get(linearMemory, segmentSelector, segmentDescriptor);
+            if (alignmentChecking)
+            {
+                if ((result.getType() & 0x18) == 0x10) // Should make this a data segment
+                    result.setAddressSpace(alignmentCheckedMemory);
+            }
+
+            return result;
+        }
+        finally
+        {
+            linearMemory.setSupervisor(isSup);
+        }
+    }
 
     public Segment getSegment(int segmentSelector, Segment local, Segment global)
     {
@@ -1028,6 +1068,7 @@ public class Processor implements HardwareComponent
     public void reset()
     {
         resetTime = instructionsExecuted;
+        segmentCache.clear();
         eax = ebx = ecx = edx = 0;
         edi = esi = ebp = esp = 0;
         edx = 0x00000633; // Pentium II Model 3 Stepping 3
@@ -2942,6 +2983,121 @@ public class Processor implements HardwareComponent
             interruptController = (InterruptController)component;
     }
 
+    /**
+     * Raw copy of the arithmetic flags, including the lazily evaluated state.
+     * <p>
+     * Saving and restoring this never forces the lazy flags to be computed, so
+     * it can be used to roll back speculative execution without perturbing
+     * the emulation.
+     */
+    public static final class FlagState
+    {
+        private boolean carry, parity, auxiliaryCarry, zero, sign, overflow;
+        private int auxiliaryCarryOne, auxiliaryCarryTwo, auxiliaryCarryThree, auxiliaryCarryMethod;
+        private boolean auxiliaryCarryCalculated;
+        private int parityOne;
+        private boolean parityCalculated;
+        private int overflowOne, overflowTwo, overflowThree, overflowMethod;
+        private long overflowLong;
+        private boolean overflowCalculated;
+        private int carryOne, carryTwo, carryMethod;
+        private long carryLong;
+        private boolean carryCalculated;
+        private int zeroOne;
+        private boolean zeroCalculated;
+        private int signOne;
+        private boolean signCalculated;
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof FlagState))
+                return false;
+            FlagState f = (FlagState)o;
+            return carry == f.carry && parity == f.parity && auxiliaryCarry == f.auxiliaryCarry &&
+                zero == f.zero && sign == f.sign && overflow == f.overflow &&
+                auxiliaryCarryOne == f.auxiliaryCarryOne && auxiliaryCarryTwo == f.auxiliaryCarryTwo &&
+                auxiliaryCarryThree == f.auxiliaryCarryThree && auxiliaryCarryMethod == f.auxiliaryCarryMethod &&
+                auxiliaryCarryCalculated == f.auxiliaryCarryCalculated &&
+                parityOne == f.parityOne && parityCalculated == f.parityCalculated &&
+                overflowOne == f.overflowOne && overflowTwo == f.overflowTwo && overflowThree == f.overflowThree &&
+                overflowMethod == f.overflowMethod && overflowLong == f.overflowLong &&
+                overflowCalculated == f.overflowCalculated &&
+                carryOne == f.carryOne && carryTwo == f.carryTwo && carryMethod == f.carryMethod &&
+                carryLong == f.carryLong && carryCalculated == f.carryCalculated &&
+                zeroOne == f.zeroOne && zeroCalculated == f.zeroCalculated &&
+                signOne == f.signOne && signCalculated == f.signCalculated;
+        }
+
+        public int hashCode()
+        {
+            return carryOne ^ zeroOne ^ signOne ^ parityOne ^ overflowOne ^ auxiliaryCarryOne;
+        }
+    }
+
+    public void saveFlagState(FlagState f)
+    {
+        f.carry = eflagsCarry;
+        f.parity = eflagsParity;
+        f.auxiliaryCarry = eflagsAuxiliaryCarry;
+        f.zero = eflagsZero;
+        f.sign = eflagsSign;
+        f.overflow = eflagsOverflow;
+        f.auxiliaryCarryOne = auxiliaryCarryOne;
+        f.auxiliaryCarryTwo = auxiliaryCarryTwo;
+        f.auxiliaryCarryThree = auxiliaryCarryThree;
+        f.auxiliaryCarryMethod = auxiliaryCarryMethod;
+        f.auxiliaryCarryCalculated = auxiliaryCarryCalculated;
+        f.parityOne = parityOne;
+        f.parityCalculated = parityCalculated;
+        f.overflowOne = overflowOne;
+        f.overflowTwo = overflowTwo;
+        f.overflowThree = overflowThree;
+        f.overflowMethod = overflowMethod;
+        f.overflowLong = overflowLong;
+        f.overflowCalculated = overflowCalculated;
+        f.carryOne = carryOne;
+        f.carryTwo = carryTwo;
+        f.carryMethod = carryMethod;
+        f.carryLong = carryLong;
+        f.carryCalculated = carryCalculated;
+        f.zeroOne = zeroOne;
+        f.zeroCalculated = zeroCalculated;
+        f.signOne = signOne;
+        f.signCalculated = signCalculated;
+    }
+
+    public void restoreFlagState(FlagState f)
+    {
+        eflagsCarry = f.carry;
+        eflagsParity = f.parity;
+        eflagsAuxiliaryCarry = f.auxiliaryCarry;
+        eflagsZero = f.zero;
+        eflagsSign = f.sign;
+        eflagsOverflow = f.overflow;
+        auxiliaryCarryOne = f.auxiliaryCarryOne;
+        auxiliaryCarryTwo = f.auxiliaryCarryTwo;
+        auxiliaryCarryThree = f.auxiliaryCarryThree;
+        auxiliaryCarryMethod = f.auxiliaryCarryMethod;
+        auxiliaryCarryCalculated = f.auxiliaryCarryCalculated;
+        parityOne = f.parityOne;
+        parityCalculated = f.parityCalculated;
+        overflowOne = f.overflowOne;
+        overflowTwo = f.overflowTwo;
+        overflowThree = f.overflowThree;
+        overflowMethod = f.overflowMethod;
+        overflowLong = f.overflowLong;
+        overflowCalculated = f.overflowCalculated;
+        carryOne = f.carryOne;
+        carryTwo = f.carryTwo;
+        carryMethod = f.carryMethod;
+        carryLong = f.carryLong;
+        carryCalculated = f.carryCalculated;
+        zeroOne = f.zeroOne;
+        zeroCalculated = f.zeroCalculated;
+        signOne = f.signOne;
+        signCalculated = f.signCalculated;
+    }
+
     private int auxiliaryCarryOne, auxiliaryCarryTwo, auxiliaryCarryThree;
     private boolean auxiliaryCarryCalculated;
     private int auxiliaryCarryMethod;
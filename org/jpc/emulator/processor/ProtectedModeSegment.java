@@ -32,7 +32,9 @@ package org.jpc.emulator.processor;
 import java.io.*;
 
 import org.jpc.emulator.memory.AddressSpace;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
 import org.jpc.emulator.memory.LinearAddressSpace;
+import org.jpc.emulator.memory.Memory;
 import org.jpc.emulator.SRLoader;
 import org.jpc.emulator.SRDumper;
 import org.jpc.emulator.StatusDumper;
@@ -63,6 +65,20 @@ public abstract class ProtectedModeSegment extends Segment
     private final long descriptor;
     private int rpl;
 
+    /**
+     * Whether code and data segments with base 0 and a 4GB limit are accessed
+     * without limit checks and through a one page translation cache. Takes
+     * effect for segments loaded afterwards.
+     */
+    public static volatile boolean FLAT_SEGMENTS = true;
+    private static long flatCacheHits, flatCacheRefills, flatFallbacks;
+    private final boolean flat;
+    //Last page accessed through a flat segment, valid while the address space
+    //is the same and hasn't changed its translations. Not saved.
+    private AddressSpace readSpace, writeSpace;
+    private int readPage, writePage, readGeneration, writeGeneration;
+    private Memory readBlock, writeBlock;
+
     public void dumpStatusPartial(StatusDumper output)
     {
         super.dumpStatusPartial(output);
@@ -109,6 +125,7 @@ public abstract class ProtectedModeSegment extends Segment
         granularity = input.loadBoolean();
         present = input.loadBoolean();
         system = input.loadBoolean();
+        flat = isFlat();
     }
 
     public ProtectedModeSegment(AddressSpace memory, int selector, long descriptor)
@@ -131,6 +148,149 @@ public abstract class ProtectedModeSegment extends Segment
         defaultSize = (descriptor & (1L << 54)) != 0;
         present = (descriptor & (1L << 47)) != 0;
         system = (descriptor & (1L << 44)) != 0;
+        flat = isFlat();
+    }
+
+    private boolean isFlat()
+    {
+        //Code or data, but not expand-down data.
+        int type = (int) (descriptor >>> 40) & 0x1c;
+        return FLAT_SEGMENTS && system && type != 0x14 && base == 0 && limit == 0xffffffffL;
+    }
+
+    /**
+     * Returns counts of flat segment accesses that hit the one page cache,
+     * accesses that refilled it and accesses that went through the address
+     * space.
+     * @return statistics in human readable form.
+     */
+    public static String getFlatSegmentStatistics()
+    {
+        return flatCacheHits + " hits, " + flatCacheRefills + " refills, " + flatFallbacks + " fallbacks";
+    }
+
+    private Memory flatReadBlock(int offset)
+    {
+        int page = offset >>> AddressSpace.INDEX_SHIFT;
+        if (readSpace == memory && readPage == page && readBlock != null &&
+            readGeneration == ((LinearAddressSpace) memory).getTranslationGeneration()) {
+            flatCacheHits++;
+            return readBlock;
+        }
+        if (!(memory instanceof LinearAddressSpace)) {
+            flatFallbacks++;
+            return null;
+        }
+        LinearAddressSpace linear = (LinearAddressSpace) memory;
+        Memory block = linear.getDirectReadBlock(offset);
+        //Subclasses such as ROM change what the accessors do.
+        if (block == null || block.getClass() != LazyCodeBlockMemory.class) {
+            flatFallbacks++;
+            return null;
+        }
+        flatCacheRefills++;
+        readSpace = memory;
+        readPage = page;
+        readGeneration = linear.getTranslationGeneration();
+        return readBlock = block;
+    }
+
+    private Memory flatWriteBlock(int offset)
+    {
+        int page = offset >>> AddressSpace.INDEX_SHIFT;
+        if (writeSpace == memory && writePage == page && writeBlock != null &&
+            writeGeneration == ((LinearAddressSpace) memory).getTranslationGeneration()) {
+            flatCacheHits++;
+            return writeBlock;
+        }
+        if (!(memory instanceof LinearAddressSpace)) {
+            flatFallbacks++;
+            return null;
+        }
+        LinearAddressSpace linear = (LinearAddressSpace) memory;
+        Memory block = linear.getDirectWriteBlock(offset);
+        //Subclasses such as ROM change what the accessors do.
+        if (block == null || block.getClass() != LazyCodeBlockMemory.class) {
+            flatFallbacks++;
+            return null;
+        }
+        flatCacheRefills++;
+        writeSpace = memory;
+        writePage = page;
+        writeGeneration = linear.getTranslationGeneration();
+        return writeBlock = block;
+    }
+
+    public byte getByte(int offset)
+    {
+        if (!flat)
+            return super.getByte(offset);
+        Memory m = flatReadBlock(offset);
+        if (m == null)
+            return memory.getByte(offset);
+        return m.getByte(offset & AddressSpace.BLOCK_MASK);
+    }
+
+    public short getWord(int offset)
+    {
+        if (!flat)
+            return super.getWord(offset);
+        //Words crossing a page go through the address space.
+        Memory m = ((offset & AddressSpace.BLOCK_MASK) <= AddressSpace.BLOCK_SIZE - 2) ? flatReadBlock(offset) : null;
+        if (m == null)
+            return memory.getWord(offset);
+        return m.getWord(offset & AddressSpace.BLOCK_MASK);
+    }
+
+    public int getDoubleWord(int offset)
+    {
+        if (!flat)
+            return super.getDoubleWord(offset);
+        Memory m = ((offset & AddressSpace.BLOCK_MASK) <= AddressSpace.BLOCK_SIZE - 4) ? flatReadBlock(offset) : null;
+        if (m == null)
+            return memory.getDoubleWord(offset);
+        return m.getDoubleWord(offset & AddressSpace.BLOCK_MASK);
+    }
+
+    public void setByte(int offset, byte data)
+    {
+        if (!flat) {
+            super.setByte(offset, data);
+            return;
+        }
+        Memory m = flatWriteBlock(offset);
+        if (m == null)
+            memory.setByte(offset, data);
+        else
+            m.setByte(offset & AddressSpace.BLOCK_MASK, data);
+    }
+
+    public void setWord(int offset, short data)
+    {
+        if (!flat) {
+            super.setWord(offset, data);
+            return;
+        }
+        //Code invalidation looks past the end of the word, and the address
+        //space redoes writes that run off the page byte by byte.
+        Memory m = ((offset & AddressSpace.BLOCK_MASK) <= AddressSpace.BLOCK_SIZE - 4) ? flatWriteBlock(offset) : null;
+        if (m == null)
+            memory.setWord(offset, data);
+        else
+            m.setWord(offset & AddressSpace.BLOCK_MASK, data);
+    }
+
+    public void setDoubleWord(int offset, int data)
+    {
+        if (!flat) {
+            super.setDoubleWord(offset, data);
+            return;
+        }
+        Memory m = ((offset & AddressSpace.BLOCK_MASK) <= AddressSpace.BLOCK_SIZE - 8) ? flatWriteBlock(offset) : null;
+        if (m == null)
+            memory.setDoubleWord(offset, data);
+        else
+            m.setDoubleWord(offset & AddressSpace.BLOCK_MASK, data);
     }
 
     public boolean isPresent()
@@ -389,6 +549,11 @@ public abstract class ProtectedModeSegment extends Segment
         {
             return DESCRIPTOR_TYPE_CODE_DATA | TYPE_DATA_WRITABLE;
         }
+
+        public boolean isPlainRange(int start, int end)
+        {
+            return (0xffffffffL & end) <= (0xffffffffL & getLimit());
+        }
     }
 
     public static final class DownReadWriteDataSegment extends ProtectedModeSegment
@@ -485,6 +650,11 @@ public abstract class ProtectedModeSegment extends Segment
         {
             return DESCRIPTOR_TYPE_CODE_DATA | TYPE_DATA_WRITABLE | TYPE_ACCESSED;
         }
+
+        public boolean isPlainRange(int start, int end)
+        {
+            return (0xffffffffL & end) <= (0xffffffffL & getLimit());
+        }
     }
 
     public static final class ExecuteOnlyCodeSegment extends ReadOnlyProtectedModeSegment
@@ -156,6 +156,11 @@ public final class RealModeSegment extends Segment
         }
     }
 
+    public boolean isPlainRange(int start, int end)
+    {
+        return true;
+    }
+
     public int translateAddressRead(int offset)
     {
         //checkAddress(offset);
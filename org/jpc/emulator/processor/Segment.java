@@ -85,6 +85,20 @@ public abstract class Segment implements SRDumpable
 
     public abstract void printState();
 
+    /**
+     * Returns <code>true</code> if the accessors below reach every offset from
+     * <code>start</code> to <code>end</code> at <code>getBase() + offset</code>
+     * in the address space without faulting or doing anything else. Repeated
+     * string instructions use this to do runs of elements at once.
+     * @param start lowest offset.
+     * @param end highest offset, not below <code>start</code>.
+     * @return <code>true</code> if accesses to the range are plain.
+     */
+    public boolean isPlainRange(int start, int end)
+    {
+        return false;
+    }
+
     public byte getByte(int offset)
     {
         return memory.getByte(translateAddressRead(offset));
@@ -0,0 +1,103 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.processor;
+
+import org.jpc.emulator.memory.AddressSpace;
+
+/**
+ * Reuses protected mode code and data segment objects across selector loads.
+ * Entries are keyed by the selector together with the descriptor read for it,
+ * and the descriptor is read from the tables on every load, so rewriting a
+ * descriptor or loading a different GDT or LDT simply misses. Returned
+ * objects may be held by several segment registers at once, so they must not
+ * have their RPL changed.
+ */
+public final class SegmentCache
+{
+    /**
+     * Whether segment register loads reuse segment objects.
+     */
+    public static volatile boolean SEGMENT_CACHE = true;
+    private static final int SIZE = 256;
+    //Present bit plus code/data bit.
+    private static final long CACHEABLE = 0x900000000000L;
+    private static long hits, misses;
+    private final int[] selectors = new int[SIZE];
+    private final long[] descriptors = new long[SIZE];
+    private final Segment[] segments = new Segment[SIZE];
+
+    /**
+     * Returns a segment for the selector and descriptor, reusing an earlier
+     * one if it was made from the same pair.
+     * @param memory address space the segment accesses.
+     * @param selector segment selector.
+     * @param descriptor descriptor read for the selector.
+     * @return segment.
+     */
+    public Segment get(AddressSpace memory, int selector, long descriptor)
+    {
+        if (!SEGMENT_CACHE || (descriptor & CACHEABLE) != CACHEABLE)
+            return SegmentFactory.createProtectedModeSegment(memory, selector, descriptor);
+
+        int index = (selector >>> 2) & (SIZE - 1);
+        Segment s = segments[index];
+        if (s != null && selectors[index] == selector && descriptors[index] == descriptor && s.getRPL() == (selector & 3)) {
+            hits++;
+            s.setAddressSpace(memory);
+            return s;
+        }
+        misses++;
+        s = SegmentFactory.createProtectedModeSegment(memory, selector, descriptor);
+        selectors[index] = selector;
+        descriptors[index] = descriptor;
+        segments[index] = s;
+        return s;
+    }
+
+    /**
+     * Forgets all cached segments.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < SIZE; i++)
+            segments[i] = null;
+    }
+
+    /**
+     * Returns counts of segment loads that reused a segment object and loads
+     * that made a new one.
+     * @return statistics in human readable form.
+     */
+    public static String getStatistics()
+    {
+        long total = hits + misses;
+        return hits + " hits, " + misses + " misses" + (total > 0 ? " (" + (100 * hits / total) + "% hit rate)" : "");
+    }
+}
@@ -0,0 +1,196 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.processor;
+
+import org.jpc.emulator.memory.AddressSpace;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.Memory;
+
+/**
+ * Bulk paths for repeated string instructions. The microcode loops do each
+ * element through the segment accessors and then ask here to do as many of
+ * the following elements as possible at once. A run only covers elements
+ * that stay inside one page of plain RAM already in the translation cache,
+ * inside the segment limits and inside the address size, so it can't fault
+ * and has the same effects as doing the elements one at a time. Anything
+ * else ends the run and the next element goes through the accessors again.
+ */
+public final class StringRuns
+{
+    /** Whether repeated string instructions do runs of elements at once. */
+    public static volatile boolean BULK_STRING_OPERATIONS = true;
+
+    private StringRuns()
+    {
+    }
+
+    /**
+     * Returns how many elements from <code>offset</code> on can be done in
+     * one run. Keeps every element at least its size away from the page end,
+     * so word and doubleword accesses and their code checks stay in the
+     * page.
+     */
+    private static int runLength(Segment segment, int offset, int count, int step, int addressMask)
+    {
+        if(!BULK_STRING_OPERATIONS || count == 0)
+            return 0;
+        int size = Math.abs(step);
+        long first = 0xffffffffL & offset;
+        long maxOffset = 0xffffffffL & addressMask;
+        int page = (segment.getBase() + offset) & AddressSpace.BLOCK_MASK;
+        int lastPage = AddressSpace.BLOCK_SIZE - 2 * size;
+        if(first > maxOffset || page > lastPage)
+            return 0;
+        long run;
+        if(step > 0)
+            run = Math.min((lastPage - page) / size, (maxOffset - first) / size) + 1;
+        else
+            run = Math.min(page / size, first / size) + 1;
+        if(run > (0xffffffffL & count))
+            run = 0xffffffffL & count;
+        long last = first + (run - 1) * step;
+        if(!segment.isPlainRange((int)Math.min(first, last), (int)Math.max(first, last)))
+            return 0;
+        return (int)run;
+    }
+
+    private static LazyCodeBlockMemory ram(Memory block)
+    {
+        //Subclasses such as ROM change what the accessors do.
+        if(block == null || block.getClass() != LazyCodeBlockMemory.class)
+            return null;
+        return (LazyCodeBlockMemory)block;
+    }
+
+    /**
+     * Moves a run of up to <code>count</code> elements.
+     * @param source segment to read from.
+     * @param sourceOffset offset of first element in <code>source</code>.
+     * @param destination segment to write to.
+     * @param offset offset of first element in <code>destination</code>.
+     * @param count number of elements left, unsigned.
+     * @param step signed element size.
+     * @param addressMask 0xffff for 16 bit addressing, -1 for 32 bit.
+     * @return number of elements moved.
+     */
+    public static int moveRun(Segment source, int sourceOffset, Segment destination, int offset, int count,
+        int step, int addressMask)
+    {
+        int run = runLength(destination, offset, runLength(source, sourceOffset, count, step, addressMask),
+            step, addressMask);
+        if(run == 0)
+            return 0;
+        int sourceAddress = source.getBase() + sourceOffset;
+        int address = destination.getBase() + offset;
+        LazyCodeBlockMemory from = ram(source.memory.getDirectReadBlock(sourceAddress));
+        LazyCodeBlockMemory to = ram(destination.memory.getDirectWriteBlock(address));
+        if(from == null || to == null)
+            return 0;
+        to.moveElements(from, sourceAddress & AddressSpace.BLOCK_MASK, address & AddressSpace.BLOCK_MASK, run, step);
+        return run;
+    }
+
+    /**
+     * Stores <code>data</code> into a run of up to <code>count</code>
+     * elements.
+     * @param destination segment to write to.
+     * @param offset offset of first element.
+     * @param count number of elements left, unsigned.
+     * @param step signed element size.
+     * @param addressMask 0xffff for 16 bit addressing, -1 for 32 bit.
+     * @param data value to store.
+     * @return number of elements stored.
+     */
+    public static int storeRun(Segment destination, int offset, int count, int step, int addressMask, int data)
+    {
+        int run = runLength(destination, offset, count, step, addressMask);
+        if(run == 0)
+            return 0;
+        int address = destination.getBase() + offset;
+        LazyCodeBlockMemory to = ram(destination.memory.getDirectWriteBlock(address));
+        if(to == null)
+            return 0;
+        to.storeElements(address & AddressSpace.BLOCK_MASK, run, step, data);
+        return run;
+    }
+
+    /**
+     * Returns how many elements can be loaded without any effect, so that
+     * loading them can be skipped. Leaves at least the last element, whose
+     * load sets the result.
+     * @param source segment to read from.
+     * @param offset offset of first element.
+     * @param count number of elements left, unsigned.
+     * @param step signed element size.
+     * @param addressMask 0xffff for 16 bit addressing, -1 for 32 bit.
+     * @return number of elements that can be skipped.
+     */
+    public static int loadRun(Segment source, int offset, int count, int step, int addressMask)
+    {
+        if(count == 0)
+            return 0;
+        int run = runLength(source, offset, count - 1, step, addressMask);
+        if(run == 0)
+            return 0;
+        LazyCodeBlockMemory from = ram(source.memory.getDirectReadBlock(source.getBase() + offset));
+        if(from == null || !from.isAllocated())
+            return 0;
+        return run;
+    }
+
+    /**
+     * Scans a run of elements, stopping before the first element that would
+     * end the repeated scan. Leaves at least the last element, whose
+     * comparison sets the flags.
+     * @param source segment to read from.
+     * @param offset offset of first element.
+     * @param count number of elements left, unsigned.
+     * @param step signed element size.
+     * @param addressMask 0xffff for 16 bit addressing, -1 for 32 bit.
+     * @param data value compared to the zero extended elements.
+     * @param whileEqual <code>true</code> for REPE, <code>false</code> for
+     * REPNE.
+     * @return number of elements scanned that don't end the scan.
+     */
+    public static int scanRun(Segment source, int offset, int count, int step, int addressMask, int data,
+        boolean whileEqual)
+    {
+        if(count == 0)
+            return 0;
+        int run = runLength(source, offset, count - 1, step, addressMask);
+        if(run == 0)
+            return 0;
+        int address = source.getBase() + offset;
+        LazyCodeBlockMemory from = ram(source.memory.getDirectReadBlock(address));
+        if(from == null)
+            return 0;
+        return from.scanElements(address & AddressSpace.BLOCK_MASK, run, step, data, whileEqual);
+    }
+}
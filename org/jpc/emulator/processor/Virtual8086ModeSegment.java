@@ -141,6 +141,11 @@ public class Virtual8086ModeSegment extends Segment {
             throw ProcessorException.GENERAL_PROTECTION_0;
     }
 
+    public boolean isPlainRange(int start, int end)
+    {
+        return (0xffffffffL & end) <= limit;
+    }
+
     public int translateAddressRead(int offset)
     {
         checkAddress(offset);
@@ -39,6 +39,17 @@ import org.jpc.diskimages.ImageLibrary;
 import org.jpc.diskimages.ImageMaker;
 import org.jpc.diskimages.DiskImage;
 import org.jpc.pluginsbase.*;
+import org.jpc.emulator.PC;
+import org.jpc.emulator.RewindBuffer;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+import org.jpc.emulator.memory.codeblock.fastcompiler.FASTCompiler;
+import org.jpc.emulator.memory.codeblock.optimised.OptimisedCompiler;
+import org.jpc.emulator.processor.ProtectedModeSegment;
+import org.jpc.emulator.processor.SegmentCache;
+import org.jpc.emulator.processor.StringRuns;
+import org.jpc.jrsr.ChunkedDeflaterOutputStream;
 
 import static org.jpc.Revision.getRevision;
 import static org.jpc.Revision.getRelease;
@@ -362,6 +373,184 @@ public class JPCApplication
             } catch(Exception e) {
                 errorDialog(e, "Failed to get information for image", null, "Dismiss");
             }
+        } else if(cmd.toLowerCase().equals("fastcompiler") || cmd.toLowerCase().startsWith("fastcompiler ")) {
+            String[] arr = cmd.substring(12).trim().split(" +");
+            if(arr[0].equals("")) {
+                System.err.println("FAST compiler: " + FASTCompiler.getStatistics());
+                return;
+            }
+            if(arr[0].equals("off"))
+                FASTCompiler.mode = FASTCompiler.MODE_OFF;
+            else if(arr[0].equals("on"))
+                FASTCompiler.mode = FASTCompiler.MODE_ON;
+            else if(arr[0].equals("verify"))
+                FASTCompiler.mode = FASTCompiler.MODE_VERIFY;
+            else {
+                System.err.println("Syntax: fastcompiler [off|on|verify [<threshold>]]");
+                return;
+            }
+            if(arr.length > 1)
+                try {
+                    FASTCompiler.COMPILE_THRESHOLD = Integer.parseInt(arr[1]);
+                } catch(NumberFormatException e) {
+                    System.err.println("Bad compile threshold '" + arr[1] + "'");
+                }
+        } else if(cmd.toLowerCase().equals("decodecache") || cmd.toLowerCase().startsWith("decodecache ")) {
+            String arg = cmd.substring(11).trim();
+            if(arg.equals("")) {
+                System.err.println("Decoded block cache: " + CodeBlockManager.getDecodeCacheStatistics());
+                return;
+            }
+            try {
+                CodeBlockManager.DECODE_CACHE_LIMIT = Long.parseLong(arg) << 10;
+            } catch(NumberFormatException e) {
+                System.err.println("Syntax: decodecache [<limit in KiB>]");
+            }
+        } else if(cmd.toLowerCase().equals("predecode") || cmd.toLowerCase().startsWith("predecode ")) {
+            String arg = cmd.substring(9).trim();
+            if(arg.equals("")) {
+                System.err.println("Block predecoder: " + CodeBlockManager.PREDECODE_THREADS + " threads, " +
+                    CodeBlockManager.getPredecodeStatistics());
+                return;
+            }
+            try {
+                CodeBlockManager.PREDECODE_THREADS = Math.max(0, Integer.parseInt(arg));
+            } catch(NumberFormatException e) {
+                System.err.println("Syntax: predecode [<threads>]");
+            }
+        } else if(cmd.toLowerCase().equals("fusemicrocodes") || cmd.toLowerCase().startsWith("fusemicrocodes ")) {
+            String arg = cmd.substring(14).trim();
+            if(arg.equals(""))
+                System.err.println("Microcode fusion: " + (OptimisedCompiler.FUSE_MICROCODES ? "on" : "off"));
+            else if(arg.equals("on"))
+                OptimisedCompiler.FUSE_MICROCODES = true;
+            else if(arg.equals("off"))
+                OptimisedCompiler.FUSE_MICROCODES = false;
+            else
+                System.err.println("Syntax: fusemicrocodes [on|off]");
+        } else if(cmd.toLowerCase().equals("rewind") || cmd.toLowerCase().startsWith("rewind ")) {
+            String[] args = cmd.substring(6).trim().split(" +");
+            if(args[0].equals("")) {
+                System.err.println("Rewind buffer: " + RewindBuffer.CAPACITY + " snapshots every " +
+                    RewindBuffer.INTERVAL + " frames");
+                return;
+            }
+            try {
+                if(args.length > 2)
+                    throw new NumberFormatException("Too many arguments");
+                int capacity = Math.max(0, Integer.parseInt(args[0]));
+                int interval = RewindBuffer.INTERVAL;
+                if(args.length > 1)
+                    interval = Math.max(1, Integer.parseInt(args[1]));
+                RewindBuffer.INTERVAL = interval;
+                RewindBuffer.CAPACITY = capacity;
+            } catch(NumberFormatException e) {
+                System.err.println("Syntax: rewind [<snapshots> [<interval>]]");
+            }
+        } else if(cmd.toLowerCase().equals("savecompress") || cmd.toLowerCase().startsWith("savecompress ")) {
+            String[] args = cmd.substring(12).trim().split(" +");
+            if(args[0].equals("")) {
+                System.err.println("Savestate compression: " + ((ChunkedDeflaterOutputStream.THREADS > 0) ?
+                    ChunkedDeflaterOutputStream.THREADS + " threads, " + (ChunkedDeflaterOutputStream.CHUNK_SIZE >> 10) +
+                    "KiB chunks" + (ChunkedDeflaterOutputStream.DICTIONARY ? " with dictionary" : "") :
+                    "single stream"));
+                return;
+            }
+            try {
+                if(args.length > 3 || (args.length > 2 && !args[2].equals("dictionary")))
+                    throw new NumberFormatException("Bad arguments");
+                int threads = Math.max(0, Integer.parseInt(args[0]));
+                int chunkSize = ChunkedDeflaterOutputStream.CHUNK_SIZE;
+                if(args.length > 1)
+                    chunkSize = Math.min(Math.max(1, Integer.parseInt(args[1])), 65536) << 10;
+                ChunkedDeflaterOutputStream.CHUNK_SIZE = chunkSize;
+                ChunkedDeflaterOutputStream.DICTIONARY = args.length > 2;
+                ChunkedDeflaterOutputStream.THREADS = threads;
+            } catch(NumberFormatException e) {
+                System.err.println("Syntax: savecompress [<threads> [<chunk size in KiB> [dictionary]]]");
+            }
+        } else if(cmd.toLowerCase().equals("pipelineload") || cmd.toLowerCase().startsWith("pipelineload ")) {
+            String arg = cmd.substring(12).trim();
+            if(arg.equals(""))
+                System.err.println("Pipelined savestate loading: " + (PC.PIPELINED_LOAD ? "on" : "off"));
+            else if(arg.equals("on"))
+                PC.PIPELINED_LOAD = true;
+            else if(arg.equals("off"))
+                PC.PIPELINED_LOAD = false;
+            else
+                System.err.println("Syntax: pipelineload [on|off]");
+        } else if(cmd.toLowerCase().equals("writewatch") || cmd.toLowerCase().startsWith("writewatch ")) {
+            String arg = cmd.substring(10).trim();
+            if(arg.equals(""))
+                System.err.println("Write watch: " + LazyCodeBlockMemory.getWriteWatchStatistics());
+            else if(arg.equals("on"))
+                LazyCodeBlockMemory.WRITE_WATCH = true;
+            else if(arg.equals("off"))
+                LazyCodeBlockMemory.WRITE_WATCH = false;
+            else
+                System.err.println("Syntax: writewatch [on|off]");
+        } else if(cmd.toLowerCase().equals("codeindex") || cmd.toLowerCase().startsWith("codeindex ")) {
+            String arg = cmd.substring(9).trim();
+            if(arg.equals(""))
+                System.err.println("Code block index: " + (LazyCodeBlockMemory.COMPACT_CODE_INDEX ? "compact" : "array"));
+            else if(arg.equals("compact"))
+                LazyCodeBlockMemory.COMPACT_CODE_INDEX = true;
+            else if(arg.equals("array"))
+                LazyCodeBlockMemory.COMPACT_CODE_INDEX = false;
+            else
+                System.err.println("Syntax: codeindex [compact|array]");
+        } else if(cmd.toLowerCase().equals("viewaccess") || cmd.toLowerCase().startsWith("viewaccess ")) {
+            String arg = cmd.substring(10).trim();
+            if(arg.equals(""))
+                System.err.println("Memory view access: " + (LazyCodeBlockMemory.VIEW_ACCESS ? "on" : "off"));
+            else if(arg.equals("on"))
+                LazyCodeBlockMemory.VIEW_ACCESS = true;
+            else if(arg.equals("off"))
+                LazyCodeBlockMemory.VIEW_ACCESS = false;
+            else
+                System.err.println("Syntax: viewaccess [on|off]");
+        } else if(cmd.toLowerCase().equals("contiguousram") || cmd.toLowerCase().startsWith("contiguousram ")) {
+            String arg = cmd.substring(13).trim();
+            if(arg.equals(""))
+                System.err.println("Contiguous RAM: " + (PhysicalAddressSpace.CONTIGUOUS_RAM ? "on" : "off"));
+            else if(arg.equals("on"))
+                PhysicalAddressSpace.CONTIGUOUS_RAM = true;
+            else if(arg.equals("off"))
+                PhysicalAddressSpace.CONTIGUOUS_RAM = false;
+            else
+                System.err.println("Syntax: contiguousram [on|off]");
+        } else if(cmd.toLowerCase().equals("bulkstrings") || cmd.toLowerCase().startsWith("bulkstrings ")) {
+            String arg = cmd.substring(11).trim();
+            if(arg.equals(""))
+                System.err.println("Bulk string operations: " + (StringRuns.BULK_STRING_OPERATIONS ? "on" : "off"));
+            else if(arg.equals("on"))
+                StringRuns.BULK_STRING_OPERATIONS = true;
+            else if(arg.equals("off"))
+                StringRuns.BULK_STRING_OPERATIONS = false;
+            else
+                System.err.println("Syntax: bulkstrings [on|off]");
+        } else if(cmd.toLowerCase().equals("segmentcache") || cmd.toLowerCase().startsWith("segmentcache ")) {
+            String arg = cmd.substring(12).trim();
+            if(arg.equals(""))
+                System.err.println("Segment cache: " + (SegmentCache.SEGMENT_CACHE ? "on" : "off") + ", " +
+                    SegmentCache.getStatistics());
+            else if(arg.equals("on"))
+                SegmentCache.SEGMENT_CACHE = true;
+            else if(arg.equals("off"))
+                SegmentCache.SEGMENT_CACHE = false;
+            else
+                System.err.println("Syntax: segmentcache [on|off]");
+        } else if(cmd.toLowerCase().equals("flatsegments") || cmd.toLowerCase().startsWith("flatsegments ")) {
+            String arg = cmd.substring(12).trim();
+            if(arg.equals(""))
+                System.err.println("Flat segments: " + (ProtectedModeSegment.FLAT_SEGMENTS ? "on" : "off") + ", " +
+                    ProtectedModeSegment.getFlatSegmentStatistics());
+            else if(arg.equals("on"))
+                ProtectedModeSegment.FLAT_SEGMENTS = true;
+            else if(arg.equals("off"))
+                ProtectedModeSegment.FLAT_SEGMENTS = false;
+            else
+                System.err.println("Syntax: flatsegments [on|off]");
         } else if(cmd.toLowerCase().equals("kill")) {
             String fileName = "crashdump-" + System.currentTimeMillis() + ".text";
             try {
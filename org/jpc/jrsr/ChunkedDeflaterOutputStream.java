@@ -0,0 +1,225 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.jrsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Compresses stream as independent zlib chunks on several threads. Stream starts with magic
+ * "JRSZ" (not a valid zlib header, so <code>ChunkedInflaterInputStream.open()</code> can tell it
+ * from plain zlib stream), flags byte and chunk size. Each chunk is then written in order as
+ * its uncompressed length, compressed length and zlib data. Zero uncompressed length ends the
+ * stream. With dictionary flag, last 32KiB of previous chunk is preset dictionary of each chunk
+ * (smaller output, but then chunks can only be inflated one at a time).
+ */
+public class ChunkedDeflaterOutputStream extends OutputStream
+{
+    /** Number of threads compressing savestates (0 writes single zlib stream as before). */
+    public static volatile int THREADS = 0;
+    /** Uncompressed size of savestate chunks. */
+    public static volatile int CHUNK_SIZE = 256 << 10;
+    /** Use end of previous chunk as preset dictionary. */
+    public static volatile boolean DICTIONARY = false;
+
+    static final byte[] MAGIC = new byte[]{74, 82, 83, 90};
+    static final int FLAG_DICTIONARY = 1;
+    static final int DICTIONARY_SIZE = 32768;
+    static final int MAX_CHUNK_SIZE = 64 << 20;
+
+    private DataOutputStream underlying;
+    private int level;
+    private boolean dictionary;
+    private byte[] buffer;
+    private int fill;
+    private byte[] previous;
+    private ThreadPoolExecutor pool;
+    private int maxInFlight;
+    private LinkedList<Chunk> inFlight;
+    private boolean closed;
+
+    private static class Chunk
+    {
+        int length;
+        Future<byte[]> compressed;
+    }
+
+    static ThreadPoolExecutor newPool(int threads, final String name)
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private int count;
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, name + " #" + count++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    static IOException unwrap(ExecutionException e)
+    {
+        Throwable cause = e.getCause();
+        if(cause instanceof IOException)
+            return (IOException)cause;
+        IOException f = new IOException("Chunk compression failed: " + cause);
+        f.initCause(cause);
+        return f;
+    }
+
+    /** Uses THREADS, CHUNK_SIZE and DICTIONARY settings. */
+    public ChunkedDeflaterOutputStream(OutputStream out, int level) throws IOException
+    {
+        this(out, level, THREADS, CHUNK_SIZE, DICTIONARY);
+    }
+
+    public ChunkedDeflaterOutputStream(OutputStream out, int level, int threads, int chunkSize, boolean dictionary)
+        throws IOException
+    {
+        if(chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IOException("Bad chunk size " + chunkSize);
+        underlying = new DataOutputStream(out);
+        this.level = level;
+        this.dictionary = dictionary;
+        buffer = new byte[chunkSize];
+        threads = Math.max(threads, 1);
+        pool = newPool(threads, "Savestate compressor");
+        maxInFlight = 2 * threads;
+        inFlight = new LinkedList<Chunk>();
+        underlying.write(MAGIC);
+        underlying.writeByte(dictionary ? FLAG_DICTIONARY : 0);
+        underlying.writeInt(chunkSize);
+    }
+
+    private static byte[] compress(byte[] data, byte[] dict, int level)
+    {
+        Deflater deflater = new Deflater(level);
+        try {
+            if(dict != null)
+                deflater.setDictionary(dict, Math.max(dict.length - DICTIONARY_SIZE, 0),
+                    Math.min(dict.length, DICTIONARY_SIZE));
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buf = new byte[65536];
+            while(!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void submitChunk() throws IOException
+    {
+        final byte[] data = (fill < buffer.length) ? Arrays.copyOf(buffer, fill) : buffer;
+        final byte[] dict = dictionary ? previous : null;
+        final int lvl = level;
+        buffer = new byte[buffer.length];
+        fill = 0;
+        previous = data;
+        if(inFlight.size() >= maxInFlight)
+            writeChunk(inFlight.removeFirst());
+        Chunk chunk = new Chunk();
+        chunk.length = data.length;
+        chunk.compressed = pool.submit(new Callable<byte[]>() {
+            public byte[] call()
+            {
+                return compress(data, dict, lvl);
+            }
+        });
+        inFlight.add(chunk);
+    }
+
+    private void writeChunk(Chunk chunk) throws IOException
+    {
+        byte[] compressed;
+        try {
+            compressed = chunk.compressed.get();
+        } catch(ExecutionException e) {
+            throw unwrap(e);
+        } catch(InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while compressing savestate");
+        }
+        underlying.writeInt(chunk.length);
+        underlying.writeInt(compressed.length);
+        underlying.write(compressed);
+    }
+
+    public void write(int b) throws IOException
+    {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if(closed)
+            throw new IOException("Trying to operate on closed stream");
+        while(len > 0) {
+            int n = Math.min(len, buffer.length - fill);
+            System.arraycopy(b, off, buffer, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+            if(fill == buffer.length)
+                submitChunk();
+        }
+    }
+
+    public void flush() throws IOException
+    {
+        underlying.flush();
+    }
+
+    public void close() throws IOException
+    {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            if(fill > 0)
+                submitChunk();
+            while(!inFlight.isEmpty())
+                writeChunk(inFlight.removeFirst());
+            underlying.writeInt(0);
+            underlying.close();
+        } finally {
+            for(Chunk chunk : inFlight)
+                chunk.compressed.cancel(false);
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.jrsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Reads stream written by <code>ChunkedDeflaterOutputStream</code>, inflating chunks ahead of
+ * reader on several threads.
+ */
+public class ChunkedInflaterInputStream extends InputStream
+{
+    private DataInputStream underlying;
+    private boolean dictionary;
+    private int chunkSize;
+    private ThreadPoolExecutor pool;
+    private int maxInFlight;
+    private LinkedList<Future<byte[]>> inFlight;
+    private Future<byte[]> last;
+    private boolean endSeen;
+    private byte[] current;
+    private int position;
+
+    /**
+     * Opens compressed savestate stream, which may be either single zlib stream or chunked
+     * stream written by <code>ChunkedDeflaterOutputStream</code>.
+     */
+    public static InputStream open(InputStream in) throws IOException
+    {
+        PushbackInputStream pin = new PushbackInputStream(in, ChunkedDeflaterOutputStream.MAGIC.length);
+        byte[] magic = new byte[ChunkedDeflaterOutputStream.MAGIC.length];
+        int fill = 0;
+        while(fill < magic.length) {
+            int r = pin.read(magic, fill, magic.length - fill);
+            if(r < 0)
+                break;
+            fill += r;
+        }
+        if(fill == magic.length && Arrays.equals(magic, ChunkedDeflaterOutputStream.MAGIC))
+            return new ChunkedInflaterInputStream(pin);
+        pin.unread(magic, 0, fill);
+        return new InflaterInputStream(pin, new Inflater(), 65536);
+    }
+
+    /** Reads chunked stream, magic excluded. */
+    private ChunkedInflaterInputStream(InputStream in) throws IOException
+    {
+        underlying = new DataInputStream(in);
+        int flags = underlying.readUnsignedByte();
+        if((flags & ~ChunkedDeflaterOutputStream.FLAG_DICTIONARY) != 0)
+            throw new IOException("Unknown chunked stream flags " + flags);
+        dictionary = (flags & ChunkedDeflaterOutputStream.FLAG_DICTIONARY) != 0;
+        chunkSize = underlying.readInt();
+        if(chunkSize <= 0 || chunkSize > ChunkedDeflaterOutputStream.MAX_CHUNK_SIZE)
+            throw new IOException("Bad chunk size " + chunkSize);
+        int threads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        pool = ChunkedDeflaterOutputStream.newPool(threads, "Savestate decompressor");
+        maxInFlight = 2 * threads;
+        inFlight = new LinkedList<Future<byte[]>>();
+        current = new byte[0];
+    }
+
+    private static byte[] inflate(byte[] compressed, int length, Future<byte[]> previous) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[length];
+            int fill = 0;
+            while(!inflater.finished()) {
+                int n = inflater.inflate(data, fill, data.length - fill);
+                fill += n;
+                if(n == 0 && inflater.needsDictionary()) {
+                    if(previous == null)
+                        throw new IOException("First savestate chunk needs dictionary");
+                    byte[] dict = previous.get();
+                    inflater.setDictionary(dict, Math.max(dict.length - ChunkedDeflaterOutputStream.DICTIONARY_SIZE, 0),
+                        Math.min(dict.length, ChunkedDeflaterOutputStream.DICTIONARY_SIZE));
+                } else if(n == 0 && (inflater.needsInput() || fill == data.length))
+                    break;
+            }
+            if(!inflater.finished() || fill != length)
+                throw new IOException("Savestate chunk has wrong length");
+            return data;
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt savestate chunk: " + e.getMessage());
+        } catch(ExecutionException e) {
+            throw ChunkedDeflaterOutputStream.unwrap(e);
+        } catch(InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while decompressing savestate");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Reads and submits chunks until enough are in flight. */
+    private void readAhead() throws IOException
+    {
+        while(!endSeen && inFlight.size() < maxInFlight) {
+            final int length = underlying.readInt();
+            if(length == 0) {
+                endSeen = true;
+                pool.shutdown();
+                break;
+            }
+            int compressedLength = underlying.readInt();
+            if(length < 0 || length > chunkSize || compressedLength < 0 || compressedLength > 2 * chunkSize + 1024)
+                throw new IOException("Bad savestate chunk lengths " + length + "/" + compressedLength);
+            final byte[] compressed = new byte[compressedLength];
+            underlying.readFully(compressed);
+            final Future<byte[]> previous = dictionary ? last : null;
+            last = pool.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException
+                {
+                    return inflate(compressed, length, previous);
+                }
+            });
+            inFlight.add(last);
+        }
+    }
+
+    /** Makes current chunk have something to read, returns false at end of stream. */
+    private boolean nextChunk() throws IOException
+    {
+        while(position == current.length) {
+            readAhead();
+            if(inFlight.isEmpty())
+                return false;
+            try {
+                current = inFlight.removeFirst().get();
+            } catch(ExecutionException e) {
+                throw ChunkedDeflaterOutputStream.unwrap(e);
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while decompressing savestate");
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    public int read() throws IOException
+    {
+        if(!nextChunk())
+            return -1;
+        return current[position++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if(len == 0)
+            return 0;
+        if(!nextChunk())
+            return -1;
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    public int available()
+    {
+        return current.length - position;
+    }
+
+    public void close() throws IOException
+    {
+        for(Future<byte[]> f : inFlight)
+            f.cancel(false);
+        inFlight.clear();
+        pool.shutdown();
+        underlying.close();
+    }
+}
@@ -74,7 +74,7 @@ public class JRSRArchiveReader implements Closeable
         {
             seekingPoint = startPoint;
             endMarker = endPoint;
-            buffer = new byte[2048];
+            buffer = new byte[65536];
             bufferStart = 0;
             bufferFill = 0;
             parseState2 = STATE_LINE_START;
@@ -39,6 +39,8 @@ public class JRSRArchiveWriter implements Closeable
 {
     private boolean active;
     private OutputStream underlying;
+    private FileOutputStream fileOutput;
+    private boolean sync;
     private String finalName;
     private File temporary;
     private boolean closed;
@@ -147,11 +149,17 @@ public class JRSRArchiveWriter implements Closeable
         String temporaryName = tempname(file);
         temporary = new File(temporaryName);
         finalName = file;
-        underlying = new FileOutputStream(temporary);
+        underlying = fileOutput = new FileOutputStream(temporary);
         byte[] prefix = new byte[]{74, 82, 83, 82, 10};
         underlying.write(prefix);
     }
 
+    /** If set, close() forces archive contents to disk before renaming it into place. */
+    public void setSyncOnClose(boolean flag)
+    {
+        sync = flag;
+    }
+
     public void rollback() throws IOException
     {
         if(closed)
@@ -170,6 +178,8 @@ public class JRSRArchiveWriter implements Closeable
         byte[] prefix = new byte[]{33, 69, 78, 68, 10};
         underlying.write(prefix);
         underlying.flush();
+        if(sync)
+            fileOutput.getFD().sync();
         underlying.close();
         renameFile(temporary, new File(finalName));
         closed = true;
@@ -0,0 +1,182 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.jrsr;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads underlying stream ahead on its own thread into a few large buffers, so that whatever
+ * produces the data (file reading, decoding, inflating) and whatever consumes it run at the
+ * same time. Chaining these gives one thread per stage with bounded queues between them.
+ * Underlying stream is only touched by the reading thread, which closes it when done.
+ */
+public class ReadAheadInputStream extends InputStream
+{
+    public static final int BUFFER_SIZE = 256 << 10;
+    public static final int BUFFERS = 4;
+
+    private static class Block
+    {
+        byte[] data;
+        int fill;
+        boolean eof;
+        Throwable error;
+    }
+
+    private InputStream underlying;
+    private BlockingQueue<Block> free;
+    private BlockingQueue<Block> full;
+    private Thread thread;
+    private Block current;
+    private int position;
+    private boolean closed;
+
+    public ReadAheadInputStream(InputStream in, String name)
+    {
+        underlying = in;
+        free = new ArrayBlockingQueue<Block>(BUFFERS);
+        full = new ArrayBlockingQueue<Block>(BUFFERS + 1);
+        for(int i = 0; i < BUFFERS; i++) {
+            Block b = new Block();
+            b.data = new byte[BUFFER_SIZE];
+            free.add(b);
+        }
+        thread = new Thread(new Runnable() { public void run() { readAhead(); }}, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead()
+    {
+        try {
+            while(true) {
+                Block b = free.take();
+                b.fill = 0;
+                boolean eof = false;
+                while(b.fill < b.data.length) {
+                    int r = underlying.read(b.data, b.fill, b.data.length - b.fill);
+                    if(r < 0) {
+                        eof = true;
+                        break;
+                    }
+                    b.fill += r;
+                }
+                if(b.fill > 0)
+                    full.put(b);
+                if(eof) {
+                    Block end = new Block();
+                    end.eof = true;
+                    full.put(end);
+                    return;
+                }
+            }
+        } catch(InterruptedException e) {
+            //Closed.
+        } catch(Throwable e) {
+            //Reader would wait forever if anything escaped without a block. There is always room for
+            //one more (all buffers + this).
+            Block error = new Block();
+            error.error = e;
+            full.offer(error);
+        } finally {
+            try {
+                underlying.close();
+            } catch(IOException e) {
+            }
+        }
+    }
+
+    /** Makes current block have something to read, returns false at end of stream. */
+    private boolean nextBlock() throws IOException
+    {
+        if(closed)
+            throw new IOException("Trying to operate on closed stream");
+        while(current == null || (current.data != null && position == current.fill)) {
+            if(current != null)
+                free.add(current);
+            current = null;
+            try {
+                current = full.take();
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            position = 0;
+        }
+        if(current.error instanceof IOException)
+            throw (IOException)current.error;
+        if(current.error != null)
+            throw new IOException("Reading ahead failed: " + current.error, current.error);
+        return !current.eof;
+    }
+
+    public int read() throws IOException
+    {
+        if(!nextBlock())
+            return -1;
+        return current.data[position++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if(len == 0)
+            return 0;
+        if(!nextBlock())
+            return -1;
+        int n = Math.min(len, current.fill - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    public int available()
+    {
+        if(closed || current == null || current.data == null)
+            return 0;
+        return current.fill - position;
+    }
+
+    /** Stops reading thread and waits for it to close underlying stream. */
+    public void close()
+    {
+        if(closed)
+            return;
+        closed = true;
+        thread.interrupt();
+        boolean interrupted = false;
+        while(thread.isAlive())
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
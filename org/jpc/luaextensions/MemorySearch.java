@@ -69,6 +69,7 @@ public class MemorySearch extends LuaPlugin.LuaResource
         candidates = 0;
         firstBadPage = 0;
         if(mem != null) {
+            byte[] ram = mem.getRAMSnapshot();
             int pageBase = 0;
             Integer n4096 = new Integer(4096);
             while(true) {
@@ -80,7 +81,7 @@ public class MemorySearch extends LuaPlugin.LuaResource
                 Integer pBI = new Integer(pageBase);
                 currentPages.put(pBI, buf);
                 currentPageCandidates.put(pBI, n4096);
-                mem.readRAMPage(pageBase, buf);
+                System.arraycopy(ram, pageBase << 12, buf, 0, 4096);
                 candidates += 4096;
                 pageBase++;
                 firstBadPage = pageBase;
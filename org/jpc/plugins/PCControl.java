@@ -44,6 +44,8 @@ import javax.swing.border.EtchedBorder;
 import org.jpc.emulator.HardwareComponent;
 import org.jpc.emulator.PC;
 import org.jpc.emulator.EventRecorder;
+import org.jpc.emulator.RewindBuffer;
+import org.jpc.emulator.SRDeltaBase;
 import org.jpc.emulator.TraceTrap;
 import org.jpc.emulator.DriveSet;
 import org.jpc.emulator.DisplayController;
@@ -102,6 +104,8 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     private static String ASSEMBLE_LABEL = "Assembling system...";
     private static String ADDDISK_LABEL = "Adding new disk...";
     private static String CHANGEAUTHORS_LABEL = "Changing run authors...";
+    private static String REWIND_LABEL = "Rewinding...";
+    private static String REWINDCAPTURE_LABEL = "Taking rewind snapshot...";
 
     private static final long serialVersionUID = 8;
     private Plugins vPluginManager;
@@ -125,6 +129,8 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     private volatile boolean lastCycleBeforeStop;
     private volatile boolean waiting;
     private boolean uncompressedSave;
+    private boolean deltaSave;
+    private boolean syncSave;
     private volatile boolean needRepaint;
     private static final long[] stopTime;
     private static final String[] stopLabel;
@@ -154,6 +160,18 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
 
 
     private PC.PCFullStatus currentProject;
+    private RewindBuffer rewindBuffer = new RewindBuffer();
+    private LinkedList<PendingSave> pendingSaves = new LinkedList<PendingSave>();   //Oldest (being written) first.
+    private Thread saveWriter;
+
+    private static final int MAX_PENDING_SAVES = 2;
+
+    private static class PendingSave
+    {
+        File file;
+        PC.SavestateCapture capture;
+        boolean noCompress;
+    }
 
     class LoadstateDropTarget implements DropTargetListener
     {
@@ -235,6 +253,7 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
 
     public boolean systemShutdown()
     {
+        waitPendingSaves(0);
         if(!running || pc == null)
             return true;
         //We are running. Do the absolute minimum since we are running in very delicate context.
@@ -278,6 +297,7 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     private void setTrapFlags()
     {
         pc.getTraceTrap().setTrapFlags(trapFlags);
+        pc.getTraceTrap().setPauseFlags((RewindBuffer.CAPACITY > 0) ? TraceTrap.TRACE_STOP_VRETRACE_START : 0);
     }
 
     public void pcStarting()
@@ -312,6 +332,10 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     {
         if(currentProject.events != null)
             currentProject.events.setPCRunStatus(false);
+        //Stop requests and event timer updates posted during the run that didn't get to run yet are stale.
+        //Events are now dispatched directly and the timer is set again on start.
+        if(pc != null)
+            ((Clock)pc.getComponent(Clock.class)).discardPosted();
         if(shuttingDown)
             return;   //Don't mess with UI when shutting down.
 
@@ -451,7 +475,19 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
             try {
                 pc.execute();
                 if(pc.getHitTraceTrap()) {
-                    if(pc.getAndClearTripleFaulted())
+                    boolean stopHit = pc.getTraceTrap().getAndClearStopHit();
+                    boolean pauseHit = pc.getTraceTrap().getAndClearPauseHit();
+                    boolean tripleFaulted = pc.getAndClearTripleFaulted();
+                    if(pauseHit) {
+                        try {
+                            rewindBuffer.frame(currentProject);
+                        } catch(IOException e) {
+                            System.err.println("Warning: Can't take rewind snapshot: " + e.getMessage());
+                        }
+                        if(!stopHit && !tripleFaulted)
+                            continue;
+                    }
+                    if(tripleFaulted)
                         callShowOptionDialog(window, "CPU shut itself down due to triple fault. Rebooting the system.",
                             "Triple fault!", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null,
                             new String[]{"Dismiss"}, "Dismiss");
@@ -537,6 +573,11 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
         return setTask(new SaveStateTask(projectIDMangleFileName(filename), false), SAVESTATE_LABEL);
     }
 
+    public boolean eci_state_save_full(String filename)
+    {
+        return setTask(new SaveStateTask(projectIDMangleFileName(filename), false, true), SAVESTATE_LABEL);
+    }
+
     public boolean eci_state_dump(String filename)
     {
         return setTask(new StatusDumpTask(filename), STATUSDUMP_LABEL);
@@ -565,6 +606,22 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
             LOADSTATE_LABEL);
     }
 
+    public boolean eci_rewind()
+    {
+        return setTask(new RewindTask(), REWIND_LABEL);
+    }
+
+    public boolean eci_rewind_capture()
+    {
+        return setTask(new RewindCaptureTask(), REWINDCAPTURE_LABEL);
+    }
+
+    public void eci_rewind_status()
+    {
+        vPluginManager.returnValue(new Integer(rewindBuffer.getSnapshotCount()),
+            new Long(rewindBuffer.getMemoryUsage()), new Long(rewindBuffer.getLastRestoreTime()));
+    }
+
     public boolean eci_pc_assemble()
     {
         return setTask(new AssembleTask(), ASSEMBLE_LABEL);
@@ -806,6 +863,13 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
         String uncompress = params.get("uncompressedsave");
         if(uncompress != null)
             uncompressedSave = true;
+        if(params.get("syncsave") != null)
+            syncSave = true;
+        if(params.get("deltasave") != null) {
+            deltaSave = true;
+            menuManager.addMenuItem("Snapshot→Save→Full Snapshot", this, "menuSaveFull", null,
+                PROFILE_HAVE_PC | PROFILE_STOPPED);
+        }
         if(extramenu == null)
             return;
         try {
@@ -913,6 +977,11 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
             PROFILE_HAVE_PC | PROFILE_STOPPED);
         menuManager.addSelectableMenuItem("Snapshot→Readonly Mode", this, "menuTruncate", null, false,
             PROFILE_EVENTS);
+        menuManager.addMenuItem("Snapshot→Rewind→Rewind", this, "menuRewind", null,
+            PROFILE_HAVE_PC | PROFILE_STOPPED);
+        menuManager.addMenuItem("Snapshot→Rewind→Take Snapshot", this, "menuRewindCapture", null,
+            PROFILE_HAVE_PC | PROFILE_STOPPED);
+        menuManager.addMenuItem("Snapshot→Rewind→Status", this, "menuRewindStatus", null, PROFILE_ALWAYS);
 
         for(int i = 0; i < stopLabel.length; i++) {
             menuManager.addSelectableMenuItem("Breakpoints→Timed Stops→" + stopLabel[i], this, "menuTimedStop",
@@ -1088,6 +1157,9 @@ e.printStackTrace();
             text1 = taskLabel;
         else
             text1 = " NO PC CONNECTED";
+        int writing = getPendingSaveCount();
+        if(writing > 0)
+            text1 = text1 + " (Writing " + writing + " savestate" + ((writing > 1) ? "s" : "") + ")";
 
         statusBar.setText(text1);
         updateStatusMessages();
@@ -1315,6 +1387,11 @@ e.printStackTrace();
         setTask(new SaveStateTask(((Boolean)args[0]).booleanValue()), SAVESTATE_LABEL);
     }
 
+    public void menuSaveFull(String i, Object[] args)
+    {
+        setTask(new SaveStateTask(false, true), SAVESTATE_LABEL);
+    }
+
     public void menuStatusDump(String i, Object[] args)
     {
         setTask(new StatusDumpTask(), STATUSDUMP_LABEL);
@@ -1325,6 +1402,22 @@ e.printStackTrace();
         setTask(new LoadStateTask(((Integer)args[0]).intValue()), LOADSTATE_LABEL);
     }
 
+    public void menuRewind(String i, Object[] args)
+    {
+        setTask(new RewindTask(), REWIND_LABEL);
+    }
+
+    public void menuRewindCapture(String i, Object[] args)
+    {
+        setTask(new RewindCaptureTask(), REWINDCAPTURE_LABEL);
+    }
+
+    public void menuRewindStatus(String i, Object[] args)
+    {
+        callShowOptionDialog(window, "Rewind buffer: " + rewindBuffer.getStatistics() + ".", "Rewind status",
+            JOptionPane.YES_NO_OPTION, JOptionPane.INFORMATION_MESSAGE, null, new String[]{"Dismiss"}, "Dismiss");
+    }
+
     public void menuRAMDump(String i, Object[] args)
     {
         setTask(new RAMDumpTask(((Boolean)args[0]).booleanValue()), RAMDUMP_LABEL);
@@ -1418,7 +1511,14 @@ e.printStackTrace();
 
     public synchronized void stop()
     {
-        pc.getTraceTrap().doPotentialTrap(TraceTrap.TRACE_STOP_IMMEDIATE);
+        final TraceTrap traceTrap = pc.getTraceTrap();
+        //Trace trap belongs to emulation thread, let it set the trap.
+        ((Clock)pc.getComponent(Clock.class)).post(new Runnable() {
+            public void run()
+            {
+                traceTrap.doPotentialTrap(TraceTrap.TRACE_STOP_IMMEDIATE);
+            }
+        });
         System.err.println("Informational: Waiting for PC to halt...");
     }
 
@@ -1560,6 +1660,8 @@ e.printStackTrace();
             try {
                 System.err.println("Informational: Loading a snapshot of JPC-RR");
                 long times1 = System.currentTimeMillis();
+                //The file (or base of it, if delta) may still be being written.
+                waitPendingSaves(0);
                 JRSRArchiveReader reader = new JRSRArchiveReader(chosen.getAbsolutePath());
 
                 PC.PCFullStatus fullStatus;
@@ -1570,7 +1672,7 @@ e.printStackTrace();
                 if(!submovies.isEmpty())
                     choosenSubmovie = chooseMovie(submovies);
                 fullStatus = PC.loadSavestate(reader, _mode == MODE_PRESERVE, _mode == MODE_MOVIEONLY,
-                    currentProject, choosenSubmovie);
+                    currentProject, choosenSubmovie, chosen, deltaSave);
 
                 currentProject = fullStatus;
 
@@ -1589,6 +1691,77 @@ e.printStackTrace();
         }
     }
 
+    private class RewindTask extends AsyncGUITask
+    {
+        Exception caught;
+        boolean rewound;
+
+        protected void runPrepare()
+        {
+        }
+
+        protected void runFinish()
+        {
+            if(caught == null && rewound) {
+                try {
+                    connectPC(pc = currentProject.pc);
+                    needRepaint = true;
+                } catch(Exception e) {
+                    caught = e;
+                }
+            }
+            if(caught != null) {
+                errorDialog(caught, "Rewind failed", window, "Dismiss");
+            }
+            PCControl.this.vPluginManager.signalCommandCompletion();
+        }
+
+        protected void runTask()
+        {
+            try {
+                long time = rewindBuffer.rewind(currentProject, !inReadonlyMode);
+                if(time < 0) {
+                    System.err.println("Informational: No rewind snapshot before current time.");
+                    return;
+                }
+                rewound = true;
+                if(!inReadonlyMode)
+                    currentProject.events.truncateEventStream();
+                System.err.println("Informational: Rewound to " + time + " (" +
+                    rewindBuffer.getLastRestoreTime() / 1000000 + "ms).");
+            } catch(Exception e) {
+                 caught = e;
+            }
+        }
+    }
+
+    private class RewindCaptureTask extends AsyncGUITask
+    {
+        Exception caught;
+
+        protected void runPrepare()
+        {
+        }
+
+        protected void runFinish()
+        {
+            if(caught != null) {
+                errorDialog(caught, "Taking rewind snapshot failed", window, "Dismiss");
+            }
+            PCControl.this.vPluginManager.signalCommandCompletion();
+        }
+
+        protected void runTask()
+        {
+            try {
+                rewindBuffer.capture(currentProject);
+                System.err.println("Informational: Rewind buffer: " + rewindBuffer.getStatistics() + ".");
+            } catch(Exception e) {
+                 caught = e;
+            }
+        }
+    }
+
     private void doCycle(PC _pc)
     {
         if(_pc == null)
@@ -1602,6 +1775,7 @@ e.printStackTrace();
         File chosen;
         Exception caught;
         boolean movieOnly;
+        boolean full;
         long oTime;
 
         public SaveStateTask(boolean movie)
@@ -1617,6 +1791,18 @@ e.printStackTrace();
             chosen = new File(name);
         }
 
+        public SaveStateTask(boolean movie, boolean forceFull)
+        {
+            this(movie);
+            full = forceFull;
+        }
+
+        public SaveStateTask(String name, boolean movie, boolean forceFull)
+        {
+            this(name, movie);
+            full = forceFull;
+        }
+
         protected void runPrepare()
         {
             if(chosen == null) {
@@ -1643,25 +1829,120 @@ e.printStackTrace();
             if(chosen == null)
                 return;
 
-            JRSRArchiveWriter writer = null;
-
             try {
                 System.err.println("Informational: Savestating...");
                 long times1 = System.currentTimeMillis();
-                writer = new JRSRArchiveWriter(chosen.getAbsolutePath());
-                PC.saveSavestate(writer, currentProject, movieOnly, uncompressedSave);
-                renameFile(chosen, new File(chosen.getAbsolutePath() + ".backup"));
-                writer.close();
+                waitPendingSaves(MAX_PENDING_SAVES - 1);
+                if(full || (currentProject.deltaBase != null && currentProject.deltaBase.isWriteFailed()))
+                    currentProject.deltaBase = null;
+                PendingSave save = new PendingSave();
+                save.file = chosen.getAbsoluteFile();
+                save.capture = PC.captureSavestate(currentProject, movieOnly, deltaSave, chosen);
+                save.noCompress = uncompressedSave;
                 long times2 = System.currentTimeMillis();
-                System.err.println("Informational: Savestate complete (" + (times2 - times1) + "ms). on"+chosen.getAbsolutePath());
+                if(syncSave) {
+                    caught = writeSave(save);
+                } else {
+                    System.err.println("Informational: Savestate captured (" + (times2 - times1) + "ms, " +
+                        save.capture.getSize() / 1024 + "KiB), writing in background.");
+                    queueSave(save);
+                }
             } catch(Exception e) {
-                 if(writer != null)
-                     try { writer.rollback(); } catch(Exception f) {}
                  caught = e;
             }
         }
     }
 
+    /**
+     * Writes captured savestate to its file.
+     * @return Exception if writing failed, null if it succeeded.
+     */
+    private Exception writeSave(PendingSave save)
+    {
+        JRSRArchiveWriter writer = null;
+        SRDeltaBase base = save.capture.getDeltaBase();
+        if(base != null && base.isWriteFailed())
+            return new IOException("Base savestate " + base.getFile().getPath() + " of this delta savestate failed to be written");
+        try {
+            long times1 = System.currentTimeMillis();
+            writer = new JRSRArchiveWriter(save.file.getPath());
+            writer.setSyncOnClose(true);
+            PC.writeSavestate(writer, save.capture, save.noCompress);
+            renameFile(save.file, new File(save.file.getPath() + ".backup"));
+            writer.close();
+            long times2 = System.currentTimeMillis();
+            System.err.println("Informational: Savestate complete (" + (times2 - times1) + "ms). on" + save.file.getPath());
+            return null;
+        } catch(Exception e) {
+            if(writer != null)
+                try { writer.rollback(); } catch(Exception f) {}
+            //Delta savestates can't use base that failed to be written. Queued ones fail too, and
+            //next save stops using it as base.
+            SRDeltaBase record = save.capture.getDeltaRecord();
+            if(record != null)
+                record.setWriteFailed();
+            return e;
+        }
+    }
+
+    /** Queues captured savestate to be written by savestate writer thread. */
+    private void queueSave(PendingSave save)
+    {
+        synchronized(pendingSaves) {
+            pendingSaves.add(save);
+            if(saveWriter == null) {
+                saveWriter = new Thread(new Runnable() { public void run() { saveWriterMain(); }},
+                    "Savestate writer");
+                saveWriter.setDaemon(true);
+                saveWriter.start();
+            }
+            pendingSaves.notifyAll();
+        }
+        updateStatusBar();
+    }
+
+    private void saveWriterMain()
+    {
+        while(true) {
+            PendingSave save;
+            synchronized(pendingSaves) {
+                while(pendingSaves.isEmpty())
+                    try {
+                        pendingSaves.wait();
+                    } catch(InterruptedException e) {
+                    }
+                save = pendingSaves.getFirst();
+            }
+            Exception caught = writeSave(save);
+            synchronized(pendingSaves) {
+                pendingSaves.removeFirst();
+                pendingSaves.notifyAll();
+            }
+            updateStatusBar();
+            if(caught != null)
+                errorDialog(caught, "Saving savestate to " + save.file.getPath() + " failed", window, "Dismiss");
+        }
+    }
+
+    /** Waits until at most <code>max</code> savestates are waiting to be written or being written. */
+    private void waitPendingSaves(int max)
+    {
+        synchronized(pendingSaves) {
+            while(pendingSaves.size() > max)
+                try {
+                    pendingSaves.wait();
+                } catch(InterruptedException e) {
+                }
+        }
+    }
+
+    private int getPendingSaveCount()
+    {
+        synchronized(pendingSaves) {
+            return pendingSaves.size();
+        }
+    }
+
     private class StatusDumpTask extends AsyncGUITask
     {
         File chosen;
@@ -1770,17 +2051,17 @@ e.printStackTrace();
             try {
 		FileOutputStream fout = new FileOutputStream(chosen);
                 OutputStream outb = new BufferedOutputStream(fout);
-                byte[] pagebuf = new byte[4096];
                 PhysicalAddressSpace addr = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+                byte[] ram = addr.getRAMSnapshot();
                 int lowBound = addr.findFirstRAMPage(0);
                 int firstUndumped = 0;
                 int highBound = 0;
                 int present = 0;
                 while(lowBound >= 0) {
                     for(; firstUndumped < lowBound; firstUndumped++)
-                        dumpPage(outb, firstUndumped, null);
-                    addr.readRAMPage(firstUndumped++, pagebuf);
-                    dumpPage(outb, lowBound, pagebuf);
+                        dumpPage(outb, firstUndumped, null, 0);
+                    firstUndumped++;
+                    dumpPage(outb, lowBound, ram, lowBound << 12);
                     present++;
                     highBound = lowBound + 1;
                     lowBound = addr.findFirstRAMPage(++lowBound);
@@ -1807,7 +2088,7 @@ e.printStackTrace();
             return 90;
         }
 
-        private void dumpPage(OutputStream stream, int pageNo, byte[] buffer) throws IOException
+        private void dumpPage(OutputStream stream, int pageNo, byte[] buffer, int off) throws IOException
         {
             int pageBufSize;
             pageNo = pageNo & 0xFFFFF;   //Cut page numbers out of range.
@@ -1819,7 +2100,7 @@ e.printStackTrace();
                 pageBufSize = 14592;     //Hexdump page buffer is 14592 bytes.
             byte[] outputPage = new byte[pageBufSize];
             if(buffer != null && binary) {
-                System.arraycopy(buffer, 0, outputPage, 0, 4096);
+                System.arraycopy(buffer, off, outputPage, 0, 4096);
             } else if(buffer != null) {   //Hex mode
                 for(int i = 0; i < 256; i++) {
                     for(int j = 0; j < 57; j++) {
@@ -1836,9 +2117,9 @@ e.printStackTrace();
                         else if(j % 3 == 2)
                             outputPage[57 * i + j] = 32;
                         else if(j % 3 == 0)
-                            outputPage[57 * i + j] = charForHex(((int)buffer[16 * i + j / 3 - 3] & 0xFF) / 16);
+                            outputPage[57 * i + j] = charForHex(((int)buffer[off + 16 * i + j / 3 - 3] & 0xFF) / 16);
                         else if(j % 3 == 1)
-                            outputPage[57 * i + j] = charForHex(buffer[16 * i + j / 3 - 3] & 0xF);
+                            outputPage[57 * i + j] = charForHex(buffer[off + 16 * i + j / 3 - 3] & 0xF);
                         else
                             System.err.println("Error: dumpPage: unhandled j = " + j + ".");
                     }
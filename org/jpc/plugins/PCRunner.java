@@ -30,6 +30,7 @@
 package org.jpc.plugins;
 
 import java.util.*;
+import java.io.File;
 import org.jpc.emulator.PC;
 import org.jpc.emulator.memory.PhysicalAddressSpace;
 import org.jpc.pluginsbase.*;
@@ -128,7 +129,7 @@ public class PCRunner implements Plugin
         try {
             System.err.println("Informational: Loading a snapshot of JPC-RR");
             JRSRArchiveReader reader = new JRSRArchiveReader(fileName);
-            fullStatus = PC.loadSavestate(reader, false, false, null, submovie);
+            fullStatus = PC.loadSavestate(reader, false, false, null, submovie, new File(fileName), false);
             pc = fullStatus.pc;
             reader.close();
             fullStatus.events.setPCRunStatus(true);
@@ -0,0 +1,275 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.plugins;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import org.jpc.emulator.*;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.output.*;
+import org.jpc.pluginsbase.Plugins;
+import org.jpc.pluginsbase.Plugin;
+import static org.jpc.Misc.errorDialog;
+import static org.jpc.Misc.parseStringToComponents;
+
+/**
+ * Exports guest RAM into a memory mapped file so that external tools can read
+ * it without going through the plugin interface.
+ * <p>
+ * The file starts with a <code>HEADER_SIZE</code> byte little-endian header:
+ * magic "JPCRAMX1", sequence number, update count, emulated time, RAM size and
+ * number of pages changed by the last update, each 8 bytes. RAM follows the
+ * header. The sequence number is odd while an update is in progress, so
+ * readers copy what they need and retry if the sequence number was odd or
+ * changed meanwhile.
+ * <p>
+ * The writer puts a full memory fence after making the sequence number odd
+ * and before making it even again. Java 8 has no fence API, so the fence is
+ * a volatile write followed by a volatile read, which HotSpot compiles to a
+ * full barrier. Readers need fences of their own: an acquire fence after
+ * reading the sequence number the first time and before reading it again,
+ * so that they don't reorder copying RAM around those reads.
+ */
+public class RAMExport implements Plugin
+{
+    public static final int HEADER_SIZE = 4096;
+    public static final int OFF_SEQUENCE = 8;
+    public static final int OFF_UPDATES = 16;
+    public static final int OFF_TIME = 24;
+    public static final int OFF_RAM_SIZE = 32;
+    public static final int OFF_CHANGED = 40;
+    private static final byte[] MAGIC = {'J', 'P', 'C', 'R', 'A', 'M', 'X', '1'};
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGES_PER_READ = 256;
+
+    private static volatile int fence;
+
+    private volatile OutputClient videoOut;
+    private volatile boolean shuttingDown;
+    private volatile boolean shutDown;
+    private volatile boolean pcRunStatus;
+    private volatile boolean updateRequested;
+    private final boolean everyFrame;
+    private PC pc;
+    private Thread worker;
+    private RandomAccessFile file;
+    private MappedByteBuffer window;
+    private byte[] shadow;
+    private byte[] scratch;
+    private boolean rewriteAll;
+    private long sequence;
+    private long updates;
+
+    public RAMExport(Plugins pluginManager, String args) throws IOException
+    {
+        Map<String, String> params = parseStringToComponents(args);
+        String fileName = params.get("file");
+        if(fileName == null)
+            throw new IOException("Export file setting (file) required for RAMExport");
+        everyFrame = !"off".equals(params.get("frames"));
+        try {
+            file = new RandomAccessFile(fileName, "rw");
+        } catch(Exception e) {
+            System.err.println("Error: Failed to open RAM export file.");
+            throw new IOException("Can't open RAM export file '" + fileName + "':" + e.getMessage());
+        }
+        shuttingDown = false;
+        shutDown = false;
+        pcRunStatus = false;
+        videoOut = new OutputClient(pluginManager.getOutputConnector());
+    }
+
+    public boolean systemShutdown()
+    {
+        if(pcRunStatus) {
+            return false;  //Don't shut down until after PC.
+        }
+        shuttingDown = true;
+        if(worker != null) {
+            synchronized(this) {
+                worker.interrupt();
+                while(!shutDown)
+                    try {
+                        wait();
+                    } catch(Exception e) {
+                    }
+            }
+        }
+        return true;
+    }
+
+    public synchronized void reconnect(PC _pc)
+    {
+        pcRunStatus = false;
+        pc = _pc;
+        //The new PC may have different RAM. Compare everything on next update.
+        shadow = null;
+        if(pc != null)
+            exportSafely();
+    }
+
+    public void pcStarting()
+    {
+        pcRunStatus = true;
+    }
+
+    public synchronized void pcStopping()
+    {
+        pcRunStatus = false;
+        exportSafely();
+    }
+
+    /**
+     * Updates the exported RAM now if PC is stopped, otherwise at next frame.
+     */
+    public synchronized void eci_ramexport_update()
+    {
+        if(pcRunStatus)
+            updateRequested = true;
+        else
+            exportSafely();
+    }
+
+    public void main()
+    {
+        worker = Thread.currentThread();
+        while(!shuttingDown) {
+            if(videoOut.aquire()) {
+                //The PC waits for the release, so RAM doesn't change meanwhile.
+                synchronized(this) {
+                    if(everyFrame || updateRequested) {
+                        updateRequested = false;
+                        exportSafely();
+                    }
+                }
+                videoOut.releaseWaitAll();
+            }
+        }
+
+        if(videoOut != null)
+            videoOut.detach();
+        try {
+            if(window != null)
+                window.force();
+            file.close();
+        } catch(IOException e) {
+            System.err.println("Warning: Failed to close RAM export file!");
+            errorDialog(e, "Failed to close RAM export file", null, "Dismiss");
+        }
+
+        synchronized(this) {
+            shutDown = true;
+            notifyAll();
+        }
+    }
+
+    private void exportSafely()
+    {
+        if(pc == null || shuttingDown)
+            return;
+        try {
+            export();
+        } catch(IOException e) {
+            System.err.println("Warning: Failed to update RAM export file!");
+            errorDialog(e, "Failed to update RAM export file", null, "Dismiss");
+        }
+    }
+
+    private void export() throws IOException
+    {
+        PhysicalAddressSpace memory = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        int pages = pc.sysRAMSize / PAGE_SIZE;
+        if(window == null || shadow == null || shadow.length != pages * PAGE_SIZE)
+            remap(pages * PAGE_SIZE);
+
+        beginUpdate();
+        long changed = 0;
+        for(int first = 0; first < pages; first += PAGES_PER_READ) {
+            int count = Math.min(PAGES_PER_READ, pages - first);
+            //Doesn't allocate or count reads of unallocated pages, so exporting doesn't change PC state.
+            memory.readRAMPages(first, count, scratch, 0);
+            for(int i = 0; i < count; i++) {
+                int off = (first + i) * PAGE_SIZE;
+                if(!rewriteAll && ByteBuffer.wrap(scratch, i * PAGE_SIZE, PAGE_SIZE).equals(ByteBuffer.wrap(shadow, off, PAGE_SIZE)))
+                    continue;
+                System.arraycopy(scratch, i * PAGE_SIZE, shadow, off, PAGE_SIZE);
+                window.position(HEADER_SIZE + off);
+                window.put(scratch, i * PAGE_SIZE, PAGE_SIZE);
+                changed++;
+            }
+        }
+        rewriteAll = false;
+        window.putLong(OFF_UPDATES, ++updates);
+        window.putLong(OFF_TIME, pc.getTime());
+        window.putLong(OFF_CHANGED, changed);
+        endUpdate();
+    }
+
+    //Mapping is recreated whenever RAM size changes. Old file contents are untrusted, so next update writes
+    //all pages.
+    private void remap(int ramSize) throws IOException
+    {
+        FileChannel channel = file.getChannel();
+        file.setLength(HEADER_SIZE + (long)ramSize);
+        window = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)ramSize);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        shadow = new byte[ramSize];
+        rewriteAll = true;
+        scratch = new byte[PAGES_PER_READ * PAGE_SIZE];
+        sequence = window.getLong(OFF_SEQUENCE) & ~1L;
+        beginUpdate();
+        window.position(0);
+        window.put(MAGIC);
+        window.putLong(OFF_RAM_SIZE, ramSize);
+        endUpdate();
+    }
+
+    private void beginUpdate()
+    {
+        window.putLong(OFF_SEQUENCE, ++sequence);
+        fullFence();
+    }
+
+    private void endUpdate()
+    {
+        fullFence();
+        window.putLong(OFF_SEQUENCE, ++sequence);
+    }
+
+    //Earlier stores can't move after the volatile write, later ones can't move before the volatile read,
+    //and the two volatile accesses can't be reordered with each other (no VarHandles on Java 8).
+    private static int fullFence()
+    {
+        fence = 1;
+        return fence;
+    }
+}
@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# Test and benchmark tools.  These live outside the main source tree so they
+# are never compiled into jpcrr.jar.  Run ./compile.sh first, then e.g.:
+#
+#     java -cp .:tools/classes org.jpc.emulator.TimerQueueOrderTest
+
+cd "$(dirname "$0")/.." || exit 1
+echo "Compiling test and benchmark tools..."
+mkdir -p tools/classes
+javac -Xlint:unchecked -encoding utf-8 -cp . -d tools/classes `find tools -name "*.java"` || exit 1
+echo "Done."
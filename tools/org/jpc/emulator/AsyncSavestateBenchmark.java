@@ -0,0 +1,150 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+import org.jpc.jrsr.JRSRArchiveWriter;
+
+/**
+ * Plays a savestate, saving it every so often both the old way (emulation stopped for the whole
+ * save) and by capturing it and writing it on another thread while emulation continues. Compares
+ * how long emulation is stopped and checks that both savestates load to the same state.
+ * <p>
+ * Usage: AsyncSavestateBenchmark &lt;library&gt; &lt;savestate&gt; &lt;seconds&gt; &lt;saves&gt;
+ * &lt;directory&gt;
+ */
+public class AsyncSavestateBenchmark
+{
+    private static String load(File file) throws Exception
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(file.getPath());
+        PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+        reader.close();
+        return StateDigest.of(pc);
+    }
+
+    private static class Writer extends Thread
+    {
+        File file;
+        PC.SavestateCapture capture;
+        long time;
+        Exception caught;
+
+        public void run()
+        {
+            try {
+                long t1 = System.nanoTime();
+                JRSRArchiveWriter writer = new JRSRArchiveWriter(file.getPath());
+                writer.setSyncOnClose(true);
+                PC.writeSavestate(writer, capture, false);
+                writer.close();
+                time = System.nanoTime() - t1;
+            } catch(Exception e) {
+                caught = e;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 5) {
+            System.err.println("Syntax: AsyncSavestateBenchmark <library> <savestate> <seconds> <saves> <directory>");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        File dir = new File(args[4]);
+        int saves = Integer.parseInt(args[3]);
+
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[1]);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, false, null, null);
+        reader.close();
+        long step = Long.parseLong(args[2]) * 1000000000L / saves;
+
+        long syncStop = 0, asyncStop = 0, asyncWrite = 0;
+        Writer writer = null;
+        File sync = null;
+        fs.events.setPCRunStatus(true);
+        fs.pc.start();
+        for(int i = 1; i <= saves + 1; i++) {
+            long end = fs.pc.getTime() + step;
+            while(fs.pc.getTime() < end) {
+                fs.pc.execute();
+                fs.pc.getHitTraceTrap();
+            }
+            fs.pc.stop();
+            fs.events.setPCRunStatus(false);
+
+            //Previous background write has been going on while emulation ran.
+            if(writer != null) {
+                writer.join();
+                if(writer.caught != null)
+                    throw writer.caught;
+                asyncWrite += writer.time;
+                String expected = load(sync);
+                String got = load(writer.file);
+                if(!expected.equals(got)) {
+                    System.err.println("Background written savestate " + (i - 1) + " loaded differently: " + got +
+                        " vs. " + expected + ".");
+                    System.exit(1);
+                }
+            }
+            if(i > saves)
+                break;
+
+            sync = new File(dir, "sync-" + i + ".jrsr");
+            long t1 = System.nanoTime();
+            JRSRArchiveWriter w = new JRSRArchiveWriter(sync.getPath());
+            w.setSyncOnClose(true);
+            PC.saveSavestate(w, fs, false, false);
+            w.close();
+            long t2 = System.nanoTime();
+
+            writer = new Writer();
+            writer.file = new File(dir, "async-" + i + ".jrsr");
+            writer.capture = PC.captureSavestate(fs, false, false, null);
+            writer.start();
+            long t3 = System.nanoTime();
+
+            System.out.println("Save " + i + ": emulation stopped " + (t2 - t1) / 1000000 + "ms for full save, " +
+                (t3 - t2) / 1000000 + "ms for capture (" + writer.capture.getSize() / 1024 + "KiB).");
+            syncStop += t2 - t1;
+            asyncStop += t3 - t2;
+            fs.events.setPCRunStatus(true);
+            fs.pc.start();
+        }
+        System.out.println("Total: emulation stopped " + syncStop / 1000000 + "ms for full saves, " +
+            asyncStop / 1000000 + "ms for captures (background writes took " + asyncWrite / 1000000 + "ms).");
+        System.exit(0);
+    }
+}
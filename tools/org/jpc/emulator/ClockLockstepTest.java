@@ -0,0 +1,104 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.util.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Plays back a movie twice in lockstep, once with per-instruction timer
+ * checks and once with batched time passing, and checks that timers fire at
+ * the same times in the same order and the CPUs stay in sync.
+ * <p>
+ * Usage: ClockLockstepTest &lt;library&gt; &lt;movie&gt; &lt;seconds&gt;
+ */
+public class ClockLockstepTest
+{
+    private static PC.PCFullStatus load(String movie, boolean batched, List<String> log) throws Exception
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(movie);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, true, null, null);
+        reader.close();
+        Clock clock = (Clock)fs.pc.getComponent(Clock.class);
+        clock.setBatched(batched);
+        clock.setFiredTimerLog(log);
+        fs.events.setPCRunStatus(true);
+        fs.pc.start();
+        return fs;
+    }
+
+    private static String state(PC pc)
+    {
+        return "time " + pc.getTime() + " instructions " + pc.getProcessor().instructionsExecuted +
+            " ip " + Integer.toHexString(pc.getProcessor().getInstructionPointer());
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 3) {
+            System.err.println("Syntax: ClockLockstepTest <library> <movie> <seconds>");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        long end = Long.parseLong(args[2]) * 1000000000L;
+        List<String> stepLog = new ArrayList<String>();
+        List<String> batchLog = new ArrayList<String>();
+        PC stepped = load(args[1], false, stepLog).pc;
+        PC batched = load(args[1], true, batchLog).pc;
+
+        long fired = 0;
+        while(stepped.getTime() < end) {
+            stepped.execute();
+            stepped.getHitTraceTrap();
+            batched.execute();
+            batched.getHitTraceTrap();
+            if(!stepLog.equals(batchLog)) {
+                System.err.println("Timer firing diverged after " + fired + " timers:");
+                System.err.println("Per-instruction: " + stepLog);
+                System.err.println("Batched: " + batchLog);
+                System.exit(1);
+            }
+            String a = state(stepped);
+            String b = state(batched);
+            if(!a.equals(b)) {
+                System.err.println("CPU state diverged after " + fired + " timers: " + a + " vs. " + b);
+                System.exit(1);
+            }
+            fired += stepLog.size();
+            stepLog.clear();
+            batchLog.clear();
+        }
+        System.out.println("OK: " + fired + " timers fired identically, " + state(stepped) + ".");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Runs a savestate three times: with the decoded block cache disabled, with a
+ * cold cache and with the cache warmed by the previous run. Checks that all
+ * three end up in identical state, so the cache has no effect on savestates.
+ * <p>
+ * Usage: DecodeCacheDeterminismTest &lt;library&gt; &lt;savestate&gt; &lt;seconds&gt;
+ */
+public class DecodeCacheDeterminismTest
+{
+    private static String run(String savestate, long seconds) throws Exception
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(savestate);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, false, null, null);
+        reader.close();
+        long end = fs.pc.getTime() + seconds * 1000000000L;
+        fs.events.setPCRunStatus(true);
+        fs.pc.start();
+        while(fs.pc.getTime() < end) {
+            fs.pc.execute();
+            fs.pc.getHitTraceTrap();
+        }
+        fs.pc.stop();
+        fs.events.setPCRunStatus(false);
+        return StateDigest.of(fs.pc);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 3) {
+            System.err.println("Syntax: DecodeCacheDeterminismTest <library> <savestate> <seconds>");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        long seconds = Long.parseLong(args[2]);
+        long limit = CodeBlockManager.DECODE_CACHE_LIMIT;
+
+        CodeBlockManager.DECODE_CACHE_LIMIT = 0;
+        String uncached = run(args[1], seconds);
+        CodeBlockManager.DECODE_CACHE_LIMIT = (limit > 0) ? limit : 16 << 20;
+        String cold = run(args[1], seconds);
+        String warm = run(args[1], seconds);
+        System.out.println("Decoded block cache: " + CodeBlockManager.getDecodeCacheStatistics() + ".");
+        if(!cold.equals(uncached)) {
+            System.err.println("Cold cache diverged: " + cold + " vs. " + uncached + ".");
+            System.exit(1);
+        }
+        if(!warm.equals(uncached)) {
+            System.err.println("Warm cache diverged: " + warm + " vs. " + uncached + ".");
+            System.exit(1);
+        }
+        System.out.println("OK: all runs reached " + uncached + ".");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+import org.jpc.jrsr.JRSRArchiveWriter;
+
+/**
+ * Plays a savestate, saving both a full and a delta savestate every so often, and compares
+ * their sizes and save and load times. Checks that loading each delta savestate gives the same
+ * state as loading the matching full one.
+ * <p>
+ * Usage: DeltaSavestateBenchmark &lt;library&gt; &lt;savestate&gt; &lt;seconds&gt; &lt;saves&gt;
+ * &lt;directory&gt;
+ */
+public class DeltaSavestateBenchmark
+{
+    private static long save(PC.PCFullStatus fs, File file, boolean delta) throws IOException
+    {
+        long t1 = System.nanoTime();
+        JRSRArchiveWriter writer = new JRSRArchiveWriter(file.getPath());
+        PC.saveSavestate(writer, fs, false, false, delta, file);
+        writer.close();
+        return System.nanoTime() - t1;
+    }
+
+    private static PC load(File file) throws IOException
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(file.getPath());
+        PC pc = PC.loadSavestate(reader, false, false, null, null, file, false).pc;
+        reader.close();
+        return pc;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 5) {
+            System.err.println("Syntax: DeltaSavestateBenchmark <library> <savestate> <seconds> <saves> <directory>");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        File dir = new File(args[4]);
+        int saves = Integer.parseInt(args[3]);
+
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[1]);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, false, null, null);
+        reader.close();
+        long step = Long.parseLong(args[2]) * 1000000000L / saves;
+
+        File base = new File(dir, "base.jrsr");
+        long baseTime = save(fs, base, true);
+        System.out.println("Base savestate: " + base.length() / 1024 + "KiB in " + baseTime / 1000000 + "ms.");
+
+        long fullBytes = 0, deltaBytes = 0, fullSave = 0, deltaSave = 0, fullLoad = 0, deltaLoad = 0;
+        fs.events.setPCRunStatus(true);
+        fs.pc.start();
+        for(int i = 1; i <= saves; i++) {
+            long end = fs.pc.getTime() + step;
+            while(fs.pc.getTime() < end) {
+                fs.pc.execute();
+                fs.pc.getHitTraceTrap();
+            }
+            fs.pc.stop();
+            fs.events.setPCRunStatus(false);
+
+            File full = new File(dir, "full-" + i + ".jrsr");
+            File delta = new File(dir, "delta-" + i + ".jrsr");
+            long fullTime = save(fs, full, false);
+            long deltaTime = save(fs, delta, true);
+            long t1 = System.nanoTime();
+            String fullState = StateDigest.of(load(full));
+            long t2 = System.nanoTime();
+            String deltaState = StateDigest.of(load(delta));
+            long t3 = System.nanoTime();
+            if(!fullState.equals(deltaState)) {
+                System.err.println("Delta savestate " + i + " loaded differently: " + deltaState + " vs. " +
+                    fullState + ".");
+                System.exit(1);
+            }
+            System.out.println("Save " + i + ": full " + full.length() / 1024 + "KiB saved in " + fullTime / 1000000 +
+                "ms loaded in " + (t2 - t1) / 1000000 + "ms, delta " + delta.length() / 1024 + "KiB saved in " +
+                deltaTime / 1000000 + "ms loaded in " + (t3 - t2) / 1000000 + "ms.");
+            fullBytes += full.length();
+            deltaBytes += delta.length();
+            fullSave += fullTime;
+            deltaSave += deltaTime;
+            fullLoad += t2 - t1;
+            deltaLoad += t3 - t2;
+
+            fs.events.setPCRunStatus(true);
+            fs.pc.start();
+        }
+        System.out.println("Total: full " + fullBytes / 1024 + "KiB saved in " + fullSave / 1000000 + "ms loaded in " +
+            fullLoad / 1000000 + "ms, delta " + deltaBytes / 1024 + "KiB (+" + base.length() / 1024 +
+            "KiB base) saved in " + deltaSave / 1000000 + "ms loaded in " + deltaLoad / 1000000 + "ms.");
+        System.exit(0);
+    }
+}
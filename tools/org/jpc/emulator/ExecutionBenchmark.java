@@ -0,0 +1,131 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.codeblock.optimised.OptimisedCompiler;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.processor.StringRuns;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Measures emulation speed on a CPU-bound guest: loads a real mode savestate,
+ * points the CPU at a tight loop with interrupts disabled and reports
+ * instructions executed per wall clock second. The 'loop' workload is
+ * arithmetic, the 'strings' workload copies and clears 32KiB with REP MOVSW
+ * and REP STOSW, with and without the bulk string paths. Each repeated
+ * element counts as an instruction. The 'calls' workload calls a function
+ * taking stack arguments, with and without microcode fusion; each round runs
+ * a fresh copy of the code so that blocks are rebuilt.
+ * <p>
+ * Usage: ExecutionBenchmark &lt;library&gt; &lt;savestate&gt; [&lt;seconds per round&gt; [loop|strings|calls]]
+ */
+public class ExecutionBenchmark
+{
+    private static final int CODE_SEGMENT = 0x0700;
+    //l: inc ax; add bx, ax; xor dx, bx; loop l; jmp l
+    private static final byte[] LOOP = {
+        (byte)0x40, (byte)0x01, (byte)0xC3, (byte)0x31, (byte)0xDA, (byte)0xE2, (byte)0xF9, (byte)0xEB, (byte)0xF7
+    };
+    //mov ax, 2000h; mov ds, ax; mov ax, 3000h; mov es, ax; cld
+    //l: xor si, si; xor di, di; mov cx, 4000h; rep movsw; xor di, di; mov cx, 4000h; rep stosw; jmp l
+    private static final byte[] STRINGS = {
+        (byte)0xB8, (byte)0x00, (byte)0x20, (byte)0x8E, (byte)0xD8, (byte)0xB8, (byte)0x00, (byte)0x30,
+        (byte)0x8E, (byte)0xC0, (byte)0xFC, (byte)0x31, (byte)0xF6, (byte)0x31, (byte)0xFF, (byte)0xB9,
+        (byte)0x00, (byte)0x40, (byte)0xF3, (byte)0xA5, (byte)0x31, (byte)0xFF, (byte)0xB9, (byte)0x00,
+        (byte)0x40, (byte)0xF3, (byte)0xAB, (byte)0xEB, (byte)0xEE
+    };
+    //l: mov ax, 1; push ax; push bx; call f; add sp, 4; jmp l
+    //f: push bp; mov bp, sp; mov ax, [bp+4]; add ax, [bp+6]; mov bx, ax; pop bp; ret
+    private static final byte[] CALLS = {
+        (byte)0xB8, (byte)0x01, (byte)0x00, (byte)0x50, (byte)0x53, (byte)0xE8, (byte)0x06, (byte)0x00,
+        (byte)0x81, (byte)0xC4, (byte)0x04, (byte)0x00, (byte)0xEB, (byte)0xF2, (byte)0x55, (byte)0x89,
+        (byte)0xE5, (byte)0x8B, (byte)0x46, (byte)0x04, (byte)0x03, (byte)0x46, (byte)0x06, (byte)0x89,
+        (byte)0xC3, (byte)0x5D, (byte)0xC3
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 2) {
+            System.err.println("Syntax: ExecutionBenchmark <library> <savestate> [<seconds per round> [loop|strings|calls]]");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        long roundNanos = (args.length > 2 ? Long.parseLong(args[2]) : 3) * 1000000000L;
+        boolean strings = args.length > 3 && args[3].equals("strings");
+        boolean calls = args.length > 3 && args[3].equals("calls");
+        byte[] program = strings ? STRINGS : (calls ? CALLS : LOOP);
+
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[1]);
+        PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+        reader.close();
+        Processor cpu = pc.getProcessor();
+        if(cpu.isProtectedMode()) {
+            System.err.println("Savestate must be in real mode.");
+            System.exit(1);
+        }
+        PhysicalAddressSpace memory = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        cpu.eflagsInterruptEnable = false;
+        pc.start();
+
+        for(int round = 0; round < (strings || calls ? 10 : 5); round++) {
+            String mode = "";
+            if(strings) {
+                StringRuns.BULK_STRING_OPERATIONS = (round % 2) == 0;
+                mode = StringRuns.BULK_STRING_OPERATIONS ? " bulk" : " per element";
+            }
+            if(calls) {
+                OptimisedCompiler.FUSE_MICROCODES = (round % 2) == 0;
+                mode = OptimisedCompiler.FUSE_MICROCODES ? " fused" : " unfused";
+            }
+            if(round == 0 || calls) {
+                int segment = CODE_SEGMENT + (calls ? round << 8 : 0);
+                for(int i = 0; i < program.length; i++)
+                    memory.setByte((segment << 4) + i, program[i]);
+                cpu.cs.setSelector(segment);
+                cpu.eip = 0;
+            }
+            long instructions = cpu.instructionsExecuted;
+            long t0 = System.nanoTime();
+            long t1;
+            do {
+                pc.execute();
+                pc.getHitTraceTrap();
+                t1 = System.nanoTime();
+            } while(t1 - t0 < roundNanos);
+            instructions = cpu.instructionsExecuted - instructions;
+            System.out.println("Round " + round + mode + ": " + instructions * 1000000 / (t1 - t0) + " kIPS (" +
+                instructions + " instructions in " + (t1 - t0) / 1000000 + "ms).");
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.emulator;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.jrsr.JRSRArchiveReader;
+import org.jpc.jrsr.JRSRArchiveWriter;
+import org.jpc.jrsr.UTFInputLineStream;
+
+/**
+ * Measures savestate load latency with and without PIPELINED_LOAD for PCs with given amounts of
+ * RAM. Each PC is assembled like the given savestate but with more RAM, which is then filled
+ * with copies of the savestate's non-zero RAM pages to make it look like RAM in use.
+ * <p>
+ * Usage: PipelinedLoadBenchmark &lt;library&gt; &lt;directory&gt; &lt;savestate&gt; &lt;MiB&gt;...
+ */
+public class PipelinedLoadBenchmark
+{
+    private static final int ROUNDS = 5;
+
+    private static List<byte[]> usedPages(PC pc)
+    {
+        List<byte[]> pages = new ArrayList<byte[]>();
+        PhysicalAddressSpace addr = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        for(int i = 0; i < pc.sysRAMSize / 4096; i++) {
+            byte[] buf = new byte[4096];
+            addr.readRAMPage(i, buf);
+            for(byte b : buf)
+                if(b != 0) {
+                    pages.add(buf);
+                    break;
+                }
+        }
+        return pages;
+    }
+
+    private static PC.PCFullStatus assemble(String savestate, int mib, List<byte[]> pages) throws IOException
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(savestate);
+        PC.PCHardwareInfo hw = PC.PCHardwareInfo.parseHWInfoSegment(new UTFInputLineStream(
+            reader.readMember("initialization")));
+        reader.close();
+        hw.memoryPages = mib * 256;
+        PC.PCFullStatus fs = new PC.PCFullStatus();
+        fs.pc = PC.createPC(hw);
+        fs.projectID = "benchmark";
+        fs.rerecords = BigInteger.ZERO;
+        fs.events = new EventRecorder();
+        fs.events.attach(fs.pc, null);
+        fs.events.setRerecordCount(BigInteger.ZERO);
+        fs.events.setProjectID(fs.projectID);
+
+        //Leave the first megabyte alone, fill the rest.
+        PhysicalAddressSpace addr = (PhysicalAddressSpace)fs.pc.getComponent(PhysicalAddressSpace.class);
+        boolean a20 = addr.getGateA20State();
+        addr.setGateA20State(true);
+        for(int i = 256, j = 0; i < fs.pc.sysRAMSize / 4096; i++, j++) {
+            byte[] page = pages.get(j % pages.size());
+            addr.copyArrayIntoContents(i * 4096, page, 0, 4096);
+        }
+        addr.setGateA20State(a20);
+        return fs;
+    }
+
+    private static long load(File file, String expected) throws Exception
+    {
+        long t1 = System.nanoTime();
+        JRSRArchiveReader reader = new JRSRArchiveReader(file.getPath());
+        PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+        reader.close();
+        long t2 = System.nanoTime();
+        String got = StateDigest.of(pc);
+        if(!got.equals(expected)) {
+            System.err.println("Savestate loaded differently: " + got + " vs. " + expected + ".");
+            System.exit(1);
+        }
+        return t2 - t1;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 4) {
+            System.err.println("Syntax: PipelinedLoadBenchmark <library> <directory> <savestate> <MiB>...");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[2]);
+        List<byte[]> pages = usedPages(PC.loadSavestate(reader, false, false, null, null).pc);
+        reader.close();
+
+        for(int i = 3; i < args.length; i++) {
+            int mib = Integer.parseInt(args[i]);
+            PC.PCFullStatus fs = assemble(args[2], mib, pages);
+            String expected = StateDigest.of(fs.pc);
+            File file = new File(args[1], "load-" + mib + ".jrsr");
+            JRSRArchiveWriter writer = new JRSRArchiveWriter(file.getPath());
+            PC.saveSavestate(writer, fs, false, false);
+            writer.close();
+            fs = null;
+
+            long[] best = new long[2];
+            long[] total = new long[2];
+            Arrays.fill(best, Long.MAX_VALUE);
+            for(int j = 0; j < 2 * ROUNDS; j++) {
+                int mode = j % 2;
+                PC.PIPELINED_LOAD = (mode == 1);
+                long t = load(file, expected);
+                best[mode] = Math.min(best[mode], t);
+                total[mode] += t;
+            }
+            System.out.println(mib + "MiB RAM (" + file.length() / 1024 + "KiB savestate): single thread " +
+                total[0] / ROUNDS / 1000000 + "ms average, " + best[0] / 1000000 + "ms best; pipelined " +
+                total[1] / ROUNDS / 1000000 + "ms average, " + best[1] / 1000000 + "ms best.");
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Runs a savestate for a while taking rewind snapshots every few frames, then rewinds
+ * through all of them and replays from the oldest, checking that the replay ends up in
+ * the same state. Prints snapshot memory use and capture and restore times.
+ * <p>
+ * Usage: RewindBenchmark &lt;library&gt; &lt;savestate&gt; &lt;seconds&gt; [&lt;snapshots&gt;
+ * [&lt;interval&gt;]]
+ */
+public class RewindBenchmark
+{
+    private static void start(PC.PCFullStatus fs)
+    {
+        fs.pc.getTraceTrap().setPauseFlags(TraceTrap.TRACE_STOP_VRETRACE_START);
+        fs.events.setPCRunStatus(true);
+        fs.pc.start();
+    }
+
+    private static void stop(PC.PCFullStatus fs)
+    {
+        fs.pc.stop();
+        fs.events.setPCRunStatus(false);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3 || args.length > 5) {
+            System.err.println("Syntax: RewindBenchmark <library> <savestate> <seconds> [<snapshots> [<interval>]]");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        RewindBuffer.CAPACITY = (args.length > 3) ? Integer.parseInt(args[3]) : 16;
+        RewindBuffer.INTERVAL = (args.length > 4) ? Integer.parseInt(args[4]) : 60;
+
+        JRSRArchiveReader reader = new JRSRArchiveReader(args[1]);
+        PC.PCFullStatus fs = PC.loadSavestate(reader, false, false, null, null);
+        reader.close();
+        long end = fs.pc.getTime() + Long.parseLong(args[2]) * 1000000000L;
+        RewindBuffer buffer = new RewindBuffer();
+
+        int captures = 0;
+        long captureTime = 0;
+        long t1 = System.nanoTime();
+        start(fs);
+        while(fs.pc.getTime() < end) {
+            fs.pc.execute();
+            fs.pc.getHitTraceTrap();
+            if(fs.pc.getTraceTrap().getAndClearPauseHit() && buffer.frame(fs)) {
+                captures++;
+                captureTime += buffer.getLastCaptureTime();
+            }
+        }
+        stop(fs);
+        long t2 = System.nanoTime();
+        String expected = StateDigest.of(fs.pc);
+        System.out.println("Ran to " + expected + " in " + (t2 - t1) / 1000000 + "ms with " + captures +
+            " snapshots taken (" + ((captures > 0) ? captureTime / captures / 1000 : 0) + "us average).");
+        System.out.println("Rewind buffer: " + buffer.getStatistics() + ".");
+
+        int restores = 0;
+        long restoreTime = 0;
+        long worstRestore = 0;
+        while(buffer.rewind(fs, false) >= 0) {
+            restores++;
+            restoreTime += buffer.getLastRestoreTime();
+            worstRestore = Math.max(worstRestore, buffer.getLastRestoreTime());
+        }
+        System.out.println("Rewound " + restores + " times (" + ((restores > 0) ? restoreTime / restores / 1000 : 0) +
+            "us average, " + worstRestore / 1000 + "us worst), now at " + fs.pc.getTime() + ".");
+
+        start(fs);
+        while(fs.pc.getTime() < end) {
+            fs.pc.execute();
+            fs.pc.getHitTraceTrap();
+            fs.pc.getTraceTrap().getAndClearPauseHit();
+        }
+        stop(fs);
+        String replayed = StateDigest.of(fs.pc);
+        if(!replayed.equals(expected)) {
+            System.err.println("Replay after rewind diverged: " + replayed + " vs. " + expected + ".");
+            System.exit(1);
+        }
+        System.out.println("OK: replay after rewind reached " + replayed + ".");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.emulator;
+
+import java.io.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.ChunkedDeflaterOutputStream;
+import org.jpc.jrsr.JRSRArchiveReader;
+import org.jpc.jrsr.JRSRArchiveWriter;
+
+/**
+ * Writes each given savestate again with single stream compression and with chunked compression
+ * on varying numbers of threads, comparing sizes and save and load times. Checks that all of
+ * them load to the same state.
+ * <p>
+ * Usage: SavestateCompressionBenchmark &lt;library&gt; &lt;directory&gt; &lt;savestate&gt;...
+ */
+public class SavestateCompressionBenchmark
+{
+    private static final int ROUNDS = 3;
+
+    private static PC load(File file) throws IOException
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(file.getPath());
+        PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+        reader.close();
+        return pc;
+    }
+
+    private static void run(PC.SavestateCapture capture, File file, String expected, String mode, int threads,
+        boolean dictionary) throws Exception
+    {
+        ChunkedDeflaterOutputStream.THREADS = threads;
+        ChunkedDeflaterOutputStream.DICTIONARY = dictionary;
+        long save = Long.MAX_VALUE, load = Long.MAX_VALUE;
+        String got = null;
+        for(int i = 0; i < ROUNDS; i++) {
+            long t1 = System.nanoTime();
+            JRSRArchiveWriter writer = new JRSRArchiveWriter(file.getPath());
+            PC.writeSavestate(writer, capture, false);
+            writer.close();
+            long t2 = System.nanoTime();
+            PC pc = load(file);
+            long t3 = System.nanoTime();
+            got = StateDigest.of(pc);
+            save = Math.min(save, t2 - t1);
+            load = Math.min(load, t3 - t2);
+        }
+        if(!expected.equals(got)) {
+            System.err.println(mode + " savestate loaded differently: " + got + " vs. " + expected + ".");
+            System.exit(1);
+        }
+        System.out.println("  " + mode + ": " + file.length() / 1024 + "KiB, saved in " + save / 1000000 +
+            "ms, loaded in " + load / 1000000 + "ms.");
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3) {
+            System.err.println("Syntax: SavestateCompressionBenchmark <library> <directory> <savestate>...");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        File file = new File(args[1], "compression.jrsr");
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        for(int i = 2; i < args.length; i++) {
+            JRSRArchiveReader reader = new JRSRArchiveReader(args[i]);
+            PC.PCFullStatus fs = PC.loadSavestate(reader, false, false, null, null);
+            reader.close();
+            String expected = StateDigest.of(fs.pc);
+            PC.SavestateCapture capture = PC.captureSavestate(fs, false, false, null);
+            System.out.println(args[i] + " (" + capture.getSize() / 1024 + "KiB uncompressed, " + cpus + " CPUs):");
+
+            run(capture, file, expected, "single stream", 0, false);
+            for(int threads = 1; threads < cpus; threads *= 2)
+                run(capture, file, expected, "chunked, " + threads + " threads", threads, false);
+            run(capture, file, expected, "chunked, " + cpus + " threads", cpus, false);
+            run(capture, file, expected, "chunked with dictionary, " + cpus + " threads", cpus, true);
+        }
+        System.exit(0);
+    }
+}
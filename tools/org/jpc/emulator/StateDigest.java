@@ -0,0 +1,68 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * State comparison helper for the benchmark and test tools: summarizes a PC as
+ * its time, instruction count and instruction pointer plus MD5 of everything a
+ * savestate would hold, so any difference in CPU, device or memory state shows.
+ */
+class StateDigest
+{
+    private StateDigest()
+    {
+    }
+
+    /**
+     * Summarizes state of PC.
+     * @param pc PC to summarize.
+     * @return human readable summary, equal for PCs in same state.
+     */
+    static String of(PC pc) throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        DigestOutputStream out = new DigestOutputStream(new OutputStream() {
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        }, md);
+        SRDumper dumper = new SRDumper(out);
+        dumper.dumpObject(pc);
+        dumper.flush();
+        StringBuilder sb = new StringBuilder();
+        for(byte b : md.digest())
+            sb.append(String.format("%02x", b));
+        return "time " + pc.getTime() + " instructions " + pc.getProcessor().instructionsExecuted +
+            " ip " + Integer.toHexString(pc.getProcessor().getInstructionPointer()) + " state " + sb;
+    }
+}
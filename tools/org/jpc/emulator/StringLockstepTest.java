@@ -0,0 +1,198 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.security.MessageDigest;
+import java.util.*;
+
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.processor.StringRuns;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Runs random repeated string instructions on two copies of a real mode
+ * savestate in lockstep, one with the bulk string paths and one without,
+ * and checks that registers and memory stay the same. The instructions
+ * cover all element and address sizes, both directions, overlapping moves,
+ * 16 bit offset wraparound, ROM, video memory and the BIOS data area.
+ * <p>
+ * Usage: StringLockstepTest &lt;library&gt; &lt;savestate&gt; &lt;seed&gt; &lt;steps&gt;
+ */
+public class StringLockstepTest
+{
+    private static final int CODE_SEGMENT = 0x1100;
+    private static final int SEQUENCES = 400;
+    private static final int[] DATA_SEGMENTS = {0x0000, 0x0040, 0x1fff, 0x2000, 0x3456, 0x8000, 0xa000, 0xf000};
+    private static final int[] STRING_OPCODES = {0xa4, 0xa5, 0xaa, 0xab, 0xac, 0xad, 0xae, 0xaf};
+
+    private static int offset(Random random)
+    {
+        switch(random.nextInt(4)) {
+        case 0:
+            return 0x10000 - random.nextInt(32);
+        case 1:
+            return random.nextInt(32);
+        default:
+            return random.nextInt(0x10000);
+        }
+    }
+
+    private static void emitImmediate(List<Integer> code, int opcode, int value, boolean wide)
+    {
+        if(wide)
+            code.add(0x66);
+        code.add(opcode);
+        for(int i = 0; i < (wide ? 4 : 2); i++)
+            code.add((value >>> (8 * i)) & 0xff);
+    }
+
+    private static byte[] program(Random random)
+    {
+        List<Integer> code = new ArrayList<Integer>();
+        code.add(0xfa);     //cli
+        for(int i = 0; i < SEQUENCES; i++) {
+            int opcode = STRING_OPCODES[random.nextInt(STRING_OPCODES.length)];
+            //Real mode microcode has no 32 bit address scans.
+            boolean a32 = random.nextInt(4) == 0 && opcode != 0xae && opcode != 0xaf;
+            int count = random.nextInt(8) == 0 ? random.nextInt(4) : random.nextInt(0x1800);
+            //32 bit offsets stay where whole runs can't reach this program.
+            int source = a32 ? 0x6000 + random.nextInt(0x4000) : offset(random);
+            int destination = a32 ? 0x6000 + random.nextInt(0x4000) : offset(random);
+            int sourceSegment = DATA_SEGMENTS[random.nextInt(DATA_SEGMENTS.length)];
+            //Keep the writes away from this program and the noisy ROM.
+            int destinationSegment = DATA_SEGMENTS[random.nextInt(DATA_SEGMENTS.length)];
+            if(destinationSegment == 0x0000 || destinationSegment == 0xf000)
+                destinationSegment = 0x2000;
+            if(random.nextInt(4) == 0) {
+                //Overlapping move.
+                sourceSegment = destinationSegment;
+                source = (destination + random.nextInt(9) - 4) & 0xffff;
+            }
+            emitImmediate(code, 0xbb, sourceSegment, false);
+            code.add(0x8e); code.add(0xdb);     //mov ds, bx
+            emitImmediate(code, 0xbb, destinationSegment, false);
+            code.add(0x8e); code.add(0xc3);     //mov es, bx
+            emitImmediate(code, 0xb8, random.nextInt(), true);
+            if(random.nextBoolean())
+                emitImmediate(code, 0xb8, random.nextInt(4) == 0 ? 0 : 0xffffffff, true);
+            emitImmediate(code, 0xb9, count, a32);
+            emitImmediate(code, 0xbe, source, a32);
+            emitImmediate(code, 0xbf, destination, a32);
+            code.add(random.nextBoolean() ? 0xfc : 0xfd);       //cld or std
+            if(random.nextBoolean() && opcode != 0xa4 && opcode != 0xaa && opcode != 0xac && opcode != 0xae)
+                code.add(0x66);
+            if(a32)
+                code.add(0x67);
+            code.add(random.nextBoolean() ? 0xf3 : 0xf2);
+            code.add(opcode);
+        }
+        code.add(0xea); code.add(0); code.add(0); code.add(CODE_SEGMENT & 0xff); code.add(CODE_SEGMENT >>> 8);
+        byte[] bytes = new byte[code.size()];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte)(int)code.get(i);
+        return bytes;
+    }
+
+    private static PC load(String savestate, byte[] program) throws Exception
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(savestate);
+        PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+        reader.close();
+        Processor cpu = pc.getProcessor();
+        PhysicalAddressSpace memory = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        for(int i = 0; i < program.length; i++)
+            memory.setByte((CODE_SEGMENT << 4) + i, program[i]);
+        cpu.eflagsInterruptEnable = false;
+        cpu.cs.setSelector(CODE_SEGMENT);
+        cpu.eip = 0;
+        pc.start();
+        return pc;
+    }
+
+    private static String registers(PC pc)
+    {
+        Processor cpu = pc.getProcessor();
+        return "ip " + Integer.toHexString(cpu.getInstructionPointer()) + " eax " + Integer.toHexString(cpu.eax) +
+            " ecx " + Integer.toHexString(cpu.ecx) + " esi " + Integer.toHexString(cpu.esi) + " edi " +
+            Integer.toHexString(cpu.edi) + " flags " + Integer.toHexString(cpu.getEFlags()) + " instructions " +
+            cpu.instructionsExecuted + " time " + pc.getTime();
+    }
+
+    private static String memory(PC pc) throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        PhysicalAddressSpace memory = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        byte[] page = new byte[4096];
+        for(int i = 0; i < pc.sysRAMSize / 4096; i++) {
+            memory.readRAMPage(i, page);
+            md.update(page);
+        }
+        return new java.math.BigInteger(1, md.digest()).toString(16);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 4) {
+            System.err.println("Syntax: StringLockstepTest <library> <savestate> <seed> <steps>");
+            System.exit(1);
+        }
+        DiskImage.setLibrary(new ImageLibrary(args[0]));
+        byte[] program = program(new Random(Long.parseLong(args[2])));
+        long steps = Long.parseLong(args[3]);
+        PC bulk = load(args[1], program);
+        PC single = load(args[1], program);
+
+        for(long step = 1; step <= steps; step++) {
+            StringRuns.BULK_STRING_OPERATIONS = true;
+            bulk.execute();
+            bulk.getHitTraceTrap();
+            StringRuns.BULK_STRING_OPERATIONS = false;
+            single.execute();
+            single.getHitTraceTrap();
+            String a = registers(bulk);
+            String b = registers(single);
+            if(step % 10 == 0 || step == steps || !a.equals(b)) {
+                a = a + " memory " + memory(bulk);
+                b = b + " memory " + memory(single);
+            }
+            if(!a.equals(b)) {
+                System.err.println("Diverged at step " + step + ":");
+                System.err.println("Bulk:    " + a);
+                System.err.println("Single:  " + b);
+                System.exit(1);
+            }
+        }
+        System.out.println("OK: " + steps + " steps identical, " + registers(bulk) + ".");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.util.Random;
+
+/**
+ * Times rearming timers in a <code>Clock</code> with many active timers, as
+ * happens when PIT, RTC, sound and other devices reprogram their timers.
+ * <p>
+ * Usage: TimerQueueBenchmark [&lt;timers&gt;...]
+ */
+public class TimerQueueBenchmark
+{
+    private static class Idle implements TimerResponsive
+    {
+        public void callback()
+        {
+        }
+
+        public int getTimerType()
+        {
+            return 0;
+        }
+
+        public void dumpSRPartial(SRDumper output)
+        {
+        }
+
+        public void dumpStatus(StatusDumper output)
+        {
+        }
+    }
+
+    private static long rearm(int count, int operations)
+    {
+        Clock clock = new Clock();
+        Timer[] timers = new Timer[count];
+        Random random = new Random(count);
+        for(int i = 0; i < count; i++) {
+            timers[i] = clock.newTimer(new Idle());
+            timers[i].setExpiry(1000000000L + random.nextInt(1000000));
+        }
+        long t0 = System.nanoTime();
+        for(int i = 0; i < operations; i++)
+            timers[random.nextInt(count)].setExpiry(1000000000L + random.nextInt(1000000));
+        long t1 = System.nanoTime();
+        return (t1 - t0) / operations;
+    }
+
+    public static void main(String[] args)
+    {
+        String[] counts = args.length > 0 ? args : new String[]{"8", "64", "512", "4096"};
+        for(int round = 0; round < 3; round++)
+            for(String count : counts)
+                System.out.println("Round " + round + ", " + count + " timers: " +
+                    rearm(Integer.parseInt(count), 1000000) + "ns per setExpiry.");
+    }
+}
@@ -0,0 +1,192 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Drives a <code>Clock</code> through random timer arming, disarming and time
+ * passing, and checks that timers fire in the same order as they would with
+ * the old linked list timer queue, which is replicated here as reference.
+ * <p>
+ * Usage: TimerQueueOrderTest [&lt;seed&gt; [&lt;steps&gt;]]
+ */
+public class TimerQueueOrderTest
+{
+    private static final int TIMERS = 40;
+
+    //The old TimerPriorityQueue: a list sorted by expiry, ties first-in-first-out.
+    private static class ReferenceQueue
+    {
+        private final List<long[]> nodes = new LinkedList<long[]>();   //{id, expiry}
+
+        void remove(int id)
+        {
+            for(Iterator<long[]> i = nodes.iterator(); i.hasNext();)
+                if(i.next()[0] == id) {
+                    i.remove();
+                    return;
+                }
+        }
+
+        void offer(int id, long expiry)
+        {
+            ListIterator<long[]> i = nodes.listIterator();
+            while(i.hasNext())
+                if(expiry - i.next()[1] < 0) {
+                    i.previous();
+                    break;
+                }
+            i.add(new long[]{id, expiry});
+        }
+
+        long[] peek()
+        {
+            return nodes.isEmpty() ? null : nodes.get(0);
+        }
+    }
+
+    private static class Responder implements TimerResponsive
+    {
+        private final int id;
+        private final List<String> log;
+        private final Clock clock;
+        Timer timer;
+        Responder[] all;
+
+        Responder(int id, Clock clock, List<String> log)
+        {
+            this.id = id;
+            this.clock = clock;
+            this.log = log;
+        }
+
+        public void callback()
+        {
+            log.add(clock.getTime() + ": " + id);
+            rearm(id, clock.getTime(), all);
+        }
+
+        public int getTimerType()
+        {
+            return id;
+        }
+
+        public void dumpSRPartial(SRDumper output)
+        {
+        }
+
+        public void dumpStatus(StatusDumper output)
+        {
+        }
+    }
+
+    //What a fired timer does, expressed on the real clock.
+    private static void rearm(int id, long now, Responder[] all)
+    {
+        if(id % 3 == 0)
+            all[id].timer.setExpiry(now + 1000 * (id + 1));
+        else if(id % 3 == 1)
+            all[(id * 7) % TIMERS].timer.setExpiry(now + 500 * (id % 5));
+    }
+
+    //The same on the reference queue.
+    private static void rearm(int id, long now, ReferenceQueue ref)
+    {
+        if(id % 3 == 0)
+            arm(ref, id, now + 1000 * (id + 1));
+        else if(id % 3 == 1)
+            arm(ref, (id * 7) % TIMERS, now + 500 * (id % 5));
+    }
+
+    private static void arm(ReferenceQueue ref, int id, long expiry)
+    {
+        ref.remove(id);
+        ref.offer(id, expiry);
+    }
+
+    public static void main(String[] args)
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        Random random = new Random(seed);
+
+        Clock clock = new Clock();
+        List<String> log = new ArrayList<String>();
+        Responder[] responders = new Responder[TIMERS];
+        for(int i = 0; i < TIMERS; i++) {
+            responders[i] = new Responder(i, clock, log);
+            responders[i].timer = clock.newTimer(responders[i]);
+            responders[i].all = responders;
+        }
+        ReferenceQueue ref = new ReferenceQueue();
+        List<String> refLog = new ArrayList<String>();
+        long refTime = 0;
+
+        long fired = 0;
+        for(int step = 0; step < steps; step++) {
+            int id = random.nextInt(TIMERS);
+            if(random.nextInt(8) == 0) {
+                responders[id].timer.disable();
+                ref.remove(id);
+            } else {
+                //Coarse expiries, so that ties are common.
+                long expiry = clock.getTime() + 1000 * random.nextInt(20);
+                responders[id].timer.setExpiry(expiry);
+                arm(ref, id, expiry);
+            }
+
+            int ticks = 1 + random.nextInt(3000);
+            Clock.timePasses(clock, ticks);
+            refTime += ticks;
+            while(true) {
+                long[] first = ref.peek();
+                if(first == null || refTime < first[1])
+                    break;
+                ref.remove((int)first[0]);
+                refLog.add(refTime + ": " + first[0]);
+                rearm((int)first[0], refTime, ref);
+            }
+
+            if(!log.equals(refLog)) {
+                System.err.println("Firing order diverged at step " + step + " after " + fired + " timers:");
+                System.err.println("Heap: " + log);
+                System.err.println("Reference: " + refLog);
+                System.exit(1);
+            }
+            fired += log.size();
+            log.clear();
+            refLog.clear();
+        }
+        System.out.println("OK: " + fired + " timers fired in the same order over " + steps + " steps.");
+        System.exit(0);
+    }
+}
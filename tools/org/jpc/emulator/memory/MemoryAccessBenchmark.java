@@ -0,0 +1,120 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory;
+
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+
+/**
+ * Times word, doubleword and quadword reads and writes of RAM through the
+ * physical address space, at aligned, unaligned and page crossing addresses,
+ * with and without the little-endian buffer views, and checks both leave
+ * memory the same.
+ * <p>
+ * Usage: MemoryAccessBenchmark
+ */
+public class MemoryAccessBenchmark
+{
+    private static final int PAGES = 256;
+    private static final int SIZE = PAGES << 12;
+    private static final int ROUNDS = 40;
+    private static final String[] CASES = {"aligned", "unaligned", "page crossing"};
+
+    private static int address(int kind, int i)
+    {
+        switch(kind) {
+        case 0:
+            return (i * 8) & (SIZE - 8);
+        case 1:
+            return ((i * 8) & (SIZE - 8)) + 1;
+        default:
+            return (((i & (PAGES - 1)) + 1) << 12) - 3;
+        }
+    }
+
+    private static long reads(PhysicalAddressSpace memory, int kind, int count)
+    {
+        long sum = 0;
+        for(int i = 0; i < count; i++) {
+            int a = address(kind, i);
+            sum += memory.getWord(a);
+            sum += memory.getDoubleWord(a);
+            sum += memory.getQuadWord(a);
+        }
+        return sum;
+    }
+
+    private static void writes(PhysicalAddressSpace memory, int kind, int count, int round)
+    {
+        for(int i = 0; i < count; i++) {
+            int a = address(kind, i);
+            memory.setWord(a, (short)(i + round));
+            memory.setDoubleWord(a, i * round);
+            memory.setQuadWord(a, ((long)i << 32) | round);
+        }
+    }
+
+    private static void run(boolean views)
+    {
+        LazyCodeBlockMemory.VIEW_ACCESS = views;
+        for(int kind = 0; kind < CASES.length; kind++) {
+            PhysicalAddressSpace memory = new PhysicalAddressSpace(new CodeBlockManager(), SIZE + 0x1000);
+            memory.setGateA20State(true);
+            int count = SIZE / 8;
+            writes(memory, kind, count, 0);
+            long sum = reads(memory, kind, count);
+            long readTime = 0, writeTime = 0;
+            for(int round = 1; round <= ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                sum += reads(memory, kind, count);
+                long t1 = System.nanoTime();
+                writes(memory, kind, count, round);
+                long t2 = System.nanoTime();
+                readTime += t1 - t0;
+                writeTime += t2 - t1;
+            }
+            long hash = 0;
+            for(int i = 0; i < SIZE; i += 4)
+                hash = hash * 31 + memory.getDoubleWord(i);
+            long accesses = (long)ROUNDS * count * 3;
+            System.out.println((views ? "Views, " : "Bytes, ") + CASES[kind] + ": " +
+                readTime * 1000 / accesses + "ps per read, " + writeTime * 1000 / accesses + "ps per write, sum " +
+                sum + ", memory " + hash);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        for(int round = 0; round < 4; round++) {
+            run(false);
+            run(true);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory;
+
+import org.jpc.emulator.PC;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+
+/**
+ * Times the paths taken when translation and code block caches are empty:
+ * touching pages right after a page directory base (CR3) reload, and running
+ * right after loading a savestate.
+ * <p>
+ * Usage: MissPathBenchmark [&lt;library&gt; &lt;savestate&gt;]
+ */
+public class MissPathBenchmark
+{
+    private static final int PAGE_DIRECTORY = 0x100000;
+    private static final int PAGES = 4096;
+
+    private static long cr3Reload(LinearAddressSpace linear, int rounds)
+    {
+        long sum = 0;
+        long t0 = System.nanoTime();
+        for(int r = 0; r < rounds; r++) {
+            linear.setPageDirectoryBaseAddress(PAGE_DIRECTORY);
+            for(int i = 0; i < PAGES; i++) {
+                int address = (i << 12) | ((i * 4) & 0xFFC);
+                sum += linear.getDoubleWord(address);
+                //Don't scribble over the paging structures.
+                if(address < PAGE_DIRECTORY || address >= PAGE_DIRECTORY + (PAGES / 1024 + 1) * 0x1000)
+                    linear.setByte(address, (byte)r);
+            }
+        }
+        long t1 = System.nanoTime();
+        if(sum == 42)
+            System.err.println("Unlikely sum");
+        return (t1 - t0) / ((long)rounds * PAGES);
+    }
+
+    private static void benchmarkCR3Reload()
+    {
+        PhysicalAddressSpace physical = new PhysicalAddressSpace(new CodeBlockManager(), PAGES << 12);
+        LinearAddressSpace linear = new LinearAddressSpace();
+        linear.acceptComponent(physical);
+        physical.setGateA20State(true);
+        //Identity map the first 16MiB with 4kB pages.
+        for(int i = 0; i < PAGES / 1024; i++)
+            physical.setDoubleWord(PAGE_DIRECTORY + 4 * i, (PAGE_DIRECTORY + ((i + 1) << 12)) | 7);
+        for(int i = 0; i < PAGES; i++)
+            physical.setDoubleWord(PAGE_DIRECTORY + 0x1000 + 4 * i, (i << 12) | 0x67);
+        linear.setSupervisor(true);
+        linear.setPageCacheEnabled(true);
+        linear.setPagingEnabled(true);
+
+        for(int round = 0; round < 5; round++)
+            System.out.println("CR3 reload round " + round + ": " + cr3Reload(linear, 200) + "ns per page touched.");
+    }
+
+    private static void benchmarkLoadstate(String savestate) throws Exception
+    {
+        for(int round = 0; round < 5; round++) {
+            JRSRArchiveReader reader = new JRSRArchiveReader(savestate);
+            PC pc = PC.loadSavestate(reader, false, false, null, null).pc;
+            reader.close();
+            pc.start();
+            long end = pc.getTime() + 100000000;
+            long instructions = pc.getProcessor().instructionsExecuted;
+            long t0 = System.nanoTime();
+            while(pc.getTime() < end) {
+                pc.execute();
+                pc.getHitTraceTrap();
+            }
+            long t1 = System.nanoTime();
+            instructions = pc.getProcessor().instructionsExecuted - instructions;
+            System.out.println("Loadstate round " + round + ": first 100ms of emulated time took " +
+                (t1 - t0) / 1000000 + "ms (" + instructions + " instructions).");
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        benchmarkCR3Reload();
+        if(args.length >= 2) {
+            DiskImage.setLibrary(new ImageLibrary(args[0]));
+            benchmarkLoadstate(args[1]);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory;
+
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+
+/**
+ * Times page directory base (CR3) reloads under a paged workload that touches
+ * a handful of pages between reloads, the pattern of a protected mode guest
+ * switching tasks.
+ * <p>
+ * Usage: TLBFlushBenchmark [&lt;pages touched per switch&gt;]
+ */
+public class TLBFlushBenchmark
+{
+    private static final int PAGE_DIRECTORY = 0x100000;
+    private static final int PAGES = 4096;
+
+    private static LinearAddressSpace setUp(boolean global)
+    {
+        PhysicalAddressSpace physical = new PhysicalAddressSpace(new CodeBlockManager(), PAGES << 12);
+        LinearAddressSpace linear = new LinearAddressSpace();
+        linear.acceptComponent(physical);
+        physical.setGateA20State(true);
+        //Identity map the first 16MiB with 4kB pages, the lower half global if asked to.
+        for(int i = 0; i < PAGES / 1024; i++)
+            physical.setDoubleWord(PAGE_DIRECTORY + 4 * i, (PAGE_DIRECTORY + ((i + 1) << 12)) | 7);
+        for(int i = 0; i < PAGES; i++)
+            physical.setDoubleWord(PAGE_DIRECTORY + 0x1000 + 4 * i, (i << 12) | 0x67 | ((global && i < PAGES / 2) ? 0x100 : 0));
+        linear.setSupervisor(true);
+        linear.setPageCacheEnabled(true);
+        linear.setGlobalPagesEnabled(global);
+        linear.setPagingEnabled(true);
+        return linear;
+    }
+
+    private static long taskSwitches(LinearAddressSpace linear, int switches, int touched)
+    {
+        long sum = 0;
+        int page = 0;
+        long t0 = System.nanoTime();
+        for(int s = 0; s < switches; s++) {
+            linear.setPageDirectoryBaseAddress(PAGE_DIRECTORY);
+            for(int i = 0; i < touched; i++) {
+                page = (page + 997) & (PAGES - 1);
+                sum += linear.getDoubleWord(page << 12);
+            }
+        }
+        long t1 = System.nanoTime();
+        if(sum == 42)
+            System.err.println("Unlikely sum");
+        return (t1 - t0) / switches;
+    }
+
+    public static void main(String[] args)
+    {
+        int touched = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        for(int g = 0; g < 2; g++) {
+            LinearAddressSpace linear = setUp(g != 0);
+            for(int round = 0; round < 5; round++)
+                System.out.println((g != 0 ? "Global pages" : "No global pages") + " round " + round + ": " +
+                    taskSwitches(linear, 2000, touched) + "ns per task switch touching " + touched + " pages.");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import org.jpc.emulator.Clock;
+import org.jpc.emulator.memory.LinearAddressSpace;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.processor.SegmentFactory;
+
+/**
+ * Times a real mode loop placed across a page boundary, with and without
+ * spanning block caching, against the same loop within a single page.
+ * <p>
+ * Usage: SpanningBlockBenchmark [&lt;iterations&gt;]
+ */
+public class SpanningBlockBenchmark
+{
+    //inc ax; inc bx; inc cx; inc dx; jmp short -6
+    private static final byte[] LOOP = {0x40, 0x43, 0x41, 0x42, (byte)0xEB, (byte)0xFA};
+
+    private static long run(int start, boolean cache, int iterations)
+    {
+        CodeBlockManager.CACHE_SPANNING_BLOCKS = cache;
+        CodeBlockManager manager = new CodeBlockManager();
+        PhysicalAddressSpace physical = new PhysicalAddressSpace(manager, 1 << 20);
+        LinearAddressSpace linear = new LinearAddressSpace();
+        linear.acceptComponent(physical);
+        Processor cpu = new Processor(new Clock(), 50);
+        cpu.acceptComponent(physical);
+        cpu.acceptComponent(linear);
+        cpu.reset();
+        physical.copyArrayIntoContents(start, LOOP, 0, LOOP.length);
+        cpu.cs = SegmentFactory.createRealModeSegment(physical, 0);
+        cpu.eip = start;
+
+        long t0 = System.nanoTime();
+        for(int i = 0; i < iterations; i++)
+            manager.executeReal(cpu, physical);
+        long t1 = System.nanoTime();
+        if(cpu.eax != (iterations & 0xFFFF) || cpu.eip != start)
+            throw new IllegalStateException("Loop ran incorrectly: ax=" + cpu.eax + " ip=" + cpu.eip);
+        return t1 - t0;
+    }
+
+    public static void main(String[] args)
+    {
+        int iterations = 1000000;
+        if(args.length > 0)
+            iterations = Integer.parseInt(args[0]);
+
+        for(int round = 0; round < 3; round++) {
+            long inPage = run(0x2000, true, iterations);
+            long uncached = run(0x0FFC, false, iterations);
+            long cached = run(0x0FFC, true, iterations);
+            System.out.println("Round " + round + ": in page " + (inPage / iterations) + "ns/iter, spanning " +
+                (uncached / iterations) + "ns/iter uncached, " + (cached / iterations) + "ns/iter cached (" +
+                (uncached / Math.max(cached, 1)) + "x).");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.processor;
+
+import org.jpc.emulator.memory.LinearAddressSpace;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+
+/**
+ * Times byte, word and doubleword accesses through a flat 32-bit data segment
+ * with and without the flat segment path, paging disabled, and checks both
+ * leave memory the same.
+ * <p>
+ * Usage: FlatSegmentBenchmark
+ */
+public class FlatSegmentBenchmark
+{
+    private static final long FLAT_DATA = 0x00cf93000000ffffL;
+    private static final int SIZE = 1 << 20;
+    private static final int START = 0x100000;
+
+    private static long pass(Segment s, int rounds)
+    {
+        long sum = 0;
+        for(int r = 0; r < rounds; r++) {
+            for(int i = START; i < START + SIZE; i += 4) {
+                int v = s.getDoubleWord(i);
+                s.setDoubleWord(i, v + i);
+                sum += v;
+            }
+            for(int i = START + 1; i < START + SIZE - 2; i += 2)
+                s.setWord(i, (short)(s.getWord(i) ^ r));
+            for(int i = START; i < START + SIZE; i += 8)
+                sum += s.getByte(i);
+        }
+        return sum;
+    }
+
+    private static long run(boolean flat, int rounds)
+    {
+        ProtectedModeSegment.FLAT_SEGMENTS = flat;
+        PhysicalAddressSpace physical = new PhysicalAddressSpace(new CodeBlockManager(), 4 * SIZE);
+        LinearAddressSpace linear = new LinearAddressSpace();
+        linear.acceptComponent(physical);
+        physical.setGateA20State(true);
+        linear.setSupervisor(true);
+        Segment s = SegmentFactory.createProtectedModeSegment(linear, 0x10, FLAT_DATA);
+        pass(s, 1);
+        long t0 = System.nanoTime();
+        long sum = pass(s, rounds);
+        long t1 = System.nanoTime();
+        long accesses = (long)rounds * (SIZE / 4 * 2 + (SIZE / 2 - 1) * 2 + SIZE / 8);
+        System.out.println((flat ? "Flat:    " : "Checked: ") + (t1 - t0) / 1000000 + "ms, " +
+            (t1 - t0) * 1000 / accesses + "ps per access, sum " + sum + ", memory " + checksum(physical));
+        return sum;
+    }
+
+    private static long checksum(PhysicalAddressSpace physical)
+    {
+        long h = 0;
+        for(int i = START; i < START + SIZE; i += 4)
+            h = h * 31 + physical.getDoubleWord(i);
+        return h;
+    }
+
+    public static void main(String[] args)
+    {
+        for(int round = 0; round < 3; round++) {
+            run(false, 20);
+            run(true, 20);
+        }
+        System.out.println("Flat segment path: " + ProtectedModeSegment.getFlatSegmentStatistics());
+        System.exit(0);
+    }
+}